@@ -0,0 +1,17 @@
+package yeetivity.jjve.ble_polar;
+
+import android.app.Application;
+
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+import yeetivity.jjve.ble_polar.utils.DebugLog;
+
+/**
+ * Configures the core module for this build before any component runs.
+ */
+public class PolarApplication extends Application {
+
+    static {
+        // Metrics reads it once, when loaded; the constant name does not load it
+        System.setProperty(Metrics.PROPERTY_ENABLED, String.valueOf(DebugLog.METRICS));
+    }
+}
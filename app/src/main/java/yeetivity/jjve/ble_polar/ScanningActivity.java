@@ -6,9 +6,6 @@ import android.Manifest;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
@@ -23,16 +20,20 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
 
-import java.util.ArrayList;
 import java.util.List;
 
+import yeetivity.jjve.ble_polar.gatt.HandlerScheduler;
+import yeetivity.jjve.ble_polar.scan.AndroidScanner;
+import yeetivity.jjve.ble_polar.scan.DeviceRegistry;
+import yeetivity.jjve.ble_polar.scan.DeviceSnapshot;
+import yeetivity.jjve.ble_polar.scan.ScanConfig;
+import yeetivity.jjve.ble_polar.scan.ScanEngine;
 import yeetivity.jjve.ble_polar.ui_utils.BtDeviceAdapter;
 
 public class ScanningActivity extends AppCompatActivity {
 
-    public static final String MOVESENSE = "Polar";
-
     public static final int REQUEST_ENABLE_BT = 1000;
     public static final int REQUEST_ACCESS_LOCATION = 1001;
 
@@ -40,11 +41,15 @@ public class ScanningActivity extends AppCompatActivity {
 
     private static final long SCAN_PERIOD = 5000; // milliseconds
 
+    // Polar devices, filtered by the controller where possible
+    private final ScanConfig mScanConfig = ScanConfig.polar().setScanPeriod(SCAN_PERIOD);
+
     private BluetoothAdapter mBluetoothAdapter;
-    private boolean mScanning;
+    private ScanEngine<BluetoothDevice> mScanEngine;
     private Handler mHandler;
 
-    private ArrayList<BluetoothDevice> mDeviceList;
+    // devices found, deduplicated by address
+    private final DeviceRegistry<BluetoothDevice> mRegistry = new DeviceRegistry<>();
     private BtDeviceAdapter mBtDeviceAdapter;
     private TextView mScanInfoView;
 
@@ -59,8 +64,6 @@ public class ScanningActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_scanning);
 
-        mDeviceList = new ArrayList<>();
-
         mHandler = new Handler();
 
         // ui stuff
@@ -68,7 +71,7 @@ public class ScanningActivity extends AppCompatActivity {
 
         Button startScanButton = findViewById(R.id.start_scan_button);
         startScanButton.setOnClickListener(v -> {
-            mDeviceList.clear();
+            clearDevices();
             scanForDevices(true);
         });
 
@@ -76,8 +79,10 @@ public class ScanningActivity extends AppCompatActivity {
         RecyclerView recyclerView = findViewById(R.id.scan_list_view);
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         recyclerView.setLayoutManager(layoutManager);
-        mBtDeviceAdapter = new BtDeviceAdapter(mDeviceList,
-                this::onDeviceSelected);
+        recyclerView.setHasFixedSize(true);
+        // rows are redrawn in place, without a cross fade
+        ((SimpleItemAnimator) recyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
+        mBtDeviceAdapter = new BtDeviceAdapter(this::onDeviceSelected);
         recyclerView.setAdapter(mBtDeviceAdapter);
     }
 
@@ -93,8 +98,12 @@ public class ScanningActivity extends AppCompatActivity {
         super.onStop();
         // stop scanning
         scanForDevices(false);
-        mDeviceList.clear();
-        mBtDeviceAdapter.notifyDataSetChanged();
+        clearDevices();
+    }
+
+    private void clearDevices() {
+        mRegistry.clear();
+        mBtDeviceAdapter.submitList(mRegistry.snapshot());
     }
 
     // Check BLE permissions and turn on BT (if turned off) - user interaction(s)
@@ -117,6 +126,11 @@ public class ScanningActivity extends AppCompatActivity {
         }
 
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (mBluetoothAdapter != null && mScanEngine == null) {
+            mScanEngine = new ScanEngine<>(new AndroidScanner(mBluetoothAdapter),
+                    new HandlerScheduler(mHandler), mRegistry);
+            mScanEngine.setListener(mScanListener);
+        }
 
         // turn on BT
         if (mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
@@ -128,8 +142,8 @@ public class ScanningActivity extends AppCompatActivity {
     /*
      * Device selected, start DeviceActivity (displaying data)
      */
-    private void onDeviceSelected(int position) {
-        BluetoothDevice selectedDevice = mDeviceList.get(position);
+    private void onDeviceSelected(DeviceSnapshot<BluetoothDevice> device) {
+        BluetoothDevice selectedDevice = device.getDevice();
         // BluetoothDevice objects are parceable, i.e. we can "send" the selected device
         // to the DeviceActivity packaged in an intent.
         Intent intent = new Intent(ScanningActivity.this, DeviceActivity.class);
@@ -138,76 +152,43 @@ public class ScanningActivity extends AppCompatActivity {
     }
 
     /*
-     * Scan for BLE devices.
+     * Scan for BLE devices, for SCAN_PERIOD.
      */
     private void scanForDevices(final boolean enable) {
-        final BluetoothLeScanner scanner =
-                mBluetoothAdapter.getBluetoothLeScanner();
+        if (mScanEngine == null) return;
         if (enable) {
-            if (!mScanning) {
-                // stop scanning after a pre-defined scan period, SCAN_PERIOD
-                mHandler.postDelayed(() -> {
-                    if (mScanning) {
-                        mScanning = false;
-                        scanner.stopScan(mScanCallback);
-                        showToast("BLE scan stopped", ScanningActivity.this);
-                    }
-                }, SCAN_PERIOD);
-
-                mScanning = true;
-                // TODO: Add a filter, e.g. for heart rate service, scan settings
-                scanner.startScan(mScanCallback);
+            if (!mScanEngine.isScanning() && mScanEngine.start(mScanConfig)) {
                 mScanInfoView.setText(R.string.no_devices_found);
                 showToast("BLE scan started", this);
             }
         } else {
-            if (mScanning) {
-                mScanning = false;
-                scanner.stopScan(mScanCallback);
-                showToast("BLE scan stopped", this);
-            }
+            mScanEngine.stop();
         }
     }
 
-    /*
-     * Implementation of scan callback methods
-     */
-    private ScanCallback mScanCallback = new ScanCallback() {
+    private final ScanEngine.Listener<BluetoothDevice> mScanListener =
+            new ScanEngine.Listener<BluetoothDevice>() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            super.onScanResult(callbackType, result);
-            //Log.i(LOG_TAG, "onScanResult");
-            final BluetoothDevice device = result.getDevice();
-            final String name = device.getName();
-
-            mHandler.post(() -> {
-                if (name != null
-                        && name.contains(MOVESENSE)
-                        && !mDeviceList.contains(device)) {
-                    mDeviceList.add(device);
-                    mBtDeviceAdapter.notifyDataSetChanged();
-                    String info = "Found " + mDeviceList.size() + " device(s)\n"
-                            + "Touch to connect";
-                    mScanInfoView.setText(info);
-                    Log.i(LOG_TAG, device.toString());
-                }
-            });
+        public void onDevicesChanged(List<DeviceSnapshot<BluetoothDevice>> devices) {
+            // diffed in the background, only changed rows are rebound
+            mBtDeviceAdapter.submitList(devices);
+            String info = "Found " + devices.size() + " device(s)\n"
+                    + "Touch to connect";
+            mScanInfoView.setText(info);
         }
 
         @Override
-        public void onBatchScanResults(List<ScanResult> results) {
-            super.onBatchScanResults(results);
-            Log.i(LOG_TAG, "onBatchScanResult");
+        public void onScanStopped() {
+            showToast("BLE scan stopped", ScanningActivity.this);
         }
 
         @Override
         public void onScanFailed(int errorCode) {
-            super.onScanFailed(errorCode);
-            Log.i(LOG_TAG, "onScanFailed");
+            Log.i(LOG_TAG, "onScanFailed " + errorCode);
+            showToast("BLE scan failed", ScanningActivity.this);
         }
     };
 
-
     // callback for Activity.requestPermissions
     @Override
     public void onRequestPermissionsResult(
@@ -0,0 +1,110 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * GattDevice on top of a BluetoothDevice; its BluetoothGattCallback is forwarded to the
+ * GattListener of the connection.
+ */
+public class AndroidGattDevice implements GattDevice {
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+
+    public AndroidGattDevice(Context context, BluetoothDevice device) {
+        mContext = context;
+        mDevice = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    @Override
+    public GattConnection connect(boolean background, GattListener listener) {
+        BluetoothGatt gatt = mDevice.connectGatt(mContext, background, new Callback(listener));
+        return gatt == null ? null : new AndroidGattOps(gatt);
+    }
+
+    private static class Callback extends BluetoothGattCallback {
+
+        private final GattListener mListener;
+
+        Callback(GattListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                mListener.onConnectionStateChange(true, status);
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                mListener.onConnectionStateChange(false, status);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            List<UUID> uuids = Collections.emptyList();
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                List<BluetoothGattService> services = gatt.getServices();
+                uuids = new ArrayList<>(services.size());
+                for (BluetoothGattService service : services) uuids.add(service.getUuid());
+            }
+            mListener.onServicesDiscovered(uuids, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic
+                characteristic, int status) {
+            mListener.onCharacteristicWrite(characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic
+                characteristic, int status) {
+            mListener.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(),
+                    status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            mListener.onDescriptorWrite(descriptor.getCharacteristic().getUuid(),
+                    descriptor.getUuid(), status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mListener.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            mListener.onPhyUpdate(txPhy, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic
+                characteristic) {
+            mListener.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+        }
+    }
+}
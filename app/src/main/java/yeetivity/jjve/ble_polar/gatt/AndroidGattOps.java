@@ -0,0 +1,104 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import java.util.UUID;
+
+/**
+ * GattConnection on top of a BluetoothGatt.
+ */
+public class AndroidGattOps implements GattConnection {
+
+    private final BluetoothGatt mGatt;
+
+    public AndroidGattOps(BluetoothGatt gatt) {
+        mGatt = gatt;
+    }
+
+    public BluetoothGatt getGatt() {
+        return mGatt;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+        BluetoothGattCharacteristic chara = getCharacteristic(service, characteristic);
+        if (chara == null) return false;
+        chara.setValue(value);
+        return mGatt.writeCharacteristic(chara);
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGattCharacteristic chara = getCharacteristic(service, characteristic);
+        return chara != null && mGatt.readCharacteristic(chara);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        BluetoothGattCharacteristic chara = getCharacteristic(service, characteristic);
+        if (chara == null) return false;
+        BluetoothGattDescriptor desc = chara.getDescriptor(descriptor);
+        if (desc == null) return false;
+        desc.setValue(value);
+        return mGatt.writeDescriptor(desc);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return mGatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        BluetoothGattCharacteristic chara = getCharacteristic(service, characteristic);
+        return chara != null && mGatt.setCharacteristicNotification(chara, enable);
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return mGatt.discoverServices();
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        switch (priority) {
+            case LinkParameters.PRIORITY_HIGH:
+                return mGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            case LinkParameters.PRIORITY_LOW_POWER:
+                return mGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+            default:
+                return mGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+        }
+    }
+
+    @Override
+    public boolean requestLe2MPhy() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return false;
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isLe2MPhySupported()) return false;
+        mGatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        mGatt.disconnect();
+    }
+
+    @Override
+    public void close() {
+        mGatt.close();
+    }
+
+    private BluetoothGattCharacteristic getCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGattService gattService = mGatt.getService(service);
+        return gattService == null ? null : gattService.getCharacteristic(characteristic);
+    }
+}
@@ -0,0 +1,25 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import android.os.Handler;
+
+/**
+ * GattScheduler backed by an Android Handler.
+ */
+public class HandlerScheduler implements GattScheduler {
+
+    private final Handler mHandler;
+
+    public HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
@@ -0,0 +1,105 @@
+package yeetivity.jjve.ble_polar.scan;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scanner on top of the BluetoothLeScanner. Filtering is left to the controller where
+ * possible (ScanFilters), batching too if the controller supports it.
+ */
+public class AndroidScanner implements Scanner<BluetoothDevice> {
+
+    private final BluetoothAdapter mAdapter;
+    private BluetoothLeScanner mScanner;
+    private ScanConfig mConfig;
+    private volatile Callback<BluetoothDevice> mCallback;
+
+    public AndroidScanner(BluetoothAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    @Override
+    public boolean start(ScanConfig config, Callback<BluetoothDevice> callback) {
+        mScanner = mAdapter.getBluetoothLeScanner();
+        if (mScanner == null) return false;
+        mConfig = config;
+        mCallback = callback;
+        mScanner.startScan(buildFilters(config), buildSettings(config), mScanCallback);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if (mScanner == null) return;
+        if (mAdapter.isEnabled()) {
+            // batched results still held by the controller
+            if (mConfig.isBatched()) mScanner.flushPendingScanResults(mScanCallback);
+            mScanner.stopScan(mScanCallback);
+        }
+        mScanner = null;
+    }
+
+    private List<ScanFilter> buildFilters(ScanConfig config) {
+        List<ScanFilter> filters = new ArrayList<>(2);
+        // filters are or-ed
+        if (config.getServiceUuid() != null) {
+            filters.add(new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(config.getServiceUuid()))
+                    .build());
+        }
+        if (config.getManufacturerId() >= 0) {
+            filters.add(new ScanFilter.Builder()
+                    .setManufacturerData(config.getManufacturerId(), new byte[0])
+                    .build());
+        }
+        return filters;
+    }
+
+    private ScanSettings buildSettings(ScanConfig config) {
+        ScanSettings.Builder builder = new ScanSettings.Builder();
+        if (config.isBatched() && mAdapter.isOffloadedScanBatchingSupported()) {
+            builder.setScanMode(ScanSettings.SCAN_MODE_BALANCED)
+                    .setReportDelay(config.getReportDelay());
+        } else {
+            builder.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        }
+        return builder.build();
+    }
+
+    // scan callback thread
+    private void accept(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        String name = result.getScanRecord() != null ? result.getScanRecord().getDeviceName() : null;
+        if (name == null) name = device.getName();
+        mCallback.onAdvertisement(new Advertisement<>(device, device.getAddress(), name,
+                result.getRssi()));
+    }
+
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            accept(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (int i = 0; i < results.size(); i++) {
+                accept(results.get(i));
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            mCallback.onScanFailed(errorCode);
+        }
+    };
+}
@@ -0,0 +1,419 @@
+package yeetivity.jjve.ble_polar.session;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import yeetivity.jjve.ble_polar.R;
+import yeetivity.jjve.ble_polar.gatt.AndroidGattDevice;
+import yeetivity.jjve.ble_polar.gatt.HandlerScheduler;
+import yeetivity.jjve.ble_polar.gatt.ReconnectController;
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+import yeetivity.jjve.ble_polar.metrics.MetricsReporter;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+import yeetivity.jjve.ble_polar.record.RecordingWriter;
+import yeetivity.jjve.ble_polar.record.SampleCodec;
+import yeetivity.jjve.ble_polar.sink.SampleBatch;
+import yeetivity.jjve.ble_polar.sink.SampleConsumer;
+import yeetivity.jjve.ble_polar.sink.SampleSink;
+import yeetivity.jjve.ble_polar.sink.Subscription;
+import yeetivity.jjve.ble_polar.utils.Clock;
+import yeetivity.jjve.ble_polar.utils.DebugLog;
+
+/**
+ * Foreground service holding the sensor sessions, so that several sensors can stream at the
+ * same time independently of any Activity.
+ *
+ * One worker thread serves all sessions: it runs the command queue timeouts, the reconnects
+ * and the periodic merge of the session buffers, whose output is aggregated by a
+ * SessionMonitor and fanned out by a SampleSink to its consumers, each on its own thread - the
+ * recorder writing it to a file while any sensor is connected, and whatever subscribes to
+ * getSampleSink(). A dropped sensor is reconnected by its ReconnectController, and its stream
+ * resumes with the settings it had.
+ * The gatt callbacks are routed by a SessionLink per sensor, which runs off-device too, see
+ * the sim package. The settings each sensor supports are cached across connections and app
+ * starts, see CapabilityCache.
+ * Decoding runs on the gatt callback threads.
+ *
+ * Activities bind to the service and observe the SessionSummary of each sensor, published a
+ * few times per second on the main thread. Attaching and detaching an observer never touches
+ * the connections, so rotating the screen or switching apps costs no data.
+ */
+public class SessionService extends Service {
+
+    private static final String LOG_TAG = "SessionService";
+    private static final String CHANNEL_ID = "sessions";
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final long TICK_MILLIS = 50;
+    // summaries are published every few ticks
+    private static final int PUBLISH_TICKS = 4;
+    private static final String RECORDING_DIR = "recordings";
+    // samples the recorder may fall behind, some 40 s of four ACC streams
+    private static final int RECORDER_CAPACITY = 1 << 15;
+    private static final String CAPABILITY_CACHE = "capabilities.cache";
+    // debug builds append the metrics to this file every few seconds
+    private static final String METRICS_FILE = "metrics.txt";
+    private static final long METRICS_DUMP_MILLIS = 10000;
+    // then it is moved to METRICS_FILE.1, replacing the one before
+    private static final long METRICS_MAX_BYTES = 1 << 20;
+
+    private static final Clock CLOCK = SystemClock::elapsedRealtimeNanos;
+
+    private final IBinder mBinder = new LocalBinder();
+    private final SessionManager mSessionManager = new SessionManager();
+    // guarded by itself
+    private final Map<String, SessionLink> mLinks = new HashMap<>();
+
+    // main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Observer> mObservers = new ArrayList<>();
+    private List<SessionSummary> mSummaries = Collections.emptyList();
+
+    private HandlerThread mWorkerThread;
+    private Handler mWorker;
+    private HandlerScheduler mScheduler;
+    private CapabilityCache mCapabilities;
+
+    // worker thread only
+    private final SessionMonitor mMonitor = new SessionMonitor();
+    private final SampleSink mSink = new SampleSink();
+    private RecordingWriter mRecorder;
+    private RecorderConsumer mRecorderConsumer;
+    private Subscription mRecording;
+    private int mTicks;
+    private final MetricsReporter mMetrics = new MetricsReporter(Metrics.REGISTRY);
+
+    /**
+     * Receives the summaries of all sessions, on the main thread.
+     */
+    public interface Observer {
+        void onSummaries(List<SessionSummary> summaries);
+    }
+
+    public class LocalBinder extends Binder {
+        public SessionService getService() {
+            return SessionService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mWorkerThread = new HandlerThread("sessions");
+        mWorkerThread.start();
+        mWorker = new Handler(mWorkerThread.getLooper());
+        mScheduler = new HandlerScheduler(mWorker);
+        mSessionManager.setTimelineListener(mMonitor);
+        mMonitor.setDownstream(mSink);
+        mCapabilities = new CapabilityCache(new File(getFilesDir(), CAPABILITY_CACHE));
+        mWorker.post(this::loadCapabilities);
+        mWorker.postDelayed(mTick, TICK_MILLIS);
+        if (DebugLog.METRICS) mWorker.postDelayed(mDumpMetrics, METRICS_DUMP_MILLIS);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, createNotification());
+        // the sessions do not survive the process, so a restart would stream nothing
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mWorker.removeCallbacksAndMessages(null);
+        List<SessionLink> links;
+        synchronized (mLinks) {
+            for (String address : mLinks.keySet()) {
+                mSessionManager.removeSession(address);
+            }
+            links = new ArrayList<>(mLinks.values());
+            mLinks.clear();
+        }
+        // outside the lock: a controller calls back into its link under its own lock
+        for (SessionLink link : links) link.stop();
+        mWorker.post(this::stopRecording);
+        mWorker.post(mSink::close);
+        mWorker.post(this::saveCapabilities);
+        mWorkerThread.quitSafely();
+        mMainHandler.removeCallbacksAndMessages(null);
+        mObservers.clear();
+    }
+
+    public SessionManager getSessionManager() {
+        return mSessionManager;
+    }
+
+    /**
+     * @return The merged timeline of all sessions, for consumers such as an uploader. Each
+     *         subscription is delivered on its own thread, after each tick.
+     */
+    public SampleSink getSampleSink() {
+        return mSink;
+    }
+
+    /**
+     * Connect to a sensor and start its ACC stream. Does nothing if already connected.
+     */
+    public SensorSession connect(BluetoothDevice device) {
+        SensorSession session = mSessionManager.addSession(
+                new SensorSession(device.getAddress(), PmdFrameDecoder.MEASUREMENT_ACC,
+                        PolarPmd.accSettings(PolarPmd.ACC_SAMPLE_RATE)),
+                SystemClock.elapsedRealtimeNanos());
+        session.setCapabilityCache(mCapabilities);
+        SessionLink link;
+        synchronized (mLinks) {
+            if (mLinks.containsKey(device.getAddress())) return session;
+            mWorker.post(() -> {
+                // one file per run of connected sensors, none for a bind alone
+                if (mRecorder == null) startRecording();
+                if (mRecorder != null) {
+                    mRecorder.describeSource(session.getSourceId(), PmdFrameDecoder.MEASUREMENT_ACC,
+                            device.getAddress());
+                }
+            });
+            link = new SessionLink(new AndroidGattDevice(this, device), session, mScheduler, CLOCK);
+            link.setEventListener(mLinkEvents);
+            mLinks.put(device.getAddress(), link);
+        }
+        link.start();
+        return session;
+    }
+
+    /**
+     * Disconnect a sensor and remove its session.
+     */
+    public void disconnect(String address) {
+        SensorSession session = mSessionManager.removeSession(address);
+        if (session != null) {
+            // the source id may be reused by the next sensor
+            mWorker.post(() -> {
+                if (mRecorderConsumer != null) mRecorderConsumer.seal(session.getSourceId());
+            });
+        }
+        SessionLink link;
+        synchronized (mLinks) {
+            link = mLinks.remove(address);
+        }
+        if (link != null) link.stop();
+        // nothing left to stream; stays alive while bound
+        if (mSessionManager.size() == 0) {
+            mWorker.post(this::stopRecording);
+            stopSelf();
+        }
+    }
+
+    /**
+     * Observe the sessions; the latest summaries are delivered right away, so a reattaching
+     * Activity shows its data without waiting. Main thread only.
+     */
+    public void addObserver(Observer observer) {
+        if (mObservers.contains(observer)) return;
+        mObservers.add(observer);
+        observer.onSummaries(mSummaries);
+    }
+
+    /** Main thread only. */
+    public void removeObserver(Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * @return The reconnection state and metrics of a sensor, null if not connected.
+     */
+    public ReconnectController getReconnectController(String address) {
+        synchronized (mLinks) {
+            SessionLink link = mLinks.get(address);
+            return link != null ? link.getController() : null;
+        }
+    }
+
+    private final SessionLink.EventListener mLinkEvents = (session, event) ->
+            Log.i(LOG_TAG, session.getAddress() + " " + event);
+
+    // worker thread
+    private void loadCapabilities() {
+        try {
+            mCapabilities.load();
+            Log.i(LOG_TAG, "capabilities of " + mCapabilities.size() + " sensors cached");
+        } catch (IOException e) {
+            Log.i(LOG_TAG, "capability cache not loaded: " + e.getMessage());
+        }
+    }
+
+    // worker thread
+    private void saveCapabilities() {
+        if (!mCapabilities.isDirty()) return;
+        try {
+            mCapabilities.save();
+        } catch (IOException e) {
+            Log.i(LOG_TAG, "capability cache not saved: " + e.getMessage());
+        }
+    }
+
+    // worker thread
+    private void startRecording() {
+        File dir = new File(getFilesDir(), RECORDING_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.i(LOG_TAG, "cannot create " + dir);
+            return;
+        }
+        try {
+            File file = new File(dir, "session-" + System.currentTimeMillis() + ".plrc");
+            // bit packing alone gets most of the gain, without deflating on the phone
+            mRecorder = new RecordingWriter(file, RecordingWriter.DEFAULT_CHUNK_SAMPLES,
+                    new SampleCodec(SampleCodec.FLAG_BIT_PACKED));
+            mRecorderConsumer = new RecorderConsumer(mRecorder);
+            // the writer does not wait for the disk, so it keeps up; should it not, the oldest
+            // samples go rather than holding up the worker thread and with it every session
+            mRecording = mSink.subscribe("recorder", SampleSink.Policy.DROP_OLDEST,
+                    RECORDER_CAPACITY, 0, mRecorderConsumer);
+        } catch (IOException e) {
+            Log.i(LOG_TAG, "recording not started: " + e.getMessage());
+        }
+    }
+
+    // worker thread
+    private void stopRecording() {
+        if (mRecorder == null) return;
+        mSessionManager.flush();
+        mSink.flush();
+        if (!mSink.unsubscribe(mRecording, SampleSink.DEFAULT_CLOSE_MILLIS)) {
+            Log.i(LOG_TAG, "recorder did not drain");
+        }
+        try {
+            mRecorder.close();
+            Log.i(LOG_TAG, "recorded " + mRecorder.getWrittenCount() + " samples, dropped "
+                    + mRecorder.getDroppedCount());
+        } catch (IOException e) {
+            Log.i(LOG_TAG, "recording failed: " + e.getMessage());
+        }
+        mRecorder = null;
+        mRecorderConsumer = null;
+        mRecording = null;
+    }
+
+    // appends the timeline to the recorder, on the thread of its subscription
+    private static class RecorderConsumer implements SampleConsumer {
+        private final RecordingWriter mWriter;
+        // sources to seal, one bit each
+        private final AtomicInteger mSeal = new AtomicInteger();
+
+        RecorderConsumer(RecordingWriter writer) {
+            mWriter = writer;
+        }
+
+        // any thread; the writer is only touched by the consumer
+        void seal(int source) {
+            if (source < 0 || source >= RecordingWriter.MAX_SOURCES) return;
+            int seal;
+            do {
+                seal = mSeal.get();
+            } while (!mSeal.compareAndSet(seal, seal | 1 << source));
+        }
+
+        @Override
+        public void onSamples(SampleBatch batch) {
+            batch.forEach(mWriter);
+            int seal = mSeal.getAndSet(0);
+            for (int source = 0; seal != 0; source++, seal >>>= 1) {
+                if ((seal & 1) != 0) mWriter.seal(source);
+            }
+        }
+    }
+
+    // merge the session buffers onto the shared timeline
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtimeNanos();
+            mSessionManager.tick(now);
+            mSink.flush();
+            if (++mTicks % PUBLISH_TICKS == 0) publish(now);
+            mWorker.postDelayed(this, TICK_MILLIS);
+        }
+    };
+
+    // append the metrics to the dump file
+    private final Runnable mDumpMetrics = new Runnable() {
+        @Override
+        public void run() {
+            File file = new File(getFilesDir(), METRICS_FILE);
+            if (file.length() > METRICS_MAX_BYTES
+                    && !file.renameTo(new File(getFilesDir(), METRICS_FILE + ".1"))) {
+                Log.i(LOG_TAG, "metrics not rotated");
+            }
+            try (Writer out = new FileWriter(file, true)) {
+                out.append("# ").append(String.valueOf(System.currentTimeMillis())).append('\n');
+                mMetrics.report(out, SystemClock.elapsedRealtimeNanos());
+            } catch (IOException e) {
+                Log.i(LOG_TAG, "metrics not dumped: " + e.getMessage());
+            }
+            mWorker.postDelayed(this, METRICS_DUMP_MILLIS);
+        }
+    };
+
+    // worker thread
+    private void publish(long nowNanos) {
+        List<SensorSession> sessions = mSessionManager.getSessions();
+        List<ReconnectController> controllers = new ArrayList<>(sessions.size());
+        synchronized (mLinks) {
+            for (SensorSession session : sessions) {
+                SessionLink link = mLinks.get(session.getAddress());
+                controllers.add(link != null ? link.getController() : null);
+            }
+        }
+        List<SessionSummary> summaries =
+                Collections.unmodifiableList(mMonitor.summarize(sessions, controllers, nowNanos));
+        saveCapabilities();
+        mMainHandler.post(() -> {
+            mSummaries = summaries;
+            for (int i = 0; i < mObservers.size(); i++) mObservers.get(i).onSummaries(summaries);
+        });
+    }
+
+    private Notification createNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.session_channel_name), NotificationManager.IMPORTANCE_LOW);
+            getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.session_notification_text))
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .build();
+    }
+}
@@ -1,57 +1,91 @@
 package yeetivity.jjve.ble_polar.ui_utils;
 
 import android.bluetooth.BluetoothDevice;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 import yeetivity.jjve.ble_polar.R;
-
-// Adapter for the RecyclerView displaying BT devices
-public class BtDeviceAdapter extends RecyclerView.Adapter<BtDeviceAdapter.ViewHolder> {
-
-    private List<BluetoothDevice> mDeviceList;
+import yeetivity.jjve.ble_polar.scan.DeviceSnapshot;
+
+/**
+ * Adapter for the RecyclerView displaying BT devices.
+ *
+ * Lists of immutable snapshots are submitted with submitList and diffed on a background
+ * thread. A changed device is rebound with a payload of the changed fields, so an RSSI update
+ * only redraws the RSSI text.
+ */
+public class BtDeviceAdapter
+        extends ListAdapter<DeviceSnapshot<BluetoothDevice>, BtDeviceAdapter.ViewHolder> {
 
     // interface for callbacks when item selected
     public interface IOnItemSelectedCallBack {
-        void onItemClicked(int position);
+        void onItemClicked(DeviceSnapshot<BluetoothDevice> device);
     }
-    private IOnItemSelectedCallBack mOnItemSelectedCallback;
 
-    public BtDeviceAdapter(List<BluetoothDevice> deviceList,
-                           IOnItemSelectedCallBack onItemSelectedCallback) {
-        super();
-        mDeviceList = deviceList;
+    private static final DiffUtil.ItemCallback<DeviceSnapshot<BluetoothDevice>> DIFF =
+            new DiffUtil.ItemCallback<DeviceSnapshot<BluetoothDevice>>() {
+                @Override
+                public boolean areItemsTheSame(DeviceSnapshot<BluetoothDevice> a,
+                                               DeviceSnapshot<BluetoothDevice> b) {
+                    return a.getId() == b.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(DeviceSnapshot<BluetoothDevice> a,
+                                                  DeviceSnapshot<BluetoothDevice> b) {
+                    return a.changes(b) == 0;
+                }
+
+                @Override
+                public Object getChangePayload(DeviceSnapshot<BluetoothDevice> a,
+                                               DeviceSnapshot<BluetoothDevice> b) {
+                    return b.changes(a);
+                }
+            };
+
+    private final IOnItemSelectedCallBack mOnItemSelectedCallback;
+    // main thread only
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+    private final Date mDate = new Date();
+
+    public BtDeviceAdapter(IOnItemSelectedCallBack onItemSelectedCallback) {
+        super(DIFF);
         mOnItemSelectedCallback = onItemSelectedCallback;
+        setHasStableIds(true);
     }
 
     // Represents the the item view, and its internal views
-    public static class ViewHolder extends RecyclerView.ViewHolder
-            implements View.OnClickListener {
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         TextView deviceNameView;
         TextView deviceInfoView;
+        TextView deviceRssiView;
+        TextView deviceSeenView;
 
-        private IOnItemSelectedCallBack mOnItemSelectedCallback;
-
-        ViewHolder(View itemView, IOnItemSelectedCallBack onItemSelectedCallback) {
+        ViewHolder(View itemView) {
             super(itemView);
             itemView.setOnClickListener(this);
-            mOnItemSelectedCallback = onItemSelectedCallback;
         }
 
         // Handles the item (row) being being clicked
         @Override
         public void onClick(View view) {
             int position = getAdapterPosition(); // gets item (row) position
-            mOnItemSelectedCallback.onItemClicked(position);
+            if (position != RecyclerView.NO_POSITION) {
+                mOnItemSelectedCallback.onItemClicked(getItem(position));
+            }
         }
     }
 
@@ -62,25 +96,56 @@ public class BtDeviceAdapter extends RecyclerView.Adapter<BtDeviceAdapter.ViewHo
         // create a new item view
         View itemView = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.scan_res_item, parent, false);
-        final ViewHolder vh = new ViewHolder(itemView, mOnItemSelectedCallback);
+        final ViewHolder vh = new ViewHolder(itemView);
         vh.deviceNameView = itemView.findViewById(R.id.device_name);
         vh.deviceInfoView = itemView.findViewById(R.id.device_info);
-
+        vh.deviceRssiView = itemView.findViewById(R.id.device_rssi);
+        vh.deviceSeenView = itemView.findViewById(R.id.device_seen);
         return vh;
     }
 
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
     // Replace the contents of a view (invoked by the layout manager)
     @Override
     public void onBindViewHolder(@NonNull ViewHolder vh, int position) {
-        BluetoothDevice device = mDeviceList.get(position);
-        String name = device.getName();
-        vh.deviceNameView.setText(name == null ? "Unknown" : name);
-        vh.deviceInfoView.setText(device.getBluetoothClass() + ", " + device.getAddress());
-        Log.i("ScanActivity", "onBindViewHolder");
+        bind(vh, getItem(position), ~0);
     }
 
+    // Partial rebind, the payloads are the changed fields
     @Override
-    public int getItemCount() {
-        return mDeviceList.size();
+    public void onBindViewHolder(@NonNull ViewHolder vh, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(vh, position);
+            return;
+        }
+        int changes = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            changes |= (Integer) payloads.get(i);
+        }
+        bind(vh, getItem(position), changes);
+    }
+
+    private void bind(ViewHolder vh, DeviceSnapshot<BluetoothDevice> device, int changes) {
+        if ((changes & DeviceSnapshot.CHANGED_NAME) != 0) {
+            String name = device.getName();
+            vh.deviceNameView.setText(name == null ? "Unknown" : name);
+        }
+        if ((changes & DeviceSnapshot.CHANGED_BATTERY) != 0) {
+            vh.deviceInfoView.setText(device.getBattery() == DeviceSnapshot.BATTERY_UNKNOWN
+                    ? device.getAddress()
+                    : device.getAddress() + ", battery " + device.getBattery() + "%");
+        }
+        if ((changes & DeviceSnapshot.CHANGED_RSSI) != 0) {
+            vh.deviceRssiView.setText(device.getRssi() + " dBm");
+        }
+        if ((changes & DeviceSnapshot.CHANGED_LAST_SEEN) != 0) {
+            mDate.setTime(device.getLastSeen());
+            vh.deviceSeenView.setText(mTimeFormat.format(mDate));
+        }
     }
 }
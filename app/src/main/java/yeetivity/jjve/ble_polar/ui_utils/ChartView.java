@@ -0,0 +1,168 @@
+package yeetivity.jjve.ble_polar.ui_utils;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.concurrent.TimeUnit;
+
+import yeetivity.jjve.ble_polar.stream.SamplePyramid;
+
+/**
+ * Chart of the last window of a session history, one column per pixel: a vertical line from
+ * the min to the max of each channel, and the mean through the columns.
+ *
+ * The columns are read from the SamplePyramid, so a frame costs in proportion to the width,
+ * whether the window is 10 s or an hour. The buffers are allocated when the size or the
+ * history changes; onDraw() never allocates. Not redrawn by itself - invalidate() it when the
+ * history has new samples, e.g. from the LiveDataRenderer frame.
+ */
+public class ChartView extends View {
+
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final int[] COLORS = {Color.RED, Color.rgb(0, 160, 0), Color.BLUE};
+    private static final int ENVELOPE_ALPHA = 0x50;
+
+    private SamplePyramid mHistory;
+    private long mWindowNanos = DEFAULT_WINDOW_NANOS;
+
+    private final Paint[] mEnvelopePaints = new Paint[COLORS.length];
+    private final Paint[] mMeanPaints = new Paint[COLORS.length];
+    // per channel, one entry per pixel column
+    private int[][] mMin = new int[0][];
+    private int[][] mMax = new int[0][];
+    private float[][] mMean = new float[0][];
+    // 4 coordinates per line
+    private float[] mLines = new float[0];
+    private int mColumns;
+
+    public ChartView(Context context) {
+        this(context, null);
+    }
+
+    public ChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        for (int i = 0; i < COLORS.length; i++) {
+            mEnvelopePaints[i] = new Paint();
+            mEnvelopePaints[i].setColor(COLORS[i]);
+            mEnvelopePaints[i].setAlpha(ENVELOPE_ALPHA);
+            mMeanPaints[i] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mMeanPaints[i].setColor(COLORS[i]);
+            mMeanPaints[i].setStrokeWidth(density);
+        }
+    }
+
+    /** Chart a history, null for none. */
+    public void setHistory(SamplePyramid history) {
+        mHistory = history;
+        allocate();
+        invalidate();
+    }
+
+    /** Chart the last windowNanos of the history. */
+    public void setWindowNanos(long windowNanos) {
+        if (windowNanos <= 0) throw new IllegalArgumentException("window= " + windowNanos);
+        mWindowNanos = windowNanos;
+        invalidate();
+    }
+
+    public long getWindowNanos() {
+        return mWindowNanos;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        allocate();
+    }
+
+    private void allocate() {
+        int columns = Math.max(0, getWidth() - getPaddingLeft() - getPaddingRight());
+        int channels = mHistory != null ? mHistory.getChannels() : 0;
+        if (columns == mColumns && channels == mMin.length) return;
+        mColumns = columns;
+        mMin = new int[channels][columns];
+        mMax = new int[channels][columns];
+        mMean = new float[channels][columns];
+        mLines = new float[4 * columns];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        SamplePyramid history = mHistory;
+        int columns = mColumns;
+        int channels = mMin.length;
+        if (history == null || columns == 0 || channels != history.getChannels()) return;
+        long newest = history.getNewestTimestamp();
+        if (newest == Long.MIN_VALUE) return;
+
+        // the window ends on a column boundary, so the columns do not shift between frames
+        long columnNanos = Math.max(1, mWindowNanos / columns);
+        long to = (newest / columnNanos + 1) * columnNanos;
+        long from = to - columnNanos * columns;
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+        for (int c = 0; c < channels; c++) {
+            history.query(c, from, to, columns, mMin[c], mMax[c], mMean[c]);
+            for (int p = 0; p < columns; p++) {
+                if (mMin[c][p] > mMax[c][p]) continue;
+                if (mMin[c][p] < low) low = mMin[c][p];
+                if (mMax[c][p] > high) high = mMax[c][p];
+            }
+        }
+        if (low > high) return;
+        if (low == high) {
+            low--;
+            high++;
+        }
+
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float scale = (getHeight() - getPaddingTop() - getPaddingBottom()) / (float) (high - low);
+        float[] lines = mLines;
+        for (int c = 0; c < channels; c++) {
+            int[] min = mMin[c];
+            int[] max = mMax[c];
+            float[] mean = mMean[c];
+            Paint envelope = mEnvelopePaints[c % COLORS.length];
+            Paint meanPaint = mMeanPaints[c % COLORS.length];
+
+            int n = 0;
+            for (int p = 0; p < columns; p++) {
+                if (min[p] > max[p]) continue;
+                float x = left + p + 0.5f;
+                float yMax = top + (high - max[p]) * scale;
+                lines[n++] = x;
+                lines[n++] = yMax;
+                lines[n++] = x;
+                // at least a pixel high
+                lines[n++] = Math.max(top + (high - min[p]) * scale, yMax + 1);
+            }
+            canvas.drawLines(lines, 0, n, envelope);
+
+            // the mean, broken where the columns have no samples
+            n = 0;
+            int previous = -1;
+            for (int p = 0; p < columns; p++) {
+                if (Float.isNaN(mean[p])) {
+                    previous = -1;
+                    continue;
+                }
+                if (previous >= 0) {
+                    lines[n++] = left + previous + 0.5f;
+                    lines[n++] = top + (high - mean[previous]) * scale;
+                    lines[n++] = left + p + 0.5f;
+                    lines[n++] = top + (high - mean[p]) * scale;
+                }
+                previous = p;
+            }
+            canvas.drawLines(lines, 0, n, meanPaint);
+        }
+    }
+}
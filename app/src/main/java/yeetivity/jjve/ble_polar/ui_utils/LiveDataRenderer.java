@@ -0,0 +1,184 @@
+package yeetivity.jjve.ble_polar.ui_utils;
+
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+import yeetivity.jjve.ble_polar.session.SessionSummary;
+
+/**
+ * Updates the data views at most once per display frame.
+ *
+ * The aggregates are computed by the SessionService; onSummary() only keeps the newest
+ * summary. The first summary after a frame schedules a Choreographer callback; the ones
+ * arriving before the frame only add their new samples to a counter. On the frame the views
+ * are set from a reused StringBuilder, and the chart, if any, is invalidated to draw the new
+ * samples.
+ *
+ * Create, start and stop on the ui thread.
+ */
+public class LiveDataRenderer implements Choreographer.FrameCallback {
+
+    // display frame period, at 60 Hz
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    private final Choreographer mChoreographer;
+    private final TextView mTimeView;
+    private final TextView mDataView;
+    private final View mChartView;
+
+    private final StringBuilder mText = new StringBuilder(128);
+    // one array per view, TextView keeps a reference to it
+    private char[] mTimeChars = new char[64];
+    private char[] mDataChars = new char[128];
+
+    private final AtomicBoolean mFramePending = new AtomicBoolean();
+    // samples received since the last rendered frame
+    private final AtomicLong mPendingSamples = new AtomicLong();
+    private volatile boolean mStarted;
+    private volatile SessionSummary mSummary;
+    private SessionSummary mRendered;
+
+    // samples folded into frames
+    private long mLastFolded;
+    private long mMaxFolded;
+    private long mFrames;
+    private long mFoldedSamples;
+
+    public LiveDataRenderer(TextView timeView, TextView dataView) {
+        this(timeView, dataView, null);
+    }
+
+    /**
+     * @param chartView Redrawn with each summary, e.g. a ChartView of the session history; null
+     *                  for none.
+     */
+    public LiveDataRenderer(TextView timeView, TextView dataView, View chartView) {
+        mChoreographer = Choreographer.getInstance();
+        mTimeView = timeView;
+        mDataView = dataView;
+        mChartView = chartView;
+    }
+
+    public void start() {
+        mStarted = true;
+        if (mSummary != null) requestFrame();
+    }
+
+    public void stop() {
+        mStarted = false;
+        mChoreographer.removeFrameCallback(this);
+        mFramePending.set(false);
+    }
+
+    /**
+     * Show a new summary of the sensor. Never allocates.
+     */
+    public void onSummary(SessionSummary summary) {
+        // redelivered to a reattaching observer; its samples are counted already
+        if (summary == mSummary) return;
+        mSummary = summary;
+        mPendingSamples.addAndGet(summary.getNewSampleCount());
+        if (mStarted) requestFrame();
+    }
+
+    private void requestFrame() {
+        if (mFramePending.compareAndSet(false, true)) {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFramePending.set(false);
+        // frameTimeNanos is the vsync; drawing later than a frame period missed frames
+        long lag = System.nanoTime() - frameTimeNanos;
+        Metrics.FRAME_LAG.record(lag);
+        if (lag > FRAME_NANOS) Metrics.DROPPED_FRAMES.add(lag / FRAME_NANOS);
+        SessionSummary summary = mSummary;
+        if (summary == null || summary == mRendered) return;
+        mRendered = summary;
+        long folded = mPendingSamples.getAndSet(0);
+
+        mLastFolded = folded;
+        if (folded > mMaxFolded) mMaxFolded = folded;
+        mFrames++;
+        mFoldedSamples += folded;
+
+        render(summary);
+        if (mChartView != null) mChartView.invalidate();
+    }
+
+    private void render(SessionSummary stats) {
+        int channels = stats.getChannels();
+        StringBuilder text = mText;
+
+        text.setLength(0);
+        text.append(stats.getState().name()).append(", ");
+        text.append(stats.getLatestTimestamp() / 1000000).append(" ms, ");
+        // one decimal, without going through Float.toString
+        int rate = Math.round(stats.getMeasuredRate() * 10);
+        text.append(rate / 10).append('.').append(rate % 10).append(" Hz");
+        if (stats.getReconnectCount() > 0) {
+            text.append(", ").append(stats.getReconnectCount()).append(" reconnects");
+        }
+        mTimeChars = setText(mTimeView, text, mTimeChars);
+
+        text.setLength(0);
+        for (int c = 0; c < channels; c++) {
+            if (c > 0) text.append(", ");
+            text.append(stats.getLatest(c));
+        }
+        text.append("\nmin ");
+        for (int c = 0; c < channels; c++) {
+            if (c > 0) text.append(", ");
+            text.append(stats.getMin(c));
+        }
+        text.append("\nmax ");
+        for (int c = 0; c < channels; c++) {
+            if (c > 0) text.append(", ");
+            text.append(stats.getMax(c));
+        }
+        text.append('\n').append(stats.getActivity().name())
+                .append(", ").append(stats.getStepCount()).append(" steps, ")
+                .append(Math.round(stats.getCadence())).append("/min");
+        int heartRate = stats.getHeartRate();
+        if (heartRate != 0) {
+            text.append('\n').append(heartRate).append(" bpm, RMSSD ")
+                    .append(Math.round(stats.getRmssd())).append(" ms");
+        }
+        mDataChars = setText(mDataView, text, mDataChars);
+    }
+
+    // TextView wraps the char array instead of copying it to a String
+    private static char[] setText(TextView view, StringBuilder text, char[] chars) {
+        int length = text.length();
+        if (length > chars.length) chars = new char[Math.max(length, 2 * chars.length)];
+        text.getChars(0, length, chars, 0);
+        view.setText(chars, 0, length);
+        return chars;
+    }
+
+    /** @return The number of samples folded into the last rendered frame. */
+    public long getLastFolded() {
+        return mLastFolded;
+    }
+
+    /** @return The largest number of samples folded into one frame. */
+    public long getMaxFolded() {
+        return mMaxFolded;
+    }
+
+    /** @return The mean number of samples folded into each rendered frame. */
+    public float getMeanFolded() {
+        return mFrames == 0 ? 0 : (float) mFoldedSamples / mFrames;
+    }
+
+    public long getRenderedFrames() {
+        return mFrames;
+    }
+}
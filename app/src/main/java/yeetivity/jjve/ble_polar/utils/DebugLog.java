@@ -0,0 +1,18 @@
+package yeetivity.jjve.ble_polar.utils;
+
+import yeetivity.jjve.ble_polar.BuildConfig;
+
+/**
+ * Gates for instrumentation on hot paths.
+ *
+ * METRICS is a single branch at run time. PolarApplication hands it to the core module as
+ * Metrics.ENABLED, which gates the per packet metrics there.
+ */
+public final class DebugLog {
+
+    /** The metrics overlay and dump file, and the per packet metrics; debug builds only. */
+    public static final boolean METRICS = BuildConfig.DEBUG;
+
+    private DebugLog() {
+    }
+}
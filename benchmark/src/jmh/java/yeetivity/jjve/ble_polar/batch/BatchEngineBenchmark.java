@@ -0,0 +1,105 @@
+package yeetivity.jjve.ble_polar.batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.record.RecordingWriter;
+import yeetivity.jjve.ble_polar.record.SampleCodec;
+import yeetivity.jjve.ble_polar.sim.SyntheticSignal;
+
+/**
+ * Summarizes a directory of bit packed recordings - 8 sessions of 4 sensors, 5 minutes of ACC
+ * at 200 Hz each - on 1 to 8 threads. The scores, in ms per run, give the scaling from one core
+ * to many.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEngineBenchmark {
+
+    private static final int RECORDINGS = 8;
+    private static final int SENSORS = 4;
+    private static final int RATE = 200;
+    private static final int SECONDS = 300;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private File mDirectory;
+    private BatchEngine mEngine;
+    private BatchEngine.Result mResult;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        mDirectory = Files.createTempDirectory("batch").toFile();
+        int[] values = new int[3];
+        for (int r = 0; r < RECORDINGS; r++) {
+            File file = new File(mDirectory, "session" + r + BatchEngine.RECORDING_EXTENSION);
+            RecordingWriter writer = new RecordingWriter(file, RecordingWriter.DEFAULT_CHUNK_SAMPLES,
+                    new SampleCodec(SampleCodec.FLAG_BIT_PACKED));
+            SyntheticSignal[] signals = new SyntheticSignal[SENSORS];
+            for (int s = 0; s < SENSORS; s++) {
+                writer.describeSource(s, PmdFrameDecoder.MEASUREMENT_ACC, "sensor " + s);
+                signals[s] = r % 2 == 0 ? SyntheticSignal.walking(s) : SyntheticSignal.still(s);
+            }
+            for (int i = 0; i < SECONDS * RATE; i++) {
+                long timestamp = i * (1000000000L / RATE);
+                for (int s = 0; s < SENSORS; s++) {
+                    signals[s].next(timestamp, values, 0);
+                    writer.onSample(s, timestamp, values, 0, 3);
+                }
+                // paced, so the writer thread keeps up instead of dropping chunks
+                if (i % RATE == 0) Thread.sleep(1);
+            }
+            writer.close();
+            if (writer.getDroppedCount() > 0) {
+                throw new IllegalStateException(writer.getDroppedCount() + " samples dropped");
+            }
+        }
+        mEngine = new BatchEngine(threads, BatchEngine.DEFAULT_WINDOW_CHUNKS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+        if (mResult != null && mResult.getFailedCount() > 0) {
+            throw new IllegalStateException(mResult.getFailedCount() + " recordings failed");
+        }
+    }
+
+    @Benchmark
+    public long run() throws IOException {
+        mResult = mEngine.run(mDirectory, null);
+        return mResult.getSampleCount();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BatchEngineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,90 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One second of three axis ACC at 200 Hz from each of the sensors, through the analysis of
+ * each sensor. The score is seconds of data per second: well above 1 leaves the gatt thread
+ * time for everything else. The FIR variant low passes the axes with a 31 tap filter instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccAnalyzerBenchmark {
+
+    private static final int RATE = 200;
+    private static final int CHANNELS = 3;
+
+    @Param({"1", "4", "16"})
+    public int sensors;
+
+    private final long[] mTimestamps = new long[RATE];
+    private final int[] mValues = new int[RATE * CHANNELS];
+    private AccAnalyzer[] mAnalyzers;
+    private SignalChain[] mFirChains;
+    private long mSecond;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < RATE * CHANNELS; i++) {
+            mValues[i] = (i % CHANNELS == 2 ? 1000 : 0) + random.nextInt(600) - 300;
+        }
+        mAnalyzers = new AccAnalyzer[sensors];
+        mFirChains = new SignalChain[sensors];
+        double[] h = FirFilter.lowPassCoefficients(31, RATE, 10);
+        for (int s = 0; s < sensors; s++) {
+            mAnalyzers[s] = new AccAnalyzer(CHANNELS, RATE);
+            mFirChains[s] = new SignalChain(CHANNELS);
+            mFirChains[s].add(new FirFilter(CHANNELS, h));
+        }
+    }
+
+    // the next second of timestamps; the values repeat
+    private void nextSecond() {
+        long start = mSecond++ * 1000000000L;
+        for (int i = 0; i < RATE; i++) mTimestamps[i] = start + i * (1000000000L / RATE);
+    }
+
+    @Benchmark
+    public long analyzer() {
+        nextSecond();
+        long steps = 0;
+        for (AccAnalyzer analyzer : mAnalyzers) {
+            analyzer.process(mTimestamps, mValues, RATE);
+            steps += analyzer.getStepCount();
+        }
+        return steps;
+    }
+
+    @Benchmark
+    public void fir31() {
+        nextSecond();
+        for (SignalChain chain : mFirChains) chain.process(mTimestamps, mValues, RATE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AccAnalyzerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,109 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes one MTU sized ACC notification (247 byte MTU, 244 byte value), as the gatt thread
+ * does for every frame. The raw frame holds 39 samples of 16 bit axes; the delta frame a
+ * reference sample and one block of 86 samples in 7 bit deltas. The score is in frames per
+ * millisecond; 20 sensors at 200 Hz send about 100 raw frames per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PmdFrameDecoderBenchmark {
+
+    private static final int VALUE_SIZE = 244;
+    private static final int CHANNELS = 3;
+    private static final int DELTA_BITS = 7;
+
+    @Param({"raw", "delta"})
+    public String frame;
+
+    private final PmdFrameDecoder mDecoder = new PmdFrameDecoder();
+    private final int[] mSamples = new int[PmdFrameDecoder.DEFAULT_MAX_SAMPLES * CHANNELS];
+    private final short[] mX = new short[PmdFrameDecoder.DEFAULT_MAX_SAMPLES];
+    private final short[] mY = new short[PmdFrameDecoder.DEFAULT_MAX_SAMPLES];
+    private final short[] mZ = new short[PmdFrameDecoder.DEFAULT_MAX_SAMPLES];
+    private byte[] mFrame;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        if (frame.equals("raw")) {
+            int count = (VALUE_SIZE - PmdFrameDecoder.HEADER_SIZE) / (2 * CHANNELS);
+            mFrame = new byte[PmdFrameDecoder.HEADER_SIZE + count * 2 * CHANNELS];
+            writeHeader(mFrame, 1);
+            for (int i = PmdFrameDecoder.HEADER_SIZE; i < mFrame.length; i += 2) {
+                int value = random.nextInt(4000) - 2000;
+                mFrame[i] = (byte) value;
+                mFrame[i + 1] = (byte) (value >> 8);
+            }
+        } else {
+            mFrame = deltaFrame(random);
+        }
+    }
+
+    private static void writeHeader(byte[] frame, int frameType) {
+        frame[0] = PmdFrameDecoder.MEASUREMENT_ACC;
+        long timestamp = 599618000000000000L;
+        for (int i = 0; i < 8; i++) frame[1 + i] = (byte) (timestamp >>> (8 * i));
+        frame[9] = (byte) frameType;
+    }
+
+    // reference sample, then one block of deltas packed least significant bit first
+    private static byte[] deltaFrame(Random random) {
+        int reference = PmdFrameDecoder.HEADER_SIZE + 2 * CHANNELS;
+        int count = (VALUE_SIZE - reference - 2) * 8 / (CHANNELS * DELTA_BITS);
+        byte[] frame = new byte[reference + 2 + (count * CHANNELS * DELTA_BITS + 7) / 8];
+        writeHeader(frame, 0x80);
+        frame[reference] = DELTA_BITS;
+        frame[reference + 1] = (byte) count;
+        int bit = (reference + 2) * 8;
+        int mask = (1 << DELTA_BITS) - 1;
+        for (int i = 0; i < count * CHANNELS; i++) {
+            int delta = (random.nextInt(64) - 32) & mask;
+            for (int b = 0; b < DELTA_BITS; b++, bit++) {
+                if ((delta >> b & 1) != 0) frame[bit >> 3] |= 1 << (bit & 7);
+            }
+        }
+        return frame;
+    }
+
+    @Benchmark
+    public int interleaved() {
+        int count = mDecoder.decode(mFrame, mSamples);
+        return mSamples[count * CHANNELS - 1];
+    }
+
+    @Benchmark
+    public int perAxis() {
+        int count = mDecoder.decode(mFrame, mX, mY, mZ);
+        return mZ[count - 1];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PmdFrameDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package yeetivity.jjve.ble_polar.record;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One second of the merged timeline of the sensors, three axis ACC at 200 Hz each, appended
+ * to a recording as the SessionManager tick does. The score is seconds of data per second on
+ * the producer side; the writer thread encodes and writes behind it, and anything it could not
+ * keep up with is dropped, see the secondary results of Output. codec -1 is uncompressed,
+ * otherwise the SampleCodec flags.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordingWriterBenchmark {
+
+    private static final int RATE = 200;
+    private static final int CHANNELS = 3;
+    private static final long PERIOD = 1000000000L / RATE;
+
+    @Param({"1", "20"})
+    public int sensors;
+
+    @Param({"-1", "1", "3"})
+    public int codec;
+
+    private final int[] mValues = new int[RATE * CHANNELS];
+    private File mFile;
+    private RecordingWriter mWriter;
+    private long mSecond;
+
+    /**
+     * Samples written and dropped, and bytes written, counted when the writer is closed at the
+     * end of each iteration. JMH sums these over the measurement iterations, so the results are
+     * totals of the run, not per iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        public long written;
+        public long dropped;
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < RATE; i++) {
+            double step = Math.sin(i * 2 * Math.PI * 2 / RATE);
+            for (int c = 0; c < CHANNELS; c++) {
+                int base = c == 2 ? 1000 : 0;
+                mValues[i * CHANNELS + c] = base + (int) (300 * step * step * step)
+                        + random.nextInt(21) - 10;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        mFile = File.createTempFile("bench", ".plrc");
+        mWriter = new RecordingWriter(mFile, RecordingWriter.DEFAULT_CHUNK_SAMPLES,
+                codec < 0 ? null : new SampleCodec(codec));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close(Output output) throws IOException {
+        mWriter.close();
+        output.written = mWriter.getWrittenCount();
+        output.dropped = mWriter.getDroppedCount();
+        output.bytes = mWriter.getBytesWritten();
+        if (!mFile.delete()) mFile.deleteOnExit();
+    }
+
+    @Benchmark
+    public long second() {
+        long start = mSecond++ * 1000000000L;
+        // interleaved by time, as merged
+        for (int i = 0; i < RATE; i++) {
+            long timestamp = start + i * PERIOD;
+            for (int s = 0; s < sensors; s++) {
+                mWriter.onSample(s, timestamp + s, mValues, i * CHANNELS, CHANNELS);
+            }
+        }
+        return mSecond;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RecordingWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
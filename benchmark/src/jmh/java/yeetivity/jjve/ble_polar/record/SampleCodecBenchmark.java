@@ -0,0 +1,140 @@
+package yeetivity.jjve.ble_polar.record;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes one 1024 sample, three axis ACC chunk with each SampleCodec mode.
+ *
+ * The score is in chunks per second. The secondary results rawBytes and encodedBytes are the
+ * bytes per second of raw samples and of encoded chunks going in and out; their quotient is
+ * the compression ratio. The captured dataset is the first source of the recording given with
+ * -Dcaptured=path/to/session.plrc, e.g. pulled from the app's files; without it the walking
+ * dataset is used instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleCodecBenchmark {
+
+    private static final int COUNT = 1024;
+    private static final int CHANNELS = 3;
+    private static final long PERIOD = 1000000000L / 52;
+
+    @Param({"sine", "noise", "walking", "captured"})
+    public String dataset;
+
+    // FLAG_ bits: varint, bit packed, varint + deflate, bit packed + deflate
+    @Param({"0", "1", "2", "3"})
+    public int flags;
+
+    private final long[] mTimestamps = new long[COUNT];
+    private final int[] mValues = new int[COUNT * CHANNELS];
+    private final long[] mDecodedTimestamps = new long[COUNT];
+    private final int[] mDecodedValues = new int[COUNT * CHANNELS];
+    private final int mRawBytes = RecordingFormat.samplesPayloadSize(COUNT, CHANNELS);
+    private SampleCodec mCodec;
+    private byte[] mEncoded;
+
+    /** Bytes of raw samples and of encoded chunks per call, reported per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long rawBytes;
+        public long encodedBytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        long timestamp = 1000000000000L;
+        for (int i = 0; i < COUNT; i++) {
+            // arrival jitter of the sample times, as after the clock alignment
+            timestamp += dataset.equals("sine") ? PERIOD : PERIOD + random.nextInt(2000) - 1000;
+            mTimestamps[i] = timestamp;
+            for (int c = 0; c < CHANNELS; c++) {
+                mValues[i * CHANNELS + c] = sample(random, i, c);
+            }
+        }
+        if (dataset.equals("captured")) loadCaptured(System.getProperty("captured"));
+
+        mCodec = new SampleCodec(flags);
+        int length = mCodec.encode(mTimestamps, mValues, COUNT, CHANNELS);
+        mEncoded = Arrays.copyOf(mCodec.getOutput(), length);
+    }
+
+    private int sample(Random random, int i, int channel) {
+        switch (dataset) {
+            case "sine":
+                return (int) (2000 * Math.sin(i * 2 * Math.PI / 52 + channel));
+            case "noise":
+                return (short) random.nextInt();
+            default:
+                // walking at 2 steps/s: gravity on z, step impacts, sensor noise, in mG
+                double step = Math.sin(i * 2 * Math.PI * 2 / 52);
+                int base = channel == 2 ? 1000 : 0;
+                return base + (int) (300 * step * step * step) + random.nextInt(21) - 10;
+        }
+    }
+
+    private void loadCaptured(String path) throws IOException {
+        if (path == null) return;
+        RecordingReader reader = new RecordingReader(new File(path));
+        final int[] n = new int[1];
+        reader.read(Long.MIN_VALUE, Long.MAX_VALUE,
+                (source, timestamp, values, offset, channels) -> {
+                    if (source != 0 || n[0] == COUNT || channels != CHANNELS) return;
+                    mTimestamps[n[0]] = timestamp;
+                    System.arraycopy(values, offset, mValues, n[0] * CHANNELS, CHANNELS);
+                    n[0]++;
+                });
+        reader.close();
+        if (n[0] < COUNT) {
+            throw new IOException(path + ": " + n[0] + " samples, " + COUNT + " needed");
+        }
+    }
+
+    @Benchmark
+    public int encode(Bytes bytes) {
+        int length = mCodec.encode(mTimestamps, mValues, COUNT, CHANNELS);
+        bytes.rawBytes += mRawBytes;
+        bytes.encodedBytes += length;
+        return length;
+    }
+
+    @Benchmark
+    public int decode(Bytes bytes) {
+        mCodec.decode(mEncoded, 0, mEncoded.length, mDecodedTimestamps, mDecodedValues);
+        bytes.rawBytes += mRawBytes;
+        bytes.encodedBytes += mEncoded.length;
+        return mDecodedValues[COUNT * CHANNELS - 1];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SampleCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
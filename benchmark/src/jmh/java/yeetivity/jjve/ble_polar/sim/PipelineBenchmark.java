@@ -0,0 +1,74 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+import yeetivity.jjve.ble_polar.session.SessionManager;
+import yeetivity.jjve.ble_polar.session.SessionMonitor;
+
+/**
+ * One simulated second of the sensors streaming ACC at 200 Hz, through the session pipeline
+ * of the app: notification, decode, clock alignment, merge and the SessionMonitor. The
+ * score is simulated seconds per second, the simulator's own cost included; the lossy link
+ * adds jitter and 2% lost frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"1", "20"})
+    public int sensors;
+
+    @Param({"clean", "lossy"})
+    public String link;
+
+    private Simulation mSimulation;
+
+    @Setup
+    public void setup() {
+        mSimulation = new Simulation(new SimScheduler(false),
+                new SessionManager(32, 1024, TimeUnit.SECONDS.toNanos(2)), 42);
+        mSimulation.getSessionManager().setTimelineListener(new SessionMonitor(32,
+                TimeUnit.SECONDS.toNanos(1)));
+        SimulationConfig config = new SimulationConfig().setSeed(42).setSampleRates(50, 100, 200);
+        if (link.equals("lossy")) config.setJitter(20).setLossRate(0.02);
+        for (int s = 0; s < sensors; s++) {
+            SimulatedSensor sensor = mSimulation.addSensor(String.format("A0:00:00:00:00:%02d", s),
+                    config, SyntheticSignal.walking(s));
+            mSimulation.connect(sensor, PolarPmd.accSettings(200));
+        }
+        // connected and streaming
+        mSimulation.run(2000);
+    }
+
+    @Benchmark
+    public long second() {
+        mSimulation.run(1000);
+        return mSimulation.getScheduler().getExecutedCount();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
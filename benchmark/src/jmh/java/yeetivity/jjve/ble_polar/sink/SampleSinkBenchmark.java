@@ -0,0 +1,123 @@
+package yeetivity.jjve.ble_polar.sink;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import yeetivity.jjve.ble_polar.metrics.MetricsRegistry;
+
+/**
+ * Publishes one tick of the merged timeline - 50 ms of 4 sensors of three axis ACC at 200 Hz,
+ * 40 samples - to 1 or 4 subscriptions, then flushes. The first subscription is stuck, so its
+ * policy is hit on every sample, the others take every batch; the score, in ns per tick, is
+ * the cost to the publishing thread, which should not grow while the stuck one falls behind.
+ * What each policy did with the samples is in the secondary results of Delivery.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleSinkBenchmark {
+
+    private static final int SENSORS = 4;
+    private static final int TICK_SAMPLES = 40;
+
+    @Param({"1", "4"})
+    public int subscriptions;
+
+    @Param({"DROP_OLDEST", "DROP_NEWEST", "DECIMATE"})
+    public SampleSink.Policy policy;
+
+    private SampleSink mSink;
+    private final int[] mValues = new int[3];
+    private long mTimestamp;
+    private volatile boolean mStuck = true;
+
+    @Setup
+    public void setup() {
+        mSink = new SampleSink(new MetricsRegistry(), SENSORS);
+        for (int i = 0; i < subscriptions; i++) {
+            mSink.subscribe("s" + i, policy, SampleSink.DEFAULT_CAPACITY, 0, i == 0 ? batch -> {
+                while (mStuck) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            } : batch -> {
+            });
+        }
+    }
+
+    /**
+     * Samples delivered, dropped and decimated over all subscriptions, counted at the end of each
+     * iteration. JMH sums these over the measurement iterations, so the results are totals of
+     * the run.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Delivery {
+        public long delivered;
+        public long dropped;
+        public long decimated;
+        // the totals at the end of the last iteration
+        private long mDelivered;
+        private long mDropped;
+        private long mDecimated;
+
+        @TearDown(Level.Iteration)
+        public void count(SampleSinkBenchmark benchmark) {
+            long totalDelivered = 0;
+            long totalDropped = 0;
+            long totalDecimated = 0;
+            for (Subscription s : benchmark.mSink.getSubscriptions()) {
+                totalDelivered += s.getDeliveredCount();
+                totalDropped += s.getDroppedCount();
+                totalDecimated += s.getDecimatedCount();
+            }
+            delivered = totalDelivered - mDelivered;
+            dropped = totalDropped - mDropped;
+            decimated = totalDecimated - mDecimated;
+            mDelivered = totalDelivered;
+            mDropped = totalDropped;
+            mDecimated = totalDecimated;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStuck = false;
+        mSink.close();
+    }
+
+    @Benchmark
+    public long tick(Delivery delivery) {
+        for (int i = 0; i < TICK_SAMPLES; i++) {
+            mValues[0] = i;
+            mSink.onSample(i % SENSORS, mTimestamp, mValues, 0, 3);
+            mTimestamp += 1250000;
+        }
+        mSink.flush();
+        return mTimestamp;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SampleSinkBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The chart path of a one hour session of three axis samples at 200 Hz: accept adds a sample to
+ * every level, query reads the columns of one channel for a 1080 pixel wide chart of the last
+ * window. The query scores, in ns, should stay about the same from a 30 s to a 60 min window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplePyramidBenchmark {
+
+    private static final int CHANNELS = 3;
+    private static final int RATE = 200;
+    private static final long PERIOD = 1000000000L / RATE;
+    private static final int SECONDS = 3600;
+    private static final int PIXELS = 1080;
+
+    @Param({"30", "300", "3600"})
+    public int windowSeconds;
+
+    private SamplePyramid mPyramid;
+    private final int[] mValues = new int[CHANNELS];
+    private final int[] mMin = new int[PIXELS];
+    private final int[] mMax = new int[PIXELS];
+    private final float[] mMean = new float[PIXELS];
+    private long mTimestamp;
+    private long mTo;
+
+    @Setup
+    public void setup() {
+        mPyramid = new SamplePyramid(CHANNELS);
+        for (int i = 0; i < SECONDS * RATE; i++) {
+            mValues[0] = i % 1000;
+            mValues[2] = 1000 - i % 50;
+            mPyramid.accept(i * PERIOD, mValues, 0);
+        }
+        mTimestamp = SECONDS * RATE * PERIOD;
+        mTo = mTimestamp;
+    }
+
+    @Benchmark
+    public long accept() {
+        mValues[0]++;
+        mPyramid.accept(mTimestamp, mValues, 0);
+        mTimestamp += PERIOD;
+        return mTimestamp;
+    }
+
+    @Benchmark
+    public int query() {
+        return mPyramid.query(0, mTo - windowSeconds * 1000000000L, mTo, PIXELS,
+                mMin, mMax, mMean);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SamplePyramidBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
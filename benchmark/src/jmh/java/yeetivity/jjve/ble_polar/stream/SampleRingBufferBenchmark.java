@@ -0,0 +1,122 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes decoded frames of 39 three axis samples into a ring buffer of about a second at
+ * 200 Hz, and drains whatever is buffered. roundTrip does both on one thread, the cost
+ * without contention; the spsc group runs a producer and a consumer thread against each other,
+ * as the gatt and render threads do. The scores are in calls per microsecond, one frame per
+ * publish; the overruns, a secondary result of the consumer, are the samples it missed.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleRingBufferBenchmark {
+
+    private static final int CHANNELS = 3;
+    private static final int FRAME_SAMPLES = 39;
+    private static final int CAPACITY = 256;
+
+    private SampleRingBuffer mBuffer;
+
+    @Setup
+    public void setup() {
+        mBuffer = new SampleRingBuffer(CAPACITY, CHANNELS);
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final long[] timestamps = new long[FRAME_SAMPLES];
+        final int[] values = new int[FRAME_SAMPLES * CHANNELS];
+        long next;
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < values.length; i++) values[i] = i % CHANNELS == 2 ? 1000 : i;
+        }
+
+        int publish(SampleRingBuffer buffer) {
+            for (int i = 0; i < FRAME_SAMPLES; i++) timestamps[i] = next++ * 5000000L;
+            return buffer.publish(timestamps, values, FRAME_SAMPLES);
+        }
+    }
+
+    /**
+     * Counts the samples published, drained and overrun in each iteration, at its end. JMH sums
+     * these over the measurement iterations, so the results are totals of the run.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Consumer {
+        final long[] timestamps = new long[CAPACITY];
+        final int[] values = new int[CAPACITY * CHANNELS];
+        public long published;
+        public long drained;
+        public long overruns;
+        // the buffer totals at the end of the last iteration
+        private long mPublished;
+        private long mDrained;
+        private long mOverruns;
+
+        @TearDown(Level.Iteration)
+        public void count(SampleRingBufferBenchmark benchmark) {
+            SampleRingBuffer buffer = benchmark.mBuffer;
+            published = buffer.getPublishedCount() - mPublished;
+            drained = buffer.getDrainedCount() - mDrained;
+            overruns = buffer.getOverrunCount() - mOverruns;
+            mPublished += published;
+            mDrained += drained;
+            mOverruns += overruns;
+        }
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    public int roundTrip(Producer producer, Consumer consumer) {
+        producer.publish(mBuffer);
+        return mBuffer.drain(consumer.timestamps, consumer.values, CAPACITY);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public int publish(Producer producer) {
+        return producer.publish(mBuffer);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public int drain(Consumer consumer) {
+        return mBuffer.drain(consumer.timestamps, consumer.values, CAPACITY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SampleRingBufferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
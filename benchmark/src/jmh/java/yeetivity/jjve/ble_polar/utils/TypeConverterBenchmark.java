@@ -0,0 +1,95 @@
+package yeetivity.jjve.ble_polar.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ByteBuffer based conversions that TypeConverter used to do with the shift based
+ * reads in ByteReader, over a 200 Hz three axis ACC frame worth of data.
+ * Run with the main method, or with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeConverterBenchmark {
+
+    // one MTU sized frame of int32 values
+    private final byte[] mFrame = new byte[244];
+    private final ByteReader mReader = new ByteReader();
+
+    @Setup
+    public void setup() {
+        new Random(42).nextBytes(mFrame);
+    }
+
+    @Benchmark
+    public void byteBufferWrapInt(Blackhole bh) {
+        for (int offset = 0; offset + 4 <= mFrame.length; offset += 4) {
+            bh.consume(ByteBuffer.wrap(mFrame, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+        }
+    }
+
+    @Benchmark
+    public void byteBufferWrapFloat(Blackhole bh) {
+        for (int offset = 0; offset + 4 <= mFrame.length; offset += 4) {
+            bh.consume(ByteBuffer.wrap(mFrame, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat());
+        }
+    }
+
+    @Benchmark
+    public void fourBytesToInt(Blackhole bh) {
+        for (int offset = 0; offset + 4 <= mFrame.length; offset += 4) {
+            bh.consume(TypeConverter.fourBytesToInt(mFrame, offset));
+        }
+    }
+
+    @Benchmark
+    public void fourBytesToFloat(Blackhole bh) {
+        for (int offset = 0; offset + 4 <= mFrame.length; offset += 4) {
+            bh.consume(TypeConverter.fourBytesToFloat(mFrame, offset));
+        }
+    }
+
+    @Benchmark
+    public void readerInt16Cursor(Blackhole bh) {
+        ByteReader reader = mReader.reset(mFrame);
+        while (reader.remaining() >= 2) {
+            bh.consume(reader.readInt16());
+        }
+    }
+
+    @Benchmark
+    public void readerSignedBits(Blackhole bh) {
+        // 7 bit deltas, as in a typical ACC delta block
+        ByteReader reader = mReader.reset(mFrame);
+        for (int i = 0, n = mFrame.length * 8 / 7; i < n; i++) {
+            bh.consume(reader.readSignedBits(7));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TypeConverterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,285 @@
+package yeetivity.jjve.ble_polar.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import yeetivity.jjve.ble_polar.record.RecordingReader;
+import yeetivity.jjve.ble_polar.record.RecordingWriter;
+
+/**
+ * Reprocesses a directory of recordings on all cores, e.g. after the analysis changed, and
+ * writes a summary per recording.
+ *
+ * Each recording is a fork-join task. Its sample chunks are read and decompressed in parallel,
+ * a window of chunks at a time, while the previous window is fed in file order - so in time
+ * order per source - through the stateful analysis of each source, the same AccAnalyzer the
+ * live sessions run. A recording holds at most two windows of decoded chunks, so memory does
+ * not grow with its length; recordings run side by side as cores are free.
+ *
+ * The recordings hold the merged ACC timeline only, so heart rate and HRV are not part of the
+ * summaries.
+ */
+public class BatchEngine {
+
+    public static final String RECORDING_EXTENSION = ".plrc";
+    public static final String SUMMARY_EXTENSION = ".summary.csv";
+    public static final int DEFAULT_WINDOW_CHUNKS = 8;
+    // a longer step between two samples is a gap, in sample periods
+    public static final int GAP_PERIODS = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The outcome of one run. */
+    public static class Result {
+        private final List<RecordingSummary> mSummaries;
+        private final int mParallelism;
+        private final long mElapsedNanos;
+
+        Result(List<RecordingSummary> summaries, int parallelism, long elapsedNanos) {
+            mSummaries = Collections.unmodifiableList(summaries);
+            mParallelism = parallelism;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /** @return One summary per recording, in the order given. */
+        public List<RecordingSummary> getSummaries() {
+            return mSummaries;
+        }
+
+        public int getParallelism() {
+            return mParallelism;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        public long getSampleCount() {
+            long count = 0;
+            for (RecordingSummary summary : mSummaries) count += summary.getSampleCount();
+            return count;
+        }
+
+        public long getChunkCount() {
+            long count = 0;
+            for (RecordingSummary summary : mSummaries) count += summary.getChunkCount();
+            return count;
+        }
+
+        public int getFailedCount() {
+            int count = 0;
+            for (RecordingSummary summary : mSummaries) if (summary.isFailed()) count++;
+            return count;
+        }
+
+        public double getSamplesPerSecond() {
+            return mElapsedNanos > 0 ? getSampleCount() * 1e9 / mElapsedNanos : 0;
+        }
+    }
+
+    private final int mParallelism;
+    private final int mWindow;
+
+    public BatchEngine() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_WINDOW_CHUNKS);
+    }
+
+    /**
+     * @param parallelism  Threads to run on, e.g. 1 to measure the scaling.
+     * @param windowChunks Chunks of a recording decoded in parallel; twice this many are held.
+     */
+    public BatchEngine(int parallelism, int windowChunks) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism= " + parallelism);
+        if (windowChunks < 1) throw new IllegalArgumentException("window= " + windowChunks);
+        mParallelism = parallelism;
+        mWindow = windowChunks;
+    }
+
+    /**
+     * Summarize the recordings in a directory, in name order.
+     * @param output Directory for the summaries, named after the recordings; null for none.
+     * @throws IOException if the directory cannot be listed, or a summary cannot be written.
+     */
+    public Result run(File directory, File output) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(RECORDING_EXTENSION));
+        if (files == null) throw new IOException("cannot list " + directory);
+        Arrays.sort(files);
+        return run(Arrays.asList(files), output);
+    }
+
+    /**
+     * Summarize the given recordings. A recording that cannot be read gets a failed summary;
+     * the others are still processed.
+     * @throws IOException if a summary cannot be written.
+     */
+    public Result run(List<File> recordings, File output) throws IOException {
+        if (output != null && !output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("cannot create " + output);
+        }
+        final List<RecordingTask> tasks = new ArrayList<>(recordings.size());
+        for (File file : recordings) tasks.add(new RecordingTask(file, output));
+
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        long start = System.nanoTime();
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<RecordingSummary> summaries = new ArrayList<>(tasks.size());
+        for (RecordingTask task : tasks) {
+            if (task.mWriteError != null) throw task.mWriteError;
+            summaries.add(task.getRawResult());
+        }
+        return new Result(summaries, mParallelism, elapsed);
+    }
+
+    // reads and decodes one chunk into its own buffer
+    private static class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final RecordingReader reader;
+        final RecordingReader.ChunkInfo chunk;
+        final RecordingReader.ChunkSamples samples;
+        IOException error;
+
+        DecodeTask(RecordingReader reader, RecordingReader.ChunkInfo chunk,
+                   RecordingReader.ChunkSamples samples) {
+            this.reader = reader;
+            this.chunk = chunk;
+            this.samples = samples;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                reader.readChunk(chunk, samples);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    private class RecordingTask extends RecursiveTask<RecordingSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final File mFile;
+        private final File mOutput;
+        private IOException mWriteError;
+
+        RecordingTask(File file, File output) {
+            mFile = file;
+            mOutput = output;
+        }
+
+        @Override
+        protected RecordingSummary compute() {
+            RecordingSummary summary = summarize();
+            if (mOutput != null) {
+                File file = new File(mOutput, mFile.getName() + SUMMARY_EXTENSION);
+                try (Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+                    summary.writeCsv(out);
+                } catch (IOException e) {
+                    mWriteError = e;
+                }
+            }
+            return summary;
+        }
+
+        private RecordingSummary summarize() {
+            long created = 0;
+            boolean recovered = false;
+            long chunks = 0;
+            SourceAnalysis[] sources = new SourceAnalysis[RecordingWriter.MAX_SOURCES];
+            try (RecordingReader reader = new RecordingReader(mFile)) {
+                created = reader.getCreated();
+                recovered = reader.isRecovered();
+                List<RecordingReader.ChunkInfo> sampleChunks = new ArrayList<>();
+                for (RecordingReader.ChunkInfo chunk : reader.getChunks()) {
+                    if (chunk.getSampleCount() > 0) sampleChunks.add(chunk);
+                }
+                RecordingReader.ChunkSamples[] buffers =
+                        new RecordingReader.ChunkSamples[2 * mWindow];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = new RecordingReader.ChunkSamples();
+                }
+
+                DecodeTask[] window = null;
+                DecodeTask[] next = fork(reader, sampleChunks, 0, buffers);
+                try {
+                    for (int first = 0; next != null; first += mWindow) {
+                        window = next;
+                        // decode the next window while this one is analyzed
+                        next = fork(reader, sampleChunks, first + mWindow, buffers);
+                        for (DecodeTask task : window) {
+                            task.join();
+                            if (task.error != null) throw task.error;
+                            RecordingReader.ChunkSamples samples = task.samples;
+                            int source = samples.getSource();
+                            if (source >= sources.length) {
+                                throw new IOException("source= " + source);
+                            }
+                            if (sources[source] == null) {
+                                sources[source] = new SourceAnalysis(source,
+                                        reader.getSourceName(source),
+                                        reader.getSourceMeasurementType(source));
+                            }
+                            sources[source].accept(samples);
+                            chunks++;
+                        }
+                    }
+                } finally {
+                    // nothing may read from the reader once it is closed
+                    joinQuietly(window);
+                    joinQuietly(next);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                return new RecordingSummary(mFile.getName(), created, recovered, chunks,
+                        new ArrayList<SourceSummary>(), String.valueOf(e.getMessage()));
+            }
+            List<SourceSummary> summaries = new ArrayList<>();
+            for (SourceAnalysis source : sources) {
+                if (source != null) summaries.add(source.summarize());
+            }
+            return new RecordingSummary(mFile.getName(), created, recovered, chunks, summaries,
+                    null);
+        }
+
+        private void joinQuietly(DecodeTask[] tasks) {
+            if (tasks != null) for (DecodeTask task : tasks) task.quietlyJoin();
+        }
+
+        // fork the decoding of the window starting at chunk first, null past the last chunk
+        private DecodeTask[] fork(RecordingReader reader, List<RecordingReader.ChunkInfo> chunks,
+                                  int first, RecordingReader.ChunkSamples[] buffers) {
+            int count = Math.min(mWindow, chunks.size() - first);
+            if (count <= 0) return null;
+            // the two windows in flight alternate between the halves of the buffers
+            int offset = first / mWindow % 2 * mWindow;
+            DecodeTask[] tasks = new DecodeTask[count];
+            for (int i = 0; i < count; i++) {
+                tasks[i] = new DecodeTask(reader, chunks.get(first + i), buffers[offset + i]);
+                tasks[i].fork();
+            }
+            return tasks;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package yeetivity.jjve.ble_polar.batch;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+
+/**
+ * The summaries of the sources of one recording, or the error that stopped it from being read.
+ */
+public final class RecordingSummary {
+
+    static final String CSV_HEADER = "recording,created,recovered,source,name,type,channels,"
+            + "rate_hz,samples,duration_s,gaps,gap_s,longest_gap_s,min,max,mean,steps,cadence,"
+            + "still_s,light_s,active_s,error";
+
+    private final String mName;
+    private final long mCreated;
+    private final boolean mRecovered;
+    private final long mChunks;
+    private final List<SourceSummary> mSources;
+    private final String mError;
+
+    RecordingSummary(String name, long created, boolean recovered, long chunks,
+                     List<SourceSummary> sources, String error) {
+        mName = name;
+        mCreated = created;
+        mRecovered = recovered;
+        mChunks = chunks;
+        mSources = Collections.unmodifiableList(sources);
+        mError = error;
+    }
+
+    /** @return The file name of the recording. */
+    public String getName() {
+        return mName;
+    }
+
+    /** @return Wall clock time the recording was created, in ms. */
+    public long getCreated() {
+        return mCreated;
+    }
+
+    /** @return true if the recording was cut short, see RecordingReader.isRecovered. */
+    public boolean isRecovered() {
+        return mRecovered;
+    }
+
+    /** @return The number of sample chunks read. */
+    public long getChunkCount() {
+        return mChunks;
+    }
+
+    /** @return The sources with samples, by source id. */
+    public List<SourceSummary> getSources() {
+        return mSources;
+    }
+
+    public long getSampleCount() {
+        long count = 0;
+        for (SourceSummary source : mSources) count += source.getSampleCount();
+        return count;
+    }
+
+    public boolean isFailed() {
+        return mError != null;
+    }
+
+    /** @return Why the recording could not be read, null if it was. */
+    public String getError() {
+        return mError;
+    }
+
+    /**
+     * Write the summary as CSV, the header then one row per source - or a single row with the
+     * error.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write(CSV_HEADER);
+        out.write('\n');
+        if (mError != null || mSources.isEmpty()) {
+            out.write(quote(mName) + "," + mCreated + "," + mRecovered
+                    + ",,,,,,,,,,,,,,,,,,," + quote(mError) + "\n");
+            return;
+        }
+        for (SourceSummary s : mSources) {
+            StringBuilder min = new StringBuilder();
+            StringBuilder max = new StringBuilder();
+            StringBuilder mean = new StringBuilder();
+            for (int c = 0; c < s.getChannels(); c++) {
+                String separator = c == 0 ? "" : " ";
+                min.append(separator).append(s.getMin(c));
+                max.append(separator).append(s.getMax(c));
+                mean.append(separator).append(String.format(Locale.ROOT, "%.1f", s.getMean(c)));
+            }
+            out.write(String.format(Locale.ROOT,
+                    "%s,%d,%b,%d,%s,%d,%d,%d,%d,%.3f,%d,%.3f,%.3f,"
+                            + "%s,%s,%s,%d,%.1f,%.1f,%.1f,%.1f,\n",
+                    quote(mName), mCreated, mRecovered, s.getSource(), quote(s.getName()),
+                    s.getMeasurementType(), s.getChannels(), s.getSampleRate(),
+                    s.getSampleCount(), s.getDurationNanos() / 1e9, s.getGapCount(),
+                    s.getGapNanos() / 1e9, s.getLongestGapNanos() / 1e9, min, max, mean,
+                    s.getStepCount(), s.getCadence(),
+                    s.getActivityNanos(ActivityDetector.Activity.STILL) / 1e9,
+                    s.getActivityNanos(ActivityDetector.Activity.LIGHT) / 1e9,
+                    s.getActivityNanos(ActivityDetector.Activity.ACTIVE) / 1e9));
+        }
+    }
+
+    private static String quote(String value) {
+        if (value == null) return "";
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,134 @@
+package yeetivity.jjve.ble_polar.batch;
+
+import java.util.Arrays;
+
+import yeetivity.jjve.ble_polar.dsp.AccAnalyzer;
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.record.RecordingReader;
+
+/**
+ * Accumulates the SourceSummary of one source from its chunks, in time order. ACC sources run
+ * through the same AccAnalyzer as the live sessions. State is a fixed size whatever the length
+ * of the recording. Single threaded.
+ */
+class SourceAnalysis {
+
+    private final int mSource;
+    private final String mName;
+    private final int mMeasurementType;
+    private int mChannels;
+    private int mSampleRate;
+    private long mPeriod;
+
+    private long mCount;
+    private long mFirst;
+    private long mLast;
+    private long mGaps;
+    private long mGapNanos;
+    private long mLongestGap;
+    private int[] mMin;
+    private int[] mMax;
+    private long[] mSum;
+
+    private AccAnalyzer mAnalyzer;
+    // the sample being analyzed
+    private final long[] mTimestamp = new long[1];
+    private int[] mSample;
+    private final long[] mActivityNanos = new long[ActivityDetector.Activity.values().length];
+    private double mCadenceSum;
+    private long mCadenceNanos;
+
+    SourceAnalysis(int source, String name, int measurementType) {
+        mSource = source;
+        mName = name;
+        mMeasurementType = measurementType;
+    }
+
+    void accept(RecordingReader.ChunkSamples samples) {
+        int count = samples.getSampleCount();
+        if (count == 0) return;
+        long[] timestamps = samples.getTimestamps();
+        int[] values = samples.getValues();
+        if (mCount == 0) start(samples);
+        int channels = mChannels;
+        if (samples.getChannels() != channels) {
+            throw new IllegalArgumentException("source " + mSource + ": channels= "
+                    + samples.getChannels());
+        }
+
+        for (int i = 0, v = 0; i < count; i++) {
+            long timestamp = timestamps[i];
+            if (mCount > 0) {
+                long delta = timestamp - mLast;
+                if (mPeriod > 0 && delta > BatchEngine.GAP_PERIODS * mPeriod) {
+                    mGaps++;
+                    mGapNanos += delta - mPeriod;
+                    mLongestGap = Math.max(mLongestGap, delta - mPeriod);
+                }
+                if (mAnalyzer != null) accumulate(delta);
+            }
+            for (int c = 0; c < channels; c++, v++) {
+                int value = values[v];
+                if (value < mMin[c]) mMin[c] = value;
+                if (value > mMax[c]) mMax[c] = value;
+                mSum[c] += value;
+            }
+            if (mAnalyzer != null) {
+                mTimestamp[0] = timestamp;
+                System.arraycopy(values, i * channels, mSample, 0, channels);
+                mAnalyzer.process(mTimestamp, mSample, 1);
+            }
+            mLast = timestamp;
+            mCount++;
+        }
+    }
+
+    // the time since the last sample counts for the activity and cadence seen at it
+    private void accumulate(long delta) {
+        mActivityNanos[mAnalyzer.getActivity().ordinal()] += delta;
+        float cadence = mAnalyzer.getCadence();
+        if (cadence > 0) {
+            mCadenceSum += (double) cadence * delta;
+            mCadenceNanos += delta;
+        }
+    }
+
+    // the rate is estimated from the first chunk
+    private void start(RecordingReader.ChunkSamples samples) {
+        int count = samples.getSampleCount();
+        long[] timestamps = samples.getTimestamps();
+        mChannels = samples.getChannels();
+        mFirst = timestamps[0];
+        long span = timestamps[count - 1] - timestamps[0];
+        mSampleRate = span > 0 ? (int) Math.round((count - 1) * 1e9 / span) : 0;
+        mPeriod = mSampleRate > 0 ? 1000000000L / mSampleRate : 0;
+        mMin = new int[mChannels];
+        mMax = new int[mChannels];
+        mSum = new long[mChannels];
+        Arrays.fill(mMin, Integer.MAX_VALUE);
+        Arrays.fill(mMax, Integer.MIN_VALUE);
+
+        // undescribed sources are taken for ACC by their three channels
+        boolean acc = mName != null ? mMeasurementType == PmdFrameDecoder.MEASUREMENT_ACC
+                : mChannels == PmdFrameDecoder.DEFAULT_CHANNELS;
+        if (acc && mSampleRate > 2 * AccAnalyzer.STEP_HIGH_CUTOFF
+                && mSampleRate <= AccAnalyzer.MAX_SAMPLE_RATE) {
+            mAnalyzer = new AccAnalyzer(mChannels, mSampleRate);
+            mSample = new int[mChannels];
+        }
+    }
+
+    /** After at least one sample. */
+    SourceSummary summarize() {
+        double[] mean = new double[mChannels];
+        for (int c = 0; c < mChannels; c++) mean[c] = (double) mSum[c] / mCount;
+        boolean analyzed = mAnalyzer != null;
+        return new SourceSummary(mSource, mName, mMeasurementType, mChannels, mSampleRate,
+                mCount, mFirst, mLast, mGaps, mGapNanos, mLongestGap,
+                mMin.clone(), mMax.clone(), mean, analyzed,
+                analyzed ? mAnalyzer.getStepCount() : 0,
+                mCadenceNanos > 0 ? (float) (mCadenceSum / mCadenceNanos) : 0,
+                mActivityNanos.clone());
+    }
+}
@@ -0,0 +1,136 @@
+package yeetivity.jjve.ble_polar.batch;
+
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+
+/**
+ * Immutable aggregates of one source of a recording: coverage and gaps, per channel min, max
+ * and mean, and for ACC the steps, cadence and time spent in each activity.
+ */
+public final class SourceSummary {
+
+    private final int mSource;
+    private final String mName;
+    private final int mMeasurementType;
+    private final int mChannels;
+    private final int mSampleRate;
+    private final long mSampleCount;
+    private final long mFirstTimestamp;
+    private final long mLastTimestamp;
+    private final long mGapCount;
+    private final long mGapNanos;
+    private final long mLongestGapNanos;
+    private final int[] mMin;
+    private final int[] mMax;
+    private final double[] mMean;
+    private final boolean mAnalyzed;
+    private final long mSteps;
+    private final float mCadence;
+    private final long[] mActivityNanos;
+
+    SourceSummary(int source, String name, int measurementType, int channels, int sampleRate,
+                  long sampleCount, long firstTimestamp, long lastTimestamp, long gapCount,
+                  long gapNanos, long longestGapNanos, int[] min, int[] max, double[] mean,
+                  boolean analyzed, long steps, float cadence, long[] activityNanos) {
+        mSource = source;
+        mName = name;
+        mMeasurementType = measurementType;
+        mChannels = channels;
+        mSampleRate = sampleRate;
+        mSampleCount = sampleCount;
+        mFirstTimestamp = firstTimestamp;
+        mLastTimestamp = lastTimestamp;
+        mGapCount = gapCount;
+        mGapNanos = gapNanos;
+        mLongestGapNanos = longestGapNanos;
+        mMin = min;
+        mMax = max;
+        mMean = mean;
+        mAnalyzed = analyzed;
+        mSteps = steps;
+        mCadence = cadence;
+        mActivityNanos = activityNanos;
+    }
+
+    public int getSource() {
+        return mSource;
+    }
+
+    /** @return The name given when recording, null if none. */
+    public String getName() {
+        return mName;
+    }
+
+    public int getMeasurementType() {
+        return mMeasurementType;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    /** @return The sample rate estimated from the timestamps, in Hz. */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getFirstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    public long getDurationNanos() {
+        return mLastTimestamp - mFirstTimestamp;
+    }
+
+    /** @return The number of gaps of more than BatchEngine.GAP_PERIODS sample periods. */
+    public long getGapCount() {
+        return mGapCount;
+    }
+
+    /** @return The time missing in gaps, in ns. */
+    public long getGapNanos() {
+        return mGapNanos;
+    }
+
+    public long getLongestGapNanos() {
+        return mLongestGapNanos;
+    }
+
+    public int getMin(int channel) {
+        return mMin[channel];
+    }
+
+    public int getMax(int channel) {
+        return mMax[channel];
+    }
+
+    public double getMean(int channel) {
+        return mMean[channel];
+    }
+
+    /** @return true if the source ran through the ACC analysis. */
+    public boolean isAnalyzed() {
+        return mAnalyzed;
+    }
+
+    public long getStepCount() {
+        return mSteps;
+    }
+
+    /** @return Mean steps per minute while stepping, 0 if never. */
+    public float getCadence() {
+        return mCadence;
+    }
+
+    /** @return The time spent in an activity, in ns. */
+    public long getActivityNanos(ActivityDetector.Activity activity) {
+        return mActivityNanos[activity.ordinal()];
+    }
+}
@@ -0,0 +1,68 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+/**
+ * The on-device analysis of an ACC stream, in mG: activity from the variation of the
+ * magnitude, and steps and cadence from the magnitude band passed to 0.5 - 3 Hz, which keeps
+ * the walking and running step rates and drops gravity and vibration.
+ *
+ * Process on one thread; the results may be read from any thread.
+ */
+public class AccAnalyzer {
+
+    public static final double STEP_LOW_CUTOFF = 0.5;
+    public static final double STEP_HIGH_CUTOFF = 3;
+    // band passed magnitude a step has to reach, in mG
+    public static final float STEP_THRESHOLD = 100;
+    public static final int ACTIVITY_WINDOW_SECONDS = 2;
+    // the highest sample rate the activity window is sized for
+    public static final int MAX_SAMPLE_RATE = 1000;
+
+    private final SignalChain mChain;
+    private final ActivityDetector mActivity;
+    private final Biquad mLowPass;
+    private final Biquad mHighPass;
+    private final StepDetector mSteps;
+
+    public AccAnalyzer(int channels, int sampleRate) {
+        mChain = new SignalChain(channels);
+        mChain.add(new Magnitude(channels));
+        mActivity = mChain.add(new ActivityDetector(ACTIVITY_WINDOW_SECONDS * MAX_SAMPLE_RATE));
+        mLowPass = mChain.add(new Biquad(1));
+        mHighPass = mChain.add(new Biquad(1));
+        mSteps = mChain.add(new StepDetector(STEP_THRESHOLD));
+        setSampleRate(sampleRate);
+    }
+
+    /**
+     * Configure the filters for a sample rate and start over, e.g. when the stream is started.
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate <= 2 * STEP_HIGH_CUTOFF || sampleRate > MAX_SAMPLE_RATE) {
+            throw new IllegalArgumentException("sample rate= " + sampleRate);
+        }
+        mLowPass.setLowPass(sampleRate, STEP_HIGH_CUTOFF, Biquad.BUTTERWORTH_Q);
+        mHighPass.setHighPass(sampleRate, STEP_LOW_CUTOFF, Biquad.BUTTERWORTH_Q);
+        mActivity.setWindow(ACTIVITY_WINDOW_SECONDS * sampleRate);
+        mChain.reset();
+    }
+
+    /**
+     * Process count samples of interleaved values.
+     */
+    public void process(long[] timestamps, int[] values, int count) {
+        mChain.process(timestamps, values, count);
+    }
+
+    public ActivityDetector.Activity getActivity() {
+        return mActivity.getActivity();
+    }
+
+    public long getStepCount() {
+        return mSteps.getStepCount();
+    }
+
+    /** @return Steps per minute, 0 if not walking. */
+    public float getCadence() {
+        return mSteps.getCadence();
+    }
+}
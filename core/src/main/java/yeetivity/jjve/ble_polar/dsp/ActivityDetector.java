@@ -0,0 +1,82 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+/**
+ * Classifies the activity from the standard deviation of the ACC magnitude over a sliding
+ * window: gravity alone gives a constant magnitude, moving around makes it vary.
+ *
+ * The samples pass through unchanged. The activity may be read from any thread.
+ */
+public class ActivityDetector implements SignalStage {
+
+    public enum Activity {
+        UNKNOWN, STILL, LIGHT, ACTIVE
+    }
+
+    // standard deviations of the magnitude, in mG
+    public static final float DEFAULT_LIGHT_THRESHOLD = 25;
+    public static final float DEFAULT_ACTIVE_THRESHOLD = 150;
+
+    private final SlidingStats mStats;
+    private final float[] mOut = new float[1];
+    private final double mLightVariance;
+    private final double mActiveVariance;
+    private volatile Activity mActivity = Activity.UNKNOWN;
+
+    /**
+     * @param capacity The longest window, in samples.
+     */
+    public ActivityDetector(int capacity) {
+        this(capacity, DEFAULT_LIGHT_THRESHOLD, DEFAULT_ACTIVE_THRESHOLD);
+    }
+
+    public ActivityDetector(int capacity, float lightThreshold, float activeThreshold) {
+        if (lightThreshold <= 0 || activeThreshold <= lightThreshold) {
+            throw new IllegalArgumentException("thresholds " + lightThreshold + ", " + activeThreshold);
+        }
+        mStats = new SlidingStats(1, capacity);
+        mLightVariance = (double) lightThreshold * lightThreshold;
+        mActiveVariance = (double) activeThreshold * activeThreshold;
+    }
+
+    /** @see SlidingStats#setWindow */
+    public void setWindow(int samples) {
+        mStats.setWindow(samples);
+        mActivity = Activity.UNKNOWN;
+    }
+
+    @Override
+    public int getInputChannels() {
+        return 1;
+    }
+
+    @Override
+    public int getOutputChannels() {
+        return 1;
+    }
+
+    @Override
+    public void process(long timestamp, float[] in, float[] out) {
+        mStats.process(timestamp, in, mOut);
+        out[0] = in[0];
+        if (!mStats.isFull()) return;
+        double variance = mStats.getVariance(0);
+        Activity activity = variance < mLightVariance ? Activity.STILL
+                : variance < mActiveVariance ? Activity.LIGHT : Activity.ACTIVE;
+        if (activity != mActivity) mActivity = activity;
+    }
+
+    public Activity getActivity() {
+        return mActivity;
+    }
+
+    /** @return The statistics of the magnitude, processing thread only. */
+    public SlidingStats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public void reset() {
+        mStats.reset();
+        mActivity = Activity.UNKNOWN;
+    }
+}
@@ -0,0 +1,121 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+/**
+ * Second order IIR filter on each channel, in transposed direct form II. Low and high pass
+ * coefficients are from the Audio EQ Cookbook (R. Bristow-Johnson); Q = 1/sqrt(2) gives a
+ * Butterworth response.
+ *
+ * The first sample after a reset primes the filter as if it had been constant before, so
+ * e.g. gravity does not ring through a high pass.
+ */
+public class Biquad implements SignalStage {
+
+    public static final double BUTTERWORTH_Q = Math.sqrt(0.5);
+
+    private final int mChannels;
+    private double mB0, mB1, mB2, mA1, mA2;
+    private final double[] mZ1;
+    private final double[] mZ2;
+    private boolean mPrimed;
+
+    /**
+     * A pass-through filter, until coefficients are set.
+     */
+    public Biquad(int channels) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        mChannels = channels;
+        mZ1 = new double[channels];
+        mZ2 = new double[channels];
+        setCoefficients(1, 0, 0, 0, 0);
+    }
+
+    public static Biquad lowPass(int channels, double sampleRate, double cutoff) {
+        Biquad biquad = new Biquad(channels);
+        biquad.setLowPass(sampleRate, cutoff, BUTTERWORTH_Q);
+        return biquad;
+    }
+
+    public static Biquad highPass(int channels, double sampleRate, double cutoff) {
+        Biquad biquad = new Biquad(channels);
+        biquad.setHighPass(sampleRate, cutoff, BUTTERWORTH_Q);
+        return biquad;
+    }
+
+    /**
+     * Set the coefficients, normalized to a0 = 1:
+     * y[n] = b0 x[n] + b1 x[n-1] + b2 x[n-2] - a1 y[n-1] - a2 y[n-2]
+     */
+    public void setCoefficients(double b0, double b1, double b2, double a1, double a2) {
+        mB0 = b0;
+        mB1 = b1;
+        mB2 = b2;
+        mA1 = a1;
+        mA2 = a2;
+    }
+
+    public void setLowPass(double sampleRate, double cutoff, double q) {
+        double cos = cos(sampleRate, cutoff, q);
+        double alpha = alpha(sampleRate, cutoff, q);
+        double a0 = 1 + alpha;
+        setCoefficients((1 - cos) / 2 / a0, (1 - cos) / a0, (1 - cos) / 2 / a0,
+                -2 * cos / a0, (1 - alpha) / a0);
+    }
+
+    public void setHighPass(double sampleRate, double cutoff, double q) {
+        double cos = cos(sampleRate, cutoff, q);
+        double alpha = alpha(sampleRate, cutoff, q);
+        double a0 = 1 + alpha;
+        setCoefficients((1 + cos) / 2 / a0, -(1 + cos) / a0, (1 + cos) / 2 / a0,
+                -2 * cos / a0, (1 - alpha) / a0);
+    }
+
+    private static double cos(double sampleRate, double cutoff, double q) {
+        if (cutoff <= 0 || cutoff >= sampleRate / 2 || q <= 0) {
+            throw new IllegalArgumentException("cutoff= " + cutoff + ", rate= " + sampleRate + ", q= " + q);
+        }
+        return Math.cos(2 * Math.PI * cutoff / sampleRate);
+    }
+
+    private static double alpha(double sampleRate, double cutoff, double q) {
+        return Math.sin(2 * Math.PI * cutoff / sampleRate) / (2 * q);
+    }
+
+    @Override
+    public int getInputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public int getOutputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public void process(long timestamp, float[] in, float[] out) {
+        if (!mPrimed) prime(in);
+        for (int c = 0; c < mChannels; c++) {
+            double x = in[c];
+            double y = mB0 * x + mZ1[c];
+            mZ1[c] = mB1 * x - mA1 * y + mZ2[c];
+            mZ2[c] = mB2 * x - mA2 * y;
+            out[c] = (float) y;
+        }
+    }
+
+    // the state of a filter that has seen x forever, giving its DC gain times x
+    private void prime(float[] x) {
+        mPrimed = true;
+        double denominator = 1 + mA1 + mA2;
+        double gain = denominator == 0 ? 0 : (mB0 + mB1 + mB2) / denominator;
+        for (int c = 0; c < mChannels; c++) {
+            double y = gain * x[c];
+            mZ2[c] = mB2 * x[c] - mA2 * y;
+            mZ1[c] = mB1 * x[c] - mA1 * y + mZ2[c];
+        }
+    }
+
+    @Override
+    public void reset() {
+        mPrimed = false;
+    }
+}
@@ -0,0 +1,96 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+import java.util.Arrays;
+
+/**
+ * FIR filter on each channel. Costs one multiply-add per tap and sample; the history is
+ * stored twice over, so the taps are read without wrapping around.
+ */
+public class FirFilter implements SignalStage {
+
+    private final int mChannels;
+    private final double[] mCoefficients;
+    private final int mTaps;
+    // per channel 2 * taps, each sample written at pos and pos + taps
+    private final double[] mHistory;
+    private int mPos;
+
+    /**
+     * @param coefficients Impulse response, h[0] applied to the newest sample.
+     */
+    public FirFilter(int channels, double[] coefficients) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        if (coefficients.length < 1) throw new IllegalArgumentException("no coefficients");
+        mChannels = channels;
+        mCoefficients = coefficients.clone();
+        mTaps = coefficients.length;
+        mHistory = new double[channels * 2 * mTaps];
+    }
+
+    /**
+     * @return Coefficients of a Hamming windowed sinc low pass with unity gain at DC.
+     */
+    public static double[] lowPassCoefficients(int taps, double sampleRate, double cutoff) {
+        if (taps < 1 || cutoff <= 0 || cutoff >= sampleRate / 2) {
+            throw new IllegalArgumentException("taps= " + taps + ", cutoff= " + cutoff);
+        }
+        double[] h = new double[taps];
+        double fc = cutoff / sampleRate;
+        double middle = (taps - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < taps; i++) {
+            double t = i - middle;
+            double sinc = t == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * t) / (Math.PI * t);
+            double window = taps == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+            h[i] = sinc * window;
+            sum += h[i];
+        }
+        for (int i = 0; i < taps; i++) h[i] /= sum;
+        return h;
+    }
+
+    /**
+     * @param taps Odd, so that the low pass can be inverted around its middle tap.
+     * @return Coefficients of the complementary high pass of lowPassCoefficients.
+     */
+    public static double[] highPassCoefficients(int taps, double sampleRate, double cutoff) {
+        if (taps % 2 == 0) throw new IllegalArgumentException("even taps= " + taps);
+        double[] h = lowPassCoefficients(taps, sampleRate, cutoff);
+        for (int i = 0; i < taps; i++) h[i] = -h[i];
+        h[taps / 2] += 1;
+        return h;
+    }
+
+    @Override
+    public int getInputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public int getOutputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public void process(long timestamp, float[] in, float[] out) {
+        int taps = mTaps;
+        double[] h = mCoefficients;
+        // the newest sample at pos, older ones at pos + 1 ... pos + taps - 1
+        int pos = mPos == 0 ? taps - 1 : mPos - 1;
+        for (int c = 0; c < mChannels; c++) {
+            int base = c * 2 * taps;
+            mHistory[base + pos] = in[c];
+            mHistory[base + pos + taps] = in[c];
+            double y = 0;
+            for (int k = 0, i = base + pos; k < taps; k++, i++) y += h[k] * mHistory[i];
+            out[c] = (float) y;
+        }
+        mPos = pos;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(mHistory, 0);
+        mPos = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+/**
+ * Euclidean norm of the channels, e.g. of the three ACC axes: one output channel that does
+ * not depend on how the sensor is worn.
+ */
+public class Magnitude implements SignalStage {
+
+    private final int mChannels;
+
+    public Magnitude(int channels) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        mChannels = channels;
+    }
+
+    @Override
+    public int getInputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public int getOutputChannels() {
+        return 1;
+    }
+
+    @Override
+    public void process(long timestamp, float[] in, float[] out) {
+        double sum = 0;
+        for (int c = 0; c < mChannels; c++) sum += in[c] * in[c];
+        out[0] = (float) Math.sqrt(sum);
+    }
+
+    @Override
+    public void reset() {
+    }
+}
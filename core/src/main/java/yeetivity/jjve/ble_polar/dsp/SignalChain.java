@@ -0,0 +1,81 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+/**
+ * Stages run one after the other on each sample, e.g. magnitude, then a band pass, then a
+ * step detector. Each stage writes to its own preallocated buffer, so stages can be kept to
+ * read their state, e.g. the step count, after processing.
+ *
+ * Single threaded; nothing is allocated after the stages are added.
+ */
+public class SignalChain {
+
+    private final int mInputChannels;
+    private final float[] mInput;
+    private SignalStage[] mStages = new SignalStage[0];
+    private float[][] mOutputs = new float[0][];
+
+    public SignalChain(int inputChannels) {
+        if (inputChannels < 1) throw new IllegalArgumentException("channels= " + inputChannels);
+        mInputChannels = inputChannels;
+        mInput = new float[inputChannels];
+    }
+
+    /**
+     * Append a stage; its input channels must match the output of the chain so far.
+     * @return The stage.
+     */
+    public <S extends SignalStage> S add(S stage) {
+        if (stage.getInputChannels() != getOutputChannels()) {
+            throw new IllegalArgumentException(stage.getClass().getSimpleName() + " takes "
+                    + stage.getInputChannels() + " channels, chain gives " + getOutputChannels());
+        }
+        int n = mStages.length;
+        SignalStage[] stages = new SignalStage[n + 1];
+        float[][] outputs = new float[n + 1][];
+        System.arraycopy(mStages, 0, stages, 0, n);
+        System.arraycopy(mOutputs, 0, outputs, 0, n);
+        stages[n] = stage;
+        outputs[n] = new float[stage.getOutputChannels()];
+        mStages = stages;
+        mOutputs = outputs;
+        return stage;
+    }
+
+    public int getInputChannels() {
+        return mInputChannels;
+    }
+
+    public int getOutputChannels() {
+        int n = mStages.length;
+        return n == 0 ? mInputChannels : mStages[n - 1].getOutputChannels();
+    }
+
+    /**
+     * Process one sample of interleaved values.
+     * @return The output of the last stage, valid until the next call.
+     */
+    public float[] process(long timestamp, int[] values, int offset) {
+        float[] in = mInput;
+        for (int c = 0; c < mInputChannels; c++) in[c] = values[offset + c];
+        SignalStage[] stages = mStages;
+        for (int i = 0; i < stages.length; i++) {
+            float[] out = mOutputs[i];
+            stages[i].process(timestamp, in, out);
+            in = out;
+        }
+        return in;
+    }
+
+    /**
+     * Process count samples, e.g. as drained from a SampleRingBuffer.
+     */
+    public void process(long[] timestamps, int[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            process(timestamps[i], values, i * mInputChannels);
+        }
+    }
+
+    public void reset() {
+        for (SignalStage stage : mStages) stage.reset();
+    }
+}
@@ -0,0 +1,22 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+/**
+ * One stage of a SignalChain, updated once per sample from preallocated state.
+ */
+public interface SignalStage {
+
+    int getInputChannels();
+
+    int getOutputChannels();
+
+    /**
+     * Process one sample.
+     * @param timestamp Time of the sample, in ns.
+     * @param in        getInputChannels() values.
+     * @param out       Receives getOutputChannels() values; never the same array as in.
+     */
+    void process(long timestamp, float[] in, float[] out);
+
+    /** Forget the samples seen, e.g. when the stream restarts. */
+    void reset();
+}
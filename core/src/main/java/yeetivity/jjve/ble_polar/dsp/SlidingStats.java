@@ -0,0 +1,130 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Mean, RMS and variance of each channel over the last samples, from running sums. The sums
+ * are recomputed once per window length, so rounding errors do not pile up; that keeps the
+ * cost constant per sample on average.
+ *
+ * The samples pass through unchanged; read the statistics from the stage.
+ */
+public class SlidingStats implements SignalStage {
+
+    private final int mChannels;
+    private final int mCapacity;
+    private final float[] mHistory;
+    private final double[] mSum;
+    private final double[] mSumSquares;
+    private int mWindow;
+    private int mPos;
+    private int mCount;
+    private int mSinceRecompute;
+
+    /**
+     * @param capacity The longest window, in samples.
+     */
+    public SlidingStats(int channels, int capacity) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        if (capacity < 1) throw new IllegalArgumentException("capacity= " + capacity);
+        mChannels = channels;
+        mCapacity = capacity;
+        mHistory = new float[channels * capacity];
+        mSum = new double[channels];
+        mSumSquares = new double[channels];
+        mWindow = capacity;
+    }
+
+    /**
+     * Set the window length, at most the capacity, and start over.
+     */
+    public void setWindow(int samples) {
+        if (samples < 1 || samples > mCapacity) throw new IllegalArgumentException("window= " + samples);
+        mWindow = samples;
+        reset();
+    }
+
+    public int getWindow() {
+        return mWindow;
+    }
+
+    @Override
+    public int getInputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public int getOutputChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public void process(long timestamp, float[] in, float[] out) {
+        int window = mWindow;
+        boolean full = mCount == window;
+        for (int c = 0; c < mChannels; c++) {
+            int i = c * mCapacity + mPos;
+            float x = in[c];
+            if (full) {
+                float old = mHistory[i];
+                mSum[c] -= old;
+                mSumSquares[c] -= (double) old * old;
+            }
+            mHistory[i] = x;
+            mSum[c] += x;
+            mSumSquares[c] += (double) x * x;
+            out[c] = x;
+        }
+        if (!full) mCount++;
+        if (++mPos == window) mPos = 0;
+        if (++mSinceRecompute == window) recompute();
+    }
+
+    private void recompute() {
+        mSinceRecompute = 0;
+        for (int c = 0; c < mChannels; c++) {
+            double sum = 0, sumSquares = 0;
+            for (int i = c * mCapacity, end = i + mCount; i < end; i++) {
+                double x = mHistory[i];
+                sum += x;
+                sumSquares += x * x;
+            }
+            mSum[c] = sum;
+            mSumSquares[c] = sumSquares;
+        }
+    }
+
+    /** @return The number of samples in the window, up to its length. */
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isFull() {
+        return mCount == mWindow;
+    }
+
+    public double getMean(int channel) {
+        return mCount == 0 ? 0 : mSum[channel] / mCount;
+    }
+
+    public double getRms(int channel) {
+        return mCount == 0 ? 0 : Math.sqrt(Math.max(0, mSumSquares[channel] / mCount));
+    }
+
+    /** @return The population variance over the window. */
+    public double getVariance(int channel) {
+        if (mCount == 0) return 0;
+        double mean = mSum[channel] / mCount;
+        return Math.max(0, mSumSquares[channel] / mCount - mean * mean);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(mHistory, 0);
+        Arrays.fill(mSum, 0);
+        Arrays.fill(mSumSquares, 0);
+        mPos = 0;
+        mCount = 0;
+        mSinceRecompute = 0;
+    }
+}
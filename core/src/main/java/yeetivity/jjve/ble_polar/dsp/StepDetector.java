@@ -0,0 +1,91 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts steps in a band passed ACC magnitude: a step is a rise above the threshold, after
+ * the signal has fallen back below zero, and at least MIN_INTERVAL after the previous step.
+ * The cadence is a running mean of the step intervals and drops to 0 after MAX_INTERVAL
+ * without a step.
+ *
+ * The samples pass through unchanged. The results may be read from any thread.
+ */
+public class StepDetector implements SignalStage {
+
+    // 240 steps/min
+    private static final long MIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    // 30 steps/min
+    private static final long MAX_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // weight of a new interval in the cadence
+    private static final double CADENCE_GAIN = 0.25;
+
+    private final float mThreshold;
+    private boolean mArmed = true;
+    private long mLastStep;
+    private boolean mHasStep;
+    private double mInterval;
+
+    private volatile long mSteps;
+    private volatile float mCadence;
+
+    /**
+     * @param threshold In the unit of the signal, e.g. mG.
+     */
+    public StepDetector(float threshold) {
+        if (threshold <= 0) throw new IllegalArgumentException("threshold= " + threshold);
+        mThreshold = threshold;
+    }
+
+    @Override
+    public int getInputChannels() {
+        return 1;
+    }
+
+    @Override
+    public int getOutputChannels() {
+        return 1;
+    }
+
+    @Override
+    public void process(long timestamp, float[] in, float[] out) {
+        float x = in[0];
+        out[0] = x;
+        if (mHasStep && timestamp - mLastStep > MAX_INTERVAL_NANOS) {
+            // stopped walking
+            mHasStep = false;
+            mInterval = 0;
+            mCadence = 0;
+        }
+        if (x < 0) {
+            mArmed = true;
+        } else if (mArmed && x > mThreshold) {
+            mArmed = false;
+            if (mHasStep && timestamp - mLastStep < MIN_INTERVAL_NANOS) return;
+            if (mHasStep) {
+                long interval = timestamp - mLastStep;
+                mInterval = mInterval == 0 ? interval : mInterval + (interval - mInterval) * CADENCE_GAIN;
+                mCadence = (float) (TimeUnit.MINUTES.toNanos(1) / mInterval);
+            }
+            mHasStep = true;
+            mLastStep = timestamp;
+            mSteps++;
+        }
+    }
+
+    public long getStepCount() {
+        return mSteps;
+    }
+
+    /** @return Steps per minute, 0 if not walking. */
+    public float getCadence() {
+        return mCadence;
+    }
+
+    @Override
+    public void reset() {
+        mArmed = true;
+        mHasStep = false;
+        mInterval = 0;
+        mCadence = 0;
+    }
+}
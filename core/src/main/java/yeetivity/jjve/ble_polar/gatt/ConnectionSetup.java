@@ -0,0 +1,28 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * Connection setup before service discovery: high connection priority (short interval), the
+ * 2M PHY where both sides support it, and the largest MTU. The negotiated values are recorded
+ * in a LinkParameters.
+ */
+public class ConnectionSetup {
+
+    private ConnectionSetup() {
+    }
+
+    /**
+     * @return The MTU request, complete when the setup is done (whether or not it succeeded).
+     */
+    public static GattOperation start(GattConnection gatt, GattCommandQueue queue,
+                                      LinkParameters link) {
+        link.reset();
+        if (gatt.requestConnectionPriority(LinkParameters.PRIORITY_HIGH)) {
+            link.setPriority(LinkParameters.PRIORITY_HIGH);
+        }
+        // the result arrives in onPhyUpdate
+        gatt.requestLe2MPhy();
+        return queue.requestMtu(LinkParameters.MAX_MTU).addListener(op -> {
+            if (op.isSuccess()) link.setMtu(op.getResultMtu());
+        });
+    }
+}
@@ -0,0 +1,202 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+
+/**
+ * Serializes GATT operations - Android allows only one outstanding operation per connection.
+ *
+ * Operations are issued in the order they are enqueued. The next one is issued from the
+ * callback completing the previous one, so the queue never waits for another thread. An
+ * operation that is not issued, fails, or gets no callback within its timeout is retried
+ * and finally completed with an error status; either way the queue moves on.
+ *
+ * The owner forwards the BluetoothGattCallback results to the on... methods below.
+ * Thread safe.
+ */
+public class GattCommandQueue {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 3000;
+    public static final int DEFAULT_RETRIES = 1;
+
+    private final GattOps mGatt;
+    private final GattScheduler mScheduler;
+    private final long mTimeoutMillis;
+    private final int mRetries;
+
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<>();
+    private GattOperation mCurrent;
+    // this queue's share of Metrics.GATT_QUEUE_DEPTH
+    private int mReportedDepth;
+
+    public GattCommandQueue(GattOps gatt, GattScheduler scheduler) {
+        this(gatt, scheduler, DEFAULT_TIMEOUT_MILLIS, DEFAULT_RETRIES);
+    }
+
+    /**
+     * @param timeoutMillis Default time to wait for the callback of an operation.
+     * @param retries       Default number of times a failed operation is issued again.
+     */
+    public GattCommandQueue(GattOps gatt, GattScheduler scheduler, long timeoutMillis, int retries) {
+        mGatt = gatt;
+        mScheduler = scheduler;
+        mTimeoutMillis = timeoutMillis;
+        mRetries = retries;
+    }
+
+    public GattOperation write(UUID service, UUID characteristic, byte[] value) {
+        return enqueue(GattOperation.write(service, characteristic, value));
+    }
+
+    public GattOperation read(UUID service, UUID characteristic) {
+        return enqueue(GattOperation.read(service, characteristic));
+    }
+
+    public GattOperation writeDescriptor(UUID service, UUID characteristic, UUID descriptor,
+                                         byte[] value) {
+        return enqueue(GattOperation.writeDescriptor(service, characteristic, descriptor, value));
+    }
+
+    public GattOperation requestMtu(int mtu) {
+        return enqueue(GattOperation.requestMtu(mtu));
+    }
+
+    public GattOperation enqueue(GattOperation operation) {
+        synchronized (this) {
+            if (operation.mQueue != null) throw new IllegalStateException("already enqueued: " + operation);
+            operation.mQueue = this;
+            mPending.add(operation);
+            reportDepth();
+        }
+        issueNext();
+        return operation;
+    }
+
+    /**
+     * Complete the current and all pending operations as cancelled, e.g. on disconnect.
+     */
+    public void clear() {
+        GattOperation[] cancelled;
+        synchronized (this) {
+            if (mCurrent != null) {
+                mScheduler.removeCallbacks(mCurrent.mTimeoutTask);
+                mPending.addFirst(mCurrent);
+                mCurrent = null;
+            }
+            cancelled = mPending.toArray(new GattOperation[0]);
+            mPending.clear();
+            reportDepth();
+        }
+        for (GattOperation operation : cancelled) {
+            operation.complete(GattOperation.STATUS_CANCELLED, null, 0);
+        }
+    }
+
+    /** @return The number of operations waiting, including the one in flight. */
+    public synchronized int size() {
+        return mPending.size() + (mCurrent == null ? 0 : 1);
+    }
+
+    public synchronized boolean isIdle() {
+        return mCurrent == null && mPending.isEmpty();
+    }
+
+    // the queues of all sessions add up in the gauge; under the lock
+    private void reportDepth() {
+        int depth = mPending.size() + (mCurrent == null ? 0 : 1);
+        if (depth == mReportedDepth) return;
+        Metrics.GATT_QUEUE_DEPTH.add(depth - mReportedDepth);
+        mReportedDepth = depth;
+    }
+
+    // Callbacks, forwarded from BluetoothGattCallback
+
+    public void onCharacteristicWrite(UUID characteristic, int status) {
+        onResult(GattOperation.Type.WRITE_CHARACTERISTIC, characteristic, null, status, null, 0);
+    }
+
+    public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        onResult(GattOperation.Type.READ_CHARACTERISTIC, characteristic, null, status, value, 0);
+    }
+
+    public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+        onResult(GattOperation.Type.WRITE_DESCRIPTOR, characteristic, descriptor, status, null, 0);
+    }
+
+    public void onMtuChanged(int mtu, int status) {
+        onResult(GattOperation.Type.REQUEST_MTU, null, null, status, null, mtu);
+    }
+
+    private void onResult(GattOperation.Type type, UUID characteristic, UUID descriptor,
+                          int status, byte[] value, int mtu) {
+        GattOperation operation;
+        synchronized (this) {
+            operation = mCurrent;
+            // late callback of an operation that already timed out, or not ours
+            if (operation == null || !operation.matches(type, characteristic, descriptor)) return;
+            mScheduler.removeCallbacks(operation.mTimeoutTask);
+            if (status != GattOperation.STATUS_SUCCESS && retry(operation)) {
+                mCurrent = null;
+                mPending.addFirst(operation);
+                operation = null;
+            } else {
+                mCurrent = null;
+            }
+            reportDepth();
+        }
+        if (operation != null) {
+            operation.complete(status, value, mtu);
+            if (operation.isSuccess()) Metrics.GATT_OP_LATENCY.record(operation.getLatencyNanos());
+        }
+        issueNext();
+    }
+
+    void onTimeout(GattOperation operation) {
+        synchronized (this) {
+            if (mCurrent != operation) return;
+            mCurrent = null;
+            if (retry(operation)) {
+                mPending.addFirst(operation);
+                operation = null;
+            }
+            reportDepth();
+        }
+        if (operation != null) operation.complete(GattOperation.STATUS_TIMEOUT, null, 0);
+        issueNext();
+    }
+
+    private boolean retry(GattOperation operation) {
+        return operation.mAttempts <= operation.getRetries(mRetries);
+    }
+
+    private void issueNext() {
+        while (true) {
+            GattOperation operation;
+            synchronized (this) {
+                if (mCurrent != null || mPending.isEmpty()) return;
+                operation = mPending.poll();
+                mCurrent = operation;
+                operation.mAttempts++;
+                operation.mIssuedAt = System.nanoTime();
+                mScheduler.postDelayed(operation.mTimeoutTask, operation.getTimeout(mTimeoutMillis));
+            }
+            // issued outside the lock, the callback may arrive on another thread right away
+            if (operation.issue(mGatt)) return;
+
+            synchronized (this) {
+                // the callback can not have arrived for an operation that was not issued
+                if (mCurrent != operation) return;
+                mScheduler.removeCallbacks(operation.mTimeoutTask);
+                mCurrent = null;
+                if (retry(operation)) {
+                    mPending.addFirst(operation);
+                    continue;
+                }
+                reportDepth();
+            }
+            operation.complete(GattOperation.STATUS_NOT_ISSUED, null, 0);
+        }
+    }
+}
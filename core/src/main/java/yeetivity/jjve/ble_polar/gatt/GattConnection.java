@@ -0,0 +1,27 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * One gatt connection, the subset of BluetoothGatt used by the app. Its results arrive
+ * through the GattListener the connection was opened with.
+ */
+public interface GattConnection extends GattOps {
+
+    boolean discoverServices();
+
+    /**
+     * @param priority LinkParameters.PRIORITY_HIGH, _BALANCED or _LOW_POWER.
+     */
+    boolean requestConnectionPriority(int priority);
+
+    /**
+     * Ask for the 2M PHY; the result arrives in onPhyUpdate.
+     * @return false if this side does not support it.
+     */
+    boolean requestLe2MPhy();
+
+    /** Drop the link; onConnectionStateChange follows unless the connection is closed. */
+    void disconnect();
+
+    /** Release the connection, no callback follows. */
+    void close();
+}
@@ -0,0 +1,16 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * A sensor that gatt connections can be opened to, e.g. a BluetoothDevice or a simulated one.
+ */
+public interface GattDevice {
+
+    String getAddress();
+
+    /**
+     * Start a connection attempt; the result arrives in onConnectionStateChange.
+     * @param background Let the system connect whenever the sensor is in range (autoConnect).
+     * @return null if the attempt could not be started.
+     */
+    GattConnection connect(boolean background, GattListener listener);
+}
@@ -0,0 +1,38 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The gatt callbacks used by the app, without the Android types, so that a connection can be
+ * served by a simulated sensor as well as by BluetoothGattCallback. Status codes are those
+ * of BluetoothGatt, 0 being success.
+ */
+public interface GattListener {
+
+    /**
+     * @param connected The link is up; false when it dropped or an attempt failed.
+     */
+    void onConnectionStateChange(boolean connected, int status);
+
+    /**
+     * @param services The services found, empty if the discovery failed.
+     */
+    void onServicesDiscovered(List<UUID> services, int status);
+
+    void onCharacteristicWrite(UUID characteristic, int status);
+
+    void onCharacteristicRead(UUID characteristic, byte[] value, int status);
+
+    void onDescriptorWrite(UUID characteristic, UUID descriptor, int status);
+
+    void onMtuChanged(int mtu, int status);
+
+    /**
+     * @param txPhy LinkParameters.PHY_1M or PHY_2M.
+     */
+    void onPhyUpdate(int txPhy, int status);
+
+    /** A notification or indication. */
+    void onCharacteristicChanged(UUID characteristic, byte[] value);
+}
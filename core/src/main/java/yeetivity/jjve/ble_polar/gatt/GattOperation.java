@@ -0,0 +1,226 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single GATT operation in a GattCommandQueue, and the future of its result.
+ * The status is the GATT status of the callback (0 = success), or one of the negative
+ * STATUS_ codes below if the queue gave up on the operation.
+ */
+public class GattOperation {
+
+    public enum Type {
+        WRITE_CHARACTERISTIC, READ_CHARACTERISTIC, WRITE_DESCRIPTOR, REQUEST_MTU
+    }
+
+    public interface Listener {
+        void onComplete(GattOperation operation);
+    }
+
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_NOT_ISSUED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    // use the queue's default
+    static final int DEFAULT = -1;
+
+    private final Type mType;
+    private final UUID mService;
+    private final UUID mCharacteristic;
+    private final UUID mDescriptor;
+    private final byte[] mValue;
+    private final int mMtu;
+
+    private long mTimeoutMillis = DEFAULT;
+    private int mRetries = DEFAULT;
+    int mAttempts;
+    long mIssuedAt;
+    private long mCompletedAt;
+
+    // fires if the callback does not arrive in time
+    final Runnable mTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mQueue != null) mQueue.onTimeout(GattOperation.this);
+        }
+    };
+    GattCommandQueue mQueue;
+
+    private boolean mDone;
+    private int mStatus;
+    private byte[] mResult;
+    private int mResultMtu;
+    private List<Listener> mListeners;
+
+    private GattOperation(Type type, UUID service, UUID characteristic, UUID descriptor,
+                          byte[] value, int mtu) {
+        mType = type;
+        mService = service;
+        mCharacteristic = characteristic;
+        mDescriptor = descriptor;
+        mValue = value;
+        mMtu = mtu;
+    }
+
+    /**
+     * The value is not copied, and must not be changed until the operation is complete.
+     */
+    public static GattOperation write(UUID service, UUID characteristic, byte[] value) {
+        return new GattOperation(Type.WRITE_CHARACTERISTIC, service, characteristic, null, value, 0);
+    }
+
+    public static GattOperation read(UUID service, UUID characteristic) {
+        return new GattOperation(Type.READ_CHARACTERISTIC, service, characteristic, null, null, 0);
+    }
+
+    public static GattOperation writeDescriptor(UUID service, UUID characteristic, UUID descriptor,
+                                                byte[] value) {
+        return new GattOperation(Type.WRITE_DESCRIPTOR, service, characteristic, descriptor, value, 0);
+    }
+
+    public static GattOperation requestMtu(int mtu) {
+        return new GattOperation(Type.REQUEST_MTU, null, null, null, null, mtu);
+    }
+
+    public GattOperation setTimeout(long timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public GattOperation setRetries(int retries) {
+        mRetries = retries;
+        return this;
+    }
+
+    long getTimeout(long defaultMillis) {
+        return mTimeoutMillis == DEFAULT ? defaultMillis : mTimeoutMillis;
+    }
+
+    int getRetries(int defaultRetries) {
+        return mRetries == DEFAULT ? defaultRetries : mRetries;
+    }
+
+    boolean issue(GattOps gatt) {
+        switch (mType) {
+            case WRITE_CHARACTERISTIC:
+                return gatt.writeCharacteristic(mService, mCharacteristic, mValue);
+            case READ_CHARACTERISTIC:
+                return gatt.readCharacteristic(mService, mCharacteristic);
+            case WRITE_DESCRIPTOR:
+                return gatt.writeDescriptor(mService, mCharacteristic, mDescriptor, mValue);
+            case REQUEST_MTU:
+                return gatt.requestMtu(mMtu);
+            default:
+                return false;
+        }
+    }
+
+    boolean matches(Type type, UUID characteristic, UUID descriptor) {
+        return mType == type
+                && (characteristic == null || characteristic.equals(mCharacteristic))
+                && (descriptor == null || descriptor.equals(mDescriptor));
+    }
+
+    void complete(int status, byte[] result, int mtu) {
+        List<Listener> listeners;
+        synchronized (this) {
+            if (mDone) return;
+            mDone = true;
+            mStatus = status;
+            mResult = result;
+            mResultMtu = mtu;
+            mCompletedAt = System.nanoTime();
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (Listener listener : listeners) listener.onComplete(this);
+        }
+    }
+
+    /**
+     * Add a listener, called on the thread completing the operation - usually the gatt
+     * callback thread. Called at once if the operation is already complete.
+     */
+    public GattOperation addListener(Listener listener) {
+        synchronized (this) {
+            if (!mDone) {
+                if (mListeners == null) mListeners = new ArrayList<>(1);
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.onComplete(this);
+        return this;
+    }
+
+    /**
+     * Block until the operation is complete. Not to be called on the gatt callback thread.
+     * @return true if complete, false if the wait timed out.
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    public synchronized boolean isSuccess() {
+        return mDone && mStatus == STATUS_SUCCESS;
+    }
+
+    public synchronized int getStatus() {
+        return mStatus;
+    }
+
+    /** @return The value read, for READ_CHARACTERISTIC. */
+    public synchronized byte[] getResult() {
+        return mResult;
+    }
+
+    /** @return The negotiated MTU, for REQUEST_MTU. */
+    public synchronized int getResultMtu() {
+        return mResultMtu;
+    }
+
+    /** @return The number of times the operation was issued. */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /** @return Time from issuing the last attempt to completion, in ns. */
+    public synchronized long getLatencyNanos() {
+        return mDone && mIssuedAt != 0 ? mCompletedAt - mIssuedAt : 0;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public UUID getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    public UUID getDescriptor() {
+        return mDescriptor;
+    }
+
+    @Override
+    public String toString() {
+        return mType + (mCharacteristic == null ? "" : " " + mCharacteristic)
+                + (mDescriptor == null ? "" : "/" + mDescriptor)
+                + (mType == Type.REQUEST_MTU ? " " + mMtu : "");
+    }
+}
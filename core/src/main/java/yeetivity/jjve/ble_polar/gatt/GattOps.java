@@ -0,0 +1,22 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.UUID;
+
+/**
+ * The GATT client operations used by the app, so that the command queue can be driven by a
+ * fake in unit tests. Each method only issues the operation; the result arrives later through
+ * the matching GattCommandQueue callback. Returns false if the operation could not be issued.
+ */
+public interface GattOps {
+
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value);
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+    boolean requestMtu(int mtu);
+
+    /** Enable or disable notifications/indications on the client side, completes at once. */
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+}
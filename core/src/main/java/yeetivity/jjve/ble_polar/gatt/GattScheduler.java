@@ -0,0 +1,12 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * Delayed execution for operation timeouts - the subset of android.os.Handler used by the
+ * command queue.
+ */
+public interface GattScheduler {
+
+    void postDelayed(Runnable task, long delayMillis);
+
+    void removeCallbacks(Runnable task);
+}
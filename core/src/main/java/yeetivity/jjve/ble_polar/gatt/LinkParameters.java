@@ -0,0 +1,76 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * The negotiated parameters of a connection, as far as Android reports them.
+ * Android does not report the connection interval; it is estimated from the requested
+ * connection priority.
+ */
+public class LinkParameters {
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+
+    // as BluetoothDevice.PHY_LE_1M / PHY_LE_2M
+    public static final int PHY_1M = 1;
+    public static final int PHY_2M = 2;
+
+    // as BluetoothGatt.CONNECTION_PRIORITY_*
+    public static final int PRIORITY_BALANCED = 0;
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    // upper end of the interval range Android requests for each priority, in us
+    private static final int[] PRIORITY_INTERVAL_MICROS = new int[]{50000, 15000, 125000};
+
+    private volatile int mMtu = DEFAULT_MTU;
+    private volatile int mTxPhy = PHY_1M;
+    private volatile int mPriority = PRIORITY_BALANCED;
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public void setMtu(int mtu) {
+        mMtu = mtu;
+    }
+
+    public int getTxPhy() {
+        return mTxPhy;
+    }
+
+    public void setTxPhy(int phy) {
+        mTxPhy = phy;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
+    /** @return The connection interval assumed for the requested priority, in us. */
+    public int getIntervalMicros() {
+        return PRIORITY_INTERVAL_MICROS[mPriority];
+    }
+
+    /**
+     * @return The link layer payload size assumed. Stacks negotiate the data length extension
+     * along with a larger MTU; with the default MTU a packet carries 27 bytes.
+     */
+    public int getDataLength() {
+        return mMtu > DEFAULT_MTU ? Math.min(251, mMtu + 4) : 27;
+    }
+
+    public void reset() {
+        mMtu = DEFAULT_MTU;
+        mTxPhy = PHY_1M;
+        mPriority = PRIORITY_BALANCED;
+    }
+
+    @Override
+    public String toString() {
+        return "mtu " + mMtu + ", phy " + mTxPhy + "M, interval " + getIntervalMicros() / 1000.0 + " ms";
+    }
+}
@@ -0,0 +1,161 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * Estimates how much PMD data a connection can carry.
+ *
+ * Model: every connection event the central and the sensor exchange link layer packets,
+ * each data packet answered by an empty one, 150 us apart, until the event ends or the
+ * phone's limit of packets per event is reached. A notification carries MTU - 3 bytes of
+ * PMD frame and takes (MTU + 4) / data length packets, the 4 being the L2CAP header.
+ */
+public class LinkThroughput {
+
+    // packets per connection event most phones allow
+    public static final int DEFAULT_MAX_PACKETS_PER_EVENT = 6;
+
+    private static final int T_IFS_MICROS = 150;
+    private static final int ATT_HEADER = 3;
+    private static final int L2CAP_HEADER = 4;
+    private static final int PMD_HEADER = 10;
+    private static final int DELTA_BLOCK_HEADER = 2;
+    private static final int MAX_DELTA_BLOCK_SAMPLES = 255;
+
+    private final int mMtu;
+    private final int mIntervalMicros;
+    private final int mPhy;
+    private final int mDataLength;
+    private final int mMaxPacketsPerEvent;
+
+    /**
+     * @param mtu                ATT MTU.
+     * @param intervalMicros     Connection interval, in us.
+     * @param phy                LinkParameters.PHY_1M or PHY_2M.
+     * @param dataLength         Link layer payload size, 27 to 251.
+     * @param maxPacketsPerEvent Data packets per connection event the phone allows.
+     */
+    public LinkThroughput(int mtu, int intervalMicros, int phy, int dataLength,
+                          int maxPacketsPerEvent) {
+        if (mtu < LinkParameters.DEFAULT_MTU) throw new IllegalArgumentException("mtu= " + mtu);
+        if (intervalMicros < 7500) {
+            throw new IllegalArgumentException("interval= " + intervalMicros);
+        }
+        if (dataLength < 27 || dataLength > 251) {
+            throw new IllegalArgumentException("data length= " + dataLength);
+        }
+        mMtu = mtu;
+        mIntervalMicros = intervalMicros;
+        mPhy = phy;
+        mDataLength = dataLength;
+        mMaxPacketsPerEvent = maxPacketsPerEvent;
+    }
+
+    public static LinkThroughput of(LinkParameters link) {
+        return new LinkThroughput(link.getMtu(), link.getIntervalMicros(), link.getTxPhy(),
+                link.getDataLength(), DEFAULT_MAX_PACKETS_PER_EVENT);
+    }
+
+    /** @return Air time of a link layer packet with the given payload, in us. */
+    int packetMicros(int payload) {
+        // preamble, access address, header, payload, crc
+        return mPhy == LinkParameters.PHY_2M
+                ? (2 + 4 + 2 + payload + 3) * 4
+                : (1 + 4 + 2 + payload + 3) * 8;
+    }
+
+    /** @return Bytes of PMD frame per notification. */
+    public int getNotificationPayload() {
+        return mMtu - ATT_HEADER;
+    }
+
+    public int getPacketsPerNotification() {
+        return (mMtu + L2CAP_HEADER + mDataLength - 1) / mDataLength;
+    }
+
+    public int getPacketsPerEvent() {
+        int round = packetMicros(mDataLength) + T_IFS_MICROS + packetMicros(0) + T_IFS_MICROS;
+        return Math.max(1, Math.min(mMaxPacketsPerEvent, mIntervalMicros / round));
+    }
+
+    /** @return Full size notifications the link carries per connection interval. */
+    public int getFramesPerInterval() {
+        return getPacketsPerEvent() / getPacketsPerNotification();
+    }
+
+    public double getFramesPerSecond() {
+        return getFramesPerInterval() * 1e6 / mIntervalMicros;
+    }
+
+    /** @return PMD frame bytes per second. */
+    public double getBytesPerSecond() {
+        return getFramesPerSecond() * getNotificationPayload();
+    }
+
+    /**
+     * @return Samples in a full size uncompressed frame.
+     */
+    public int samplesPerFrame(int channels, int bytesPerSample) {
+        return Math.max(0, (getNotificationPayload() - PMD_HEADER) / (channels * bytesPerSample));
+    }
+
+    /**
+     * @return Samples in a full size delta compressed frame: the reference sample, plus one
+     * block of deltaBits wide deltas.
+     */
+    public int samplesPerCompressedFrame(int channels, int resolution, int deltaBits) {
+        int bytes = getNotificationPayload() - PMD_HEADER - channels * ((resolution + 7) / 8)
+                - DELTA_BLOCK_HEADER;
+        if (bytes < 0) return 0;
+        return 1 + Math.min(MAX_DELTA_BLOCK_SAMPLES, bytes * 8 / (channels * deltaBits));
+    }
+
+    /** @return Uncompressed samples per second the link can carry. */
+    public double samplesPerSecond(int channels, int bytesPerSample) {
+        return getFramesPerSecond() * samplesPerFrame(channels, bytesPerSample);
+    }
+
+    /** @return Delta compressed samples per second the link can carry. */
+    public double compressedSamplesPerSecond(int channels, int resolution, int deltaBits) {
+        return getFramesPerSecond() * samplesPerCompressedFrame(channels, resolution, deltaBits);
+    }
+
+    /**
+     * @param headroom Fraction of the capacity to use, e.g. 0.5 to leave room for retransmissions.
+     * @return true if an uncompressed stream of the given rate fits.
+     */
+    public boolean fits(int sampleRate, int channels, int bytesPerSample, double headroom) {
+        return sampleRate <= samplesPerSecond(channels, bytesPerSample) * headroom;
+    }
+
+    /**
+     * Pick the highest of the supported rates, up to the desired one, that fits the link.
+     * @return The rate, or the lowest supported rate if none fits.
+     */
+    public int chooseSampleRate(int[] supportedRates, int desiredRate, int channels,
+                                int bytesPerSample, double headroom) {
+        return chooseSampleRate(supportedRates, supportedRates.length, desiredRate, channels,
+                bytesPerSample, headroom);
+    }
+
+    /**
+     * @param count Number of rates in supportedRates, e.g. PmdSettings.count(SAMPLE_RATE).
+     */
+    public int chooseSampleRate(int[] supportedRates, int count, int desiredRate, int channels,
+                                int bytesPerSample, double headroom) {
+        int best = -1, lowest = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int rate = supportedRates[i];
+            lowest = Math.min(lowest, rate);
+            if (rate <= desiredRate && rate > best
+                    && fits(rate, channels, bytesPerSample, headroom)) {
+                best = rate;
+            }
+        }
+        return best < 0 ? lowest : best;
+    }
+
+    @Override
+    public String toString() {
+        return getFramesPerInterval() + " frames/interval, "
+                + Math.round(getBytesPerSecond()) + " B/s";
+    }
+}
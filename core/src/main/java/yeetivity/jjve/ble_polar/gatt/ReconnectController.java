@@ -0,0 +1,225 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+/**
+ * Keeps a sensor connected: after a dropout it retries direct connections with exponential
+ * backoff, and after MAX_DIRECT_ATTEMPTS failed attempts leaves it to a background
+ * (autoConnect) connection, which the system completes whenever the sensor is back in range.
+ *
+ * Android independent: the owner forwards the connection state changes and opens the
+ * connections through a Connector. Measures the time from a dropout to the reconnect, and
+ * the gap in the data - from the last sample before the dropout to the first one after it.
+ *
+ * Thread safe.
+ */
+public class ReconnectController {
+
+    /** Opens and abandons connections, e.g. with BluetoothDevice.connectGatt. */
+    public interface Connector {
+
+        /**
+         * Start a connection attempt.
+         * @param background Let the system connect whenever the sensor is in range
+         *                   (autoConnect), rather than trying once and timing out.
+         * @return false if the attempt could not be started.
+         */
+        boolean connect(boolean background);
+
+        /** Abandon the connection or the attempt in progress. */
+        void disconnect();
+    }
+
+    public enum State {
+        IDLE, CONNECTING, CONNECTED, WAITING, BACKGROUND, STOPPED
+    }
+
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 16000;
+    public static final int DEFAULT_MAX_DIRECT_ATTEMPTS = 5;
+    // a direct attempt that has not connected by then has failed
+    public static final long CONNECT_TIMEOUT_MILLIS = 10000;
+
+    private final Connector mConnector;
+    private final GattScheduler mScheduler;
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final int mMaxDirectAttempts;
+
+    private State mState = State.IDLE;
+    // failed attempts since the last connection
+    private int mAttempts;
+    private boolean mWasConnected;
+    private long mDisconnectedAt;
+    private long mLastData = -1;
+    private long mGapStart = -1;
+
+    private long mReconnects;
+    private long mLastLatency;
+    private long mMaxLatency;
+    private long mLastGap;
+    private long mTotalGap;
+
+    private final Runnable mRetry = this::retry;
+    private final Runnable mTimeout = this::onTimeout;
+
+    public ReconnectController(Connector connector, GattScheduler scheduler) {
+        this(connector, scheduler, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                DEFAULT_MAX_DIRECT_ATTEMPTS);
+    }
+
+    /**
+     * @param initialDelayMillis Wait before the first retry, doubled after each failure.
+     * @param maxDelayMillis     Longest wait between retries.
+     * @param maxDirectAttempts  Direct attempts before falling back to a background one.
+     */
+    public ReconnectController(Connector connector, GattScheduler scheduler, long initialDelayMillis,
+                               long maxDelayMillis, int maxDirectAttempts) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis || maxDirectAttempts < 1) {
+            throw new IllegalArgumentException("delays " + initialDelayMillis + " - " + maxDelayMillis
+                    + ", attempts " + maxDirectAttempts);
+        }
+        mConnector = connector;
+        mScheduler = scheduler;
+        mInitialDelay = initialDelayMillis;
+        mMaxDelay = maxDelayMillis;
+        mMaxDirectAttempts = maxDirectAttempts;
+    }
+
+    /** Connect, and keep reconnecting until stop(). */
+    public synchronized void start() {
+        if (mState != State.IDLE && mState != State.STOPPED) return;
+        mAttempts = 0;
+        mWasConnected = false;
+        connect();
+    }
+
+    /** Stop reconnecting and abandon the connection. */
+    public synchronized void stop() {
+        if (mState == State.STOPPED) return;
+        mScheduler.removeCallbacks(mRetry);
+        mScheduler.removeCallbacks(mTimeout);
+        mState = State.STOPPED;
+        mConnector.disconnect();
+    }
+
+    /**
+     * @param nowMillis Local time, e.g. elapsedRealtime.
+     */
+    public synchronized void onConnected(long nowMillis) {
+        if (mState == State.STOPPED) return;
+        mScheduler.removeCallbacks(mTimeout);
+        mScheduler.removeCallbacks(mRetry);
+        if (mWasConnected && mState != State.CONNECTED) {
+            mReconnects++;
+            mLastLatency = nowMillis - mDisconnectedAt;
+            if (mLastLatency > mMaxLatency) mMaxLatency = mLastLatency;
+        }
+        mState = State.CONNECTED;
+        mWasConnected = true;
+        mAttempts = 0;
+    }
+
+    /**
+     * The connection dropped, or an attempt failed.
+     */
+    public synchronized void onDisconnected(long nowMillis) {
+        if (mState == State.STOPPED || mState == State.IDLE) return;
+        if (mState == State.CONNECTED) {
+            mDisconnectedAt = nowMillis;
+            if (mLastData >= 0) mGapStart = mLastData;
+            retryLater();
+        } else if (mState == State.CONNECTING) {
+            mScheduler.removeCallbacks(mTimeout);
+            mAttempts++;
+            retryLater();
+        }
+        // a background attempt stays pending until it connects
+    }
+
+    /**
+     * A sample arrived; cheap enough to call for every frame.
+     */
+    public synchronized void onData(long nowMillis) {
+        if (mGapStart >= 0) {
+            mLastGap = nowMillis - mGapStart;
+            mTotalGap += mLastGap;
+            mGapStart = -1;
+        }
+        mLastData = nowMillis;
+    }
+
+    private void retryLater() {
+        if (mAttempts >= mMaxDirectAttempts) {
+            // the failed direct attempt may still linger
+            mConnector.disconnect();
+            if (mConnector.connect(true)) {
+                mState = State.BACKGROUND;
+                return;
+            }
+        }
+        mState = State.WAITING;
+        mScheduler.postDelayed(mRetry, getDelayMillis(mAttempts));
+    }
+
+    /** @return The wait before retrying after the given number of failed attempts. */
+    public long getDelayMillis(int failedAttempts) {
+        long delay = mInitialDelay;
+        for (int i = 0; i < failedAttempts && delay < mMaxDelay; i++) delay *= 2;
+        return Math.min(delay, mMaxDelay);
+    }
+
+    private synchronized void retry() {
+        if (mState != State.WAITING) return;
+        // the background attempt could not be started: try it again
+        if (mAttempts >= mMaxDirectAttempts) retryLater();
+        else connect();
+    }
+
+    private void connect() {
+        mState = State.CONNECTING;
+        mConnector.disconnect();
+        if (mConnector.connect(false)) {
+            mScheduler.postDelayed(mTimeout, CONNECT_TIMEOUT_MILLIS);
+        } else {
+            mAttempts++;
+            retryLater();
+        }
+    }
+
+    private synchronized void onTimeout() {
+        if (mState != State.CONNECTING) return;
+        mConnector.disconnect();
+        mAttempts++;
+        retryLater();
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /** @return Failed attempts since the last connection. */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    public synchronized long getReconnectCount() {
+        return mReconnects;
+    }
+
+    /** @return Time from the last dropout to its reconnect, in ms. */
+    public synchronized long getLastReconnectLatencyMillis() {
+        return mLastLatency;
+    }
+
+    public synchronized long getMaxReconnectLatencyMillis() {
+        return mMaxLatency;
+    }
+
+    /** @return The last gap in the data around a dropout, in ms. */
+    public synchronized long getLastDataGapMillis() {
+        return mLastGap;
+    }
+
+    public synchronized long getTotalDataGapMillis() {
+        return mTotalGap;
+    }
+}
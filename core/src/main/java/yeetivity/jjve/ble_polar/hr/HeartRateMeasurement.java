@@ -0,0 +1,112 @@
+package yeetivity.jjve.ble_polar.hr;
+
+import yeetivity.jjve.ble_polar.utils.ByteReader;
+
+/**
+ * A parsed Heart Rate Measurement notification. Reused: parse() overwrites the previous
+ * measurement, and nothing is allocated.
+ *
+ * Layout: flags u8, heart rate u8 or u16, energy expended u16 if present, then RR intervals
+ * u16 in 1/1024 s until the end.
+ */
+public class HeartRateMeasurement {
+
+    public static final int FLAG_HR_16_BIT = 1;
+    public static final int FLAG_CONTACT_DETECTED = 1 << 1;
+    public static final int FLAG_CONTACT_SUPPORTED = 1 << 2;
+    public static final int FLAG_ENERGY_EXPENDED = 1 << 3;
+    public static final int FLAG_RR_INTERVALS = 1 << 4;
+
+    public static final int ENERGY_UNKNOWN = -1;
+    // an ATT value is at most 512 bytes
+    public static final int MAX_RR_INTERVALS = 255;
+
+    private int mFlags;
+    private int mHeartRate;
+    private int mEnergyExpended = ENERGY_UNKNOWN;
+    private final int[] mRr = new int[MAX_RR_INTERVALS];
+    private int mRrCount;
+
+    /**
+     * @throws IllegalArgumentException if the value is too short for its flags.
+     */
+    public HeartRateMeasurement parse(byte[] value) {
+        mRrCount = 0;
+        if (value == null || value.length < 2) throw new IllegalArgumentException("too short");
+        int flags = value[0] & 0xFF;
+        int position = 1;
+        if ((flags & FLAG_HR_16_BIT) != 0) {
+            if (value.length < 3) throw new IllegalArgumentException("truncated heart rate");
+            mHeartRate = ByteReader.readUint16(value, position);
+            position += 2;
+        } else {
+            mHeartRate = ByteReader.readUint8(value, position);
+            position += 1;
+        }
+        mEnergyExpended = ENERGY_UNKNOWN;
+        if ((flags & FLAG_ENERGY_EXPENDED) != 0) {
+            if (position + 2 > value.length) throw new IllegalArgumentException("truncated energy");
+            mEnergyExpended = ByteReader.readUint16(value, position);
+            position += 2;
+        }
+        if ((flags & FLAG_RR_INTERVALS) != 0) {
+            if ((value.length - position) % 2 != 0) {
+                throw new IllegalArgumentException("truncated RR interval");
+            }
+            int count = Math.min((value.length - position) / 2, MAX_RR_INTERVALS);
+            for (int i = 0; i < count; i++, position += 2) {
+                mRr[i] = ByteReader.readUint16(value, position);
+            }
+            mRrCount = count;
+        }
+        mFlags = flags;
+        return this;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /** @return Beats per minute; 0 if the sensor has no reading yet. */
+    public int getHeartRate() {
+        return mHeartRate;
+    }
+
+    /** @return true if the sensor reports skin contact, or does not support detecting it. */
+    public boolean hasContact() {
+        return (mFlags & FLAG_CONTACT_SUPPORTED) == 0 || (mFlags & FLAG_CONTACT_DETECTED) != 0;
+    }
+
+    public boolean isContactSupported() {
+        return (mFlags & FLAG_CONTACT_SUPPORTED) != 0;
+    }
+
+    /** @return Energy expended in kJ, ENERGY_UNKNOWN if not sent. */
+    public int getEnergyExpended() {
+        return mEnergyExpended;
+    }
+
+    public int getRrCount() {
+        return mRrCount;
+    }
+
+    /** @return RR interval i, oldest first, in 1/1024 s. */
+    public int getRr(int i) {
+        if (i >= mRrCount) throw new IndexOutOfBoundsException("RR " + i + " of " + mRrCount);
+        return mRr[i];
+    }
+
+    /** @return RR interval i in ms, rounded. */
+    public int getRrMillis(int i) {
+        return (getRr(i) * 1000 + 512) / 1024;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder().append(mHeartRate).append(" bpm");
+        if (!hasContact()) text.append(", no contact");
+        if (mEnergyExpended != ENERGY_UNKNOWN) text.append(", ").append(mEnergyExpended).append(" kJ");
+        for (int i = 0; i < mRrCount; i++) text.append(i == 0 ? ", RR " : " ").append(getRrMillis(i));
+        return text.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package yeetivity.jjve.ble_polar.hr;
+
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.gatt.GattCommandQueue;
+import yeetivity.jjve.ble_polar.gatt.GattOperation;
+import yeetivity.jjve.ble_polar.gatt.GattOps;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+
+/**
+ * The standard Bluetooth Heart Rate service, next to PMD on Polar sensors.
+ */
+public final class HeartRateService {
+
+    public static final UUID SERVICE =
+            UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    public static final UUID MEASUREMENT =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    public static final UUID BODY_SENSOR_LOCATION =
+            UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+
+    private HeartRateService() {
+    }
+
+    /**
+     * Queue enabling the measurement notifications. Goes through the same queue as the PMD
+     * setup, so both can be set up on one connection.
+     * @return The descriptor write.
+     */
+    public static GattOperation enableNotifications(GattOps ops, GattCommandQueue queue) {
+        ops.setCharacteristicNotification(SERVICE, MEASUREMENT, true);
+        return queue.writeDescriptor(SERVICE, MEASUREMENT, PolarPmd.CLIENT_CHARACTERISTIC_CONFIG,
+                PolarPmd.ENABLE_NOTIFICATION_VALUE);
+    }
+}
@@ -0,0 +1,175 @@
+package yeetivity.jjve.ble_polar.hr;
+
+/**
+ * Heart rate variability over the RR intervals of a sliding time window: RMSSD, SDNN and
+ * pNN50, plus the mean heart rate.
+ *
+ * Intervals are kept in ms, with the window statistics as integer running sums: adding an
+ * interval and dropping the ones that left the window are constant time, and exact however
+ * long the stream runs.
+ *
+ * Intervals outside the physiological range, or far off the previous one - a missed or an
+ * extra beat - are rejected as artifacts, unless several in a row are. Successive differences
+ * are only taken between intervals that follow each other without an artifact in between.
+ *
+ * Single threaded.
+ */
+public class HrvEngine {
+
+    public static final int MIN_RR_MILLIS = 300;
+    public static final int MAX_RR_MILLIS = 2000;
+    // largest change from the previous interval, in percent
+    public static final int MAX_CHANGE_PERCENT = 20;
+    private static final int MAX_REJECTED_IN_ROW = 3;
+    // pNN50 counts successive differences above this
+    private static final int NN50_MILLIS = 50;
+
+    private final long mWindowMillis;
+    private final int[] mRr;
+    // per interval: has a successive difference to the one before it
+    private final boolean[] mHasDiff;
+    private int mHead;
+    private int mCount;
+
+    private long mDuration;
+    private long mSum;
+    private long mSumSquares;
+    private long mDiffSquares;
+    private int mDiffs;
+    private int mNn50;
+
+    private int mPrevious;
+    private int mRejectedInRow;
+    // the last interval was accepted, a difference can be taken to it
+    private boolean mChained;
+    private long mAccepted;
+    private long mArtifacts;
+
+    /**
+     * @param windowMillis The sum of the intervals kept, e.g. 60000 for a 1 min window.
+     */
+    public HrvEngine(long windowMillis) {
+        if (windowMillis < MAX_RR_MILLIS) {
+            throw new IllegalArgumentException("window= " + windowMillis);
+        }
+        mWindowMillis = windowMillis;
+        // the most intervals a window can hold
+        int capacity = (int) (windowMillis / MIN_RR_MILLIS) + 1;
+        mRr = new int[capacity];
+        mHasDiff = new boolean[capacity];
+    }
+
+    /**
+     * Add the RR intervals of a heart rate measurement.
+     */
+    public void add(HeartRateMeasurement measurement) {
+        for (int i = 0; i < measurement.getRrCount(); i++) add(measurement.getRrMillis(i));
+    }
+
+    /**
+     * Add an RR interval.
+     * @return false if it was rejected as an artifact.
+     */
+    public boolean add(int rrMillis) {
+        if (rrMillis < MIN_RR_MILLIS || rrMillis > MAX_RR_MILLIS
+                || mPrevious != 0
+                && Math.abs(rrMillis - mPrevious) * 100 > mPrevious * MAX_CHANGE_PERCENT) {
+            mArtifacts++;
+            // several in a row: rather a real change of the heart rate, accept the next one
+            if (++mRejectedInRow >= MAX_REJECTED_IN_ROW) mPrevious = 0;
+            mChained = false;
+            return false;
+        }
+        int tail = (mHead + mCount) % mRr.length;
+        mRr[tail] = rrMillis;
+        mHasDiff[tail] = mChained && mCount > 0;
+        if (mHasDiff[tail]) {
+            long diff = rrMillis - mRr[(tail + mRr.length - 1) % mRr.length];
+            mDiffSquares += diff * diff;
+            mDiffs++;
+            if (Math.abs(diff) > NN50_MILLIS) mNn50++;
+        }
+        mCount++;
+        mDuration += rrMillis;
+        mSum += rrMillis;
+        mSumSquares += (long) rrMillis * rrMillis;
+        mPrevious = rrMillis;
+        mRejectedInRow = 0;
+        mChained = true;
+        mAccepted++;
+
+        while (mDuration > mWindowMillis) removeOldest();
+        return true;
+    }
+
+    private void removeOldest() {
+        int rr = mRr[mHead];
+        mDuration -= rr;
+        mSum -= rr;
+        mSumSquares -= (long) rr * rr;
+        mHead = (mHead + 1) % mRr.length;
+        mCount--;
+        // the difference of the new oldest interval was to the one removed
+        if (mCount > 0 && mHasDiff[mHead]) {
+            long diff = mRr[mHead] - rr;
+            mDiffSquares -= diff * diff;
+            mDiffs--;
+            if (Math.abs(diff) > NN50_MILLIS) mNn50--;
+            mHasDiff[mHead] = false;
+        }
+    }
+
+    public void reset() {
+        mHead = 0;
+        mCount = 0;
+        mDuration = 0;
+        mSum = 0;
+        mSumSquares = 0;
+        mDiffSquares = 0;
+        mDiffs = 0;
+        mNn50 = 0;
+        mPrevious = 0;
+        mRejectedInRow = 0;
+        mChained = false;
+    }
+
+    /** @return The number of intervals in the window. */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return The sum of the intervals in the window, in ms. */
+    public long getDurationMillis() {
+        return mDuration;
+    }
+
+    /** @return Root mean square of the successive differences, in ms; 0 without any. */
+    public double getRmssd() {
+        return mDiffs == 0 ? 0 : Math.sqrt((double) mDiffSquares / mDiffs);
+    }
+
+    /** @return Sample standard deviation of the intervals, in ms; 0 for fewer than two. */
+    public double getSdnn() {
+        if (mCount < 2) return 0;
+        double variance = (mSumSquares - (double) mSum * mSum / mCount) / (mCount - 1);
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    /** @return Percentage of successive differences above 50 ms. */
+    public double getPnn50() {
+        return mDiffs == 0 ? 0 : 100.0 * mNn50 / mDiffs;
+    }
+
+    /** @return Mean heart rate over the window, in beats per minute. */
+    public double getMeanHeartRate() {
+        return mSum == 0 ? 0 : 60000.0 * mCount / mSum;
+    }
+
+    public long getAcceptedCount() {
+        return mAccepted;
+    }
+
+    public long getArtifactCount() {
+        return mArtifacts;
+    }
+}
@@ -0,0 +1,32 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonic count, e.g. of notifications or bytes. Lock free.
+ */
+public final class Counter {
+
+    private final String mName;
+    private final AtomicLong mCount = new AtomicLong();
+
+    Counter(String name) {
+        mName = name;
+    }
+
+    public void increment() {
+        mCount.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        mCount.addAndGet(delta);
+    }
+
+    public long get() {
+        return mCount.get();
+    }
+
+    public String getName() {
+        return mName;
+    }
+}
@@ -0,0 +1,49 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The current value of something, e.g. a queue depth, and the highest value it had.
+ * set() for a value owned by one place; add() for a total several places contribute to.
+ * Lock free.
+ */
+public final class Gauge {
+
+    private final String mName;
+    private final AtomicLong mValue = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    Gauge(String name) {
+        mName = name;
+    }
+
+    public void set(long value) {
+        mValue.set(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // raced with another set, try again
+        }
+    }
+
+    public void add(long delta) {
+        long value = mValue.addAndGet(delta);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // raced with another update, try again
+        }
+    }
+
+    public long get() {
+        return mValue.get();
+    }
+
+    /** @return The highest value set, 0 if never set. */
+    public long getMax() {
+        long max = mMax.get();
+        return max == Long.MIN_VALUE ? 0 : max;
+    }
+
+    public String getName() {
+        return mName;
+    }
+}
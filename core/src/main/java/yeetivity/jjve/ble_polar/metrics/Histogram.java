@@ -0,0 +1,107 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, e.g. latencies in ns, with a bounded relative error
+ * in the style of HdrHistogram: each power of two is split into 16 linear sub-buckets, so a
+ * value is counted in a bucket at most 1/16 (6.25 %) wider than itself. Values from 0 up to
+ * 2^40 (18 minutes in ns) take 592 buckets; larger ones are counted as 2^40 - 1.
+ *
+ * record() is lock free and never allocates; it may be called from any thread.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    public static final long MAX_VALUE = (1L << 40) - 1;
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    Histogram(String name) {
+        mName = name;
+    }
+
+    // values below SUB_BUCKETS map to themselves, above that every power of two takes HALF
+    static int index(long value) {
+        int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+        return exponent * HALF + (int) (value >>> exponent);
+    }
+
+    /** @return The lowest value counted in the bucket. */
+    static long lowestValue(int index) {
+        int exponent = Math.max(0, index / HALF - 1);
+        return (long) (index - exponent * HALF) << exponent;
+    }
+
+    /** @return The highest value counted in the bucket. */
+    static long highestValue(int index) {
+        int exponent = Math.max(0, index / HALF - 1);
+        return lowestValue(index) + (1L << exponent) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        mCounts.incrementAndGet(index(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // raced with another record, try again
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * @param percentile 0 - 100.
+     * @return The highest value of the bucket holding the percentile, not above the max; 0 if
+     * empty. Approximate while values are recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile= " + percentile);
+        }
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += mCounts.get(i);
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(highestValue(i), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    /** Start over, e.g. after a dump. Values recorded meanwhile may be lost. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) mCounts.set(i, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    public String getName() {
+        return mName;
+    }
+}
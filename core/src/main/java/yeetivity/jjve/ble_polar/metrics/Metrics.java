@@ -0,0 +1,40 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+/**
+ * The metrics of the streaming pipeline, in one registry shared by all sessions.
+ * Latencies are in ns.
+ *
+ * The per packet updates are gated by ENABLED, e.g.
+ * {@code if (Metrics.ENABLED) Metrics.NOTIFICATIONS.increment();}, so that a build without
+ * metrics does not pay for them. It is read once, from the system property PROPERTY_ENABLED,
+ * and is on unless that is "false"; set it before this class is loaded.
+ */
+public final class Metrics {
+
+    public static final String PROPERTY_ENABLED = "ble_polar.metrics";
+    public static final boolean ENABLED =
+            !"false".equalsIgnoreCase(System.getProperty(PROPERTY_ENABLED));
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    // radio
+    public static final Counter NOTIFICATIONS = REGISTRY.counter("ble.notifications");
+    public static final Counter NOTIFICATION_BYTES = REGISTRY.counter("ble.bytes");
+    public static final Histogram GATT_OP_LATENCY = REGISTRY.histogram("gatt.op_latency");
+    // operations queued or in flight, over the queues of all sessions
+    public static final Gauge GATT_QUEUE_DEPTH = REGISTRY.gauge("gatt.queue_depth");
+
+    // decoding and buffering
+    public static final Histogram DECODE_TIME = REGISTRY.histogram("pmd.decode");
+    public static final Counter DECODE_ERRORS = REGISTRY.counter("pmd.decode_errors");
+    // samples the sensor sent that never arrived, and samples dropped by a full buffer
+    public static final Counter LOST_SAMPLES = REGISTRY.counter("stream.lost_samples");
+    public static final Counter OVERRUN_SAMPLES = REGISTRY.counter("stream.overrun_samples");
+
+    // ui: time from vsync to the frame being drawn, and display frames missed by it
+    public static final Histogram FRAME_LAG = REGISTRY.histogram("ui.frame_lag");
+    public static final Counter DROPPED_FRAMES = REGISTRY.counter("ui.dropped_frames");
+
+    private Metrics() {
+    }
+}
@@ -0,0 +1,69 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named counters, gauges and histograms, created once and updated lock free from any thread.
+ * A MetricsReporter formats them.
+ */
+public class MetricsRegistry {
+
+    private final List<Counter> mCounters = new ArrayList<>();
+    private final List<Gauge> mGauges = new ArrayList<>();
+    private final List<Histogram> mHistograms = new ArrayList<>();
+    private final Map<String, Object> mByName = new HashMap<>();
+
+    /** @return The counter of the name, created on first use. */
+    public synchronized Counter counter(String name) {
+        Counter counter = get(name, Counter.class);
+        if (counter == null) {
+            counter = new Counter(name);
+            mCounters.add(counter);
+            mByName.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized Gauge gauge(String name) {
+        Gauge gauge = get(name, Gauge.class);
+        if (gauge == null) {
+            gauge = new Gauge(name);
+            mGauges.add(gauge);
+            mByName.put(name, gauge);
+        }
+        return gauge;
+    }
+
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = get(name, Histogram.class);
+        if (histogram == null) {
+            histogram = new Histogram(name);
+            mHistograms.add(histogram);
+            mByName.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    private <T> T get(String name, Class<T> type) {
+        Object metric = mByName.get(name);
+        if (metric != null && !type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    public synchronized List<Counter> getCounters() {
+        return new ArrayList<>(mCounters);
+    }
+
+    public synchronized List<Gauge> getGauges() {
+        return new ArrayList<>(mGauges);
+    }
+
+    public synchronized List<Histogram> getHistograms() {
+        return new ArrayList<>(mHistograms);
+    }
+}
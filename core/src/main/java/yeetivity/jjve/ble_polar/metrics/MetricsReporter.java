@@ -0,0 +1,76 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formats the metrics of a registry as text lines, for a debug overlay or a periodic dump
+ * file: counters with their rate since the previous report, gauges with their max, and
+ * histograms with count, mean, median, 99th percentile and max in us.
+ *
+ * Each consumer has its own reporter, as the rates depend on when it last reported. Not
+ * thread safe.
+ */
+public class MetricsReporter {
+
+    private final MetricsRegistry mRegistry;
+    // counts at the previous report, for the rates
+    private final Map<Counter, Long> mLastCounts = new HashMap<>();
+    private long mLastReport = -1;
+
+    public MetricsReporter(MetricsRegistry registry) {
+        mRegistry = registry;
+    }
+
+    /**
+     * Append one line per metric.
+     * @param nowNanos Monotonic time, for the counter rates.
+     */
+    public void report(Appendable out, long nowNanos) throws IOException {
+        double seconds = mLastReport < 0 ? 0 : (nowNanos - mLastReport) / 1e9;
+        for (Counter counter : mRegistry.getCounters()) {
+            long count = counter.get();
+            Long last = mLastCounts.put(counter, count);
+            out.append(counter.getName()).append(' ').append(Long.toString(count));
+            if (seconds > 0 && last != null) {
+                out.append(", ").append(format((count - last) / seconds)).append("/s");
+            }
+            out.append('\n');
+        }
+        for (Gauge gauge : mRegistry.getGauges()) {
+            out.append(gauge.getName()).append(' ').append(Long.toString(gauge.get()))
+                    .append(", max ").append(Long.toString(gauge.getMax())).append('\n');
+        }
+        for (Histogram histogram : mRegistry.getHistograms()) {
+            out.append(histogram.getName()).append(" n=").append(Long.toString(histogram.getCount()))
+                    .append(" mean ").append(format(histogram.getMean() / 1000))
+                    .append(" p50 ").append(micros(histogram.getValueAtPercentile(50)))
+                    .append(" p99 ").append(micros(histogram.getValueAtPercentile(99)))
+                    .append(" max ").append(micros(histogram.getMax())).append(" us\n");
+        }
+        mLastReport = nowNanos;
+    }
+
+    /** @return report() as a String. */
+    public String report(long nowNanos) {
+        StringBuilder text = new StringBuilder(512);
+        try {
+            report(text, nowNanos);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+        }
+        return text.toString();
+    }
+
+    private static String micros(long nanos) {
+        return format(nanos / 1000.0);
+    }
+
+    // one decimal
+    static String format(double value) {
+        long tenths = Math.round(value * 10);
+        return (tenths < 0 ? "-" : "") + Math.abs(tenths / 10) + "." + Math.abs(tenths % 10);
+    }
+}
@@ -0,0 +1,108 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+/**
+ * Builds PMD control point commands.
+ *
+ * Command layout: op code, measurement type, then for a start command each setting as
+ * [setting type][count = 1][value, little endian]. Commands are built into buffers owned by
+ * this object, so restarting a stream does not allocate: get settings and stop commands are
+ * constant, a start command reuses the buffer of its measurement type while its length is
+ * unchanged. A start command must therefore not be rebuilt for the same measurement type
+ * before its write has completed.
+ */
+public class PmdControlPoint {
+
+    public static final int OP_GET_SETTINGS = 0x01;
+    public static final int OP_START = 0x02;
+    public static final int OP_STOP = 0x03;
+
+    // first byte of a control point indication, and of a control point read
+    public static final int RESPONSE = 0xF0;
+    public static final int FEATURES = 0x0F;
+
+    // measurement types 0 - 6, 4 is not used
+    static final int MEASUREMENT_TYPES = 7;
+
+    private static final byte[][] GET_SETTINGS = constantCommands(OP_GET_SETTINGS);
+    private static final byte[][] STOP = constantCommands(OP_STOP);
+
+    private final byte[][] mStartBuffers = new byte[MEASUREMENT_TYPES][];
+
+    private static byte[][] constantCommands(int op) {
+        byte[][] commands = new byte[MEASUREMENT_TYPES][];
+        for (int type = 0; type < MEASUREMENT_TYPES; type++) {
+            commands[type] = new byte[]{(byte) op, (byte) type};
+        }
+        return commands;
+    }
+
+    private static void checkMeasurementType(int type) {
+        if (type < 0 || type >= MEASUREMENT_TYPES) {
+            throw new IllegalArgumentException("measurement type= " + type);
+        }
+    }
+
+    /**
+     * @return The command querying the settings the sensor supports for the measurement type.
+     * The array is shared and must not be changed.
+     */
+    public byte[] getSettings(int measurementType) {
+        checkMeasurementType(measurementType);
+        return GET_SETTINGS[measurementType];
+    }
+
+    /**
+     * @return The command stopping the measurement. The array is shared and must not be changed.
+     */
+    public byte[] stop(int measurementType) {
+        checkMeasurementType(measurementType);
+        return STOP[measurementType];
+    }
+
+    /**
+     * @param settings The first value of each setting present is requested. PPI takes none.
+     * @return The command starting the measurement, valid until the next start command of the
+     * same measurement type.
+     */
+    public byte[] start(int measurementType, PmdSettings settings) {
+        checkMeasurementType(measurementType);
+        int length = 2;
+        for (int type = 0; type < PmdSettings.TYPES; type++) {
+            if (settings.has(type)) length += 2 + PmdSettings.width(type);
+        }
+        byte[] command = mStartBuffers[measurementType];
+        if (command == null || command.length != length) {
+            command = new byte[length];
+            mStartBuffers[measurementType] = command;
+        }
+
+        command[0] = OP_START;
+        command[1] = (byte) measurementType;
+        int position = 2;
+        for (int type = 0; type < PmdSettings.TYPES; type++) {
+            if (!settings.has(type)) continue;
+            int value = settings.get(type);
+            command[position++] = (byte) type;
+            command[position++] = 1;
+            for (int i = 0; i < PmdSettings.width(type); i++) {
+                command[position++] = (byte) (value >>> (8 * i));
+            }
+        }
+        return command;
+    }
+
+    /**
+     * @param value The value read from the control point.
+     * @return Bit mask of the supported measurement types, bit n for type n.
+     */
+    public static int parseFeatures(byte[] value) {
+        if (value == null || value.length < 2 || (value[0] & 0xFF) != FEATURES) {
+            throw new IllegalArgumentException("not a feature read");
+        }
+        return value[1] & 0xFF;
+    }
+
+    public static boolean isSupported(int features, int measurementType) {
+        return (features & (1 << measurementType)) != 0;
+    }
+}
@@ -0,0 +1,35 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+/**
+ * Error codes of PMD control point responses.
+ */
+public enum PmdError {
+    SUCCESS,
+    INVALID_OP_CODE,
+    INVALID_MEASUREMENT_TYPE,
+    NOT_SUPPORTED,
+    INVALID_LENGTH,
+    INVALID_PARAMETER,
+    ALREADY_IN_STATE,
+    INVALID_RESOLUTION,
+    INVALID_SAMPLE_RATE,
+    INVALID_RANGE,
+    INVALID_MTU,
+    INVALID_NUMBER_OF_CHANNELS,
+    INVALID_STATE,
+    DEVICE_IN_CHARGER,
+    UNKNOWN;
+
+    private static final PmdError[] VALUES = values();
+
+    /**
+     * @return The error of the code, UNKNOWN for codes not listed.
+     */
+    public static PmdError fromCode(int code) {
+        return code >= 0 && code < UNKNOWN.ordinal() ? VALUES[code] : UNKNOWN;
+    }
+
+    public int getCode() {
+        return ordinal();
+    }
+}
@@ -0,0 +1,193 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import yeetivity.jjve.ble_polar.utils.ByteReader;
+
+/**
+ * Decoder for Polar Measurement Data (PMD) frames, as received on the PolarPmd.DATA characteristic.
+ *
+ * A frame consists of a ten byte header followed by the samples:
+ * <pre>
+ *   [0]     measurement type (2 = ACC)
+ *   [1..8]  sensor timestamp, uint64 little endian (ns, timestamp of the last sample)
+ *   [9]     frame type, bit 7 set if the frame is delta compressed
+ *   [10..]  samples
+ * </pre>
+ * Uncompressed frames carry (frame type + 1) bytes per channel and sample. Compressed frames
+ * start with a reference sample (resolution rounded up to whole bytes per channel), followed
+ * by blocks of [delta size in bits][sample count][bit packed signed deltas].
+ *
+ * The decoder keeps no per frame state other than the header fields of the last frame, and
+ * writes samples straight into the arrays supplied by the caller - nothing is allocated
+ * per frame.
+ */
+public class PmdFrameDecoder {
+
+    // measurement types, byte 0 of a data frame
+    public static final int MEASUREMENT_ECG = 0;
+    public static final int MEASUREMENT_PPG = 1;
+    public static final int MEASUREMENT_ACC = 2;
+    public static final int MEASUREMENT_PPI = 3;
+    public static final int MEASUREMENT_GYRO = 5;
+    public static final int MEASUREMENT_MAG = 6;
+
+    public static final int HEADER_SIZE = 10;
+
+    private static final int COMPRESSED_FLAG = 0x80;
+    private static final int FRAME_TYPE_MASK = 0x7F;
+
+    // ACC defaults, see PolarPmd.accSettings
+    public static final int DEFAULT_CHANNELS = 3;
+    public static final int DEFAULT_RESOLUTION = 16;
+    public static final int DEFAULT_MAX_SAMPLES = 256;
+
+    private final int mChannels;
+    private final int mResolution;
+    // interleaved samples, used when decoding into one array per channel
+    private final int[] mScratch;
+    private final ByteReader mReader = new ByteReader();
+
+    private int mMeasurementType = -1;
+    private long mTimestamp;
+    private int mFrameType;
+    private boolean mCompressed;
+    private int mSampleCount;
+
+    public PmdFrameDecoder() {
+        this(DEFAULT_CHANNELS, DEFAULT_RESOLUTION, DEFAULT_MAX_SAMPLES);
+    }
+
+    /**
+     * @param channels   Number of channels per sample, e.g. 3 for ACC.
+     * @param resolution Sample resolution in bits, as requested in the measurement settings.
+     * @param maxSamples The maximum number of samples expected in one frame.
+     */
+    public PmdFrameDecoder(int channels, int resolution, int maxSamples) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        if (resolution < 1 || resolution > 32)
+            throw new IllegalArgumentException("resolution= " + resolution);
+        mChannels = channels;
+        mResolution = resolution;
+        mScratch = new int[maxSamples * channels];
+    }
+
+    /**
+     * Decode a frame into an array of interleaved samples, i.e. x0, y0, z0, x1, y1, z1, ...
+     * @param frame   The value of the data characteristic.
+     * @param samples Destination, of length (channels * number of samples in the frame) or greater.
+     * @return The number of samples (not values) written.
+     */
+    public int decode(byte[] frame, int[] samples) {
+        return decode(frame, frame.length, samples);
+    }
+
+    /**
+     * Decode a three channel frame into one array per axis.
+     * @return The number of samples written to each of x, y and z.
+     */
+    public int decode(byte[] frame, short[] x, short[] y, short[] z) {
+        if (mChannels != 3) throw new IllegalStateException("channels= " + mChannels);
+        int count = decode(frame, frame.length, mScratch);
+        if (count > x.length || count > y.length || count > z.length)
+            throw new IllegalArgumentException("buffer too small, samples= " + count);
+        for (int i = 0, j = 0; i < count; i++, j += 3) {
+            x[i] = (short) mScratch[j];
+            y[i] = (short) mScratch[j + 1];
+            z[i] = (short) mScratch[j + 2];
+        }
+        return count;
+    }
+
+    private int decode(byte[] frame, int length, int[] samples) {
+        if (length < HEADER_SIZE) throw new IllegalArgumentException("frame length= " + length);
+        ByteReader reader = mReader.reset(frame, 0, length);
+        mMeasurementType = reader.readUint8();
+        mTimestamp = reader.readInt64();
+        int frameType = reader.readUint8();
+        mCompressed = (frameType & COMPRESSED_FLAG) != 0;
+        mFrameType = frameType & FRAME_TYPE_MASK;
+
+        mSampleCount = mCompressed
+                ? decodeDelta(reader, samples)
+                : decodeRaw(reader, samples);
+        return mSampleCount;
+    }
+
+    private int decodeRaw(ByteReader reader, int[] samples) {
+        int width = mFrameType + 1;
+        if (width > 4) throw new IllegalArgumentException("frame type= " + mFrameType);
+        int count = reader.remaining() / (width * mChannels);
+        int values = count * mChannels;
+        if (values > samples.length)
+            throw new IllegalArgumentException("buffer too small, samples= " + count);
+        for (int i = 0; i < values; i++) {
+            samples[i] = reader.readSigned(width);
+        }
+        return count;
+    }
+
+    private int decodeDelta(ByteReader reader, int[] samples) {
+        int channels = mChannels;
+        int refWidth = (mResolution + 7) / 8;
+        if (reader.remaining() < channels * refWidth || channels > samples.length)
+            throw new IllegalArgumentException("truncated reference sample");
+
+        // reference sample
+        for (int c = 0; c < channels; c++) {
+            samples[c] = reader.readSigned(refWidth);
+        }
+        int count = 1;
+
+        // delta blocks, each starting at a whole byte
+        while (reader.hasRemaining()) {
+            if (reader.remaining() < 2) throw new IllegalArgumentException("truncated delta block");
+            int deltaSize = reader.readUint8();
+            int blockCount = reader.readUint8();
+            if (deltaSize > 32) throw new IllegalArgumentException("delta size= " + deltaSize);
+            int blockBytes = (blockCount * channels * deltaSize + 7) / 8;
+            if (reader.remaining() < blockBytes)
+                throw new IllegalArgumentException("truncated delta block");
+            if ((count + blockCount) * channels > samples.length)
+                throw new IllegalArgumentException("buffer too small, samples= "
+                        + (count + blockCount));
+
+            int index = count * channels;
+            for (int s = 0; s < blockCount; s++) {
+                for (int c = 0; c < channels; c++, index++) {
+                    samples[index] = samples[index - channels] + reader.readSignedBits(deltaSize);
+                }
+            }
+            reader.alignToByte();
+            count += blockCount;
+        }
+        return count;
+    }
+
+    public int getMeasurementType() {
+        return mMeasurementType;
+    }
+
+    /** Sensor timestamp of the last decoded frame, in ns. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getFrameType() {
+        return mFrameType;
+    }
+
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public int getResolution() {
+        return mResolution;
+    }
+}
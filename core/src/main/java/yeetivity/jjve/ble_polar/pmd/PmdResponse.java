@@ -0,0 +1,116 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import yeetivity.jjve.ble_polar.utils.ByteReader;
+
+/**
+ * A parsed PMD control point response. Reused: parse() overwrites the previous response.
+ *
+ * Layout: 0xF0, op code, measurement type, error code, more flag, then - for a get settings
+ * response - the supported settings as [setting type][count][count values, little endian].
+ */
+public class PmdResponse {
+
+    private static final int HEADER_SIZE = 5;
+
+    private final PmdSettings mSettings = new PmdSettings();
+    private int mOpCode;
+    private int mMeasurementType;
+    private int mErrorCode;
+    private PmdError mError = PmdError.UNKNOWN;
+    private boolean mMore;
+
+    /**
+     * @param value Value of a control point indication.
+     * @throws IllegalArgumentException if the value is not a control point response, or its
+     *                                  settings are malformed.
+     */
+    public PmdResponse parse(byte[] value) {
+        mSettings.clear();
+        if (value == null || value.length < 4 || (value[0] & 0xFF) != PmdControlPoint.RESPONSE) {
+            throw new IllegalArgumentException("not a control point response");
+        }
+        mOpCode = value[1] & 0xFF;
+        mMeasurementType = value[2] & 0xFF;
+        mErrorCode = value[3] & 0xFF;
+        mError = PmdError.fromCode(mErrorCode);
+        mMore = value.length > 4 && value[4] != 0;
+
+        if (mError == PmdError.SUCCESS && mOpCode == PmdControlPoint.OP_GET_SETTINGS) {
+            parseSettings(value, HEADER_SIZE);
+        }
+        return this;
+    }
+
+    private void parseSettings(byte[] value, int position) {
+        while (position < value.length) {
+            if (position + 2 > value.length) {
+                throw new IllegalArgumentException("truncated setting");
+            }
+            int type = value[position] & 0xFF;
+            int count = value[position + 1] & 0xFF;
+            position += 2;
+            if (type >= PmdSettings.TYPES) {
+                throw new IllegalArgumentException("setting type= " + type);
+            }
+            int width = PmdSettings.width(type);
+            if (position + count * width > value.length) {
+                throw new IllegalArgumentException("truncated setting " + type);
+            }
+            for (int i = 0; i < count; i++) {
+                mSettings.add(type, (int) readUnsigned(value, position, width));
+                position += width;
+            }
+        }
+    }
+
+    private static long readUnsigned(byte[] value, int offset, int width) {
+        switch (width) {
+            case 1:
+                return ByteReader.readUint8(value, offset);
+            case 2:
+                return ByteReader.readUint16(value, offset);
+            default:
+                return ByteReader.readUint32(value, offset);
+        }
+    }
+
+    public int getOpCode() {
+        return mOpCode;
+    }
+
+    public int getMeasurementType() {
+        return mMeasurementType;
+    }
+
+    public PmdError getError() {
+        return mError;
+    }
+
+    /** @return The raw error code, for UNKNOWN errors. */
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+
+    /**
+     * @return true on success, and for a start or stop of a measurement already in that state.
+     */
+    public boolean isSuccess() {
+        return mError == PmdError.SUCCESS || mError == PmdError.ALREADY_IN_STATE;
+    }
+
+    /** @return true if more responses follow. */
+    public boolean hasMore() {
+        return mMore;
+    }
+
+    /** @return The supported settings of a get settings response; reused by the next parse. */
+    public PmdSettings getSettings() {
+        return mSettings;
+    }
+
+    @Override
+    public String toString() {
+        return "op " + mOpCode + ", type " + mMeasurementType + ": " + mError
+                + (mSettings.size() > 0 ? " " + mSettings : "");
+    }
+}
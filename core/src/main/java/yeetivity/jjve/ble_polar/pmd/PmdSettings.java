@@ -0,0 +1,162 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import java.util.Arrays;
+
+/**
+ * Settings of a PMD measurement: the values requested in a start command (one per setting),
+ * or the values supported as answered to a get settings command (several per setting).
+ * Preallocated and reusable.
+ */
+public class PmdSettings {
+
+    public static final int SAMPLE_RATE = 0;
+    public static final int RESOLUTION = 1;
+    public static final int RANGE = 2;
+    public static final int RANGE_MILLIUNIT = 3;
+    public static final int CHANNELS = 4;
+    // conversion factor, a float
+    public static final int FACTOR = 5;
+
+    // number of setting types, SAMPLE_RATE to FACTOR
+    public static final int TYPES = 6;
+    public static final int MAX_VALUES = 16;
+
+    // bytes per value of each setting type
+    private static final int[] WIDTH = new int[]{2, 2, 2, 4, 1, 4};
+
+    private final int[][] mValues = new int[TYPES][MAX_VALUES];
+    private final int[] mCounts = new int[TYPES];
+
+    /**
+     * @return The number of bytes per value of the setting type.
+     */
+    public static int width(int type) {
+        checkType(type);
+        return WIDTH[type];
+    }
+
+    private static void checkType(int type) {
+        if (type < 0 || type >= TYPES) throw new IllegalArgumentException("setting type= " + type);
+    }
+
+    public PmdSettings clear() {
+        Arrays.fill(mCounts, 0);
+        return this;
+    }
+
+    /**
+     * Set a single value for the setting.
+     */
+    public PmdSettings set(int type, int value) {
+        checkType(type);
+        mValues[type][0] = value;
+        mCounts[type] = 1;
+        return this;
+    }
+
+    /**
+     * Add a value to the setting, e.g. one of the supported sample rates.
+     */
+    public PmdSettings add(int type, int value) {
+        checkType(type);
+        if (mCounts[type] == MAX_VALUES) {
+            throw new IllegalArgumentException("more than " + MAX_VALUES + " values");
+        }
+        mValues[type][mCounts[type]++] = value;
+        return this;
+    }
+
+    public void remove(int type) {
+        checkType(type);
+        mCounts[type] = 0;
+    }
+
+    public void copyFrom(PmdSettings other) {
+        for (int type = 0; type < TYPES; type++) {
+            mCounts[type] = other.mCounts[type];
+            System.arraycopy(other.mValues[type], 0, mValues[type], 0, mCounts[type]);
+        }
+    }
+
+    public boolean has(int type) {
+        return count(type) > 0;
+    }
+
+    public int count(int type) {
+        checkType(type);
+        return mCounts[type];
+    }
+
+    public int get(int type, int index) {
+        if (index >= count(type)) throw new IndexOutOfBoundsException("index= " + index);
+        return mValues[type][index];
+    }
+
+    /** @return The first value of the setting. */
+    public int get(int type) {
+        return get(type, 0);
+    }
+
+    /**
+     * @return The values of the setting; valid up to count(type), and only until this is changed.
+     */
+    public int[] values(int type) {
+        checkType(type);
+        return mValues[type];
+    }
+
+    public float getFactor() {
+        return Float.intBitsToFloat(get(FACTOR));
+    }
+
+    /** @return The number of setting types present. */
+    public int size() {
+        int size = 0;
+        for (int count : mCounts) {
+            if (count > 0) size++;
+        }
+        return size;
+    }
+
+    /**
+     * Fill this with the desired settings, each replaced by the highest supported value not
+     * above it, or the lowest supported value if all are above it. Settings the sensor does not
+     * list are kept as desired.
+     * @return this
+     */
+    public PmdSettings select(PmdSettings desired, PmdSettings supported) {
+        clear();
+        for (int type = 0; type < TYPES; type++) {
+            if (!desired.has(type)) continue;
+            int want = desired.get(type);
+            int n = supported.mCounts[type];
+            if (n == 0) {
+                set(type, want);
+                continue;
+            }
+            int[] values = supported.mValues[type];
+            int best = Integer.MIN_VALUE, lowest = Integer.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                lowest = Math.min(lowest, values[i]);
+                if (values[i] <= want && values[i] > best) best = values[i];
+            }
+            set(type, best == Integer.MIN_VALUE ? lowest : best);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int type = 0; type < TYPES; type++) {
+            if (mCounts[type] == 0) continue;
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(type).append('=');
+            for (int i = 0; i < mCounts[type]; i++) {
+                if (i > 0) sb.append('/');
+                sb.append(mValues[type][i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
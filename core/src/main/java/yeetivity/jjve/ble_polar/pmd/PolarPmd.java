@@ -0,0 +1,71 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.gatt.GattCommandQueue;
+import yeetivity.jjve.ble_polar.gatt.GattOperation;
+import yeetivity.jjve.ble_polar.gatt.GattOps;
+
+/**
+ * Polar Measurement Data (PMD) service UUIDs, default settings, and the setup needed before
+ * streaming.
+ */
+public final class PolarPmd {
+
+    // Polar 2.0 UUIDs
+    public static final UUID SERVICE =
+            UUID.fromString("FB005C80-02E7-F387-1CAD-8ACD2D8DF0C8");
+    public static final UUID CONTROL =
+            UUID.fromString("FB005C81-02E7-F387-1CAD-8ACD2D8DF0C8");
+    public static final UUID DATA =
+            UUID.fromString("FB005C82-02E7-F387-1CAD-8ACD2D8DF0C8");
+    public static final UUID CLIENT_CHARACTERISTIC_CONFIG =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    // client characteristic config values, as in BluetoothGattDescriptor
+    public static final byte[] ENABLE_NOTIFICATION_VALUE = new byte[]{0x01, 0x00};
+    public static final byte[] ENABLE_INDICATION_VALUE = new byte[]{0x02, 0x00};
+
+    // ACC: 52 Hz, 16 bit resolution, 8 G range, 3 channels
+    public static final int ACC_SAMPLE_RATE = 52;
+    public static final int ACC_RESOLUTION = 16;
+    public static final int ACC_RANGE = 8;
+    public static final int ACC_CHANNELS = 3;
+
+    private PolarPmd() {
+    }
+
+    /**
+     * @return The default ACC settings, at the given sample rate.
+     */
+    public static PmdSettings accSettings(int sampleRate) {
+        return new PmdSettings()
+                .set(PmdSettings.SAMPLE_RATE, sampleRate)
+                .set(PmdSettings.RESOLUTION, ACC_RESOLUTION)
+                .set(PmdSettings.RANGE, ACC_RANGE)
+                .set(PmdSettings.CHANNELS, ACC_CHANNELS);
+    }
+
+    /**
+     * Queue the operations needed before the first control point command. Responses from the
+     * control point arrive as indications, data as notifications - both have to be enabled on
+     * the client (setCharacteristicNotification) and on the sensor (the client characteristic
+     * config descriptor).
+     * @return The last descriptor write.
+     */
+    public static GattOperation enableNotifications(GattOps ops, GattCommandQueue queue) {
+        ops.setCharacteristicNotification(SERVICE, CONTROL, true);
+        queue.writeDescriptor(SERVICE, CONTROL, CLIENT_CHARACTERISTIC_CONFIG,
+                ENABLE_INDICATION_VALUE);
+        ops.setCharacteristicNotification(SERVICE, DATA, true);
+        return queue.writeDescriptor(SERVICE, DATA, CLIENT_CHARACTERISTIC_CONFIG,
+                ENABLE_NOTIFICATION_VALUE);
+    }
+
+    /**
+     * Queue a control point command; its response arrives as an indication on CONTROL.
+     */
+    public static GattOperation writeCommand(GattCommandQueue queue, byte[] command) {
+        return queue.write(SERVICE, CONTROL, command);
+    }
+}
@@ -0,0 +1,42 @@
+package yeetivity.jjve.ble_polar.record;
+
+/**
+ * A chunk being filled by a producer, or waiting for the writer thread. Columns are stored
+ * channel by channel, each capacity long.
+ */
+final class Chunk {
+
+    final int capacity;
+    final int maxChannels;
+    final int[] deltas;
+    final short[] columns;
+
+    int kind;
+    int source;
+    int channels;
+    int count;
+    long first;
+    long last;
+    // KIND_SOURCE
+    int measurementType;
+    byte[] name;
+
+    Chunk(int capacity, int maxChannels) {
+        this.capacity = capacity;
+        this.maxChannels = maxChannels;
+        this.deltas = new int[capacity];
+        this.columns = new short[capacity * maxChannels];
+    }
+
+    void reset(int kind, int source, int channels) {
+        this.kind = kind;
+        this.source = source;
+        this.channels = channels;
+        this.count = 0;
+        this.name = null;
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+}
@@ -0,0 +1,50 @@
+package yeetivity.jjve.ble_polar.record;
+
+/**
+ * Layout of a recording file, all values little endian.
+ *
+ * <pre>
+ * file header   magic "PLRC", version u16, reserved u16, created i64 (wall clock ms)
+ * chunk *       header: magic "CHNK", kind u8, channels u8, source u16, count u32,
+ *                       first timestamp i64, last timestamp i64, payload length u32,
+ *                       crc32 of the payload u32
+ *               samples payload: count timestamp deltas i32 (the first relative to the
+ *                       first timestamp, the others to the previous sample), then one
+ *                       column of count i16 per channel
+ *               compressed payload: the samples encoded by SampleCodec, header timestamps
+ *                       and count as for a samples payload
+ *               source payload: measurement type u8, then the UTF-8 name of the sensor
+ * index         per chunk: offset i64, first i64, last i64, source u16, kind u8, count u32
+ * trailer       index offset i64, chunk count u32, magic "PLRE"
+ * </pre>
+ *
+ * A file cut short - the app or the phone died - has no trailer; the chunks are then found
+ * by walking the chunk headers, up to the first incomplete chunk.
+ */
+final class RecordingFormat {
+
+    static final int FILE_MAGIC = 0x43524C50; // "PLRC"
+    static final int CHUNK_MAGIC = 0x4B4E4843; // "CHNK"
+    static final int END_MAGIC = 0x45524C50; // "PLRE"
+    static final int VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 16;
+    static final int CHUNK_HEADER_SIZE = 36;
+    static final int INDEX_ENTRY_SIZE = 31;
+    static final int TRAILER_SIZE = 16;
+
+    static final int KIND_SAMPLES = 0;
+    static final int KIND_SOURCE = 1;
+    static final int KIND_COMPRESSED = 2;
+
+    private RecordingFormat() {
+    }
+
+    static boolean hasSamples(int kind) {
+        return kind == KIND_SAMPLES || kind == KIND_COMPRESSED;
+    }
+
+    static int samplesPayloadSize(int count, int channels) {
+        return count * 4 + count * channels * 2;
+    }
+}
@@ -0,0 +1,358 @@
+package yeetivity.jjve.ble_polar.record;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import yeetivity.jjve.ble_polar.session.TimelineMerger;
+
+/**
+ * Reads a file written by RecordingWriter.
+ *
+ * Opening reads the index at the end of the file, or - for a file cut short - walks the chunk
+ * headers. Reading a time range then only reads the chunks overlapping it.
+ *
+ * read() is for one thread at a time; readChunk() may be called from several.
+ */
+public class RecordingReader implements Closeable {
+
+    /** Where a chunk is and what it holds. */
+    public static class ChunkInfo {
+        final long offset;
+        final long first;
+        final long last;
+        final int source;
+        final int kind;
+        final int count;
+
+        ChunkInfo(long offset, long first, long last, int source, int kind, int count) {
+            this.offset = offset;
+            this.first = first;
+            this.last = last;
+            this.source = source;
+            this.kind = kind;
+            this.count = count;
+        }
+
+        public long getFirstTimestamp() {
+            return first;
+        }
+
+        public long getLastTimestamp() {
+            return last;
+        }
+
+        public int getSource() {
+            return source;
+        }
+
+        public int getSampleCount() {
+            return RecordingFormat.hasSamples(kind) ? count : 0;
+        }
+
+        boolean overlaps(long from, long to) {
+            return RecordingFormat.hasSamples(kind) && last >= from && first <= to;
+        }
+    }
+
+    /**
+     * The decoded samples of one chunk, see readChunk. Reused from chunk to chunk, by one
+     * thread at a time.
+     */
+    public static class ChunkSamples {
+        final ByteBuffer header = ByteBuffer.allocate(RecordingFormat.CHUNK_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer payload = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        final SampleCodec codec = new SampleCodec(0);
+        long[] timestamps = new long[0];
+        int[] values = new int[0];
+        int source;
+        int count;
+        int channels;
+
+        public int getSource() {
+            return source;
+        }
+
+        public int getSampleCount() {
+            return count;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        /** @return The timestamps, valid up to getSampleCount(). */
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        /** @return The interleaved values, valid up to getSampleCount() * getChannels(). */
+        public int[] getValues() {
+            return values;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final long mCreated;
+    private final List<ChunkInfo> mChunks = new ArrayList<>();
+    private final String[] mSourceNames = new String[RecordingWriter.MAX_SOURCES];
+    private final int[] mSourceTypes = new int[RecordingWriter.MAX_SOURCES];
+    private boolean mRecovered;
+
+    // used by the constructor and read()
+    private final ChunkSamples mSamples = new ChunkSamples();
+    private final AtomicLong mChunksRead = new AtomicLong();
+
+    /**
+     * @throws IOException if the file is not a recording, or cannot be read.
+     */
+    public RecordingReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mChannel = mFile.getChannel();
+            mSize = mChannel.size();
+            ByteBuffer header = ByteBuffer.allocate(RecordingFormat.FILE_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            if (header.getInt(0) != RecordingFormat.FILE_MAGIC) {
+                throw new IOException("not a recording");
+            }
+            if (header.getShort(4) > RecordingFormat.VERSION) {
+                throw new IOException("version " + header.getShort(4));
+            }
+            mCreated = header.getLong(8);
+            if (!readIndex()) {
+                mRecovered = true;
+                mChunks.clear();
+                recover();
+            }
+            readSources();
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private boolean readIndex() throws IOException {
+        if (mSize < RecordingFormat.FILE_HEADER_SIZE + RecordingFormat.TRAILER_SIZE) return false;
+        ByteBuffer trailer = ByteBuffer.allocate(RecordingFormat.TRAILER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(trailer, mSize - RecordingFormat.TRAILER_SIZE);
+        long indexOffset = trailer.getLong(0);
+        int entries = trailer.getInt(8);
+        if (trailer.getInt(12) != RecordingFormat.END_MAGIC || entries < 0
+                || indexOffset + (long) entries * RecordingFormat.INDEX_ENTRY_SIZE
+                + RecordingFormat.TRAILER_SIZE != mSize) {
+            return false;
+        }
+        ByteBuffer index = ByteBuffer.allocate(entries * RecordingFormat.INDEX_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(index, indexOffset);
+        index.flip();
+        for (int i = 0; i < entries; i++) {
+            long offset = index.getLong();
+            long first = index.getLong();
+            long last = index.getLong();
+            int source = index.getShort() & 0xFFFF;
+            int kind = index.get();
+            int count = index.getInt();
+            if (offset < RecordingFormat.FILE_HEADER_SIZE || offset >= indexOffset) return false;
+            mChunks.add(new ChunkInfo(offset, first, last, source, kind, count));
+        }
+        return true;
+    }
+
+    // walk the chunk headers up to the first incomplete or damaged chunk
+    private void recover() throws IOException {
+        ByteBuffer header = mSamples.header;
+        long offset = RecordingFormat.FILE_HEADER_SIZE;
+        while (offset + RecordingFormat.CHUNK_HEADER_SIZE <= mSize) {
+            readHeader(mSamples, offset);
+            int length = header.getInt(28);
+            if (header.getInt(0) != RecordingFormat.CHUNK_MAGIC || length < 0
+                    || offset + RecordingFormat.CHUNK_HEADER_SIZE + length > mSize) {
+                break;
+            }
+            ChunkInfo chunk = new ChunkInfo(offset, header.getLong(12), header.getLong(20),
+                    header.getShort(6) & 0xFFFF, header.get(4), header.getInt(8));
+            if (!readPayload(mSamples, chunk)) break;
+            mChunks.add(chunk);
+            offset += RecordingFormat.CHUNK_HEADER_SIZE + length;
+        }
+    }
+
+    private void readSources() throws IOException {
+        for (ChunkInfo chunk : mChunks) {
+            if (chunk.kind != RecordingFormat.KIND_SOURCE || chunk.source >= mSourceNames.length) {
+                continue;
+            }
+            readHeader(mSamples, chunk.offset);
+            if (!readPayload(mSamples, chunk)) continue;
+            ByteBuffer payload = mSamples.payload;
+            mSourceTypes[chunk.source] = payload.get(0) & 0xFF;
+            mSourceNames[chunk.source] = new String(payload.array(), 1, payload.limit() - 1, UTF_8);
+        }
+    }
+
+    private void readHeader(ChunkSamples samples, long offset) throws IOException {
+        samples.header.clear();
+        readFully(samples.header, offset);
+    }
+
+    // the payload of the chunk whose header was read; false if damaged
+    private boolean readPayload(ChunkSamples samples, ChunkInfo chunk) throws IOException {
+        ByteBuffer header = samples.header;
+        int length = header.getInt(28);
+        if (header.getInt(0) != RecordingFormat.CHUNK_MAGIC || length < 0
+                || chunk.offset + RecordingFormat.CHUNK_HEADER_SIZE + length > mSize) {
+            return false;
+        }
+        if (samples.payload.capacity() < length) {
+            samples.payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer payload = samples.payload;
+        payload.clear().limit(length);
+        readFully(payload, chunk.offset + RecordingFormat.CHUNK_HEADER_SIZE);
+        payload.flip();
+        samples.crc.reset();
+        samples.crc.update(payload.array(), 0, length);
+        return (int) samples.crc.getValue() == header.getInt(32);
+    }
+
+    // positional reads, safe from several threads
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = mChannel.read(buffer, position);
+            if (n < 0) throw new EOFException();
+            position += n;
+        }
+    }
+
+    /**
+     * Emit the samples with timestamps in [from, to], chunk by chunk in file order - so in time
+     * order per source. Only the chunks overlapping the range are read.
+     * @return The number of samples emitted.
+     * @throws IOException if a chunk is damaged or cannot be read.
+     */
+    public int read(long from, long to, TimelineMerger.Listener listener) throws IOException {
+        ChunkSamples samples = mSamples;
+        int emitted = 0;
+        for (ChunkInfo chunk : mChunks) {
+            if (!chunk.overlaps(from, to)) continue;
+            readChunk(chunk, samples);
+            int channels = samples.channels;
+            for (int i = 0; i < samples.count; i++) {
+                long timestamp = samples.timestamps[i];
+                if (timestamp < from) continue;
+                if (timestamp > to) break;
+                listener.onSample(chunk.source, timestamp, samples.values, i * channels, channels);
+                emitted++;
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Read and decode one sample chunk. Chunks may be read from several threads at once, each
+     * with its own ChunkSamples, e.g. to decode a long recording in parallel.
+     * @return samples, holding the chunk's samples.
+     * @throws IOException if the chunk is damaged or cannot be read.
+     */
+    public ChunkSamples readChunk(ChunkInfo chunk, ChunkSamples samples) throws IOException {
+        if (!RecordingFormat.hasSamples(chunk.kind)) {
+            throw new IllegalArgumentException("no samples at " + chunk.offset);
+        }
+        readHeader(samples, chunk.offset);
+        if (!readPayload(samples, chunk)) throw new IOException("damaged chunk at " + chunk.offset);
+        mChunksRead.incrementAndGet();
+
+        int channels = samples.header.get(5);
+        int count = chunk.count;
+        if (count < 0 || channels < 1 || channels > RecordingWriter.MAX_CHANNELS) {
+            throw new IOException("malformed chunk at " + chunk.offset);
+        }
+        if (samples.timestamps.length < count) {
+            samples.timestamps = new long[count];
+            samples.values = new int[count * RecordingWriter.MAX_CHANNELS];
+        }
+        samples.source = chunk.source;
+        samples.count = count;
+        samples.channels = channels;
+        ByteBuffer payload = samples.payload;
+        if (chunk.kind == RecordingFormat.KIND_COMPRESSED) {
+            try {
+                if (samples.codec.decode(payload.array(), 0, payload.limit(), samples.timestamps,
+                        samples.values) != count) {
+                    throw new IOException("malformed chunk at " + chunk.offset);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("malformed chunk at " + chunk.offset, e);
+            }
+            return samples;
+        }
+        if (RecordingFormat.samplesPayloadSize(count, channels) != payload.limit()) {
+            throw new IOException("malformed chunk at " + chunk.offset);
+        }
+        int columns = count * 4;
+        long timestamp = chunk.first;
+        for (int i = 0; i < count; i++) {
+            timestamp += payload.getInt(i * 4);
+            samples.timestamps[i] = timestamp;
+            for (int c = 0; c < channels; c++) {
+                samples.values[i * channels + c] = payload.getShort(columns + (c * count + i) * 2);
+            }
+        }
+        return samples;
+    }
+
+    /** @return All chunks, in file order. */
+    public List<ChunkInfo> getChunks() {
+        return Collections.unmodifiableList(mChunks);
+    }
+
+    /** @return true if the file had no valid index and was recovered from the chunk headers. */
+    public boolean isRecovered() {
+        return mRecovered;
+    }
+
+    /** @return Wall clock time the file was created, in ms. */
+    public long getCreated() {
+        return mCreated;
+    }
+
+    /** @return The name given in RecordingWriter.describeSource, null if none. */
+    public String getSourceName(int source) {
+        return mSourceNames[source];
+    }
+
+    public int getSourceMeasurementType(int source) {
+        return mSourceTypes[source];
+    }
+
+    /** @return The number of sample chunks read by read() and readChunk(). */
+    public long getChunksRead() {
+        return mChunksRead.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
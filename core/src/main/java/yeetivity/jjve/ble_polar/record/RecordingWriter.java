@@ -0,0 +1,391 @@
+package yeetivity.jjve.ble_polar.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import yeetivity.jjve.ble_polar.session.TimelineMerger;
+
+/**
+ * Records samples of several sources into a chunked columnar file, see RecordingFormat.
+ *
+ * Producers only copy samples into preallocated chunks; full chunks are handed to a writer
+ * thread that encodes them into a reused buffer and appends them through a FileChannel, so
+ * the producer never waits for I/O. Chunks are pooled; if the writer falls behind more are
+ * allocated, up to MAX_CHUNKS, after which samples are dropped - and counted - rather than
+ * blocking the producer.
+ *
+ * With a SampleCodec, sample chunks are compressed on the writer thread before they are
+ * written; the producer side is the same.
+ *
+ * Each source must be appended from one thread at a time, e.g. the thread running
+ * SessionManager.tick when used as its timeline listener. close() must be called after the
+ * producers have stopped.
+ */
+public class RecordingWriter implements TimelineMerger.Listener {
+
+    public static final int DEFAULT_CHUNK_SAMPLES = 1024;
+    public static final int MAX_SOURCES = 32;
+    public static final int MAX_CHANNELS = 4;
+
+    private static final int POOL_SIZE = 8;
+    public static final int MAX_CHUNKS = 128;
+    // force the file to storage at most this often
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mChunkSamples;
+    private final BlockingQueue<Chunk> mFree;
+    private final BlockingQueue<Chunk> mFull;
+    // the chunk being filled, per source
+    private final Chunk[] mOpen = new Chunk[MAX_SOURCES];
+    private final Thread mWriterThread;
+
+    // writer thread
+    private ByteBuffer mBuffer;
+    private final SampleCodec mCodec;
+    private final long[] mTimestamps;
+    private final int[] mValues;
+    private final CRC32 mCrc = new CRC32();
+    private ByteBuffer mIndex = ByteBuffer.allocate(64 * RecordingFormat.INDEX_ENTRY_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private int mIndexEntries;
+    private int mCodecLength;
+    private long mLastForce = System.nanoTime();
+
+    private volatile IOException mError;
+    private volatile boolean mClosed;
+    private volatile long mWritten;
+    private final AtomicInteger mAllocated = new AtomicInteger();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mClipped = new AtomicLong();
+    private volatile long mBytes;
+
+    // ends the writer thread
+    private static final Chunk END = new Chunk(0, 0);
+
+    public RecordingWriter(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SAMPLES);
+    }
+
+    /**
+     * @param chunkSamples Samples per chunk; larger chunks cost more memory, smaller ones more
+     *                     headers and index entries.
+     */
+    public RecordingWriter(File file, int chunkSamples) throws IOException {
+        this(file, chunkSamples, null);
+    }
+
+    /**
+     * @param codec Compresses the sample chunks, null to write them uncompressed. Used by the
+     *              writer thread only.
+     */
+    public RecordingWriter(File file, int chunkSamples, SampleCodec codec) throws IOException {
+        if (chunkSamples < 1) throw new IllegalArgumentException("chunk samples= " + chunkSamples);
+        mChunkSamples = chunkSamples;
+        mFree = new ArrayBlockingQueue<>(MAX_CHUNKS);
+        mFull = new LinkedBlockingQueue<>();
+        for (int i = 0; i < POOL_SIZE; i++) mFree.add(new Chunk(chunkSamples, MAX_CHANNELS));
+        mAllocated.set(POOL_SIZE);
+        mCodec = codec;
+        mTimestamps = codec == null ? null : new long[chunkSamples];
+        mValues = codec == null ? null : new int[chunkSamples * MAX_CHANNELS];
+        mBuffer = ByteBuffer.allocate(RecordingFormat.CHUNK_HEADER_SIZE
+                + RecordingFormat.samplesPayloadSize(chunkSamples, MAX_CHANNELS))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(RecordingFormat.FILE_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(RecordingFormat.FILE_MAGIC)
+                .putShort((short) RecordingFormat.VERSION)
+                .putShort((short) 0)
+                .putLong(System.currentTimeMillis())
+                .flip();
+        writeFully(header);
+
+        mWriterThread = new Thread(this::runWriter, "recorder");
+        mWriterThread.start();
+    }
+
+    /**
+     * Describe a source, e.g. with the address of its sensor; recorded in the file order.
+     */
+    public void describeSource(int source, int measurementType, String name) {
+        checkSource(source);
+        Chunk chunk = obtain();
+        if (chunk == null) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        chunk.reset(RecordingFormat.KIND_SOURCE, source, 0);
+        chunk.measurementType = measurementType;
+        chunk.name = name.getBytes(UTF_8);
+        mFull.add(chunk);
+    }
+
+    /**
+     * Append one sample. Values are stored as int16 and saturate outside its range.
+     */
+    @Override
+    public void onSample(int source, long timestamp, int[] values, int offset, int channels) {
+        checkSource(source);
+        Chunk chunk = mOpen[source];
+        if (chunk != null && (chunk.channels != channels || chunk.isFull()
+                || !fitsDelta(timestamp - chunk.last))) {
+            seal(source);
+            chunk = null;
+        }
+        if (chunk == null) {
+            if (mClosed || channels > MAX_CHANNELS) {
+                mDropped.incrementAndGet();
+                return;
+            }
+            chunk = obtain();
+            if (chunk == null) {
+                mDropped.incrementAndGet();
+                return;
+            }
+            chunk.reset(RecordingFormat.KIND_SAMPLES, source, channels);
+            chunk.first = timestamp;
+            chunk.last = timestamp;
+            mOpen[source] = chunk;
+        }
+
+        int i = chunk.count;
+        chunk.deltas[i] = (int) (timestamp - chunk.last);
+        chunk.last = timestamp;
+        for (int c = 0; c < channels; c++) {
+            int value = values[offset + c];
+            if (value > Short.MAX_VALUE) {
+                value = Short.MAX_VALUE;
+                mClipped.incrementAndGet();
+            } else if (value < Short.MIN_VALUE) {
+                value = Short.MIN_VALUE;
+                mClipped.incrementAndGet();
+            }
+            chunk.columns[c * chunk.capacity + i] = (short) value;
+        }
+        chunk.count = i + 1;
+    }
+
+    /**
+     * Append count samples of interleaved values, e.g. drained from a SampleRingBuffer.
+     */
+    public void append(int source, long[] timestamps, int[] values, int count, int channels) {
+        for (int i = 0; i < count; i++) {
+            onSample(source, timestamps[i], values, i * channels, channels);
+        }
+    }
+
+    // a free chunk, null if none is left
+    private Chunk obtain() {
+        Chunk chunk = mFree.poll();
+        if (chunk != null) return chunk;
+        while (true) {
+            int allocated = mAllocated.get();
+            if (allocated >= MAX_CHUNKS) return null;
+            if (mAllocated.compareAndSet(allocated, allocated + 1)) {
+                return new Chunk(mChunkSamples, MAX_CHANNELS);
+            }
+        }
+    }
+
+    private static boolean fitsDelta(long delta) {
+        return delta >= Integer.MIN_VALUE && delta <= Integer.MAX_VALUE;
+    }
+
+    private static void checkSource(int source) {
+        if (source < 0 || source >= MAX_SOURCES) {
+            throw new IllegalArgumentException("source= " + source);
+        }
+    }
+
+    /**
+     * Hand the open chunk of the source to the writer, e.g. when the source disconnects.
+     * Producer thread of the source only.
+     */
+    public void seal(int source) {
+        Chunk chunk = mOpen[source];
+        mOpen[source] = null;
+        if (chunk == null) return;
+        if (chunk.count == 0) {
+            mFree.add(chunk);
+        } else {
+            mFull.add(chunk);
+        }
+    }
+
+    /**
+     * Seal all open chunks, write the index and close the file.
+     * @throws IOException if writing failed at any point.
+     */
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        for (int source = 0; source < MAX_SOURCES; source++) seal(source);
+        mFull.add(END);
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (mError == null) writeIndex();
+            mChannel.force(false);
+        } finally {
+            mFile.close();
+        }
+        if (mError != null) throw mError;
+    }
+
+    private void runWriter() {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = mFull.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chunk == END) return;
+            try {
+                if (mError == null) write(chunk);
+            } catch (IOException e) {
+                mError = e;
+            }
+            mFree.add(chunk);
+        }
+    }
+
+    // writer thread
+    private void write(Chunk chunk) throws IOException {
+        if (mCodec != null && chunk.kind == RecordingFormat.KIND_SAMPLES) compress(chunk);
+        ByteBuffer buffer = mBuffer;
+        buffer.clear();
+        buffer.position(RecordingFormat.CHUNK_HEADER_SIZE);
+        if (chunk.kind == RecordingFormat.KIND_COMPRESSED) {
+            buffer.put(mCodec.getOutput(), 0, mCodecLength);
+        } else if (chunk.kind == RecordingFormat.KIND_SAMPLES) {
+            for (int i = 0; i < chunk.count; i++) buffer.putInt(chunk.deltas[i]);
+            for (int c = 0; c < chunk.channels; c++) {
+                int start = c * chunk.capacity;
+                for (int i = 0; i < chunk.count; i++) buffer.putShort(chunk.columns[start + i]);
+            }
+        } else {
+            buffer.put((byte) chunk.measurementType);
+            buffer.put(chunk.name, 0, Math.min(chunk.name.length, buffer.remaining()));
+        }
+        int payloadLength = buffer.position() - RecordingFormat.CHUNK_HEADER_SIZE;
+
+        mCrc.reset();
+        mCrc.update(buffer.array(), RecordingFormat.CHUNK_HEADER_SIZE, payloadLength);
+
+        buffer.putInt(0, RecordingFormat.CHUNK_MAGIC);
+        buffer.put(4, (byte) chunk.kind);
+        buffer.put(5, (byte) chunk.channels);
+        buffer.putShort(6, (short) chunk.source);
+        buffer.putInt(8, chunk.count);
+        buffer.putLong(12, chunk.first);
+        buffer.putLong(20, chunk.last);
+        buffer.putInt(28, payloadLength);
+        buffer.putInt(32, (int) mCrc.getValue());
+        buffer.flip();
+
+        long offset = mChannel.position();
+        writeFully(buffer);
+        addIndexEntry(offset, chunk);
+        if (RecordingFormat.hasSamples(chunk.kind)) mWritten += chunk.count;
+
+        long now = System.nanoTime();
+        if (now - mLastForce > FORCE_INTERVAL_NANOS) {
+            mChannel.force(false);
+            mLastForce = now;
+        }
+    }
+
+    // encode the chunk with the codec and mark it compressed
+    private void compress(Chunk chunk) {
+        long timestamp = chunk.first;
+        for (int i = 0; i < chunk.count; i++) {
+            timestamp += chunk.deltas[i];
+            mTimestamps[i] = timestamp;
+            for (int c = 0; c < chunk.channels; c++) {
+                mValues[i * chunk.channels + c] = chunk.columns[c * chunk.capacity + i];
+            }
+        }
+        mCodecLength = mCodec.encode(mTimestamps, mValues, chunk.count, chunk.channels);
+        chunk.kind = RecordingFormat.KIND_COMPRESSED;
+        // incompressible data may come out larger than the raw columns
+        int size = RecordingFormat.CHUNK_HEADER_SIZE + mCodecLength;
+        if (mBuffer.capacity() < size) {
+            mBuffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void addIndexEntry(long offset, Chunk chunk) {
+        if (mIndex.remaining() < RecordingFormat.INDEX_ENTRY_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(mIndex.capacity() * 2)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            mIndex.flip();
+            larger.put(mIndex);
+            mIndex = larger;
+        }
+        mIndex.putLong(offset)
+                .putLong(chunk.first)
+                .putLong(chunk.last)
+                .putShort((short) chunk.source)
+                .put((byte) chunk.kind)
+                .putInt(chunk.count);
+        mIndexEntries++;
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = mChannel.position();
+        mIndex.flip();
+        writeFully(mIndex);
+        ByteBuffer trailer = ByteBuffer.allocate(RecordingFormat.TRAILER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putLong(indexOffset).putInt(mIndexEntries).putInt(RecordingFormat.END_MAGIC).flip();
+        writeFully(trailer);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mBytes += mChannel.write(buffer);
+        }
+    }
+
+    /** @return Samples written to the file. */
+    public long getWrittenCount() {
+        return mWritten;
+    }
+
+    /** @return Samples dropped because the writer fell behind. */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /** @return Values saturated to the int16 range. */
+    public long getClippedCount() {
+        return mClipped.get();
+    }
+
+    public long getBytesWritten() {
+        return mBytes;
+    }
+}
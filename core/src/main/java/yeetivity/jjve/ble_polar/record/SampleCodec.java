@@ -0,0 +1,368 @@
+package yeetivity.jjve.ble_polar.record;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses a chunk of samples: timestamps as delta of deltas, values as the difference to
+ * the previous value of the same channel. Both are zig-zag mapped, so small negative and
+ * positive residuals become small numbers, and then written either as variable length
+ * integers or bit packed in blocks of BLOCK_SIZE, each with its own bit width. Optionally the
+ * result is deflated.
+ *
+ * Regularly sampled timestamps give delta of deltas that are mostly 0 - a block of them packs
+ * into a single byte - and smooth signals give residuals of a few bits.
+ *
+ * <pre>
+ * flags u8     FLAG_BIT_PACKED, FLAG_DEFLATE; the rest is deflated if FLAG_DEFLATE is set
+ * count        varint
+ * channels     u8
+ * timestamps   first timestamp, first delta, then delta of deltas
+ * values       per channel: first value, then residuals
+ * </pre>
+ *
+ * One instance encodes or decodes one chunk at a time; its buffers grow to the largest chunk
+ * seen and are reused, so memory is bounded by the chunk size.
+ */
+public class SampleCodec {
+
+    public static final int FLAG_BIT_PACKED = 1;
+    public static final int FLAG_DEFLATE = 1 << 1;
+
+    static final int BLOCK_SIZE = 64;
+
+    private final int mFlags;
+    private final int mDeflateLevel;
+
+    private byte[] mOut = new byte[256];
+    private int mLength;
+    private byte[] mDeflated = new byte[256];
+    private Deflater mDeflater;
+    private Inflater mInflater;
+
+    // residuals of one stream, zig-zag mapped, waiting to be packed
+    private final long[] mBlock = new long[BLOCK_SIZE];
+    private int mBlockCount;
+
+    // decoding
+    private byte[] mIn;
+    private int mPos;
+    private int mLimit;
+
+    /**
+     * @param flags FLAG_ bits; without FLAG_BIT_PACKED the residuals are varints.
+     */
+    public SampleCodec(int flags) {
+        this(flags, Deflater.BEST_SPEED);
+    }
+
+    public SampleCodec(int flags, int deflateLevel) {
+        mFlags = flags;
+        mDeflateLevel = deflateLevel;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * Encode count samples of interleaved values.
+     * @return The length of the encoded chunk, in getOutput().
+     */
+    public int encode(long[] timestamps, int[] values, int count, int channels) {
+        if (channels < 1 || channels > 255) throw new IllegalArgumentException("channels= " + channels);
+        mLength = 0;
+        ensure(1);
+        mOut[mLength++] = (byte) mFlags;
+        writeVarLong(count);
+        ensure(1);
+        mOut[mLength++] = (byte) channels;
+
+        boolean packed = (mFlags & FLAG_BIT_PACKED) != 0;
+        long previous = 0, previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            long timestamp = timestamps[i];
+            long residual;
+            if (i == 0) {
+                residual = timestamp;
+            } else {
+                long delta = timestamp - previous;
+                residual = i == 1 ? delta : delta - previousDelta;
+                previousDelta = delta;
+            }
+            previous = timestamp;
+            put(zigZag(residual), packed);
+        }
+        endStream(packed);
+
+        for (int c = 0; c < channels; c++) {
+            int last = 0;
+            for (int i = 0; i < count; i++) {
+                int value = values[i * channels + c];
+                put(zigZag((long) value - last), packed);
+                last = value;
+            }
+            endStream(packed);
+        }
+
+        if ((mFlags & FLAG_DEFLATE) != 0) deflate();
+        return mLength;
+    }
+
+    /** @return The encoded chunk, valid up to the returned length until the next encode. */
+    public byte[] getOutput() {
+        return mOut;
+    }
+
+    /**
+     * @return The number of samples in an encoded chunk, without decoding it.
+     */
+    public int peekCount(byte[] in, int offset, int length) {
+        startDecode(in, offset, length);
+        return (int) readVarLong();
+    }
+
+    /**
+     * Decode a chunk into timestamps and interleaved values.
+     * @return The number of samples.
+     * @throws IllegalArgumentException if the chunk is malformed or the arrays are too small.
+     */
+    public int decode(byte[] in, int offset, int length, long[] timestamps, int[] values) {
+        startDecode(in, offset, length);
+        int flags = mIn[mPos - 1] & 0xFF;
+        long count = readVarLong();
+        int channels = readByte();
+        if (count < 0 || count > timestamps.length || count * channels > values.length) {
+            throw new IllegalArgumentException("count= " + count + ", channels= " + channels);
+        }
+        int n = (int) count;
+        boolean packed = (flags & FLAG_BIT_PACKED) != 0;
+
+        long previous = 0, previousDelta = 0;
+        for (int start = 0; start < n; start += BLOCK_SIZE) {
+            int blockCount = Math.min(BLOCK_SIZE, n - start);
+            readBlock(blockCount, packed);
+            for (int j = 0; j < blockCount; j++) {
+                int i = start + j;
+                long residual = unZigZag(mBlock[j]);
+                if (i == 0) {
+                    previous = residual;
+                } else {
+                    long delta = i == 1 ? residual : previousDelta + residual;
+                    previous += delta;
+                    previousDelta = delta;
+                }
+                timestamps[i] = previous;
+            }
+        }
+
+        for (int c = 0; c < channels; c++) {
+            int last = 0;
+            for (int start = 0; start < n; start += BLOCK_SIZE) {
+                int blockCount = Math.min(BLOCK_SIZE, n - start);
+                readBlock(blockCount, packed);
+                for (int j = 0; j < blockCount; j++) {
+                    last += (int) unZigZag(mBlock[j]);
+                    values[(start + j) * channels + c] = last;
+                }
+            }
+        }
+        return n;
+    }
+
+    // position the decoder after the flags, inflating if needed
+    private void startDecode(byte[] in, int offset, int length) {
+        if (length < 1 || offset < 0 || offset + length > in.length) {
+            throw new IllegalArgumentException("offset= " + offset + ", length= " + length);
+        }
+        int flags = in[offset] & 0xFF;
+        if ((flags & FLAG_DEFLATE) != 0) {
+            inflate(in, offset + 1, length - 1);
+            mDeflated[0] = (byte) flags;
+            // inflate() leaves the body after a copy of the flags
+            mIn = mDeflated;
+            mPos = 1;
+        } else {
+            mIn = in;
+            mPos = offset + 1;
+            mLimit = offset + length;
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void put(long zigZag, boolean packed) {
+        if (!packed) {
+            writeVarLong(zigZag);
+            return;
+        }
+        mBlock[mBlockCount++] = zigZag;
+        if (mBlockCount == BLOCK_SIZE) flushBlock();
+    }
+
+    private void endStream(boolean packed) {
+        if (packed && mBlockCount > 0) flushBlock();
+    }
+
+    // bit width byte, then the values least significant bit first
+    private void flushBlock() {
+        long or = 0;
+        for (int i = 0; i < mBlockCount; i++) or |= mBlock[i];
+        int width = 64 - Long.numberOfLeadingZeros(or);
+        ensure(1 + (mBlockCount * width + 7) / 8);
+        mOut[mLength++] = (byte) width;
+        if (width > 0) {
+            long acc = 0;
+            int bits = 0;
+            for (int i = 0; i < mBlockCount; i++) {
+                long value = mBlock[i];
+                acc |= value << bits;
+                int used = 64 - bits;
+                if (width >= used) {
+                    // the accumulator is full: write it, keep what did not fit
+                    writeLong(acc, 8);
+                    acc = used == 64 ? 0 : value >>> used;
+                    bits = width - used;
+                } else {
+                    bits += width;
+                }
+            }
+            writeLong(acc, (bits + 7) / 8);
+        }
+        mBlockCount = 0;
+    }
+
+    private void readBlock(int count, boolean packed) {
+        if (!packed) {
+            for (int i = 0; i < count; i++) mBlock[i] = readVarLong();
+            return;
+        }
+        int width = readByte();
+        if (width > 64) throw new IllegalArgumentException("bit width= " + width);
+        if (width == 0) {
+            for (int i = 0; i < count; i++) mBlock[i] = 0;
+            return;
+        }
+        int bytes = (count * width + 7) / 8;
+        if (mPos + bytes > mLimit) throw new IllegalArgumentException("truncated block");
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        long bitPos = (long) mPos * 8;
+        for (int i = 0; i < count; i++) {
+            mBlock[i] = readBits(bitPos, width) & mask;
+            bitPos += width;
+        }
+        mPos += bytes;
+    }
+
+    // up to 64 bits starting at a bit position, least significant bit first
+    private long readBits(long bitPos, int width) {
+        int index = (int) (bitPos >>> 3);
+        int shift = (int) (bitPos & 7);
+        long value = 0;
+        int got = 0;
+        // bytes covering shift + width bits
+        int needed = (shift + width + 7) >>> 3;
+        for (int b = 0; b < needed; b++) {
+            long bits = mIn[index + b] & 0xFFL;
+            if (b == 0) {
+                value = bits >>> shift;
+                got = 8 - shift;
+            } else {
+                value |= bits << got;
+                got += 8;
+            }
+        }
+        return value;
+    }
+
+    private void writeLong(long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            mOut[mLength++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            mOut[mLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mOut[mLength++] = (byte) value;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    private int readByte() {
+        if (mPos >= mLimit) throw new IllegalArgumentException("truncated chunk");
+        return mIn[mPos++] & 0xFF;
+    }
+
+    private void ensure(int extra) {
+        if (mLength + extra > mOut.length) {
+            byte[] larger = new byte[Math.max(mOut.length * 2, mLength + extra)];
+            System.arraycopy(mOut, 0, larger, 0, mLength);
+            mOut = larger;
+        }
+    }
+
+    // deflate everything after the flags byte, in place in mOut
+    private void deflate() {
+        if (mDeflater == null) mDeflater = new Deflater(mDeflateLevel, true);
+        mDeflater.reset();
+        mDeflater.setInput(mOut, 1, mLength - 1);
+        mDeflater.finish();
+        int length = 0;
+        while (!mDeflater.finished()) {
+            if (length == mDeflated.length) {
+                byte[] larger = new byte[mDeflated.length * 2];
+                System.arraycopy(mDeflated, 0, larger, 0, length);
+                mDeflated = larger;
+            }
+            length += mDeflater.deflate(mDeflated, length, mDeflated.length - length);
+        }
+        mLength = 1;
+        ensure(length);
+        System.arraycopy(mDeflated, 0, mOut, 1, length);
+        mLength += length;
+    }
+
+    // inflate into mDeflated, leaving room for the flags byte at 0
+    private void inflate(byte[] in, int offset, int length) {
+        if (mInflater == null) mInflater = new Inflater(true);
+        mInflater.reset();
+        mInflater.setInput(in, offset, length);
+        int inflated = 1;
+        try {
+            while (!mInflater.finished()) {
+                if (inflated == mDeflated.length) {
+                    byte[] larger = new byte[mDeflated.length * 2];
+                    System.arraycopy(mDeflated, 0, larger, 0, inflated);
+                    mDeflated = larger;
+                }
+                int n = mInflater.inflate(mDeflated, inflated, mDeflated.length - inflated);
+                if (n == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated deflate stream");
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("malformed deflate stream", e);
+        }
+        mLimit = inflated;
+    }
+}
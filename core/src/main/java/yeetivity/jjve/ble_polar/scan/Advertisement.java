@@ -0,0 +1,40 @@
+package yeetivity.jjve.ble_polar.scan;
+
+/**
+ * One advertisement received by a Scanner.
+ *
+ * @param <D> The platform device object, e.g. BluetoothDevice.
+ */
+public final class Advertisement<D> {
+
+    private final D mDevice;
+    private final String mAddress;
+    private final String mName;
+    private final int mRssi;
+
+    /**
+     * @param name The advertised name, null if this advertisement has none.
+     */
+    public Advertisement(D device, String address, String name, int rssi) {
+        mDevice = device;
+        mAddress = address;
+        mName = name;
+        mRssi = rssi;
+    }
+
+    public D getDevice() {
+        return mDevice;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+}
@@ -0,0 +1,102 @@
+package yeetivity.jjve.ble_polar.scan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The devices found by a scan, deduplicated by address in O(1), in the order they were found.
+ * Each device is held as an immutable DeviceSnapshot, replaced when an advertisement changes it;
+ * snapshot() hands out the current list for diffing.
+ *
+ * Not thread safe: owned by the thread updating the list view.
+ *
+ * @param <D> The platform device object, e.g. BluetoothDevice.
+ */
+public class DeviceRegistry<D> {
+
+    private final HashMap<String, Integer> mPositions = new HashMap<>();
+    private final ArrayList<DeviceSnapshot<D>> mDevices = new ArrayList<>();
+    private List<DeviceSnapshot<D>> mSnapshot = Collections.emptyList();
+    // changes since the last snapshot
+    private int mChanges;
+
+    /**
+     * Add a device or update it with a new advertisement.
+     * @param name           A null name does not replace a known one; not every advertisement
+     *                       has it.
+     * @param lastSeenMillis Wall clock time of the advertisement.
+     * @return The position of the device.
+     */
+    public int update(String address, D device, String name, int rssi, long lastSeenMillis) {
+        Integer known = mPositions.get(address);
+        if (known == null) {
+            int position = mDevices.size();
+            mDevices.add(new DeviceSnapshot<>(address, device, name, rssi, lastSeenMillis,
+                    DeviceSnapshot.BATTERY_UNKNOWN));
+            mPositions.put(address, position);
+            mChanges++;
+            return position;
+        }
+
+        int position = known;
+        DeviceSnapshot<D> previous = mDevices.get(position);
+        DeviceSnapshot<D> next = previous.withAdvertisement(name, rssi, lastSeenMillis);
+        mDevices.set(position, next);
+        if (next.changes(previous) != 0) mChanges++;
+        return position;
+    }
+
+    /**
+     * @param battery Battery level in percent, e.g. read after connecting.
+     * @return false if the device is not known.
+     */
+    public boolean setBattery(String address, int battery) {
+        Integer position = mPositions.get(address);
+        if (position == null) return false;
+        DeviceSnapshot<D> previous = mDevices.get(position);
+        if (previous.getBattery() != battery) {
+            mDevices.set(position, previous.withBattery(battery));
+            mChanges++;
+        }
+        return true;
+    }
+
+    /** @return true if a shown value changed since the last snapshot(). */
+    public boolean hasChanges() {
+        return mChanges > 0;
+    }
+
+    /**
+     * @return An immutable list of the devices. Only copied if something changed since the
+     * previous call.
+     */
+    public List<DeviceSnapshot<D>> snapshot() {
+        if (mChanges > 0) {
+            mSnapshot = Collections.unmodifiableList(new ArrayList<>(mDevices));
+            mChanges = 0;
+        }
+        return mSnapshot;
+    }
+
+    /** @return The position of the device, -1 if not found. */
+    public int indexOf(String address) {
+        Integer position = mPositions.get(address);
+        return position == null ? -1 : position;
+    }
+
+    public DeviceSnapshot<D> get(int position) {
+        return mDevices.get(position);
+    }
+
+    public int size() {
+        return mDevices.size();
+    }
+
+    public void clear() {
+        if (!mDevices.isEmpty()) mChanges++;
+        mDevices.clear();
+        mPositions.clear();
+    }
+}
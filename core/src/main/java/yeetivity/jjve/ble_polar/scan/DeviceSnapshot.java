@@ -0,0 +1,122 @@
+package yeetivity.jjve.ble_polar.scan;
+
+/**
+ * Immutable state of a scanned device, as shown in the device list. A change produces a new
+ * snapshot, so lists of snapshots can be diffed on another thread.
+ *
+ * @param <D> The platform device object, e.g. BluetoothDevice.
+ */
+public final class DeviceSnapshot<D> {
+
+    public static final int BATTERY_UNKNOWN = -1;
+
+    // bits of changes(), used as partial bind payloads
+    public static final int CHANGED_NAME = 1;
+    public static final int CHANGED_RSSI = 1 << 1;
+    public static final int CHANGED_LAST_SEEN = 1 << 2;
+    public static final int CHANGED_BATTERY = 1 << 3;
+
+    // last seen is shown with a resolution of a second
+    private static final long LAST_SEEN_RESOLUTION_MILLIS = 1000;
+
+    private final String mAddress;
+    private final long mId;
+    private final D mDevice;
+    private final String mName;
+    private final int mRssi;
+    private final long mLastSeen;
+    private final int mBattery;
+
+    public DeviceSnapshot(String address, D device, String name, int rssi, long lastSeenMillis,
+                          int battery) {
+        this(address, idOf(address), device, name, rssi, lastSeenMillis, battery);
+    }
+
+    private DeviceSnapshot(String address, long id, D device, String name, int rssi,
+                           long lastSeenMillis, int battery) {
+        mAddress = address;
+        mId = id;
+        mDevice = device;
+        mName = name;
+        mRssi = rssi;
+        mLastSeen = lastSeenMillis;
+        mBattery = battery;
+    }
+
+    /**
+     * @return A stable id: the 48 bits of a MAC address, or a hash of any other address.
+     */
+    static long idOf(String address) {
+        long id = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                id = (id << 4) | digit;
+                digits++;
+            } else if (address.charAt(i) != ':') {
+                digits = -1;
+                break;
+            }
+        }
+        // negative ids do not collide with MAC addresses
+        return digits == 12 ? id : address.hashCode() | 0x8000000000000000L;
+    }
+
+    public DeviceSnapshot<D> withAdvertisement(String name, int rssi, long lastSeenMillis) {
+        return new DeviceSnapshot<>(mAddress, mId, mDevice, name != null ? name : mName, rssi,
+                lastSeenMillis, mBattery);
+    }
+
+    public DeviceSnapshot<D> withBattery(int battery) {
+        return new DeviceSnapshot<>(mAddress, mId, mDevice, mName, mRssi, mLastSeen, battery);
+    }
+
+    /**
+     * @return The CHANGED_ bits of what differs from the other snapshot, as far as shown.
+     */
+    public int changes(DeviceSnapshot<?> other) {
+        int changes = 0;
+        if (mName == null ? other.mName != null : !mName.equals(other.mName)) {
+            changes |= CHANGED_NAME;
+        }
+        if (mRssi != other.mRssi) changes |= CHANGED_RSSI;
+        if (mLastSeen / LAST_SEEN_RESOLUTION_MILLIS
+                != other.mLastSeen / LAST_SEEN_RESOLUTION_MILLIS) {
+            changes |= CHANGED_LAST_SEEN;
+        }
+        if (mBattery != other.mBattery) changes |= CHANGED_BATTERY;
+        return changes;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public D getDevice() {
+        return mDevice;
+    }
+
+    /** @return The advertised name, null if not known yet. */
+    public String getName() {
+        return mName;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    /** @return Wall clock time of the last advertisement, in ms. */
+    public long getLastSeen() {
+        return mLastSeen;
+    }
+
+    /** @return Battery level in percent, BATTERY_UNKNOWN if not known. */
+    public int getBattery() {
+        return mBattery;
+    }
+}
@@ -0,0 +1,97 @@
+package yeetivity.jjve.ble_polar.scan;
+
+import java.util.UUID;
+
+/**
+ * What to scan for and how. Service UUID and manufacturer id become hardware ScanFilters,
+ * matched by the controller; the name prefix is checked on the scan callback thread, as
+ * hardware filters only match complete names.
+ */
+public class ScanConfig {
+
+    // Polar Electro Oy, Bluetooth SIG company identifier
+    public static final int POLAR_MANUFACTURER_ID = 0x006B;
+    public static final String POLAR_NAME_PREFIX = "Polar";
+
+    private UUID mServiceUuid;
+    private int mManufacturerId = -1;
+    private String mNamePrefix;
+    private long mReportDelayMillis;
+    private long mScanPeriodMillis = 5000;
+
+    /** @return Scan for Polar devices, results reported as they arrive. */
+    public static ScanConfig polar() {
+        return new ScanConfig()
+                .setManufacturerId(POLAR_MANUFACTURER_ID)
+                .setNamePrefix(POLAR_NAME_PREFIX);
+    }
+
+    public ScanConfig setServiceUuid(UUID serviceUuid) {
+        mServiceUuid = serviceUuid;
+        return this;
+    }
+
+    /**
+     * @param manufacturerId Company identifier of the manufacturer specific data, -1 for any.
+     */
+    public ScanConfig setManufacturerId(int manufacturerId) {
+        mManufacturerId = manufacturerId;
+        return this;
+    }
+
+    public ScanConfig setNamePrefix(String namePrefix) {
+        mNamePrefix = namePrefix;
+        return this;
+    }
+
+    /**
+     * @param reportDelayMillis 0 to scan in low latency mode and report every advertisement;
+     *                          otherwise the controller batches the results and reports them
+     *                          at this interval, if it supports batching.
+     */
+    public ScanConfig setReportDelay(long reportDelayMillis) {
+        if (reportDelayMillis < 0) throw new IllegalArgumentException("delay= " + reportDelayMillis);
+        mReportDelayMillis = reportDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param scanPeriodMillis Time after which the scan stops, 0 to scan until stopped.
+     */
+    public ScanConfig setScanPeriod(long scanPeriodMillis) {
+        mScanPeriodMillis = scanPeriodMillis;
+        return this;
+    }
+
+    public UUID getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    public int getManufacturerId() {
+        return mManufacturerId;
+    }
+
+    public String getNamePrefix() {
+        return mNamePrefix;
+    }
+
+    public long getReportDelay() {
+        return mReportDelayMillis;
+    }
+
+    public boolean isBatched() {
+        return mReportDelayMillis > 0;
+    }
+
+    public long getScanPeriod() {
+        return mScanPeriodMillis;
+    }
+
+    /**
+     * @return true if the name passes the name prefix check; devices that do not advertise a
+     * name fail it.
+     */
+    public boolean matchesName(String name) {
+        return mNamePrefix == null || (name != null && name.startsWith(mNamePrefix));
+    }
+}
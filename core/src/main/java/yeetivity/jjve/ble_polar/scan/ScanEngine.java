@@ -0,0 +1,140 @@
+package yeetivity.jjve.ble_polar.scan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import yeetivity.jjve.ble_polar.gatt.GattScheduler;
+
+/**
+ * BLE scan feeding a DeviceRegistry.
+ *
+ * Filtering is left to the Scanner where possible, the rest is done on the scan callback
+ * thread. Accepted results are kept per address - only the latest one counts - and moved to
+ * the registry on the main thread at most every UPDATE_INTERVAL_MILLIS, so a room full of
+ * advertising devices costs one main thread message - and at most one list snapshot - per
+ * interval.
+ *
+ * @param <D> The platform device object, e.g. BluetoothDevice.
+ */
+public class ScanEngine<D> {
+
+    public interface Listener<D> {
+        /**
+         * Called on the main thread when a shown value of any device changed.
+         */
+        void onDevicesChanged(List<DeviceSnapshot<D>> devices);
+
+        void onScanStopped();
+
+        void onScanFailed(int errorCode);
+    }
+
+    public static final long UPDATE_INTERVAL_MILLIS = 100;
+
+    private final Scanner<D> mScanner;
+    private final GattScheduler mMain;
+    private final DeviceRegistry<D> mRegistry;
+    private Listener<D> mListener;
+
+    private ScanConfig mConfig;
+    private boolean mScanning;
+
+    // written by the scan callback thread, drained on the main thread
+    private final HashMap<String, Advertisement<D>> mPending = new HashMap<>();
+    private boolean mFlushPosted;
+
+    /**
+     * @param main Runs tasks on the main thread, e.g. a HandlerScheduler.
+     */
+    public ScanEngine(Scanner<D> scanner, GattScheduler main, DeviceRegistry<D> registry) {
+        mScanner = scanner;
+        mMain = main;
+        mRegistry = registry;
+    }
+
+    public void setListener(Listener<D> listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start scanning, main thread only. Does nothing if already scanning.
+     * @return false if the scanner is not available, e.g. Bluetooth is off.
+     */
+    public boolean start(ScanConfig config) {
+        if (mScanning) return true;
+        mConfig = config;
+        if (!mScanner.start(config, mScanCallback)) return false;
+        mScanning = true;
+        if (config.getScanPeriod() > 0) {
+            mMain.postDelayed(mStopTask, config.getScanPeriod());
+        }
+        return true;
+    }
+
+    /** Stop scanning, main thread only. */
+    public void stop() {
+        mMain.removeCallbacks(mStopTask);
+        if (!mScanning) return;
+        mScanning = false;
+        mScanner.stop();
+        if (mListener != null) mListener.onScanStopped();
+    }
+
+    public boolean isScanning() {
+        return mScanning;
+    }
+
+    private final Runnable mStopTask = this::stop;
+
+    // scan callback thread
+    private void accept(Advertisement<D> advertisement) {
+        if (!mConfig.matchesName(advertisement.getName())) return;
+        synchronized (mPending) {
+            mPending.put(advertisement.getAddress(), advertisement);
+            if (mFlushPosted) return;
+            mFlushPosted = true;
+        }
+        mMain.postDelayed(mFlush, UPDATE_INTERVAL_MILLIS);
+    }
+
+    private final ArrayList<Advertisement<D>> mFlushed = new ArrayList<>();
+
+    // main thread
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mPending) {
+                mFlushed.addAll(mPending.values());
+                mPending.clear();
+                mFlushPosted = false;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < mFlushed.size(); i++) {
+                Advertisement<D> advertisement = mFlushed.get(i);
+                mRegistry.update(advertisement.getAddress(), advertisement.getDevice(),
+                        advertisement.getName(), advertisement.getRssi(), now);
+            }
+            mFlushed.clear();
+            if (mRegistry.hasChanges() && mListener != null) {
+                mListener.onDevicesChanged(mRegistry.snapshot());
+            }
+        }
+    };
+
+    private final Scanner.Callback<D> mScanCallback = new Scanner.Callback<D>() {
+        @Override
+        public void onAdvertisement(Advertisement<D> advertisement) {
+            accept(advertisement);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            mMain.postDelayed(() -> {
+                mScanning = false;
+                mMain.removeCallbacks(mStopTask);
+                if (mListener != null) mListener.onScanFailed(errorCode);
+            }, 0);
+        }
+    };
+}
@@ -0,0 +1,30 @@
+package yeetivity.jjve.ble_polar.scan;
+
+/**
+ * A BLE scanner, e.g. the BluetoothLeScanner or a simulated one, so that the ScanEngine runs
+ * without Android.
+ *
+ * @param <D> The platform device object, e.g. BluetoothDevice.
+ */
+public interface Scanner<D> {
+
+    /**
+     * Called on the scan thread.
+     */
+    interface Callback<D> {
+
+        void onAdvertisement(Advertisement<D> advertisement);
+
+        void onScanFailed(int errorCode);
+    }
+
+    /**
+     * Start scanning; advertisements the scanner can filter itself (service, manufacturer)
+     * are dropped before the callback.
+     * @return false if the scanner is not available, e.g. Bluetooth is off.
+     */
+    boolean start(ScanConfig config, Callback<D> callback);
+
+    /** Stop scanning, delivering results still batched first. */
+    void stop();
+}
@@ -0,0 +1,252 @@
+package yeetivity.jjve.ble_polar.session;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.pmd.PmdSettings;
+
+/**
+ * Persistent per-device cache of the gatt layout and the PMD settings each measurement
+ * supports, so a repeat connection can start streaming without querying the settings.
+ *
+ * Entries are keyed by address and firmware revision: a sensor reporting another firmware,
+ * or another set of services, is looked up as a miss and its entry is dropped.
+ *
+ * Thread safe. Nothing is written until save(), e.g. periodically from a worker thread.
+ */
+public class CapabilityCache {
+
+    // Device Information service, whose firmware revision keys the entries
+    public static final UUID DEVICE_INFORMATION =
+            UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb");
+    public static final UUID FIRMWARE_REVISION =
+            UUID.fromString("00002a26-0000-1000-8000-00805f9b34fb");
+
+    static final int MAGIC = 0x50434143; // "CACP"
+    static final int VERSION = 1;
+
+    private static class Entry {
+        final String firmware;
+        final Set<UUID> services;
+        // supported settings by measurement type
+        final Map<Integer, PmdSettings> settings = new HashMap<>();
+
+        Entry(String firmware, Set<UUID> services) {
+            this.firmware = firmware;
+            this.services = services;
+        }
+
+        boolean matches(String firmware, Collection<UUID> services) {
+            return this.firmware.equals(firmware) && this.services.size() == services.size()
+                    && this.services.containsAll(services);
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private boolean mDirty;
+
+    private long mHits;
+    private long mMisses;
+    private long mInvalidations;
+
+    /**
+     * @param file Where the cache is persisted, null to keep it in memory only.
+     */
+    public CapabilityCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @param firmware Firmware revision of the sensor, "" if unknown.
+     * @param services The services discovered on the sensor.
+     * @return A copy of the supported settings, null on a miss.
+     */
+    public synchronized PmdSettings get(String address, String firmware, Collection<UUID> services,
+                                        int measurementType) {
+        Entry entry = mEntries.get(address);
+        if (entry != null && !entry.matches(firmware, services)) {
+            // updated firmware may support other settings
+            mEntries.remove(address);
+            mDirty = true;
+            mInvalidations++;
+            entry = null;
+        }
+        PmdSettings settings = entry != null ? entry.settings.get(measurementType) : null;
+        if (settings == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        PmdSettings copy = new PmdSettings();
+        copy.copyFrom(settings);
+        return copy;
+    }
+
+    /**
+     * Remember the settings a sensor answered to a get settings command.
+     */
+    public synchronized void put(String address, String firmware, Collection<UUID> services,
+                                 int measurementType, PmdSettings supported) {
+        Entry entry = mEntries.get(address);
+        if (entry == null || !entry.matches(firmware, services)) {
+            entry = new Entry(firmware, new HashSet<>(services));
+            mEntries.put(address, entry);
+        }
+        PmdSettings settings = new PmdSettings();
+        settings.copyFrom(supported);
+        entry.settings.put(measurementType, settings);
+        mDirty = true;
+    }
+
+    /**
+     * Drop the entry of a sensor, e.g. when it refuses a start with cached settings.
+     */
+    public synchronized void invalidate(String address) {
+        if (mEntries.remove(address) != null) {
+            mDirty = true;
+            mInvalidations++;
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * Replace the entries with the persisted ones. A missing file leaves the cache empty.
+     * @throws IOException The file cannot be read or is corrupt; the cache is left empty.
+     */
+    public synchronized void load() throws IOException {
+        mEntries.clear();
+        mDirty = false;
+        if (mFile == null || !mFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a capability cache");
+            if (in.readShort() > VERSION) throw new IOException("unsupported version");
+            int entries = in.readInt();
+            for (int e = 0; e < entries; e++) {
+                String address = in.readUTF();
+                String firmware = in.readUTF();
+                int serviceCount = checkCount(in.readInt());
+                Set<UUID> services = new HashSet<>();
+                for (int s = 0; s < serviceCount; s++) {
+                    services.add(new UUID(in.readLong(), in.readLong()));
+                }
+                Entry entry = new Entry(firmware, services);
+                int measurements = checkCount(in.readInt());
+                for (int m = 0; m < measurements; m++) {
+                    int measurementType = in.readUnsignedByte();
+                    entry.settings.put(measurementType, readSettings(in));
+                }
+                mEntries.put(address, entry);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            mEntries.clear();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage());
+        }
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0 || count > 256) throw new IOException("count= " + count);
+        return count;
+    }
+
+    private static PmdSettings readSettings(DataInputStream in) throws IOException {
+        PmdSettings settings = new PmdSettings();
+        for (int type = 0; type < PmdSettings.TYPES; type++) {
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) settings.add(type, in.readInt());
+        }
+        return settings;
+    }
+
+    /**
+     * Write the entries, replacing the file only once they are all written.
+     */
+    public void save() throws IOException {
+        if (mFile == null) return;
+        byte[] bytes;
+        synchronized (this) {
+            bytes = serialize();
+            mDirty = false;
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            }
+            if (!temp.renameTo(mFile)) throw new IOException("cannot replace " + mFile);
+        } catch (IOException e) {
+            synchronized (this) {
+                mDirty = true;
+            }
+            throw e;
+        }
+    }
+
+    // the file is small, it is written from memory outside the lock
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(mEntries.size());
+        for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            Entry entry = e.getValue();
+            out.writeUTF(e.getKey());
+            out.writeUTF(entry.firmware);
+            out.writeInt(entry.services.size());
+            for (UUID service : entry.services) {
+                out.writeLong(service.getMostSignificantBits());
+                out.writeLong(service.getLeastSignificantBits());
+            }
+            out.writeInt(entry.settings.size());
+            for (Map.Entry<Integer, PmdSettings> settings : entry.settings.entrySet()) {
+                out.writeByte(settings.getKey());
+                writeSettings(out, settings.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeSettings(DataOutputStream out, PmdSettings settings) throws IOException {
+        for (int type = 0; type < PmdSettings.TYPES; type++) {
+            int count = settings.count(type);
+            out.writeByte(count);
+            int[] values = settings.values(type);
+            for (int i = 0; i < count; i++) out.writeInt(values[i]);
+        }
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /** @return Entries dropped for a firmware or layout change, or a refused start. */
+    public synchronized long getInvalidationCount() {
+        return mInvalidations;
+    }
+}
@@ -0,0 +1,491 @@
+package yeetivity.jjve.ble_polar.session;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.gatt.GattCommandQueue;
+import yeetivity.jjve.ble_polar.gatt.GattOperation;
+import yeetivity.jjve.ble_polar.gatt.GattOps;
+import yeetivity.jjve.ble_polar.gatt.GattScheduler;
+import yeetivity.jjve.ble_polar.gatt.LinkParameters;
+import yeetivity.jjve.ble_polar.gatt.LinkThroughput;
+import yeetivity.jjve.ble_polar.hr.HeartRateMeasurement;
+import yeetivity.jjve.ble_polar.hr.HeartRateService;
+import yeetivity.jjve.ble_polar.hr.HrvEngine;
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+import yeetivity.jjve.ble_polar.pmd.PmdControlPoint;
+import yeetivity.jjve.ble_polar.pmd.PmdError;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.pmd.PmdResponse;
+import yeetivity.jjve.ble_polar.pmd.PmdSettings;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+import yeetivity.jjve.ble_polar.stream.ClockSync;
+import yeetivity.jjve.ble_polar.stream.SamplePyramid;
+import yeetivity.jjve.ble_polar.stream.SampleRingBuffer;
+
+/**
+ * The state of one sensor connection: its command queue, decoder, sample buffer and
+ * reconnection state. Android independent - the owner forwards the gatt callbacks.
+ *
+ * Stream setup: query the settings the sensor supports, then start the measurement with the
+ * desired settings, limited to what is supported and to what the link can carry. After a
+ * reconnect the last start command is replayed, so the stream resumes with the same
+ * settings; only if the sensor refuses them are the settings queried again. With a
+ * CapabilityCache the settings a sensor supported before, with the same firmware, are used
+ * without a query on the first connection too. Sensors with the Heart Rate service also
+ * notify heart rate and RR intervals, on the same connection.
+ *
+ * Decoded samples are moved to the local clock by a ClockSync before they are published, so
+ * the buffers of all sessions can be merged into one timeline. The merged samples of the
+ * session are kept, downsampled, in its history for the charts.
+ */
+public class SensorSession {
+
+    public enum State {
+        DISCONNECTED, CONNECTING, CONNECTED, STREAMING
+    }
+
+    private static final int BUFFER_CAPACITY = 2048;
+    // share of the link capacity a stream may use
+    private static final double LINK_HEADROOM = 0.5;
+    private static final long HRV_WINDOW_MILLIS = 60000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mAddress;
+    private final int mMeasurementType;
+    private final PmdSettings mDesired;
+    private final LinkParameters mLink = new LinkParameters();
+    private volatile int mSampleRate;
+
+    // control point commands and responses, reused on every (re)connect
+    private final PmdControlPoint mControlPoint = new PmdControlPoint();
+    private final PmdResponse mResponse = new PmdResponse();
+    private final PmdSettings mStart = new PmdSettings();
+    private volatile PmdError mLastError = PmdError.SUCCESS;
+    // a start succeeded on an earlier connection, mStart holds its settings
+    private volatile boolean mResumable;
+    private boolean mResuming;
+
+    // supported settings of earlier connections, keyed by firmware and services
+    private volatile CapabilityCache mCache;
+    private volatile List<UUID> mServices = new ArrayList<>();
+    private volatile String mFirmware = "";
+    // the start uses cached settings, not confirmed on this connection yet
+    private boolean mFromCache;
+    private volatile boolean mCapabilitiesCached;
+
+    // time to first sample, from the connection
+    private volatile long mConnectedAt;
+    private volatile boolean mAwaitingSample;
+    private volatile long mTimeToFirstSample = -1;
+
+    private final PmdFrameDecoder mDecoder;
+    private final int[] mFrameSamples;
+    private final long[] mFrameTimestamps = new long[PmdFrameDecoder.DEFAULT_MAX_SAMPLES];
+    private final SampleRingBuffer mBuffer;
+    private final SamplePyramid mHistory;
+
+    // heart rate service, gatt callback thread only
+    private final HeartRateMeasurement mHeartRate = new HeartRateMeasurement();
+    private final HrvEngine mHrv = new HrvEngine(HRV_WINDOW_MILLIS);
+    private volatile int mHeartRateBpm;
+    private volatile float mRmssd;
+
+    private volatile State mState = State.DISCONNECTED;
+    private volatile GattOps mOps;
+    private volatile GattCommandQueue mQueue;
+
+    private final ClockSync mClockSync;
+    private volatile long mFrames;
+    // lost samples already counted in the metrics
+    private long mLostSamples;
+    private volatile long mDecodeErrors;
+
+    // reconnection state
+    private volatile int mReconnectAttempts;
+    private volatile long mDisconnectedAt;
+    private volatile boolean mClosed;
+
+    int mSourceId = -1;
+
+    /**
+     * @param address         Bluetooth address of the sensor.
+     * @param measurementType PMD measurement type, e.g. PmdFrameDecoder.MEASUREMENT_ACC.
+     * @param settings        Desired settings, e.g. PolarPmd.accSettings(52). The decoder takes
+     *                        its channels and resolution from them.
+     */
+    public SensorSession(String address, int measurementType, PmdSettings settings) {
+        mAddress = address;
+        mMeasurementType = measurementType;
+        mDesired = new PmdSettings();
+        mDesired.copyFrom(settings);
+        int channels = settings.has(PmdSettings.CHANNELS)
+                ? settings.get(PmdSettings.CHANNELS) : PmdFrameDecoder.DEFAULT_CHANNELS;
+        int resolution = settings.has(PmdSettings.RESOLUTION)
+                ? settings.get(PmdSettings.RESOLUTION) : PmdFrameDecoder.DEFAULT_RESOLUTION;
+        mDecoder = new PmdFrameDecoder(channels, resolution, PmdFrameDecoder.DEFAULT_MAX_SAMPLES);
+        mFrameSamples = new int[PmdFrameDecoder.DEFAULT_MAX_SAMPLES * channels];
+        mBuffer = new SampleRingBuffer(BUFFER_CAPACITY, channels);
+        mHistory = new SamplePyramid(channels);
+        mClockSync = new ClockSync(1000000000L);
+        setSampleRate(settings.has(PmdSettings.SAMPLE_RATE) ? settings.get(PmdSettings.SAMPLE_RATE) : 1);
+    }
+
+    private void setSampleRate(int sampleRate) {
+        mSampleRate = sampleRate;
+        mClockSync.setNominalPeriod(1000000000L / sampleRate);
+    }
+
+    public void onConnecting() {
+        mState = State.CONNECTING;
+    }
+
+    /**
+     * Use the supported settings cached on earlier connections, and cache the ones queried.
+     */
+    public void setCapabilityCache(CapabilityCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * @param nowNanos Local time of the connection, the start of the time to first sample.
+     */
+    public void onConnected(GattOps ops, GattScheduler scheduler, long nowNanos) {
+        mConnectedAt = nowNanos;
+        mAwaitingSample = true;
+        mCapabilitiesCached = false;
+        mOps = ops;
+        mQueue = new GattCommandQueue(ops, scheduler);
+        mReconnectAttempts = 0;
+        mState = State.CONNECTED;
+        // the measurement restarts, the sensor clock may too
+        mClockSync.reset();
+    }
+
+    public GattOperation onServicesDiscovered() {
+        return onServicesDiscovered(false);
+    }
+
+    /**
+     * @param heartRate The sensor has the Heart Rate service; enable its notifications too.
+     */
+    public GattOperation onServicesDiscovered(boolean heartRate) {
+        List<UUID> services = new ArrayList<>(2);
+        services.add(PolarPmd.SERVICE);
+        if (heartRate) services.add(HeartRateService.SERVICE);
+        return onServicesDiscovered(services);
+    }
+
+    /**
+     * Queue the stream setup: the settings query, whose response is followed by the start
+     * command (see onControlResponse), the replay of the last start after a reconnect, or a
+     * start with cached settings. The cache is looked up with the firmware revision, read
+     * first if the sensor has the Device Information service.
+     * @param services The services discovered; notifications of the Heart Rate service are
+     *                 enabled if present.
+     * @return The first operation of the setup specific to this connection.
+     */
+    public GattOperation onServicesDiscovered(Collection<UUID> services) {
+        mServices = new ArrayList<>(services);
+        PolarPmd.enableNotifications(mOps, mQueue);
+        if (services.contains(HeartRateService.SERVICE)) {
+            HeartRateService.enableNotifications(mOps, mQueue);
+        }
+        if (mResumable) {
+            mResuming = true;
+            return PolarPmd.writeCommand(mQueue, mControlPoint.start(mMeasurementType, mStart));
+        }
+        if (mCache == null) return querySettings();
+        if (!services.contains(CapabilityCache.DEVICE_INFORMATION)) return startCached("");
+        GattCommandQueue queue = mQueue;
+        return queue.read(CapabilityCache.DEVICE_INFORMATION, CapabilityCache.FIRMWARE_REVISION)
+                .addListener(op -> {
+                    if (mQueue != queue) return;
+                    byte[] firmware = op.isSuccess() ? op.getResult() : null;
+                    startCached(firmware != null ? new String(firmware, UTF_8).trim() : "");
+                });
+    }
+
+    // start with the cached settings, or query them on a miss
+    private GattOperation startCached(String firmware) {
+        mFirmware = firmware;
+        CapabilityCache cache = mCache;
+        PmdSettings supported = cache != null
+                ? cache.get(mAddress, firmware, mServices, mMeasurementType) : null;
+        if (supported == null) return querySettings();
+        mFromCache = true;
+        mCapabilitiesCached = true;
+        return start(supported);
+    }
+
+    private GattOperation querySettings() {
+        return PolarPmd.writeCommand(mQueue, mControlPoint.getSettings(mMeasurementType))
+                .addListener(op -> {
+                    // no response will come, start with the desired settings
+                    if (!op.isSuccess()) start(null);
+                });
+    }
+
+    /**
+     * Handle an indication from the control point. Gatt callback thread only.
+     */
+    public void onControlResponse(byte[] value) {
+        PmdResponse response;
+        try {
+            response = mResponse.parse(value);
+        } catch (IllegalArgumentException e) {
+            mDecodeErrors++;
+            return;
+        }
+        if (response.getMeasurementType() != mMeasurementType) return;
+        mLastError = response.getError();
+        switch (response.getOpCode()) {
+            case PmdControlPoint.OP_GET_SETTINGS:
+                CapabilityCache cache = mCache;
+                if (response.isSuccess() && cache != null) {
+                    cache.put(mAddress, mFirmware, mServices, mMeasurementType, response.getSettings());
+                }
+                start(response.isSuccess() ? response.getSettings() : null);
+                break;
+            case PmdControlPoint.OP_START:
+                if (response.isSuccess()) {
+                    mResumable = true;
+                    if (mState == State.CONNECTED) mState = State.STREAMING;
+                } else if ((mResuming || mFromCache) && mQueue != null) {
+                    // e.g. the sensor lost its settings: negotiate them again
+                    if (mFromCache && mCache != null) mCache.invalidate(mAddress);
+                    mCapabilitiesCached = false;
+                    querySettings();
+                }
+                mResuming = false;
+                mFromCache = false;
+                break;
+            case PmdControlPoint.OP_STOP:
+                if (response.isSuccess() && mState == State.STREAMING) mState = State.CONNECTED;
+                break;
+        }
+    }
+
+    /**
+     * @param supported Settings the sensor supports, null if unknown.
+     */
+    private GattOperation start(PmdSettings supported) {
+        GattCommandQueue queue = mQueue;
+        if (queue == null) return null;
+        if (supported != null) {
+            mStart.select(mDesired, supported);
+        } else {
+            mStart.copyFrom(mDesired);
+        }
+        if (mStart.has(PmdSettings.SAMPLE_RATE)) {
+            PmdSettings rates = supported != null && supported.has(PmdSettings.SAMPLE_RATE)
+                    ? supported : mStart;
+            int rate = LinkThroughput.of(mLink).chooseSampleRate(
+                    rates.values(PmdSettings.SAMPLE_RATE), rates.count(PmdSettings.SAMPLE_RATE),
+                    mStart.get(PmdSettings.SAMPLE_RATE), mDecoder.getChannels(),
+                    (mDecoder.getResolution() + 7) / 8, LINK_HEADROOM);
+            mStart.set(PmdSettings.SAMPLE_RATE, rate);
+            setSampleRate(rate);
+        }
+        return PolarPmd.writeCommand(queue, mControlPoint.start(mMeasurementType, mStart));
+    }
+
+    /**
+     * Queue a stop of the measurement, e.g. before disconnecting.
+     * @return The write of the stop command, null if not connected.
+     */
+    public GattOperation stop() {
+        GattCommandQueue queue = mQueue;
+        return queue == null ? null : PolarPmd.writeCommand(queue, mControlPoint.stop(mMeasurementType));
+    }
+
+    /**
+     * @param nowNanos Local time of the disconnect.
+     */
+    public void onDisconnected(long nowNanos) {
+        GattCommandQueue queue = mQueue;
+        if (queue != null) queue.clear();
+        mQueue = null;
+        mOps = null;
+        mDisconnectedAt = nowNanos;
+        if (!mClosed) mReconnectAttempts++;
+        mState = State.DISCONNECTED;
+    }
+
+    /**
+     * Decode a notification from the data characteristic and publish its samples.
+     * Gatt callback thread only.
+     * @param arrivalNanos Local time the notification arrived.
+     * @return The number of samples published.
+     */
+    public int onData(byte[] value, long arrivalNanos) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int count;
+        try {
+            count = mDecoder.decode(value, mFrameSamples);
+        } catch (IllegalArgumentException e) {
+            mDecodeErrors++;
+            Metrics.DECODE_ERRORS.increment();
+            return 0;
+        }
+        if (Metrics.ENABLED) Metrics.DECODE_TIME.record(System.nanoTime() - start);
+        if (count == 0) return 0;
+        mFrames++;
+        if (mAwaitingSample) {
+            mAwaitingSample = false;
+            mTimeToFirstSample = arrivalNanos - mConnectedAt;
+        }
+
+        // the frame timestamp is the time of the last sample
+        mClockSync.onFrame(mDecoder.getTimestamp(), count, arrivalNanos, mFrameTimestamps);
+        if (mClockSync.hadGap()) {
+            long lost = mClockSync.getDroppedSampleCount();
+            Metrics.LOST_SAMPLES.add(lost - mLostSamples);
+            mLostSamples = lost;
+        }
+        int published = mBuffer.publish(mFrameTimestamps, mFrameSamples, count);
+        if (published < count) Metrics.OVERRUN_SAMPLES.add(count - published);
+        return published;
+    }
+
+    /**
+     * Handle a Heart Rate Measurement notification. Gatt callback thread only.
+     * @return The heart rate, 0 if unknown or the measurement is malformed.
+     */
+    public int onHeartRate(byte[] value) {
+        HeartRateMeasurement measurement;
+        try {
+            measurement = mHeartRate.parse(value);
+        } catch (IllegalArgumentException e) {
+            mDecodeErrors++;
+            Metrics.DECODE_ERRORS.increment();
+            return 0;
+        }
+        // without skin contact the intervals are noise
+        int bpm = measurement.hasContact() ? measurement.getHeartRate() : 0;
+        if (bpm != 0) {
+            mHrv.add(measurement);
+            mRmssd = (float) mHrv.getRmssd();
+        }
+        mHeartRateBpm = bpm;
+        return bpm;
+    }
+
+    /** Stop reconnecting, e.g. when the user removes the sensor. */
+    public void close() {
+        mClosed = true;
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public int getMeasurementType() {
+        return mMeasurementType;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public GattCommandQueue getQueue() {
+        return mQueue;
+    }
+
+    /** @return The negotiated link, filled in by the connection setup. */
+    public LinkParameters getLink() {
+        return mLink;
+    }
+
+    /** @return The sample rate requested, in Hz. */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /** @return The settings of the last start command. */
+    public PmdSettings getStartSettings() {
+        return mStart;
+    }
+
+    /** @return The error of the last control point response. */
+    public PmdError getLastError() {
+        return mLastError;
+    }
+
+    /** @return The clock of the sensor, gatt callback thread only. */
+    public ClockSync getClockSync() {
+        return mClockSync;
+    }
+
+    /** @return The last heart rate, in beats per minute; 0 if unknown. */
+    public int getHeartRate() {
+        return mHeartRateBpm;
+    }
+
+    /** @return RMSSD over the last minute of RR intervals, in ms. */
+    public float getRmssd() {
+        return mRmssd;
+    }
+
+    /** @return HRV over the last minute of RR intervals, gatt callback thread only. */
+    public HrvEngine getHrv() {
+        return mHrv;
+    }
+
+    public SampleRingBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return The downsampled history of the session, filled by the SessionMonitor from the
+     *         merged timeline. Thread safe.
+     */
+    public SamplePyramid getHistory() {
+        return mHistory;
+    }
+
+    /** @return Index of this session in the merged timeline. */
+    public int getSourceId() {
+        return mSourceId;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long getDecodeErrorCount() {
+        return mDecodeErrors;
+    }
+
+    public int getReconnectAttempts() {
+        return mReconnectAttempts;
+    }
+
+    /**
+     * @return Time from the last connection to its first sample, in ns; -1 before the first.
+     */
+    public long getTimeToFirstSampleNanos() {
+        return mTimeToFirstSample;
+    }
+
+    /** @return The stream of the last connection was started with cached settings. */
+    public boolean isCapabilitiesCached() {
+        return mCapabilitiesCached;
+    }
+
+    /** @return The firmware revision read on the last connection, "" if unknown. */
+    public String getFirmware() {
+        return mFirmware;
+    }
+
+    public long getDisconnectedAt() {
+        return mDisconnectedAt;
+    }
+}
@@ -0,0 +1,195 @@
+package yeetivity.jjve.ble_polar.session;
+
+import java.util.List;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.gatt.ConnectionSetup;
+import yeetivity.jjve.ble_polar.gatt.GattCommandQueue;
+import yeetivity.jjve.ble_polar.gatt.GattConnection;
+import yeetivity.jjve.ble_polar.gatt.GattDevice;
+import yeetivity.jjve.ble_polar.gatt.GattListener;
+import yeetivity.jjve.ble_polar.gatt.GattOperation;
+import yeetivity.jjve.ble_polar.gatt.GattScheduler;
+import yeetivity.jjve.ble_polar.gatt.ReconnectController;
+import yeetivity.jjve.ble_polar.hr.HeartRateService;
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+import yeetivity.jjve.ble_polar.utils.Clock;
+
+/**
+ * Connects a SensorSession to its sensor: opens a connection for each attempt of its
+ * ReconnectController, and forwards the gatt callbacks to the session, its command queue and
+ * the controller.
+ *
+ * Android independent - the device may be a BluetoothDevice or a simulated sensor - so the
+ * whole path from the connection to the published samples runs in plain JVM tests.
+ */
+public class SessionLink implements ReconnectController.Connector, GattListener {
+
+    /**
+     * Connection events worth a log line.
+     */
+    public interface EventListener {
+        void onLinkEvent(SensorSession session, String event);
+    }
+
+    private final GattDevice mDevice;
+    private final SensorSession mSession;
+    private final GattScheduler mScheduler;
+    private final Clock mClock;
+    private final ReconnectController mController;
+    private volatile EventListener mEvents;
+
+    // guarded by this
+    private GattConnection mConnection;
+    private volatile boolean mFirstSample;
+
+    public SessionLink(GattDevice device, SensorSession session, GattScheduler scheduler,
+                       Clock clock) {
+        mDevice = device;
+        mSession = session;
+        mScheduler = scheduler;
+        mClock = clock;
+        mController = new ReconnectController(this, scheduler);
+    }
+
+    public void setEventListener(EventListener listener) {
+        mEvents = listener;
+    }
+
+    public SensorSession getSession() {
+        return mSession;
+    }
+
+    public ReconnectController getController() {
+        return mController;
+    }
+
+    /** Connect, and keep reconnecting until stop(). */
+    public void start() {
+        mController.start();
+    }
+
+    public void stop() {
+        mController.stop();
+    }
+
+    @Override
+    public boolean connect(boolean background) {
+        if (mSession.isClosed()) return false;
+        mSession.onConnecting();
+        mFirstSample = true;
+        GattConnection connection = mDevice.connect(background, this);
+        if (connection == null) return false;
+        synchronized (this) {
+            mConnection = connection;
+        }
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        GattConnection connection;
+        synchronized (this) {
+            connection = mConnection;
+            mConnection = null;
+        }
+        if (connection != null) {
+            connection.disconnect();
+            connection.close();
+        }
+    }
+
+    private synchronized GattConnection getConnection() {
+        return mConnection;
+    }
+
+    private void log(String event) {
+        EventListener events = mEvents;
+        if (events != null) events.onLinkEvent(mSession, event);
+    }
+
+    @Override
+    public void onConnectionStateChange(boolean connected, int status) {
+        long now = mClock.nanos();
+        if (connected) {
+            GattConnection connection = getConnection();
+            if (connection == null) return;
+            mController.onConnected(now / 1000000);
+            if (mController.getReconnectCount() > 0) {
+                log("reconnected after " + mController.getLastReconnectLatencyMillis() + " ms");
+            }
+            mSession.onConnected(connection, mScheduler, now);
+            // discover once the link is set up, successful or not
+            ConnectionSetup.start(connection, mSession.getQueue(), mSession.getLink())
+                    .addListener(op -> connection.discoverServices());
+        } else {
+            mSession.onDisconnected(now);
+            mController.onDisconnected(now / 1000000);
+            log("lost, status " + status + ", " + mController.getState() + " after "
+                    + mController.getAttempts() + " attempts");
+        }
+    }
+
+    @Override
+    public void onServicesDiscovered(List<UUID> services, int status) {
+        if (status == GattOperation.STATUS_SUCCESS && services.contains(PolarPmd.SERVICE)) {
+            mSession.onServicesDiscovered(services);
+        } else {
+            log("service not found");
+        }
+    }
+
+    @Override
+    public void onCharacteristicWrite(UUID characteristic, int status) {
+        GattCommandQueue queue = mSession.getQueue();
+        if (queue != null) queue.onCharacteristicWrite(characteristic, status);
+    }
+
+    @Override
+    public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        GattCommandQueue queue = mSession.getQueue();
+        if (queue != null) queue.onCharacteristicRead(characteristic, value, status);
+    }
+
+    @Override
+    public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+        GattCommandQueue queue = mSession.getQueue();
+        if (queue != null) queue.onDescriptorWrite(characteristic, descriptor, status);
+    }
+
+    @Override
+    public void onMtuChanged(int mtu, int status) {
+        GattCommandQueue queue = mSession.getQueue();
+        if (queue != null) queue.onMtuChanged(mtu, status);
+    }
+
+    @Override
+    public void onPhyUpdate(int txPhy, int status) {
+        if (status == GattOperation.STATUS_SUCCESS) mSession.getLink().setTxPhy(txPhy);
+    }
+
+    @Override
+    public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+        if (Metrics.ENABLED) {
+            Metrics.NOTIFICATIONS.increment();
+            Metrics.NOTIFICATION_BYTES.add(value.length);
+        }
+        if (PolarPmd.DATA.equals(characteristic)) {
+            long now = mClock.nanos();
+            if (mSession.onData(value, now) > 0) {
+                mController.onData(now / 1000000);
+                if (mFirstSample) {
+                    mFirstSample = false;
+                    log("first sample after " + mSession.getTimeToFirstSampleNanos() / 1000000
+                            + " ms, settings "
+                            + (mSession.isCapabilitiesCached() ? "cached" : "queried"));
+                }
+            }
+        } else if (PolarPmd.CONTROL.equals(characteristic)) {
+            mSession.onControlResponse(value);
+        } else if (HeartRateService.MEASUREMENT.equals(characteristic)) {
+            mSession.onHeartRate(value);
+        }
+    }
+}
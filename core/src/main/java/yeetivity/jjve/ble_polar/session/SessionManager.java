@@ -0,0 +1,87 @@
+package yeetivity.jjve.ble_polar.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the concurrent sensor sessions and merges their samples onto one timeline.
+ *
+ * No thread is created per sensor: decoding runs on the gatt callback thread of each
+ * connection, and tick() - called periodically from a single worker - drains all sessions.
+ */
+public class SessionManager {
+
+    public static final int MAX_SESSIONS = 16;
+
+    private static final int STAGING_CAPACITY = 1024;
+    private static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final Map<String, SensorSession> mSessions = new HashMap<>();
+    private final TimelineMerger mMerger;
+    private volatile TimelineMerger.Listener mListener;
+
+    public SessionManager() {
+        this(MAX_SESSIONS, STAGING_CAPACITY, STALE_NANOS);
+    }
+
+    public SessionManager(int maxSessions, int stagingCapacity, long staleNanos) {
+        mMerger = new TimelineMerger(maxSessions, stagingCapacity, staleNanos);
+    }
+
+    /**
+     * Add a session, or return the existing one for the address.
+     */
+    public synchronized SensorSession addSession(SensorSession session, long nowNanos) {
+        SensorSession existing = mSessions.get(session.getAddress());
+        if (existing != null) return existing;
+        session.mSourceId = mMerger.addSource(session.getBuffer(), nowNanos);
+        mSessions.put(session.getAddress(), session);
+        return session;
+    }
+
+    public synchronized SensorSession getSession(String address) {
+        return mSessions.get(address);
+    }
+
+    public synchronized SensorSession removeSession(String address) {
+        SensorSession session = mSessions.remove(address);
+        if (session != null) {
+            session.close();
+            mMerger.removeSource(session.getSourceId());
+        }
+        return session;
+    }
+
+    public synchronized List<SensorSession> getSessions() {
+        return new ArrayList<>(mSessions.values());
+    }
+
+    public synchronized int size() {
+        return mSessions.size();
+    }
+
+    /**
+     * Set the consumer of the merged timeline, called from the thread calling tick().
+     */
+    public void setTimelineListener(TimelineMerger.Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Drain all sessions and pass the merged samples to the listener.
+     * @return The number of samples emitted.
+     */
+    public synchronized int tick(long nowNanos) {
+        TimelineMerger.Listener listener = mListener;
+        return listener == null ? 0 : mMerger.merge(nowNanos, listener);
+    }
+
+    /** Emit everything staged, e.g. before stopping. */
+    public synchronized int flush() {
+        TimelineMerger.Listener listener = mListener;
+        return listener == null ? 0 : mMerger.flush(listener);
+    }
+}
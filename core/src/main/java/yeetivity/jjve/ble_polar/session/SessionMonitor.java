@@ -0,0 +1,161 @@
+package yeetivity.jjve.ble_polar.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import yeetivity.jjve.ble_polar.dsp.AccAnalyzer;
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+import yeetivity.jjve.ble_polar.gatt.ReconnectController;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.stream.SamplePyramid;
+import yeetivity.jjve.ble_polar.stream.SampleWindowStats;
+
+/**
+ * Aggregates the merged timeline per sensor - window stats, the history of the session, and
+ * activity and steps for ACC streams - and turns them into SessionSummary snapshots for the ui.
+ *
+ * Sits between the TimelineMerger and the downstream listener (e.g. a SampleSink), so
+ * the samples are drained once for both. Not thread safe: onSample() and summarize() run on
+ * the thread calling SessionManager.tick().
+ */
+public class SessionMonitor implements TimelineMerger.Listener {
+
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static class Source {
+        final String address;
+        final SampleWindowStats stats;
+        final SamplePyramid history;
+        final AccAnalyzer analyzer;
+        // the sample being analyzed
+        final long[] timestamp = new long[1];
+        final int[] sample;
+        int sampleRate;
+        // sample count of the last summary
+        long summarized;
+
+        Source(String address, SampleWindowStats stats, SamplePyramid history,
+               AccAnalyzer analyzer, int sampleRate) {
+            this.address = address;
+            this.stats = stats;
+            this.history = history;
+            this.analyzer = analyzer;
+            this.sample = new int[stats.getChannels()];
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    private final Source[] mSources;
+    private final long mWindowNanos;
+    private TimelineMerger.Listener mDownstream;
+
+    public SessionMonitor() {
+        this(SessionManager.MAX_SESSIONS, DEFAULT_WINDOW_NANOS);
+    }
+
+    public SessionMonitor(int maxSources, long windowNanos) {
+        if (windowNanos <= 0) throw new IllegalArgumentException("window= " + windowNanos);
+        mSources = new Source[maxSources];
+        mWindowNanos = windowNanos;
+    }
+
+    /**
+     * Pass every sample on to a listener, null for none.
+     */
+    public void setDownstream(TimelineMerger.Listener downstream) {
+        mDownstream = downstream;
+    }
+
+    @Override
+    public void onSample(int source, long timestamp, int[] values, int offset, int channels) {
+        Source s = source < mSources.length ? mSources[source] : null;
+        if (s != null && s.stats.getChannels() == channels) {
+            s.stats.accept(timestamp, values, offset);
+            s.history.accept(timestamp, values, offset);
+            if (s.analyzer != null) {
+                s.timestamp[0] = timestamp;
+                System.arraycopy(values, offset, s.sample, 0, channels);
+                s.analyzer.process(s.timestamp, s.sample, 1);
+            }
+        }
+        TimelineMerger.Listener downstream = mDownstream;
+        if (downstream != null) downstream.onSample(source, timestamp, values, offset, channels);
+    }
+
+    /**
+     * Close the windows and snapshot the aggregates of each session. Sessions not seen before
+     * are tracked from now on.
+     * @param controllers Reconnect controller of each session, by index; null or null entries
+     *                    leave the reconnect counts at 0.
+     */
+    public List<SessionSummary> summarize(List<SensorSession> sessions,
+                                          List<ReconnectController> controllers, long nowNanos) {
+        List<SessionSummary> summaries = new ArrayList<>(sessions.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            SensorSession session = sessions.get(i);
+            ReconnectController controller = controllers != null ? controllers.get(i) : null;
+            Source s = track(session);
+            if (s == null) continue;
+            s.stats.roll(nowNanos);
+            summaries.add(summary(session, s, controller));
+        }
+        return summaries;
+    }
+
+    private Source track(SensorSession session) {
+        int id = session.getSourceId();
+        if (id < 0 || id >= mSources.length) return null;
+        Source s = mSources[id];
+        int rate = session.getSampleRate();
+        // source ids are reused after a session is removed
+        if (s == null || !s.address.equals(session.getAddress())) {
+            AccAnalyzer analyzer = null;
+            if (session.getMeasurementType() == PmdFrameDecoder.MEASUREMENT_ACC && analyzable(rate)) {
+                analyzer = new AccAnalyzer(session.getBuffer().getChannels(), rate);
+            }
+            s = new Source(session.getAddress(),
+                    new SampleWindowStats(session.getBuffer().getChannels(), mWindowNanos),
+                    session.getHistory(), analyzer, rate);
+            mSources[id] = s;
+        } else if (s.sampleRate != rate) {
+            // negotiated down from the desired rate
+            if (s.analyzer != null && analyzable(rate)) s.analyzer.setSampleRate(rate);
+            s.sampleRate = rate;
+        }
+        return s;
+    }
+
+    private static boolean analyzable(int sampleRate) {
+        return sampleRate > 2 * AccAnalyzer.STEP_HIGH_CUTOFF;
+    }
+
+    private static SessionSummary summary(SensorSession session, Source s,
+                                          ReconnectController controller) {
+        SampleWindowStats stats = s.stats;
+        int channels = stats.getChannels();
+        int[] latest = new int[channels];
+        int[] min = new int[channels];
+        int[] max = new int[channels];
+        if (stats.hasSamples()) {
+            for (int c = 0; c < channels; c++) {
+                latest[c] = stats.getLatest(c);
+                min[c] = stats.getMin(c);
+                max[c] = stats.getMax(c);
+            }
+        }
+        AccAnalyzer analyzer = s.analyzer;
+        long count = stats.getSampleCount();
+        long newSamples = count - s.summarized;
+        s.summarized = count;
+        return new SessionSummary(session.getAddress(), session.getState(), session.getSampleRate(),
+                stats.getRate(), count, newSamples, stats.getLatestTimestamp(),
+                latest, min, max,
+                analyzer != null ? analyzer.getActivity() : ActivityDetector.Activity.UNKNOWN,
+                analyzer != null ? analyzer.getStepCount() : 0,
+                analyzer != null ? analyzer.getCadence() : 0,
+                session.getHeartRate(), session.getRmssd(),
+                controller != null ? controller.getReconnectCount() : 0,
+                controller != null ? controller.getLastReconnectLatencyMillis() : 0);
+    }
+}
@@ -0,0 +1,138 @@
+package yeetivity.jjve.ble_polar.session;
+
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+
+/**
+ * Immutable aggregates of one sensor session, as shown on screen: connection state, the
+ * newest sample and the min/max of the last window, activity, heart rate and reconnects.
+ * Published a few times per second, so observers never touch the sample stream.
+ */
+public final class SessionSummary {
+
+    private final String mAddress;
+    private final SensorSession.State mState;
+    private final int mSampleRate;
+    private final float mMeasuredRate;
+    private final long mSampleCount;
+    private final long mNewSamples;
+    private final long mLatestTimestamp;
+    private final int[] mLatest;
+    private final int[] mMin;
+    private final int[] mMax;
+    private final ActivityDetector.Activity mActivity;
+    private final long mSteps;
+    private final float mCadence;
+    private final int mHeartRate;
+    private final float mRmssd;
+    private final long mReconnects;
+    private final long mLastReconnectLatency;
+
+    SessionSummary(String address, SensorSession.State state, int sampleRate, float measuredRate,
+                   long sampleCount, long newSamples, long latestTimestamp, int[] latest,
+                   int[] min, int[] max,
+                   ActivityDetector.Activity activity, long steps, float cadence, int heartRate,
+                   float rmssd, long reconnects, long lastReconnectLatency) {
+        mAddress = address;
+        mState = state;
+        mSampleRate = sampleRate;
+        mMeasuredRate = measuredRate;
+        mSampleCount = sampleCount;
+        mNewSamples = newSamples;
+        mLatestTimestamp = latestTimestamp;
+        mLatest = latest;
+        mMin = min;
+        mMax = max;
+        mActivity = activity;
+        mSteps = steps;
+        mCadence = cadence;
+        mHeartRate = heartRate;
+        mRmssd = rmssd;
+        mReconnects = reconnects;
+        mLastReconnectLatency = lastReconnectLatency;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public SensorSession.State getState() {
+        return mState;
+    }
+
+    /** @return The sample rate requested, in Hz. */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /** @return Samples per second over the last completed window. */
+    public float getMeasuredRate() {
+        return mMeasuredRate;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /** @return Samples received since the previous summary of this session. */
+    public long getNewSampleCount() {
+        return mNewSamples;
+    }
+
+    public boolean hasSamples() {
+        return mSampleCount > 0;
+    }
+
+    public int getChannels() {
+        return mLatest.length;
+    }
+
+    /** @return Local time of the newest sample, in ns. */
+    public long getLatestTimestamp() {
+        return mLatestTimestamp;
+    }
+
+    public int getLatest(int channel) {
+        return mLatest[channel];
+    }
+
+    public int getMin(int channel) {
+        return mMin[channel];
+    }
+
+    public int getMax(int channel) {
+        return mMax[channel];
+    }
+
+    /** @return The activity, UNKNOWN if the stream is not analyzed. */
+    public ActivityDetector.Activity getActivity() {
+        return mActivity;
+    }
+
+    public long getStepCount() {
+        return mSteps;
+    }
+
+    /** @return Steps per minute, 0 if not walking. */
+    public float getCadence() {
+        return mCadence;
+    }
+
+    /** @return Beats per minute, 0 if unknown. */
+    public int getHeartRate() {
+        return mHeartRate;
+    }
+
+    /** @return RMSSD over the last minute, in ms. */
+    public float getRmssd() {
+        return mRmssd;
+    }
+
+    public long getReconnectCount() {
+        return mReconnects;
+    }
+
+    /** @return Time from the last dropout to its reconnect, in ms. */
+    public long getLastReconnectLatencyMillis() {
+        return mLastReconnectLatency;
+    }
+}
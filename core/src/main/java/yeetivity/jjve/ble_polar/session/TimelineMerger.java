@@ -0,0 +1,178 @@
+package yeetivity.jjve.ble_polar.session;
+
+import yeetivity.jjve.ble_polar.stream.SampleRingBuffer;
+
+/**
+ * Merges the sample buffers of several sensors into one stream ordered by timestamp.
+ *
+ * Each source is drained into a preallocated staging area. A sample is only emitted once every
+ * live source has delivered data up to its timestamp (the watermark), so the output never goes
+ * back in time even though the sensors deliver their frames at different moments. A source
+ * that has delivered nothing for staleNanos no longer holds back the watermark - a dropped
+ * sensor does not stall the others.
+ *
+ * Timestamps of all sources must be on the same (local) clock. Not thread safe; merge() runs
+ * on a single worker thread for all sources.
+ */
+public class TimelineMerger {
+
+    public interface Listener {
+        /**
+         * @param source    Index returned by addSource.
+         * @param timestamp Local time of the sample, in ns.
+         * @param values    Array holding the values of the sample, valid during the call only.
+         * @param offset    Index of the first value.
+         * @param channels  Number of values.
+         */
+        void onSample(int source, long timestamp, int[] values, int offset, int channels);
+    }
+
+    private static class Source {
+        final SampleRingBuffer buffer;
+        final int channels;
+        final long[] timestamps;
+        final int[] values;
+        int position;
+        int count;
+        // newest timestamp delivered, and when it was delivered
+        long latest = Long.MIN_VALUE;
+        long lastArrival;
+
+        Source(SampleRingBuffer buffer, int capacity, long now) {
+            this.buffer = buffer;
+            this.channels = buffer.getChannels();
+            this.timestamps = new long[capacity];
+            this.values = new int[capacity * channels];
+            this.lastArrival = now;
+        }
+
+        void fill(long now) {
+            if (position > 0) {
+                // move what is left to the front
+                System.arraycopy(timestamps, position, timestamps, 0, count);
+                System.arraycopy(values, position * channels, values, 0, count * channels);
+                position = 0;
+            }
+            int free = timestamps.length - count;
+            if (free == 0) return;
+            int drained = buffer.drain(timestamps, values, count, free);
+            if (drained > 0) {
+                count += drained;
+                latest = Math.max(latest, timestamps[count - 1]);
+                lastArrival = now;
+            }
+        }
+    }
+
+    private final Source[] mSources;
+    private final int mStagingCapacity;
+    private final long mStaleNanos;
+    private long mEmitted;
+    private long mLastEmitted = Long.MIN_VALUE;
+
+    /**
+     * @param maxSources      Maximum number of sources.
+     * @param stagingCapacity Samples staged per source, should cover the samples of one source
+     *                        that arrive while waiting for the slowest one.
+     * @param staleNanos      Time without data after which a source is not waited for.
+     */
+    public TimelineMerger(int maxSources, int stagingCapacity, long staleNanos) {
+        mSources = new Source[maxSources];
+        mStagingCapacity = stagingCapacity;
+        mStaleNanos = staleNanos;
+    }
+
+    /**
+     * @return The index of the source, used in Listener.onSample.
+     */
+    public int addSource(SampleRingBuffer buffer, long nowNanos) {
+        for (int i = 0; i < mSources.length; i++) {
+            if (mSources[i] == null) {
+                mSources[i] = new Source(buffer, mStagingCapacity, nowNanos);
+                return i;
+            }
+        }
+        throw new IllegalStateException("max sources= " + mSources.length);
+    }
+
+    /**
+     * Remove a source. Staged samples that were not emitted yet are dropped.
+     */
+    public void removeSource(int source) {
+        mSources[source] = null;
+    }
+
+    /**
+     * Drain all sources and emit, in timestamp order, the samples up to the watermark.
+     * @return The number of samples emitted.
+     */
+    public int merge(long nowNanos, Listener listener) {
+        long watermark = Long.MAX_VALUE;
+        boolean anyLive = false;
+        for (Source source : mSources) {
+            if (source == null) continue;
+            source.fill(nowNanos);
+            boolean live = nowNanos - source.lastArrival < mStaleNanos;
+            // a source that is live but has delivered nothing yet holds back everything
+            if (live) {
+                watermark = Math.min(watermark, source.latest);
+                anyLive = true;
+            }
+        }
+        if (!anyLive) watermark = Long.MAX_VALUE;
+        return emit(watermark, listener);
+    }
+
+    /**
+     * Emit everything staged regardless of the watermark, e.g. when stopping.
+     */
+    public int flush(Listener listener) {
+        return emit(Long.MAX_VALUE, listener);
+    }
+
+    private int emit(long watermark, Listener listener) {
+        int emitted = 0;
+        while (true) {
+            int next = -1;
+            long nextTimestamp = Long.MAX_VALUE;
+            for (int i = 0; i < mSources.length; i++) {
+                Source source = mSources[i];
+                if (source == null || source.count == 0) continue;
+                long timestamp = source.timestamps[source.position];
+                if (timestamp < nextTimestamp) {
+                    next = i;
+                    nextTimestamp = timestamp;
+                }
+            }
+            if (next < 0 || nextTimestamp > watermark) break;
+
+            Source source = mSources[next];
+            listener.onSample(next, nextTimestamp, source.values,
+                    source.position * source.channels, source.channels);
+            source.position++;
+            source.count--;
+            mLastEmitted = nextTimestamp;
+            emitted++;
+        }
+        mEmitted += emitted;
+        return emitted;
+    }
+
+    /** @return The number of samples staged but not emitted yet, over all sources. */
+    public int getStagedCount() {
+        int staged = 0;
+        for (Source source : mSources) {
+            if (source != null) staged += source.count;
+        }
+        return staged;
+    }
+
+    public long getEmittedCount() {
+        return mEmitted;
+    }
+
+    /** @return Timestamp of the last emitted sample. */
+    public long getLastEmittedTimestamp() {
+        return mLastEmitted;
+    }
+}
@@ -0,0 +1,69 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import yeetivity.jjve.ble_polar.record.RecordingReader;
+
+/**
+ * Plays back captured samples, from the start again when they run out. The sensor clock is
+ * the simulated one, only the values are replayed.
+ */
+public class CapturedSignal implements SampleSource {
+
+    private final int[] mValues;
+    private final int mCount;
+    private final int mChannels;
+    private int mNext;
+
+    /**
+     * @param values Interleaved samples, count * channels values.
+     */
+    public CapturedSignal(int[] values, int count, int channels) {
+        if (count < 1 || channels < 1 || values.length < count * channels) {
+            throw new IllegalArgumentException("samples " + count + " x " + channels);
+        }
+        mValues = values;
+        mCount = count;
+        mChannels = channels;
+    }
+
+    /**
+     * Load the samples of one source of a recording, e.g. pulled from the app's files.
+     * @throws IOException The file cannot be read, or has no samples of the source.
+     */
+    public static CapturedSignal read(File recording, int source) throws IOException {
+        final int[] count = new int[2];
+        final int[][] values = new int[1][1024];
+        try (RecordingReader reader = new RecordingReader(recording)) {
+            reader.read(Long.MIN_VALUE, Long.MAX_VALUE, (s, timestamp, v, offset, channels) -> {
+                if (s != source) return;
+                if (count[0] == 0) count[1] = channels;
+                if (channels != count[1]) return;
+                if ((count[0] + 1) * channels > values[0].length) {
+                    values[0] = Arrays.copyOf(values[0], values[0].length * 2);
+                }
+                System.arraycopy(v, offset, values[0], count[0] * channels, channels);
+                count[0]++;
+            });
+        }
+        if (count[0] == 0) throw new IOException(recording + ": no samples of source " + source);
+        return new CapturedSignal(values[0], count[0], count[1]);
+    }
+
+    @Override
+    public int getChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public void next(long sensorNanos, int[] values, int offset) {
+        System.arraycopy(mValues, mNext * mChannels, values, offset, mChannels);
+        if (++mNext == mCount) mNext = 0;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+}
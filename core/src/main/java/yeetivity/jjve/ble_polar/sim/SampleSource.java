@@ -0,0 +1,15 @@
+package yeetivity.jjve.ble_polar.sim;
+
+/**
+ * The signal a simulated sensor measures, one sample at a time.
+ */
+public interface SampleSource {
+
+    int getChannels();
+
+    /**
+     * @param sensorNanos Time of the sample on the sensor clock, from the start of the stream.
+     * @param values      Destination of getChannels() values, from offset.
+     */
+    void next(long sensorNanos, int[] values, int offset);
+}
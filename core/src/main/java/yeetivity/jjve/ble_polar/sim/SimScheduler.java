@@ -0,0 +1,118 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import yeetivity.jjve.ble_polar.gatt.GattScheduler;
+import yeetivity.jjve.ble_polar.utils.Clock;
+
+/**
+ * The clock and the only thread of a simulation: tasks run in the order they are due, ties
+ * in the order they were posted, so a run with the same seeds is the same run.
+ *
+ * Time is virtual and only moves in run(). As fast as possible it jumps from task to task;
+ * in real time each task waits until its time has come on the wall clock, e.g. to watch a
+ * simulated sensor in a profiler. The order of the tasks is the same either way.
+ *
+ * Not thread safe: post and run from the simulation thread only.
+ */
+public class SimScheduler implements GattScheduler, Clock {
+
+    private static class Task {
+        final Runnable runnable;
+        final long due;
+        final long sequence;
+
+        Task(Runnable runnable, long due, long sequence) {
+            this.runnable = runnable;
+            this.due = due;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Task> ORDER = (a, b) -> a.due != b.due
+            ? Long.compare(a.due, b.due) : Long.compare(a.sequence, b.sequence);
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>(64, ORDER);
+    private final boolean mRealTime;
+    private long mNow;
+    private long mSequence;
+    private long mExecuted;
+
+    /**
+     * @param realTime Pace the tasks by the wall clock, rather than running them at once.
+     */
+    public SimScheduler(boolean realTime) {
+        mRealTime = realTime;
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        postDelayedNanos(task, delayMillis * 1000000);
+    }
+
+    public void postDelayedNanos(Runnable task, long delayNanos) {
+        mTasks.add(new Task(task, mNow + Math.max(0, delayNanos), mSequence++));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        Iterator<Task> tasks = mTasks.iterator();
+        while (tasks.hasNext()) {
+            if (tasks.next().runnable == task) tasks.remove();
+        }
+    }
+
+    /** @return The virtual time, in ns from the start of the simulation. */
+    @Override
+    public long nanos() {
+        return mNow;
+    }
+
+    /**
+     * Run the tasks due within the given time, and those they post in turn.
+     * @return false if interrupted while waiting in real time.
+     */
+    public boolean run(long millis) {
+        long end = mNow + millis * 1000000;
+        long wallStart = System.nanoTime();
+        long start = mNow;
+        while (!mTasks.isEmpty() && mTasks.peek().due <= end) {
+            Task task = mTasks.peek();
+            if (mRealTime && !sleepUntil(wallStart + task.due - start)) return false;
+            mTasks.poll();
+            mNow = task.due;
+            mExecuted++;
+            task.runnable.run();
+        }
+        if (mRealTime && !sleepUntil(wallStart + end - start)) return false;
+        mNow = end;
+        return true;
+    }
+
+    private static boolean sleepUntil(long wallNanos) {
+        long wait = wallNanos - System.nanoTime();
+        if (wait <= 0) return true;
+        try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public boolean isRealTime() {
+        return mRealTime;
+    }
+
+    public int getPendingCount() {
+        return mTasks.size();
+    }
+
+    /** @return Tasks run since the start, a measure of the simulation load. */
+    public long getExecutedCount() {
+        return mExecuted;
+    }
+}
@@ -0,0 +1,81 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import yeetivity.jjve.ble_polar.hr.HeartRateService;
+import yeetivity.jjve.ble_polar.scan.Advertisement;
+import yeetivity.jjve.ble_polar.scan.ScanConfig;
+import yeetivity.jjve.ble_polar.scan.Scanner;
+
+/**
+ * Scanner hearing the advertisements of simulated sensors: each advertising sensor is heard
+ * once per advertising interval, with its RSSI varying by a few dB. Like the controller it
+ * drops what the service filter excludes; every simulated sensor is a Polar one, so the
+ * manufacturer filter passes them all.
+ */
+public class SimulatedScanner implements Scanner<SimulatedSensor> {
+
+    private static final int RSSI_NOISE = 4;
+
+    private final SimScheduler mScheduler;
+    private final List<SimulatedSensor> mSensors = new ArrayList<>();
+    private final Random mRandom;
+    private final List<Runnable> mTasks = new ArrayList<>();
+    private Callback<SimulatedSensor> mCallback;
+
+    public SimulatedScanner(SimScheduler scheduler, long seed) {
+        mScheduler = scheduler;
+        mRandom = new Random(seed);
+    }
+
+    public void addSensor(SimulatedSensor sensor) {
+        mSensors.add(sensor);
+    }
+
+    @Override
+    public boolean start(ScanConfig config, Callback<SimulatedSensor> callback) {
+        stop();
+        mCallback = callback;
+        for (SimulatedSensor sensor : mSensors) {
+            if (!matches(config, sensor)) continue;
+            Runnable advertise = new Runnable() {
+                @Override
+                public void run() {
+                    if (sensor.isAdvertising()) {
+                        int rssi = sensor.getConfig().getRssi()
+                                + mRandom.nextInt(2 * RSSI_NOISE + 1) - RSSI_NOISE;
+                        mCallback.onAdvertisement(new Advertisement<>(sensor, sensor.getAddress(),
+                                sensor.getName(), rssi));
+                    }
+                    mScheduler.postDelayed(this, sensor.getConfig().getAdvertisingInterval());
+                }
+            };
+            mTasks.add(advertise);
+            // the first advertisement is heard somewhere within the interval
+            mScheduler.postDelayed(advertise,
+                    (long) (mRandom.nextDouble() * sensor.getConfig().getAdvertisingInterval()));
+        }
+        return true;
+    }
+
+    // filters are or-ed, as on the controller
+    private static boolean matches(ScanConfig config, SimulatedSensor sensor) {
+        boolean service = config.getServiceUuid() != null;
+        boolean manufacturer = config.getManufacturerId() >= 0;
+        if (!service && !manufacturer) return true;
+        // of the services only Heart Rate is advertised
+        if (service && config.getServiceUuid().equals(HeartRateService.SERVICE)
+                && sensor.getServices().contains(HeartRateService.SERVICE)) {
+            return true;
+        }
+        return manufacturer && config.getManufacturerId() == ScanConfig.POLAR_MANUFACTURER_ID;
+    }
+
+    @Override
+    public void stop() {
+        for (Runnable task : mTasks) mScheduler.removeCallbacks(task);
+        mTasks.clear();
+    }
+}
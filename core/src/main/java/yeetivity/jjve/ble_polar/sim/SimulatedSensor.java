@@ -0,0 +1,580 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.gatt.GattConnection;
+import yeetivity.jjve.ble_polar.gatt.GattDevice;
+import yeetivity.jjve.ble_polar.gatt.GattListener;
+import yeetivity.jjve.ble_polar.gatt.GattOperation;
+import yeetivity.jjve.ble_polar.gatt.LinkParameters;
+import yeetivity.jjve.ble_polar.hr.HeartRateMeasurement;
+import yeetivity.jjve.ble_polar.hr.HeartRateService;
+import yeetivity.jjve.ble_polar.pmd.PmdControlPoint;
+import yeetivity.jjve.ble_polar.pmd.PmdError;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.pmd.PmdSettings;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+import yeetivity.jjve.ble_polar.session.CapabilityCache;
+
+/**
+ * A Polar sensor on a simulated link, serving the PMD control point and streaming ACC frames
+ * the way the real one does: the settings query, start and stop commands are answered by
+ * indications, and a started measurement is notified in uncompressed frames as large as the
+ * negotiated MTU allows. With a heart rate configured the Heart Rate service notifies it
+ * once a second.
+ *
+ * The link delays every response, delays notifications by a random jitter (keeping their
+ * order), loses a share of them, and drops at random, after which the sensor is out of range
+ * for a while. A pending connection attempt - direct or background alike - completes when the
+ * sensor is back in range, and a background connection reconnects by itself after a drop.
+ * A dropped link stops the measurement, as on the real sensor.
+ *
+ * Runs on the thread of its SimScheduler, where all callbacks are delivered.
+ */
+public class SimulatedSensor implements GattDevice {
+
+    // BluetoothGatt status of a link lost to a supervision timeout
+    public static final int STATUS_CONNECTION_TIMEOUT = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int ATT_HEADER = 3;
+
+    private final SimScheduler mScheduler;
+    private final String mAddress;
+    private final String mName;
+    private final SimulationConfig mConfig;
+    private final SampleSource mSource;
+    private final Random mRandom;
+    private final PmdSettings mSupported = new PmdSettings();
+    private final List<UUID> mServices = new ArrayList<>(3);
+    // sensor clock at virtual time 0
+    private final long mClockOffset;
+
+    private long mOutOfRangeUntil;
+    private Connection mConnection;
+    private boolean mConnected;
+    private int mMtu = LinkParameters.DEFAULT_MTU;
+    private boolean mControlIndications;
+    private boolean mDataNotifications;
+    private boolean mHeartRateNotifications;
+
+    // the measurement
+    private boolean mStreaming;
+    private int mSampleRate;
+    private int mBytes;
+    private int mSamplesPerFrame;
+    private long mStreamStart;
+    private long mSampleIndex;
+    private long mLastDelivery;
+    private int[] mFrameValues = new int[0];
+
+    private long mConnections;
+    private long mDrops;
+    private long mFramesSent;
+    private long mFramesLost;
+    private long mSamplesSent;
+
+    public SimulatedSensor(SimScheduler scheduler, String address, String name,
+                           SimulationConfig config, SampleSource source) {
+        mScheduler = scheduler;
+        mAddress = address;
+        mName = name;
+        mConfig = config;
+        mSource = source;
+        mRandom = new Random(config.getSeed() * 31 + address.hashCode());
+        mClockOffset = (long) (mRandom.nextDouble() * 1e15);
+        for (int rate : config.getSampleRates()) mSupported.add(PmdSettings.SAMPLE_RATE, rate);
+        mSupported.set(PmdSettings.RESOLUTION, PolarPmd.ACC_RESOLUTION)
+                .add(PmdSettings.RANGE, 2).add(PmdSettings.RANGE, 4)
+                .add(PmdSettings.RANGE, 8).add(PmdSettings.RANGE, 16)
+                .set(PmdSettings.CHANNELS, source.getChannels());
+        mServices.add(PolarPmd.SERVICE);
+        if (config.getHeartRate() > 0) mServices.add(HeartRateService.SERVICE);
+        if (config.getFirmware() != null) mServices.add(CapabilityCache.DEVICE_INFORMATION);
+    }
+
+    @Override
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public SimulationConfig getConfig() {
+        return mConfig;
+    }
+
+    public List<UUID> getServices() {
+        return Collections.unmodifiableList(mServices);
+    }
+
+    @Override
+    public GattConnection connect(boolean background, GattListener listener) {
+        // one central at a time
+        if (mConnection != null) mConnection.close();
+        Connection connection = new Connection(listener, background);
+        mConnection = connection;
+        if (isInRange()) establishLater();
+        return connection;
+    }
+
+    private void establishLater() {
+        mScheduler.removeCallbacks(mEstablish);
+        mScheduler.postDelayed(mEstablish, mConfig.getConnectTime());
+    }
+
+    private final Runnable mEstablish = this::establish;
+
+    private void establish() {
+        Connection connection = mConnection;
+        if (connection == null || mConnected || !isInRange()) return;
+        mConnected = true;
+        mConnections++;
+        mMtu = LinkParameters.DEFAULT_MTU;
+        mControlIndications = false;
+        mDataNotifications = false;
+        mHeartRateNotifications = false;
+        long mean = mConfig.getMeanMillisBetweenDisconnects();
+        if (mean > 0) {
+            long delay = (long) (-mean * Math.log(1 - mRandom.nextDouble()));
+            mScheduler.postDelayed(mDrop, Math.max(1, delay));
+        }
+        if (mConfig.getHeartRate() > 0) mScheduler.postDelayed(mHeartRate, 1000);
+        connection.mListener.onConnectionStateChange(true, GattOperation.STATUS_SUCCESS);
+    }
+
+    private final Runnable mDrop = this::drop;
+
+    private void drop() {
+        dropLink(mConfig.getOutage());
+    }
+
+    /**
+     * Lose the link, e.g. the sensor moved out of range, and stay out of range for a while.
+     */
+    public void dropLink(long outageMillis) {
+        mOutOfRangeUntil = mScheduler.nanos() + outageMillis * 1000000;
+        mScheduler.removeCallbacks(mBackInRange);
+        mScheduler.postDelayed(mBackInRange, outageMillis);
+        if (!mConnected) return;
+        mDrops++;
+        Connection connection = mConnection;
+        tearDown();
+        // a background connection reconnects by itself once the sensor is back
+        if (!connection.mBackground) mConnection = null;
+        connection.mListener.onConnectionStateChange(false, STATUS_CONNECTION_TIMEOUT);
+    }
+
+    private final Runnable mBackInRange = () -> {
+        if (mConnection != null && !mConnected) establishLater();
+    };
+
+    public boolean isInRange() {
+        return mScheduler.nanos() >= mOutOfRangeUntil;
+    }
+
+    /** @return The sensor advertises, i.e. is in range and not connected. */
+    public boolean isAdvertising() {
+        return isInRange() && !mConnected;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    /** @return The sample rate of the running measurement, in Hz. */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getSamplesPerFrame() {
+        return mSamplesPerFrame;
+    }
+
+    private void tearDown() {
+        mConnected = false;
+        stopStream();
+        mScheduler.removeCallbacks(mEstablish);
+        mScheduler.removeCallbacks(mDrop);
+        mScheduler.removeCallbacks(mHeartRate);
+    }
+
+    // control point
+
+    private byte[] handleCommand(byte[] command) {
+        int op = command.length > 0 ? command[0] & 0xFF : 0;
+        int type = command.length > 1 ? command[1] & 0xFF : 0;
+        if (command.length < 2) return response(op, type, PmdError.INVALID_LENGTH, null);
+        if (type != PmdFrameDecoder.MEASUREMENT_ACC && op != PmdControlPoint.OP_STOP) {
+            return response(op, type, PmdError.NOT_SUPPORTED, null);
+        }
+        switch (op) {
+            case PmdControlPoint.OP_GET_SETTINGS:
+                return response(op, type, PmdError.SUCCESS, mSupported);
+            case PmdControlPoint.OP_START:
+                return response(op, type, start(command), null);
+            case PmdControlPoint.OP_STOP:
+                if (!mStreaming || type != PmdFrameDecoder.MEASUREMENT_ACC) {
+                    return response(op, type, PmdError.ALREADY_IN_STATE, null);
+                }
+                stopStream();
+                return response(op, type, PmdError.SUCCESS, null);
+            default:
+                return response(op, type, PmdError.INVALID_OP_CODE, null);
+        }
+    }
+
+    private PmdError start(byte[] command) {
+        if (mStreaming) return PmdError.ALREADY_IN_STATE;
+        int rate = mSupported.get(PmdSettings.SAMPLE_RATE);
+        int resolution = mSupported.get(PmdSettings.RESOLUTION);
+        int position = 2;
+        while (position < command.length) {
+            if (position + 2 > command.length) return PmdError.INVALID_LENGTH;
+            int type = command[position] & 0xFF;
+            int count = command[position + 1] & 0xFF;
+            position += 2;
+            if (type >= PmdSettings.TYPES || count != 1) return PmdError.INVALID_PARAMETER;
+            int width = PmdSettings.width(type);
+            if (position + width > command.length) return PmdError.INVALID_LENGTH;
+            int value = 0;
+            for (int i = 0; i < width; i++) value |= (command[position + i] & 0xFF) << (8 * i);
+            position += width;
+            if (!isSupported(type, value)) return error(type);
+            if (type == PmdSettings.SAMPLE_RATE) rate = value;
+            if (type == PmdSettings.RESOLUTION) resolution = value;
+        }
+        startStream(rate, resolution);
+        return PmdError.SUCCESS;
+    }
+
+    private boolean isSupported(int type, int value) {
+        if (!mSupported.has(type)) return true;
+        for (int i = 0; i < mSupported.count(type); i++) {
+            if (mSupported.get(type, i) == value) return true;
+        }
+        return false;
+    }
+
+    private static PmdError error(int type) {
+        switch (type) {
+            case PmdSettings.SAMPLE_RATE:
+                return PmdError.INVALID_SAMPLE_RATE;
+            case PmdSettings.RESOLUTION:
+                return PmdError.INVALID_RESOLUTION;
+            case PmdSettings.RANGE:
+                return PmdError.INVALID_RANGE;
+            case PmdSettings.CHANNELS:
+                return PmdError.INVALID_NUMBER_OF_CHANNELS;
+            default:
+                return PmdError.INVALID_PARAMETER;
+        }
+    }
+
+    // 0xF0, op code, measurement type, error, more, then the settings of a query
+    private static byte[] response(int op, int type, PmdError error, PmdSettings settings) {
+        int length = 5;
+        if (settings != null) {
+            for (int t = 0; t < PmdSettings.TYPES; t++) {
+                if (settings.has(t)) length += 2 + settings.count(t) * PmdSettings.width(t);
+            }
+        }
+        byte[] response = new byte[length];
+        response[0] = (byte) PmdControlPoint.RESPONSE;
+        response[1] = (byte) op;
+        response[2] = (byte) type;
+        response[3] = (byte) error.getCode();
+        if (settings == null) return response;
+        int position = 5;
+        for (int t = 0; t < PmdSettings.TYPES; t++) {
+            if (!settings.has(t)) continue;
+            response[position++] = (byte) t;
+            response[position++] = (byte) settings.count(t);
+            for (int i = 0; i < settings.count(t); i++) {
+                position = putLittleEndian(response, position, settings.get(t, i),
+                        PmdSettings.width(t));
+            }
+        }
+        return response;
+    }
+
+    private static int putLittleEndian(byte[] buffer, int position, long value, int width) {
+        for (int i = 0; i < width; i++) buffer[position++] = (byte) (value >>> (8 * i));
+        return position;
+    }
+
+    // the measurement
+
+    private void startStream(int sampleRate, int resolution) {
+        mStreaming = true;
+        mSampleRate = sampleRate;
+        mBytes = (resolution + 7) / 8;
+        int channels = mSource.getChannels();
+        int payload = mMtu - ATT_HEADER - PmdFrameDecoder.HEADER_SIZE;
+        mSamplesPerFrame = Math.max(1, Math.min(PmdFrameDecoder.DEFAULT_MAX_SAMPLES,
+                payload / (mBytes * channels)));
+        if (mFrameValues.length < mSamplesPerFrame * channels) {
+            mFrameValues = new int[mSamplesPerFrame * channels];
+        }
+        mStreamStart = mScheduler.nanos();
+        mSampleIndex = 0;
+        mLastDelivery = mStreamStart;
+        scheduleFrame();
+    }
+
+    private void stopStream() {
+        mStreaming = false;
+        mScheduler.removeCallbacks(mSendFrame);
+    }
+
+    private long sampleTime(long index) {
+        return index * 1000000000L / mSampleRate;
+    }
+
+    // the next frame is sent once its last sample is taken, plus the link delay
+    private void scheduleFrame() {
+        long taken = mStreamStart + sampleTime(mSampleIndex + mSamplesPerFrame - 1);
+        long delay = mConfig.getLatency() * 1000000;
+        if (mConfig.getJitter() > 0) {
+            delay += (long) (mRandom.nextDouble() * mConfig.getJitter() * 1000000);
+        }
+        mLastDelivery = Math.max(mLastDelivery, taken + delay);
+        mScheduler.postDelayedNanos(mSendFrame, mLastDelivery - mScheduler.nanos());
+    }
+
+    private final Runnable mSendFrame = this::sendFrame;
+
+    private void sendFrame() {
+        if (!mStreaming) return;
+        int channels = mSource.getChannels();
+        int count = mSamplesPerFrame;
+        for (int s = 0; s < count; s++) {
+            mSource.next(sampleTime(mSampleIndex + s), mFrameValues, s * channels);
+        }
+        mSampleIndex += count;
+        mSamplesSent += count;
+        boolean lost = mConfig.getLossRate() > 0 && mRandom.nextDouble() < mConfig.getLossRate();
+        byte[] frame = lost || !mDataNotifications ? null : encodeFrame(count, channels);
+        scheduleFrame();
+        if (frame == null) {
+            mFramesLost++;
+            return;
+        }
+        mFramesSent++;
+        mConnection.mListener.onCharacteristicChanged(PolarPmd.DATA, frame);
+    }
+
+    private byte[] encodeFrame(int count, int channels) {
+        byte[] frame = new byte[PmdFrameDecoder.HEADER_SIZE + count * channels * mBytes];
+        frame[0] = (byte) PmdFrameDecoder.MEASUREMENT_ACC;
+        // the timestamp of the last sample, on the sensor clock
+        long timestamp = mClockOffset + mStreamStart + sampleTime(mSampleIndex - 1);
+        putLittleEndian(frame, 1, timestamp, 8);
+        frame[9] = (byte) (mBytes - 1);
+        long max = (1L << (8 * mBytes - 1)) - 1;
+        int position = PmdFrameDecoder.HEADER_SIZE;
+        for (int i = 0; i < count * channels; i++) {
+            long value = Math.max(-max - 1, Math.min(max, mFrameValues[i]));
+            position = putLittleEndian(frame, position, value, mBytes);
+        }
+        return frame;
+    }
+
+    private final Runnable mHeartRate = new Runnable() {
+        @Override
+        public void run() {
+            if (!mConnected) return;
+            int bpm = mConfig.getHeartRate();
+            if (mHeartRateNotifications) {
+                int beats = Math.max(1, bpm / 60);
+                byte[] value = new byte[2 + 2 * beats];
+                value[0] = (byte) (HeartRateMeasurement.FLAG_CONTACT_SUPPORTED
+                        | HeartRateMeasurement.FLAG_CONTACT_DETECTED
+                        | HeartRateMeasurement.FLAG_RR_INTERVALS);
+                value[1] = (byte) bpm;
+                for (int i = 0; i < beats; i++) {
+                    // in 1/1024 s, varying by a few ms from beat to beat
+                    int rr = 60 * 1024 / bpm + mRandom.nextInt(21) - 10;
+                    putLittleEndian(value, 2 + 2 * i, rr, 2);
+                }
+                mConnection.mListener.onCharacteristicChanged(HeartRateService.MEASUREMENT, value);
+            }
+            mScheduler.postDelayed(this, 1000);
+        }
+    };
+
+    // statistics
+
+    /** @return Connections established. */
+    public long getConnectionCount() {
+        return mConnections;
+    }
+
+    /** @return Links dropped by the sensor, not by the central. */
+    public long getDropCount() {
+        return mDrops;
+    }
+
+    public long getFramesSent() {
+        return mFramesSent;
+    }
+
+    /** @return Frames lost on the link, or sent before notifications were enabled. */
+    public long getFramesLost() {
+        return mFramesLost;
+    }
+
+    /** @return Samples taken, lost frames included. */
+    public long getSamplesTaken() {
+        return mSamplesSent;
+    }
+
+    /**
+     * The central side of a connection to the sensor.
+     */
+    private class Connection implements GattConnection {
+
+        final GattListener mListener;
+        final boolean mBackground;
+        boolean mClosed;
+
+        Connection(GattListener listener, boolean background) {
+            mListener = listener;
+            mBackground = background;
+        }
+
+        private boolean isLive() {
+            return !mClosed && mConnection == this && mConnected;
+        }
+
+        // the result arrives one link delay later, if the link is still up
+        private void respond(Runnable result) {
+            mScheduler.postDelayed(() -> {
+                if (isLive()) result.run();
+            }, mConfig.getLatency());
+        }
+
+        private boolean isCharacteristic(UUID characteristic) {
+            return PolarPmd.CONTROL.equals(characteristic) || PolarPmd.DATA.equals(characteristic)
+                    || (HeartRateService.MEASUREMENT.equals(characteristic)
+                    && mConfig.getHeartRate() > 0);
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+            if (!isLive() || !PolarPmd.CONTROL.equals(characteristic)) return false;
+            // the command buffer is reused by the caller
+            byte[] command = value.clone();
+            respond(() -> {
+                mListener.onCharacteristicWrite(characteristic, GattOperation.STATUS_SUCCESS);
+                byte[] response = handleCommand(command);
+                if (mControlIndications) {
+                    respond(() -> mListener.onCharacteristicChanged(PolarPmd.CONTROL, response));
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID service, UUID characteristic) {
+            String firmware = mConfig.getFirmware();
+            if (!isLive() || firmware == null
+                    || !CapabilityCache.FIRMWARE_REVISION.equals(characteristic)) {
+                return false;
+            }
+            respond(() -> mListener.onCharacteristicRead(characteristic,
+                    firmware.getBytes(UTF_8), GattOperation.STATUS_SUCCESS));
+            return true;
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor,
+                                       byte[] value) {
+            if (!isLive() || !isCharacteristic(characteristic)
+                    || !PolarPmd.CLIENT_CHARACTERISTIC_CONFIG.equals(descriptor)) {
+                return false;
+            }
+            boolean enable = value.length > 0 && value[0] != 0;
+            respond(() -> {
+                if (PolarPmd.CONTROL.equals(characteristic)) mControlIndications = enable;
+                else if (PolarPmd.DATA.equals(characteristic)) mDataNotifications = enable;
+                else mHeartRateNotifications = enable;
+                mListener.onDescriptorWrite(characteristic, descriptor, GattOperation.STATUS_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            if (!isLive()) return false;
+            int accepted = Math.max(LinkParameters.DEFAULT_MTU, Math.min(mtu, mConfig.getMaxMtu()));
+            respond(() -> {
+                mMtu = accepted;
+                mListener.onMtuChanged(accepted, GattOperation.STATUS_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic,
+                                                     boolean enable) {
+            return isLive() && isCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean discoverServices() {
+            if (!isLive()) return false;
+            List<UUID> services = new ArrayList<>(mServices);
+            respond(() -> mListener.onServicesDiscovered(services, GattOperation.STATUS_SUCCESS));
+            return true;
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return isLive();
+        }
+
+        @Override
+        public boolean requestLe2MPhy() {
+            if (!isLive() || !mConfig.isLe2MPhy()) return false;
+            respond(() -> mListener.onPhyUpdate(LinkParameters.PHY_2M, GattOperation.STATUS_SUCCESS));
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            if (mConnection != this) return;
+            if (!mConnected) {
+                // abandon the attempt
+                mConnection = null;
+                mScheduler.removeCallbacks(mEstablish);
+                return;
+            }
+            tearDown();
+            mConnection = null;
+            mScheduler.postDelayed(() -> {
+                if (!mClosed) mListener.onConnectionStateChange(false, GattOperation.STATUS_SUCCESS);
+            }, mConfig.getLatency());
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            if (mConnection != this) return;
+            if (mConnected) tearDown();
+            mConnection = null;
+            mScheduler.removeCallbacks(mEstablish);
+        }
+    }
+}
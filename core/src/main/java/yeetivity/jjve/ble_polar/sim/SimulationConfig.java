@@ -0,0 +1,188 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import java.util.Arrays;
+
+/**
+ * How a simulated sensor and its link behave. The defaults are a Polar Verity Sense style
+ * sensor on a good link: no jitter, no loss, no dropouts.
+ */
+public class SimulationConfig {
+
+    private long mSeed = 1;
+    private int[] mSampleRates = new int[]{26, 52, 104, 208};
+    private int mMaxMtu = 247;
+    private boolean mLe2MPhy = true;
+    private long mLatencyMillis = 8;
+    private long mJitterMillis;
+    private long mConnectMillis = 100;
+    private double mLossRate;
+    private long mMeanMillisBetweenDisconnects;
+    private long mOutageMillis = 2000;
+    private long mAdvertisingIntervalMillis = 250;
+    private int mRssi = -60;
+    private int mHeartRate;
+    private String mFirmware = "3.1.0";
+
+    /**
+     * @param seed Seeds the jitter, loss, dropouts and signal noise of the sensors.
+     */
+    public SimulationConfig setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * @param sampleRates ACC sample rates the sensor supports, in Hz.
+     */
+    public SimulationConfig setSampleRates(int... sampleRates) {
+        if (sampleRates.length == 0) throw new IllegalArgumentException("no sample rates");
+        for (int rate : sampleRates) {
+            if (rate <= 0) throw new IllegalArgumentException("sample rate= " + rate);
+        }
+        mSampleRates = Arrays.copyOf(sampleRates, sampleRates.length);
+        return this;
+    }
+
+    /** @param mtu Largest MTU the sensor accepts, which sets the samples per frame. */
+    public SimulationConfig setMaxMtu(int mtu) {
+        if (mtu < 23) throw new IllegalArgumentException("mtu= " + mtu);
+        mMaxMtu = mtu;
+        return this;
+    }
+
+    public SimulationConfig setLe2MPhy(boolean supported) {
+        mLe2MPhy = supported;
+        return this;
+    }
+
+    /**
+     * @param latencyMillis Delay of each gatt response and notification, e.g. a connection
+     *                      interval.
+     */
+    public SimulationConfig setLatency(long latencyMillis) {
+        if (latencyMillis < 0) throw new IllegalArgumentException("latency= " + latencyMillis);
+        mLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param jitterMillis Largest extra delay of a notification, uniformly distributed;
+     *                     notifications are still delivered in order.
+     */
+    public SimulationConfig setJitter(long jitterMillis) {
+        if (jitterMillis < 0) throw new IllegalArgumentException("jitter= " + jitterMillis);
+        mJitterMillis = jitterMillis;
+        return this;
+    }
+
+    /** @param connectMillis Time from a connection attempt to the connection. */
+    public SimulationConfig setConnectTime(long connectMillis) {
+        if (connectMillis < 0) throw new IllegalArgumentException("connect= " + connectMillis);
+        mConnectMillis = connectMillis;
+        return this;
+    }
+
+    /** @param lossRate Share of the data notifications lost, 0 to 1. */
+    public SimulationConfig setLossRate(double lossRate) {
+        if (lossRate < 0 || lossRate > 1) throw new IllegalArgumentException("loss= " + lossRate);
+        mLossRate = lossRate;
+        return this;
+    }
+
+    /**
+     * @param meanMillis   Mean connected time before the link drops, exponentially
+     *                     distributed; 0 for no dropouts.
+     * @param outageMillis Time the sensor stays out of range after a dropout.
+     */
+    public SimulationConfig setDisconnects(long meanMillis, long outageMillis) {
+        if (meanMillis < 0 || outageMillis < 0) {
+            throw new IllegalArgumentException("disconnects " + meanMillis + ", " + outageMillis);
+        }
+        mMeanMillisBetweenDisconnects = meanMillis;
+        mOutageMillis = outageMillis;
+        return this;
+    }
+
+    public SimulationConfig setAdvertisingInterval(long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("interval= " + intervalMillis);
+        mAdvertisingIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    public SimulationConfig setRssi(int rssi) {
+        mRssi = rssi;
+        return this;
+    }
+
+    /**
+     * @param bpm Heart rate notified once a second, with its RR intervals, by the Heart Rate
+     *            service; 0 for a sensor without the service.
+     */
+    public SimulationConfig setHeartRate(int bpm) {
+        if (bpm < 0 || bpm > 255) throw new IllegalArgumentException("heart rate= " + bpm);
+        mHeartRate = bpm;
+        return this;
+    }
+
+    /** @param firmware Firmware revision, null for a sensor without Device Information. */
+    public SimulationConfig setFirmware(String firmware) {
+        mFirmware = firmware;
+        return this;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    public int[] getSampleRates() {
+        return mSampleRates;
+    }
+
+    public int getMaxMtu() {
+        return mMaxMtu;
+    }
+
+    public boolean isLe2MPhy() {
+        return mLe2MPhy;
+    }
+
+    public long getLatency() {
+        return mLatencyMillis;
+    }
+
+    public long getJitter() {
+        return mJitterMillis;
+    }
+
+    public long getConnectTime() {
+        return mConnectMillis;
+    }
+
+    public double getLossRate() {
+        return mLossRate;
+    }
+
+    public long getMeanMillisBetweenDisconnects() {
+        return mMeanMillisBetweenDisconnects;
+    }
+
+    public long getOutage() {
+        return mOutageMillis;
+    }
+
+    public long getAdvertisingInterval() {
+        return mAdvertisingIntervalMillis;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    public int getHeartRate() {
+        return mHeartRate;
+    }
+
+    public String getFirmware() {
+        return mFirmware;
+    }
+}
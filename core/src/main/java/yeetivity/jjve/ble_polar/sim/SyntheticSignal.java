@@ -0,0 +1,50 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import java.util.Random;
+
+/**
+ * Three axis acceleration of a walking person, in mG: gravity on z, a step impact on every
+ * axis at the cadence, and sensor noise. A cadence of 0 is a sensor lying still.
+ */
+public class SyntheticSignal implements SampleSource {
+
+    private static final int GRAVITY = 1000;
+    private static final int NOISE = 10;
+
+    private final double mStepHz;
+    private final int mAmplitude;
+    private final Random mRandom;
+
+    /**
+     * @param stepHz    Steps per second, e.g. 2 for walking.
+     * @param amplitude Peak of a step impact, in mG.
+     */
+    public SyntheticSignal(double stepHz, int amplitude, long seed) {
+        mStepHz = stepHz;
+        mAmplitude = amplitude;
+        mRandom = new Random(seed);
+    }
+
+    public static SyntheticSignal walking(long seed) {
+        return new SyntheticSignal(2, 300, seed);
+    }
+
+    public static SyntheticSignal still(long seed) {
+        return new SyntheticSignal(0, 0, seed);
+    }
+
+    @Override
+    public int getChannels() {
+        return 3;
+    }
+
+    @Override
+    public void next(long sensorNanos, int[] values, int offset) {
+        double step = Math.sin(2 * Math.PI * mStepHz * sensorNanos / 1e9);
+        int impact = (int) (mAmplitude * step * step * step);
+        for (int c = 0; c < 3; c++) {
+            int base = c == 2 ? GRAVITY : 0;
+            values[offset + c] = base + impact / (c + 1) + mRandom.nextInt(2 * NOISE + 1) - NOISE;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package yeetivity.jjve.ble_polar.sink;
+
+import yeetivity.jjve.ble_polar.session.TimelineMerger;
+
+/**
+ * A view of consecutive samples in the buffer of a Subscription, in timeline order. Nothing is
+ * copied: the getters read the buffer, and getValues() is the buffer itself. Valid during
+ * SampleConsumer.onSamples() only - the slots are reused afterwards.
+ *
+ * Sample i, from 0 to getCount() - 1, has its values at getValueOffset(i) in getValues().
+ */
+public final class SampleBatch {
+
+    private final int[] mSources;
+    private final long[] mTimestamps;
+    private final int[] mChannels;
+    private final int[] mValues;
+    private final int mStride;
+    private int mOffset;
+    private int mCount;
+
+    SampleBatch(int[] sources, long[] timestamps, int[] channels, int[] values, int stride) {
+        mSources = sources;
+        mTimestamps = timestamps;
+        mChannels = channels;
+        mValues = values;
+        mStride = stride;
+    }
+
+    void set(int offset, int count) {
+        mOffset = offset;
+        mCount = count;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return The source of sample i, its index in the merged timeline. */
+    public int getSource(int i) {
+        return mSources[mOffset + i];
+    }
+
+    /** @return The local time of sample i, in ns. */
+    public long getTimestamp(int i) {
+        return mTimestamps[mOffset + i];
+    }
+
+    public int getChannels(int i) {
+        return mChannels[mOffset + i];
+    }
+
+    public int getValue(int i, int channel) {
+        return mValues[(mOffset + i) * mStride + channel];
+    }
+
+    /** @return The index of the first value of sample i in getValues(). */
+    public int getValueOffset(int i) {
+        return (mOffset + i) * mStride;
+    }
+
+    /** @return The buffer holding the values, see getValueOffset(). */
+    public int[] getValues() {
+        return mValues;
+    }
+
+    /**
+     * Pass the samples one by one to a timeline listener, e.g. a RecordingWriter.
+     */
+    public void forEach(TimelineMerger.Listener listener) {
+        for (int i = mOffset, end = mOffset + mCount; i < end; i++) {
+            listener.onSample(mSources[i], mTimestamps[i], mValues, i * mStride, mChannels[i]);
+        }
+    }
+}
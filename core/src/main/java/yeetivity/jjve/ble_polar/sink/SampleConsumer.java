@@ -0,0 +1,15 @@
+package yeetivity.jjve.ble_polar.sink;
+
+/**
+ * Receives the samples of a SampleSink subscription, e.g. a recorder or an uploader.
+ */
+public interface SampleConsumer {
+
+    /**
+     * Called on the thread of the subscription, with the samples published since the last
+     * call, in order - less any the policy of the subscription dropped. May take its time; only
+     * this subscription falls behind. An exception is counted and the samples are skipped.
+     * @param batch View of the samples, valid during the call only.
+     */
+    void onSamples(SampleBatch batch);
+}
@@ -0,0 +1,140 @@
+package yeetivity.jjve.ble_polar.sink;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+import yeetivity.jjve.ble_polar.metrics.MetricsRegistry;
+import yeetivity.jjve.ble_polar.session.SessionManager;
+import yeetivity.jjve.ble_polar.session.TimelineMerger;
+
+/**
+ * Fans the merged timeline out to any number of consumers - recorder, analysis, uploader -
+ * each on its own thread, with its own buffer and its own policy for when it falls behind.
+ *
+ * The GATT threads only publish into the SampleRingBuffer of their session, which never
+ * waits. The thread running SessionManager.tick() drains those into the timeline and, with
+ * the sink as its listener (e.g. the downstream of the SessionMonitor), copies each sample
+ * once into the buffer of each subscription; flush() after the tick hands the new samples to
+ * the consumers as one batch, a view of their buffer. A slow consumer fills its own buffer
+ * only: what happens then is the policy of its subscription, see Subscription, and only
+ * BLOCK holds up the publishing thread, for a bounded time.
+ *
+ * onSample() and flush() must be called from one thread. subscribe() and unsubscribe() may be
+ * called from any thread; a new subscription gets the samples published after it.
+ */
+public class SampleSink implements TimelineMerger.Listener {
+
+    public enum Policy {
+        DROP_OLDEST, DROP_NEWEST, BLOCK, DECIMATE
+    }
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_BLOCK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    public static final long DEFAULT_CLOSE_MILLIS = 1000;
+    public static final int MAX_CHANNELS = 4;
+
+    private final MetricsRegistry mRegistry;
+    private final int mMaxSources;
+    // copied on write, read by the publishing thread for each sample
+    private volatile Subscription[] mSubscriptions = new Subscription[0];
+
+    public SampleSink() {
+        this(Metrics.REGISTRY, SessionManager.MAX_SESSIONS);
+    }
+
+    /**
+     * @param registry   Registry of the metrics of each subscription.
+     * @param maxSources Sources kept apart by DECIMATE; samples of other sources are not
+     *                   decimated.
+     */
+    public SampleSink(MetricsRegistry registry, int maxSources) {
+        if (maxSources < 1) throw new IllegalArgumentException("sources= " + maxSources);
+        mRegistry = registry;
+        mMaxSources = maxSources;
+    }
+
+    /**
+     * Subscribe with a buffer of DEFAULT_CAPACITY samples, and BLOCK waiting at most
+     * DEFAULT_BLOCK_NANOS per flush.
+     */
+    public Subscription subscribe(String name, Policy policy, SampleConsumer consumer) {
+        return subscribe(name, policy, DEFAULT_CAPACITY, DEFAULT_BLOCK_NANOS, consumer);
+    }
+
+    /**
+     * Start delivering to a consumer, on a thread of its own.
+     * @param name       Names the thread and the metrics, e.g. "recorder".
+     * @param capacity   Samples buffered for the consumer, rounded up to a power of two.
+     * @param blockNanos Time BLOCK may hold the publisher per flush; ignored by the others.
+     */
+    public synchronized Subscription subscribe(String name, Policy policy, int capacity,
+                                               long blockNanos, SampleConsumer consumer) {
+        if (name == null || policy == null || consumer == null) {
+            throw new IllegalArgumentException("name, policy and consumer are required");
+        }
+        for (Subscription s : mSubscriptions) {
+            if (s.getName().equals(name)) {
+                throw new IllegalArgumentException(name + " is subscribed");
+            }
+        }
+        Subscription subscription = new Subscription(name, policy, capacity, blockNanos,
+                mMaxSources, MAX_CHANNELS, mRegistry, consumer);
+        Subscription[] subscriptions = Arrays.copyOf(mSubscriptions, mSubscriptions.length + 1);
+        subscriptions[subscriptions.length - 1] = subscription;
+        mSubscriptions = subscriptions;
+        return subscription;
+    }
+
+    /**
+     * Stop delivering to a subscription, once it has been given what was published. Call
+     * flush() before, from the publishing thread, to include the samples since the last one.
+     * @return true if its thread ended within timeoutMillis - false if the consumer is stuck.
+     */
+    public boolean unsubscribe(Subscription subscription, long timeoutMillis) {
+        synchronized (this) {
+            Subscription[] current = mSubscriptions;
+            int index = Arrays.asList(current).indexOf(subscription);
+            if (index < 0) return false;
+            Subscription[] subscriptions = new Subscription[current.length - 1];
+            System.arraycopy(current, 0, subscriptions, 0, index);
+            System.arraycopy(current, index + 1, subscriptions, index, current.length - index - 1);
+            mSubscriptions = subscriptions;
+        }
+        // outside the lock, a slow consumer does not hold up the others
+        return subscription.close(timeoutMillis);
+    }
+
+    /**
+     * Buffer a sample for each subscription; delivered at the next flush(). Samples with more
+     * than MAX_CHANNELS values are dropped.
+     */
+    @Override
+    public void onSample(int source, long timestamp, int[] values, int offset, int channels) {
+        for (Subscription subscription : mSubscriptions) {
+            subscription.offer(source, timestamp, values, offset, channels);
+        }
+    }
+
+    /**
+     * Hand the samples buffered since the last flush to the consumers, e.g. after each tick.
+     */
+    public void flush() {
+        for (Subscription subscription : mSubscriptions) subscription.flush();
+    }
+
+    /**
+     * Unsubscribe all, waiting at most DEFAULT_CLOSE_MILLIS for each.
+     */
+    public void close() {
+        for (Subscription subscription : mSubscriptions) {
+            unsubscribe(subscription, DEFAULT_CLOSE_MILLIS);
+        }
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return Collections.unmodifiableList(Arrays.asList(mSubscriptions));
+    }
+}
@@ -0,0 +1,307 @@
+package yeetivity.jjve.ble_polar.sink;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import yeetivity.jjve.ble_polar.metrics.Counter;
+import yeetivity.jjve.ble_polar.metrics.Gauge;
+import yeetivity.jjve.ble_polar.metrics.Histogram;
+import yeetivity.jjve.ble_polar.metrics.MetricsRegistry;
+
+/**
+ * One consumer of a SampleSink: its buffer, its policy and the thread delivering to it.
+ *
+ * The buffer is a preallocated ring of samples with three cursors. The publisher writes
+ * behind the published cursor and moves it at SampleSink.flush(); the consumer claims a batch
+ * from the claim cursor up to the published one, reads it in place, then moves the released
+ * cursor past it. Only released slots are written again, so a batch is never overwritten
+ * while it is read. When the ring is full the policy decides:
+ * <ul>
+ * <li>DROP_OLDEST discards the oldest samples not yet claimed. While the consumer reads a
+ * batch its slots are the oldest and cannot be reused; until it is done the newest samples
+ * are dropped.</li>
+ * <li>DROP_NEWEST drops the new sample.</li>
+ * <li>BLOCK holds the publisher until there is room, at most blockNanos per flush in all;
+ * after that the new samples are dropped until the next flush.</li>
+ * <li>DECIMATE passes every n-th sample of each source only, doubling n when the ring is
+ * more than half full and halving it below an eighth, up to MAX_DECIMATION; if it still fills
+ * up the new sample is dropped.</li>
+ * </ul>
+ *
+ * Metrics, per name: sink.name.lag, the time between the newest published sample and the
+ * last one delivered, in ns; sink.name.backlog, the samples waiting at each flush;
+ * sink.name.dropped, sink.name.decimated and sink.name.errors.
+ */
+public final class Subscription {
+
+    public static final int MAX_DECIMATION = 16;
+
+    // waits of a blocked publisher and of an idle consumer, woken by flush
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String mName;
+    private final SampleSink.Policy mPolicy;
+    private final SampleConsumer mConsumer;
+    private final int mCapacity;
+    private final int mMask;
+    private final int mStride;
+    private final int mMaxBatch;
+    private final long mBlockNanos;
+
+    private final int[] mSources;
+    private final long[] mTimestamps;
+    private final int[] mChannels;
+    private final int[] mValues;
+    private final SampleBatch mBatch;
+
+    // publisher thread
+    private long mWrite;
+    // slots before it were dropped by DROP_OLDEST, and are free
+    private long mDropBound;
+    private long mNewest = Long.MIN_VALUE;
+    private long mBlockedNanos;
+    private final int[] mSkipped;
+    private int mFactor = 1;
+    private long mPendingDropped;
+    private long mPendingDecimated;
+
+    private final AtomicLong mPublished = new AtomicLong();
+    private final AtomicLong mClaim = new AtomicLong();
+    private final AtomicLong mReleased = new AtomicLong();
+    private volatile long mPublishedTimestamp = Long.MIN_VALUE;
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mDecimated = new AtomicLong();
+    private volatile int mDecimation = 1;
+
+    private final Counter mDroppedCounter;
+    private final Counter mDecimatedCounter;
+    private final Counter mErrorCounter;
+    private final Gauge mBacklog;
+    private final Histogram mLag;
+
+    private final Thread mThread;
+    private volatile boolean mRunning = true;
+
+    Subscription(String name, SampleSink.Policy policy, int capacity, long blockNanos,
+                 int maxSources, int maxChannels, MetricsRegistry registry,
+                 SampleConsumer consumer) {
+        if (capacity < 2 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("capacity= " + capacity);
+        }
+        if (blockNanos < 0) throw new IllegalArgumentException("block= " + blockNanos);
+        mName = name;
+        mPolicy = policy;
+        mConsumer = consumer;
+        mCapacity = Integer.highestOneBit(capacity) == capacity
+                ? capacity : Integer.highestOneBit(capacity) << 1;
+        mMask = mCapacity - 1;
+        mStride = maxChannels;
+        // a batch holds at most a quarter of the ring, the rest stays writable
+        mMaxBatch = Math.max(1, mCapacity / 4);
+        mBlockNanos = blockNanos;
+        mSources = new int[mCapacity];
+        mTimestamps = new long[mCapacity];
+        mChannels = new int[mCapacity];
+        mValues = new int[mCapacity * maxChannels];
+        mBatch = new SampleBatch(mSources, mTimestamps, mChannels, mValues, maxChannels);
+        mSkipped = new int[maxSources];
+
+        String prefix = "sink." + name + ".";
+        mDroppedCounter = registry.counter(prefix + "dropped");
+        mDecimatedCounter = registry.counter(prefix + "decimated");
+        mErrorCounter = registry.counter(prefix + "errors");
+        mBacklog = registry.gauge(prefix + "backlog");
+        mLag = registry.histogram(prefix + "lag");
+
+        mThread = new Thread(this::run, "sink-" + name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    // publisher thread
+
+    void offer(int source, long timestamp, int[] values, int offset, int channels) {
+        if (mPolicy == SampleSink.Policy.DECIMATE && source >= 0 && source < mSkipped.length) {
+            if (mSkipped[source] + 1 < mFactor) {
+                mSkipped[source]++;
+                mPendingDecimated++;
+                return;
+            }
+            mSkipped[source] = 0;
+        }
+        if (channels > mStride || !reserve()) {
+            mPendingDropped++;
+            return;
+        }
+        long write = mWrite;
+        int index = (int) (write & mMask);
+        mSources[index] = source;
+        mTimestamps[index] = timestamp;
+        mChannels[index] = channels;
+        System.arraycopy(values, offset, mValues, index * mStride, channels);
+        mWrite = write + 1;
+        if (timestamp > mNewest) mNewest = timestamp;
+    }
+
+    private boolean hasRoom() {
+        return mWrite - Math.max(mReleased.get(), mDropBound) < mCapacity;
+    }
+
+    private boolean reserve() {
+        if (hasRoom()) return true;
+        switch (mPolicy) {
+            case DROP_OLDEST:
+                return dropOldest();
+            case BLOCK:
+                return await();
+            default:
+                return false;
+        }
+    }
+
+    private boolean dropOldest() {
+        long oldest = Math.max(mReleased.get(), mDropBound);
+        // fails if the consumer holds the oldest slots, or just claimed them
+        if (!mClaim.compareAndSet(oldest, oldest + 1)) return false;
+        mDropBound = oldest + 1;
+        mPendingDropped++;
+        return true;
+    }
+
+    private boolean await() {
+        if (mBlockedNanos >= mBlockNanos) return false;
+        // the consumer can only make room with what it sees
+        publish();
+        long start = System.nanoTime();
+        while (true) {
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            long waited = System.nanoTime() - start;
+            boolean room = hasRoom();
+            if (room || !mRunning || mBlockedNanos + waited >= mBlockNanos) {
+                mBlockedNanos += waited;
+                return room;
+            }
+        }
+    }
+
+    private void publish() {
+        if (mPublished.get() == mWrite) return;
+        mPublishedTimestamp = mNewest;
+        // ordered store, the samples are visible before the cursor
+        mPublished.lazySet(mWrite);
+        LockSupport.unpark(mThread);
+    }
+
+    void flush() {
+        publish();
+        mBlockedNanos = 0;
+        long backlog = mWrite - Math.max(mReleased.get(), mDropBound);
+        mBacklog.set(backlog);
+        if (mPolicy == SampleSink.Policy.DECIMATE) {
+            if (backlog > mCapacity / 2 && mFactor < MAX_DECIMATION) {
+                mFactor *= 2;
+            } else if (backlog < mCapacity / 8 && mFactor > 1) {
+                mFactor /= 2;
+            }
+            mDecimation = mFactor;
+        }
+        if (mPendingDropped > 0) {
+            mDroppedCounter.add(mPendingDropped);
+            mDropped.lazySet(mDropped.get() + mPendingDropped);
+            mPendingDropped = 0;
+        }
+        if (mPendingDecimated > 0) {
+            mDecimatedCounter.add(mPendingDecimated);
+            mDecimated.lazySet(mDecimated.get() + mPendingDecimated);
+            mPendingDecimated = 0;
+        }
+    }
+
+    // consumer thread
+
+    private void run() {
+        while (true) {
+            long start = mClaim.get();
+            long published = mPublished.get();
+            if (start >= published) {
+                // drained; stop only once everything published was delivered
+                if (!mRunning) return;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            int index = (int) (start & mMask);
+            int count = (int) Math.min(Math.min(published - start, mMaxBatch), mCapacity - index);
+            if (!mClaim.compareAndSet(start, start + count)) continue;
+
+            mBatch.set(index, count);
+            try {
+                mConsumer.onSamples(mBatch);
+            } catch (RuntimeException e) {
+                mErrorCounter.increment();
+            }
+            long lag = mPublishedTimestamp - mTimestamps[index + count - 1];
+            mLag.record(Math.max(0, lag));
+            mDelivered.lazySet(mDelivered.get() + count);
+            mReleased.set(start + count);
+        }
+    }
+
+    /**
+     * Deliver what was published, then end the thread.
+     * @return true if the thread ended within the timeout.
+     */
+    boolean close(long timeoutMillis) {
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !mThread.isAlive();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public SampleSink.Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /** @return The ring size, in samples. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    /** @return Samples dropped by the policy, counted at each flush. */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /** @return Samples left out by DECIMATE, counted at each flush. */
+    public long getDecimatedCount() {
+        return mDecimated.get();
+    }
+
+    /** @return The current decimation, 1 for every sample. */
+    public int getDecimation() {
+        return mDecimation;
+    }
+
+    /** @return Published samples not handed to the consumer yet. */
+    public long getBacklog() {
+        return Math.max(0, mPublished.get() - mClaim.get());
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+}
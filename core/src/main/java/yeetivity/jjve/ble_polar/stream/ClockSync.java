@@ -0,0 +1,248 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the timestamps of a sensor onto the local clock, e.g. elapsedRealtimeNanos.
+ *
+ * A frame carries the sensor time of its last sample and arrives some latency later, so
+ * arrival - sensor time is the clock offset plus a latency that is never negative. The frame
+ * with the least latency in each window is the best observation of the offset; a weighted
+ * linear fit through these minima gives the offset and the drift of the sensor clock, with
+ * older windows fading out. Until two windows are complete the smallest offset seen is used.
+ *
+ * The samples of a frame are spread evenly back to the previous frame. A frame whose sensor
+ * time is further from the previous one than its samples account for follows a gap: the
+ * missing samples are counted and the frame's samples get the estimated sample period.
+ *
+ * Constant time per frame, single threaded, and nothing is allocated after construction.
+ */
+public class ClockSync {
+
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // weight kept by a window minimum for each window after it
+    private static final double DECAY = 0.95;
+    // weight of a new frame in the sample period estimate
+    private static final double PERIOD_GAIN = 1.0 / 16;
+
+    private final long mWindowNanos;
+    private long mNominalPeriod;
+    // sample period on the sensor clock, measured over contiguous frames
+    private double mPeriod;
+
+    // fit of offset - mRefOffset over sensor time - mRefSensor, in ns and s
+    private boolean mHasReference;
+    private long mRefSensor;
+    private long mRefOffset;
+    private double mSw, mSx, mSy, mSxx, mSxy;
+    private int mWindows;
+    private double mIntercept;
+    private double mSlope;
+    private long mMinOffset;
+
+    // the current window
+    private long mWindowStart;
+    private long mWindowMinSensor;
+    private long mWindowMinOffset;
+
+    // the previous frame
+    private boolean mHasLast;
+    private long mLastSensor;
+    private long mLastLocal;
+    private boolean mGap;
+
+    private long mFrames;
+    private long mGaps;
+    private long mDroppedSamples;
+    private long mDroppedFrames;
+    private long mResets;
+
+    /**
+     * @param nominalPeriodNanos Sample period of the requested sample rate.
+     */
+    public ClockSync(long nominalPeriodNanos) {
+        this(nominalPeriodNanos, DEFAULT_WINDOW_NANOS);
+    }
+
+    /**
+     * @param windowNanos Sensor time each offset observation is taken over. Longer windows
+     *                    are more likely to contain a frame with little latency.
+     */
+    public ClockSync(long nominalPeriodNanos, long windowNanos) {
+        if (windowNanos <= 0) throw new IllegalArgumentException("window= " + windowNanos);
+        mWindowNanos = windowNanos;
+        setNominalPeriod(nominalPeriodNanos);
+    }
+
+    /**
+     * Set the sample period, e.g. when the stream is started at another rate.
+     */
+    public void setNominalPeriod(long periodNanos) {
+        if (periodNanos <= 0) throw new IllegalArgumentException("period= " + periodNanos);
+        mNominalPeriod = periodNanos;
+        mPeriod = periodNanos;
+    }
+
+    /** Forget the clock and the previous frame, e.g. on reconnect. */
+    public void reset() {
+        mHasReference = false;
+        mSw = mSx = mSy = mSxx = mSxy = 0;
+        mWindows = 0;
+        mIntercept = 0;
+        mSlope = 0;
+        mHasLast = false;
+        mGap = false;
+        mPeriod = mNominalPeriod;
+    }
+
+    /**
+     * Time the samples of a frame on the local clock.
+     * @param sensorTimestamp Sensor time of the last sample.
+     * @param count           Samples in the frame.
+     * @param arrivalNanos    Local time the frame arrived.
+     * @param timestamps      Receives the local time of each sample, oldest first.
+     * @return count.
+     */
+    public int onFrame(long sensorTimestamp, int count, long arrivalNanos, long[] timestamps) {
+        if (count <= 0) return 0;
+        if (mHasLast && sensorTimestamp <= mLastSensor) {
+            // the sensor restarted its clock
+            reset();
+            mResets++;
+        }
+        mFrames++;
+        observe(sensorTimestamp, arrivalNanos - sensorTimestamp);
+        long local = toLocal(sensorTimestamp);
+
+        double spacing = mPeriod * (1 + mSlope);
+        mGap = false;
+        if (mHasLast) {
+            long elapsed = sensorTimestamp - mLastSensor;
+            long missing = Math.round(elapsed / mPeriod) - count;
+            if (missing > 0) {
+                mGap = true;
+                mGaps++;
+                mDroppedSamples += missing;
+                mDroppedFrames += (missing + count - 1) / count;
+            } else {
+                double period = (double) elapsed / count;
+                if (period > mNominalPeriod / 2 && period < mNominalPeriod * 2) {
+                    mPeriod += (period - mPeriod) * PERIOD_GAIN;
+                }
+                // the estimate may move back a little when the fit is updated
+                if (local <= mLastLocal) local = mLastLocal + 1;
+                spacing = (double) (local - mLastLocal) / count;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = local - Math.round((count - 1 - i) * spacing);
+        }
+        mHasLast = true;
+        mLastSensor = sensorTimestamp;
+        mLastLocal = local;
+        return count;
+    }
+
+    private void observe(long sensorTimestamp, long offset) {
+        if (!mHasReference) {
+            mHasReference = true;
+            mRefSensor = sensorTimestamp;
+            mRefOffset = offset;
+            mMinOffset = offset;
+            startWindow(sensorTimestamp, offset);
+            return;
+        }
+        if (offset < mMinOffset) mMinOffset = offset;
+        if (sensorTimestamp - mWindowStart >= mWindowNanos) {
+            addToFit(mWindowMinSensor, mWindowMinOffset);
+            startWindow(sensorTimestamp, offset);
+        } else if (offset < mWindowMinOffset) {
+            mWindowMinSensor = sensorTimestamp;
+            mWindowMinOffset = offset;
+        }
+    }
+
+    private void startWindow(long sensorTimestamp, long offset) {
+        mWindowStart = sensorTimestamp;
+        mWindowMinSensor = sensorTimestamp;
+        mWindowMinOffset = offset;
+    }
+
+    private void addToFit(long sensorTimestamp, long offset) {
+        double x = (sensorTimestamp - mRefSensor) / 1e9;
+        double y = offset - mRefOffset;
+        mSw = mSw * DECAY + 1;
+        mSx = mSx * DECAY + x;
+        mSy = mSy * DECAY + y;
+        mSxx = mSxx * DECAY + x * x;
+        mSxy = mSxy * DECAY + x * y;
+        mWindows++;
+        if (mWindows < 2) return;
+        double denominator = mSw * mSxx - mSx * mSx;
+        if (denominator <= 0) return;
+        double slope = (mSw * mSxy - mSx * mSy) / denominator;
+        mIntercept = (mSy - slope * mSx) / mSw;
+        mSlope = slope / 1e9;
+    }
+
+    /**
+     * @return The local time of a sensor time, with the current estimate.
+     */
+    public long toLocal(long sensorTimestamp) {
+        return sensorTimestamp + getOffsetNanos(sensorTimestamp);
+    }
+
+    private long getOffsetNanos(long sensorTimestamp) {
+        if (mWindows < 2) return mMinOffset;
+        return mRefOffset + Math.round(mIntercept + mSlope * (sensorTimestamp - mRefSensor));
+    }
+
+    /** @return local - sensor time at the last frame, including the least transport latency. */
+    public long getOffsetNanos() {
+        return getOffsetNanos(mLastSensor);
+    }
+
+    /** @return How much faster the local clock runs than the sensor clock, in ppm. */
+    public double getDriftPpm() {
+        return mSlope * 1e6;
+    }
+
+    /** @return The measured sample period, on the local clock. */
+    public double getSamplePeriodNanos() {
+        return mPeriod * (1 + mSlope);
+    }
+
+    /** @return true if the drift is estimated, rather than only the offset. */
+    public boolean isFitted() {
+        return mWindows >= 2;
+    }
+
+    /** @return true if the last frame followed a gap. */
+    public boolean hadGap() {
+        return mGap;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /** @return The number of gaps, each one or more frames long. */
+    public long getGapCount() {
+        return mGaps;
+    }
+
+    public long getDroppedSampleCount() {
+        return mDroppedSamples;
+    }
+
+    /** @return Frames missing in the gaps, assuming the size of the frame after each gap. */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /** @return The number of times the sensor clock went back. */
+    public long getResetCount() {
+        return mResets;
+    }
+}
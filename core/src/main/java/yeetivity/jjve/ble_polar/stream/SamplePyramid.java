@@ -0,0 +1,255 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import java.util.Arrays;
+
+/**
+ * Multi-resolution min / max / mean history of a sample stream, for charts of long sessions.
+ *
+ * Level 0 aggregates the samples into buckets of a fixed time width; each level above has
+ * buckets factor times wider. Every sample updates the open bucket of each level, so nothing
+ * is recomputed, and each level keeps its newest capacity buckets in preallocated arrays -
+ * with the defaults the last 20 s at 20 ms down to the last 5.8 h at 20.5 s.
+ *
+ * query() fills one min, max and mean per pixel from the coarsest level that still resolves
+ * a pixel, so drawing any time window costs in proportion to the width in pixels - at most
+ * factor buckets per pixel - however many samples it spans.
+ *
+ * One thread adds samples in time order, any thread may query; both lock the pyramid, for
+ * the few microseconds a sample or a query takes. Nothing is allocated after construction
+ * unless a query is wider than any before.
+ */
+public class SamplePyramid {
+
+    public static final long DEFAULT_BUCKET_NANOS = 20000000L;
+    public static final int DEFAULT_LEVELS = 6;
+    public static final int DEFAULT_FACTOR = 4;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mChannels;
+    private final int mLevels;
+    private final int mCapacity;
+    private final long[] mWidth;
+    // newest bucket index of each level, Long.MIN_VALUE before the first sample
+    private final long[] mNewest;
+    // per level, slot * channels + channel; count per slot
+    private final int[][] mCount;
+    private final int[][] mMin;
+    private final int[][] mMax;
+    private final long[][] mSum;
+    private long mNewestTimestamp = Long.MIN_VALUE;
+    private long mSampleCount;
+    private long mLateCount;
+
+    // per pixel accumulators of a query
+    private long[] mPixelSum = new long[0];
+    private int[] mPixelCount = new int[0];
+
+    public SamplePyramid(int channels) {
+        this(channels, DEFAULT_BUCKET_NANOS, DEFAULT_LEVELS, DEFAULT_FACTOR, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param bucketNanos Width of a level 0 bucket, e.g. a few samples.
+     * @param levels      Number of zoom levels.
+     * @param factor      Buckets of a level per bucket of the level above.
+     * @param capacity    Buckets kept per level; the history of a level is capacity times its
+     *                    bucket width.
+     */
+    public SamplePyramid(int channels, long bucketNanos, int levels, int factor, int capacity) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        if (bucketNanos < 1) throw new IllegalArgumentException("bucket= " + bucketNanos);
+        if (levels < 1) throw new IllegalArgumentException("levels= " + levels);
+        if (factor < 2) throw new IllegalArgumentException("factor= " + factor);
+        if (capacity < 2) throw new IllegalArgumentException("capacity= " + capacity);
+        mChannels = channels;
+        mLevels = levels;
+        mCapacity = capacity;
+        mWidth = new long[levels];
+        mNewest = new long[levels];
+        mCount = new int[levels][capacity];
+        mMin = new int[levels][capacity * channels];
+        mMax = new int[levels][capacity * channels];
+        mSum = new long[levels][capacity * channels];
+        long width = bucketNanos;
+        for (int level = 0; level < levels; level++) {
+            mWidth[level] = width;
+            if (level < levels - 1 && width > Long.MAX_VALUE / factor) {
+                throw new IllegalArgumentException("bucket too wide at level " + (level + 1));
+            }
+            width *= factor;
+        }
+        Arrays.fill(mNewest, Long.MIN_VALUE);
+    }
+
+    private static long bucket(long timestamp, long width) {
+        return timestamp >= 0 ? timestamp / width : -((-timestamp - 1) / width) - 1;
+    }
+
+    private int slot(long bucket) {
+        int slot = (int) (bucket % mCapacity);
+        return slot < 0 ? slot + mCapacity : slot;
+    }
+
+    /**
+     * Add a sample, in time order. A sample older than the history of a level is left out of
+     * that level.
+     */
+    public synchronized void accept(long timestamp, int[] values, int offset) {
+        int channels = mChannels;
+        boolean late = false;
+        for (int level = 0; level < mLevels; level++) {
+            long bucket = bucket(timestamp, mWidth[level]);
+            long newest = mNewest[level];
+            if (bucket > newest) {
+                advance(level, newest, bucket);
+            } else if (bucket <= newest - mCapacity) {
+                late = true;
+                continue;
+            }
+            int slot = slot(bucket);
+            int[] min = mMin[level];
+            int[] max = mMax[level];
+            long[] sum = mSum[level];
+            int base = slot * channels;
+            if (mCount[level][slot]++ == 0) {
+                for (int c = 0; c < channels; c++) {
+                    int value = values[offset + c];
+                    min[base + c] = value;
+                    max[base + c] = value;
+                    sum[base + c] = value;
+                }
+            } else {
+                for (int c = 0; c < channels; c++) {
+                    int value = values[offset + c];
+                    if (value < min[base + c]) min[base + c] = value;
+                    if (value > max[base + c]) max[base + c] = value;
+                    sum[base + c] += value;
+                }
+            }
+        }
+        if (late) mLateCount++;
+        if (timestamp > mNewestTimestamp) mNewestTimestamp = timestamp;
+        mSampleCount++;
+    }
+
+    // empty the slots of the buckets after newest, up to bucket
+    private void advance(int level, long newest, long bucket) {
+        int[] count = mCount[level];
+        if (newest == Long.MIN_VALUE || bucket - newest >= mCapacity) {
+            Arrays.fill(count, 0);
+        } else {
+            for (long b = newest + 1; b <= bucket; b++) count[slot(b)] = 0;
+        }
+        mNewest[level] = bucket;
+    }
+
+    /**
+     * Fill the min, max and mean of a channel for each of pixels columns across [from, to).
+     * A column without samples gets a min above its max and a NaN mean.
+     * @return The level read, or -1 if there is nothing to draw.
+     */
+    public synchronized int query(int channel, long from, long to, int pixels,
+                                  int[] min, int[] max, float[] mean) {
+        if (channel < 0 || channel >= mChannels) {
+            throw new IllegalArgumentException("channel= " + channel);
+        }
+        if (pixels > min.length || pixels > max.length || pixels > mean.length) {
+            throw new IllegalArgumentException("buffers too small for " + pixels + " pixels");
+        }
+        for (int p = 0; p < pixels; p++) {
+            min[p] = Integer.MAX_VALUE;
+            max[p] = Integer.MIN_VALUE;
+            mean[p] = Float.NaN;
+        }
+        if (pixels <= 0 || to <= from || mSampleCount == 0) return -1;
+        if (mPixelSum.length < pixels) {
+            mPixelSum = new long[pixels];
+            mPixelCount = new int[pixels];
+        }
+        long[] pixelSum = mPixelSum;
+        int[] pixelCount = mPixelCount;
+        Arrays.fill(pixelSum, 0, pixels, 0);
+        Arrays.fill(pixelCount, 0, pixels, 0);
+
+        double pixelNanos = (double) (to - from) / pixels;
+        int level = levelFor(pixelNanos, from);
+        long width = mWidth[level];
+        long newest = mNewest[level];
+        long first = Math.max(bucket(from, width), newest - mCapacity + 1);
+        long last = Math.min(bucket(to - 1, width), newest);
+        int[] count = mCount[level];
+        int[] levelMin = mMin[level];
+        int[] levelMax = mMax[level];
+        long[] levelSum = mSum[level];
+        for (long b = first; b <= last; b++) {
+            int slot = slot(b);
+            if (count[slot] == 0) continue;
+            int index = slot * mChannels + channel;
+            // the columns the bucket spans, one when the bucket is narrower than a column
+            long start = b * width;
+            int p0 = (int) Math.max(0, Math.floor((start - from) / pixelNanos));
+            int p1 = (int) Math.min(pixels - 1, Math.floor((start + width - 1 - from) / pixelNanos));
+            for (int p = p0; p <= p1; p++) {
+                if (levelMin[index] < min[p]) min[p] = levelMin[index];
+                if (levelMax[index] > max[p]) max[p] = levelMax[index];
+                pixelSum[p] += levelSum[index];
+                pixelCount[p] += count[slot];
+            }
+        }
+        for (int p = 0; p < pixels; p++) {
+            if (pixelCount[p] > 0) mean[p] = (float) ((double) pixelSum[p] / pixelCount[p]);
+        }
+        return level;
+    }
+
+    // the coarsest level with buckets no wider than a pixel, coarser if it no longer holds from
+    private int levelFor(double pixelNanos, long from) {
+        int level = 0;
+        while (level < mLevels - 1 && mWidth[level + 1] <= pixelNanos) level++;
+        while (level < mLevels - 1
+                && bucket(from, mWidth[level]) <= mNewest[level] - mCapacity) {
+            level++;
+        }
+        return level;
+    }
+
+    public synchronized void clear() {
+        for (int level = 0; level < mLevels; level++) Arrays.fill(mCount[level], 0);
+        Arrays.fill(mNewest, Long.MIN_VALUE);
+        mNewestTimestamp = Long.MIN_VALUE;
+        mSampleCount = 0;
+        mLateCount = 0;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public int getLevels() {
+        return mLevels;
+    }
+
+    /** @return The bucket width of a level, in ns. */
+    public long getBucketNanos(int level) {
+        return mWidth[level];
+    }
+
+    /** @return The time a level holds, in ns. */
+    public long getHistoryNanos(int level) {
+        return mWidth[level] * mCapacity;
+    }
+
+    /** @return Timestamp of the newest sample, Long.MIN_VALUE if none. */
+    public synchronized long getNewestTimestamp() {
+        return mNewestTimestamp;
+    }
+
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /** @return Samples too old for at least one level. */
+    public synchronized long getLateCount() {
+        return mLateCount;
+    }
+}
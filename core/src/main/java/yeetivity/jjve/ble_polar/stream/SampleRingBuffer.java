@@ -0,0 +1,147 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single producer / single consumer ring buffer of decoded samples.
+ *
+ * Samples are stored as a timestamp plus a fixed number of int channels, in primitive arrays.
+ * The producer (the GATT callback thread) and the consumer each own one sequence counter,
+ * which the other side only reads, so neither publish nor drain takes a lock or allocates.
+ * If the consumer falls behind and the buffer is full, new samples are dropped and counted
+ * as overruns - the producer never waits.
+ *
+ * Use one buffer per consuming thread.
+ */
+public class SampleRingBuffer {
+
+    private final int mCapacity;
+    private final int mMask;
+    private final int mChannels;
+
+    private final long[] mTimestamps;
+    private final int[] mValues;
+
+    // next sequence to write, written by the producer only
+    private final AtomicLong mHead = new AtomicLong();
+    // next sequence to read, written by the consumer only
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mOverruns = new AtomicLong();
+
+    // producer side copy of mTail, refreshed only when the buffer looks full
+    private long mCachedTail;
+
+    /**
+     * @param capacity Minimum number of samples, rounded up to a power of two.
+     * @param channels Number of values per sample, e.g. 3 for ACC.
+     */
+    public SampleRingBuffer(int capacity, int channels) {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("capacity= " + capacity);
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        mCapacity = nextPowerOfTwo(capacity);
+        mMask = mCapacity - 1;
+        mChannels = channels;
+        mTimestamps = new long[mCapacity];
+        mValues = new int[mCapacity * channels];
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int power = Integer.highestOneBit(value);
+        return power == value ? value : power << 1;
+    }
+
+    /**
+     * Publish a batch of samples. Producer thread only.
+     * @param timestamps One timestamp per sample.
+     * @param values     Interleaved values, channels per sample.
+     * @param count      Number of samples to publish.
+     * @return The number of samples published; the rest were dropped as overruns.
+     */
+    public int publish(long[] timestamps, int[] values, int count) {
+        long head = mHead.get();
+        if (head + count - mCapacity > mCachedTail) {
+            mCachedTail = mTail.get();
+        }
+        int free = (int) (mCapacity - (head - mCachedTail));
+        int n = Math.min(count, free);
+
+        int channels = mChannels;
+        for (int i = 0, v = 0; i < n; i++) {
+            int index = (int) ((head + i) & mMask);
+            mTimestamps[index] = timestamps[i];
+            for (int c = 0, dst = index * channels; c < channels; c++) {
+                mValues[dst + c] = values[v++];
+            }
+        }
+        if (n < count) {
+            mOverruns.lazySet(mOverruns.get() + (count - n));
+        }
+        // ordered store, the samples above are visible before the new head
+        mHead.lazySet(head + n);
+        return n;
+    }
+
+    /**
+     * Copy up to maxSamples of the oldest samples into the given arrays. Consumer thread only.
+     * @return The number of samples drained.
+     */
+    public int drain(long[] timestamps, int[] values, int maxSamples) {
+        return drain(timestamps, values, 0, maxSamples);
+    }
+
+    /**
+     * Copy up to maxSamples of the oldest samples into the given arrays, starting at sample
+     * index offset. Consumer thread only.
+     * @return The number of samples drained.
+     */
+    public int drain(long[] timestamps, int[] values, int offset, int maxSamples) {
+        long tail = mTail.get();
+        long available = mHead.get() - tail;
+        int channels = mChannels;
+        int room = Math.min(timestamps.length, values.length / channels) - offset;
+        int n = (int) Math.min(available, Math.min(maxSamples, room));
+        if (n <= 0) return 0;
+
+        for (int i = 0, v = offset * channels; i < n; i++) {
+            int index = (int) ((tail + i) & mMask);
+            timestamps[offset + i] = mTimestamps[index];
+            for (int c = 0, src = index * channels; c < channels; c++) {
+                values[v++] = mValues[src + c];
+            }
+        }
+        mTail.lazySet(tail + n);
+        return n;
+    }
+
+    /** @return The number of samples waiting to be drained. */
+    public int size() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    /** @return Sequence number of the next sample to be published, i.e. samples published so far. */
+    public long getPublishedCount() {
+        return mHead.get();
+    }
+
+    /** @return Sequence number of the next sample to be drained, i.e. samples drained so far. */
+    public long getDrainedCount() {
+        return mTail.get();
+    }
+
+    /** @return The number of samples dropped because the consumer fell behind. */
+    public long getOverrunCount() {
+        return mOverruns.get();
+    }
+}
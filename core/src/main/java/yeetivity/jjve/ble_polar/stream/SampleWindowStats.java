@@ -0,0 +1,143 @@
+package yeetivity.jjve.ble_polar.stream;
+
+/**
+ * Aggregates of a sample stream, for display: the newest sample, per channel min/max over
+ * a fixed window, and the sample rate measured over that window.
+ * Single threaded, and nothing is allocated after construction.
+ */
+public class SampleWindowStats {
+
+    private final int mChannels;
+    private final long mWindowNanos;
+
+    private final int[] mLatest;
+    private long mLatestTimestamp;
+    private long mSampleCount;
+
+    // running window
+    private final int[] mMin;
+    private final int[] mMax;
+    private long mWindowStart = -1;
+    private int mWindowSamples;
+
+    // last completed window
+    private final int[] mLastMin;
+    private final int[] mLastMax;
+    private boolean mHasCompletedWindow;
+    private float mRate;
+
+    public SampleWindowStats(int channels, long windowNanos) {
+        if (channels < 1) throw new IllegalArgumentException("channels= " + channels);
+        if (windowNanos <= 0) throw new IllegalArgumentException("window= " + windowNanos);
+        mChannels = channels;
+        mWindowNanos = windowNanos;
+        mLatest = new int[channels];
+        mMin = new int[channels];
+        mMax = new int[channels];
+        mLastMin = new int[channels];
+        mLastMax = new int[channels];
+        resetWindow();
+    }
+
+    /**
+     * Add a batch of samples, as drained from a SampleRingBuffer.
+     */
+    public void accept(long[] timestamps, int[] values, int count) {
+        if (count <= 0) return;
+        int channels = mChannels;
+        for (int i = 0, v = 0; i < count; i++) {
+            for (int c = 0; c < channels; c++, v++) {
+                int value = values[v];
+                if (value < mMin[c]) mMin[c] = value;
+                if (value > mMax[c]) mMax[c] = value;
+            }
+        }
+        System.arraycopy(values, (count - 1) * channels, mLatest, 0, channels);
+        mLatestTimestamp = timestamps[count - 1];
+        mWindowSamples += count;
+        mSampleCount += count;
+    }
+
+    /**
+     * Add one sample, e.g. as emitted by a TimelineMerger.
+     */
+    public void accept(long timestamp, int[] values, int offset) {
+        int channels = mChannels;
+        for (int c = 0; c < channels; c++) {
+            int value = values[offset + c];
+            if (value < mMin[c]) mMin[c] = value;
+            if (value > mMax[c]) mMax[c] = value;
+        }
+        System.arraycopy(values, offset, mLatest, 0, channels);
+        mLatestTimestamp = timestamp;
+        mWindowSamples++;
+        mSampleCount++;
+    }
+
+    /**
+     * Close the running window if it is older than the window length.
+     * @param nowNanos Current (monotonic) time.
+     * @return true if a window was completed.
+     */
+    public boolean roll(long nowNanos) {
+        if (mWindowStart < 0) {
+            mWindowStart = nowNanos;
+            return false;
+        }
+        long elapsed = nowNanos - mWindowStart;
+        if (elapsed < mWindowNanos) return false;
+
+        mRate = mWindowSamples * 1e9f / elapsed;
+        if (mWindowSamples > 0) {
+            System.arraycopy(mMin, 0, mLastMin, 0, mChannels);
+            System.arraycopy(mMax, 0, mLastMax, 0, mChannels);
+            mHasCompletedWindow = true;
+        }
+        resetWindow();
+        mWindowStart = nowNanos;
+        return true;
+    }
+
+    private void resetWindow() {
+        for (int c = 0; c < mChannels; c++) {
+            mMin[c] = Integer.MAX_VALUE;
+            mMax[c] = Integer.MIN_VALUE;
+        }
+        mWindowSamples = 0;
+    }
+
+    public boolean hasSamples() {
+        return mSampleCount > 0;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getLatest(int channel) {
+        return mLatest[channel];
+    }
+
+    public long getLatestTimestamp() {
+        return mLatestTimestamp;
+    }
+
+    /** Min of the last completed window, or of the running window before the first one completes. */
+    public int getMin(int channel) {
+        return mHasCompletedWindow ? mLastMin[channel] : mMin[channel];
+    }
+
+    /** Max of the last completed window, or of the running window before the first one completes. */
+    public int getMax(int channel) {
+        return mHasCompletedWindow ? mLastMax[channel] : mMax[channel];
+    }
+
+    /** Samples per second over the last completed window. */
+    public float getRate() {
+        return mRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+}
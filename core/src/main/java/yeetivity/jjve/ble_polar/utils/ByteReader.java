@@ -0,0 +1,228 @@
+package yeetivity.jjve.ble_polar.utils;
+
+/**
+ * Shift based little endian reads, without wrapping the bytes in a ByteBuffer.
+ *
+ * The static methods read a single value at a given offset. An instance keeps a cursor over
+ * a byte array, so that a whole frame can be walked field by field (and bit by bit, for the
+ * Polar delta frames) without allocating. Bit fields are read least significant bit first;
+ * byte reads after bit reads start at the next whole byte.
+ */
+public class ByteReader {
+
+    private byte[] mBytes;
+    private int mLimit;
+    private int mBitPos;
+
+    public ByteReader() {
+        this(new byte[0]);
+    }
+
+    public ByteReader(byte[] bytes) {
+        reset(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Point the cursor at a new sequence of bytes.
+     * @param bytes  The bytes to read from.
+     * @param offset Index of the first byte to read.
+     * @param limit  Index after the last byte to read.
+     * @return this reader.
+     */
+    public ByteReader reset(byte[] bytes, int offset, int limit) {
+        if (offset < 0 || limit > bytes.length || offset > limit)
+            throw new IllegalArgumentException("offset= " + offset + ", limit= " + limit);
+        mBytes = bytes;
+        mLimit = limit;
+        mBitPos = offset * 8;
+        return this;
+    }
+
+    public ByteReader reset(byte[] bytes) {
+        return reset(bytes, 0, bytes.length);
+    }
+
+    /** @return Index of the next byte to read (rounded up after bit reads). */
+    public int position() {
+        return (mBitPos + 7) >>> 3;
+    }
+
+    public int remaining() {
+        return mLimit - position();
+    }
+
+    public boolean hasRemaining() {
+        return position() < mLimit;
+    }
+
+    public void skip(int bytes) {
+        mBitPos = (position() + bytes) * 8;
+    }
+
+    /** Move the cursor to the next whole byte, if it is in the middle of one. */
+    public void alignToByte() {
+        mBitPos = position() * 8;
+    }
+
+    public int readUint8() {
+        return readUint8(mBytes, next(1));
+    }
+
+    public int readInt8() {
+        return mBytes[next(1)];
+    }
+
+    public int readUint16() {
+        return readUint16(mBytes, next(2));
+    }
+
+    public int readInt16() {
+        return readInt16(mBytes, next(2));
+    }
+
+    public int readUint24() {
+        return readUint24(mBytes, next(3));
+    }
+
+    public int readInt24() {
+        return readInt24(mBytes, next(3));
+    }
+
+    public long readUint32() {
+        return readUint32(mBytes, next(4));
+    }
+
+    public int readInt32() {
+        return readInt32(mBytes, next(4));
+    }
+
+    public long readInt64() {
+        return readInt64(mBytes, next(8));
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt32());
+    }
+
+    /**
+     * Read a signed value of 1 to 4 bytes.
+     */
+    public int readSigned(int width) {
+        return readSigned(mBytes, next(width), width);
+    }
+
+    /**
+     * Read an unsigned bit field of 0 to 32 bits. For 32 bits the result is the raw int.
+     */
+    public int readBits(int bits) {
+        checkBits(bits);
+        int value = readBits(mBytes, mBitPos, bits);
+        mBitPos += bits;
+        return value;
+    }
+
+    /**
+     * Read a two's complement bit field of 0 to 32 bits.
+     */
+    public int readSignedBits(int bits) {
+        checkBits(bits);
+        int value = readSignedBits(mBytes, mBitPos, bits);
+        mBitPos += bits;
+        return value;
+    }
+
+    // byte aligned cursor, advanced by count bytes; returns the previous position
+    private int next(int count) {
+        int offset = position();
+        if (offset + count > mLimit)
+            throw new IndexOutOfBoundsException("position= " + offset + ", limit= " + mLimit);
+        mBitPos = (offset + count) * 8;
+        return offset;
+    }
+
+    private void checkBits(int bits) {
+        if (mBitPos + bits > mLimit * 8)
+            throw new IndexOutOfBoundsException("bit position= " + mBitPos + ", limit= " + mLimit);
+    }
+
+    public static int readUint8(byte[] bytes, int offset) {
+        return bytes[offset] & 0xFF;
+    }
+
+    public static int readUint16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    public static int readInt16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | bytes[offset + 1] << 8;
+    }
+
+    public static int readUint24(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16;
+    }
+
+    public static int readInt24(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | bytes[offset + 2] << 16;
+    }
+
+    public static int readInt32(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | bytes[offset + 3] << 24;
+    }
+
+    public static long readUint32(byte[] bytes, int offset) {
+        return readInt32(bytes, offset) & 0xFFFFFFFFL;
+    }
+
+    public static long readInt64(byte[] bytes, int offset) {
+        return (readInt32(bytes, offset) & 0xFFFFFFFFL)
+                | (long) readInt32(bytes, offset + 4) << 32;
+    }
+
+    /**
+     * Read a signed little endian value of 1 to 4 bytes.
+     */
+    public static int readSigned(byte[] bytes, int offset, int width) {
+        switch (width) {
+            case 1: return bytes[offset];
+            case 2: return readInt16(bytes, offset);
+            case 3: return readInt24(bytes, offset);
+            case 4: return readInt32(bytes, offset);
+            default: throw new IllegalArgumentException("width= " + width);
+        }
+    }
+
+    /**
+     * Read an unsigned bit field, least significant bit first.
+     * @param bitPos Position of the first bit, counted from bit 0 of bytes[0].
+     * @param bits   Width of the field, 0 to 32.
+     */
+    public static int readBits(byte[] bytes, int bitPos, int bits) {
+        if (bits == 0) return 0;
+        if (bits > 32) throw new IllegalArgumentException("bits= " + bits);
+        int offset = bitPos >>> 3;
+        int shift = bitPos & 7;
+        int needed = (shift + bits + 7) >>> 3;
+        long word = 0;
+        for (int i = 0; i < needed; i++) {
+            word |= (long) (bytes[offset + i] & 0xFF) << (8 * i);
+        }
+        long mask = (1L << bits) - 1;
+        return (int) ((word >>> shift) & mask);
+    }
+
+    /**
+     * Read a two's complement bit field, least significant bit first.
+     */
+    public static int readSignedBits(byte[] bytes, int bitPos, int bits) {
+        if (bits == 0) return 0;
+        int raw = readBits(bytes, bitPos, bits);
+        return (raw << (32 - bits)) >> (32 - bits);
+    }
+}
@@ -0,0 +1,10 @@
+package yeetivity.jjve.ble_polar.utils;
+
+/**
+ * Local monotonic time, e.g. SystemClock::elapsedRealtimeNanos, or the virtual time of a
+ * simulation.
+ */
+public interface Clock {
+
+    long nanos();
+}
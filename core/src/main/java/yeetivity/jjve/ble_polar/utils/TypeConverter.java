@@ -1,8 +1,5 @@
 package yeetivity.jjve.ble_polar.utils;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 public class TypeConverter {
 
     /**
@@ -12,7 +9,7 @@ public class TypeConverter {
      * @return The (Java) int corresponding to the four bytes.
      */
     public static int fourBytesToInt(byte[] bytes, int offset) {
-        return ByteBuffer.wrap(bytes, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        return ByteReader.readInt32(bytes, offset);
     }
 
     /**
@@ -22,7 +19,7 @@ public class TypeConverter {
      * @return The (Java) float corresponding to the four bytes.
      */
     public static float fourBytesToFloat(byte[] bytes, int offset) {
-        return ByteBuffer.wrap(bytes, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        return Float.intBitsToFloat(ByteReader.readInt32(bytes, offset));
     }
 
     /**
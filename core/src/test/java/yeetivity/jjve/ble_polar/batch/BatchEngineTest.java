@@ -0,0 +1,172 @@
+package yeetivity.jjve.ble_polar.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import yeetivity.jjve.ble_polar.dsp.AccAnalyzer;
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.record.RecordingReader;
+import yeetivity.jjve.ble_polar.record.RecordingWriter;
+import yeetivity.jjve.ble_polar.record.SampleCodec;
+import yeetivity.jjve.ble_polar.sim.SyntheticSignal;
+
+import static org.junit.Assert.*;
+
+public class BatchEngineTest {
+
+    private static final int RATE = 104;
+    private static final long PERIOD = 1000000000L / RATE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    // sources walking at 2 steps/s, with a 2 s dropout in source 1 after 10 s
+    private File record(String name, int sources, int seconds, SampleCodec codec)
+            throws IOException {
+        File file = new File(mFolder.getRoot(), name);
+        RecordingWriter writer = new RecordingWriter(file, 256, codec);
+        SyntheticSignal[] signals = new SyntheticSignal[sources];
+        for (int s = 0; s < sources; s++) {
+            writer.describeSource(s, PmdFrameDecoder.MEASUREMENT_ACC, "Polar Sim " + s);
+            signals[s] = new SyntheticSignal(2, 400, s);
+        }
+        int[] values = new int[3];
+        for (int i = 0; i < seconds * RATE; i++) {
+            long timestamp = 1000000000L + i * PERIOD;
+            for (int s = 0; s < sources; s++) {
+                if (s == 1 && i >= 10 * RATE && i < 12 * RATE) continue;
+                signals[s].next(timestamp, values, 0);
+                writer.onSample(s, timestamp, values, 0, 3);
+            }
+        }
+        writer.close();
+        assertEquals(0, writer.getDroppedCount());
+        return file;
+    }
+
+    private void recordAll() throws IOException {
+        record("a.plrc", 2, 60, null);
+        record("b.plrc", 3, 30, new SampleCodec(SampleCodec.FLAG_BIT_PACKED));
+        record("c.plrc", 1, 20, new SampleCodec(SampleCodec.FLAG_BIT_PACKED | SampleCodec.FLAG_DEFLATE));
+    }
+
+    @Test
+    public void run_summarizesEachRecording() throws IOException {
+        recordAll();
+        File output = new File(mFolder.getRoot(), "summaries");
+        BatchEngine.Result result = new BatchEngine(4, 2).run(mFolder.getRoot(), output);
+
+        List<RecordingSummary> summaries = result.getSummaries();
+        assertEquals(3, summaries.size());
+        assertEquals(0, result.getFailedCount());
+        assertEquals("a.plrc", summaries.get(0).getName());
+        assertEquals(2, summaries.get(0).getSources().size());
+        assertEquals(3, summaries.get(1).getSources().size());
+        assertEquals((2 * 60 - 2 + 3 * 30 - 2 + 20) * RATE, result.getSampleCount());
+
+        SourceSummary walking = summaries.get(0).getSources().get(0);
+        assertEquals("Polar Sim 0", walking.getName());
+        assertEquals(RATE, walking.getSampleRate());
+        assertEquals(60 * RATE, walking.getSampleCount());
+        assertEquals(0, walking.getGapCount());
+        assertTrue(walking.isAnalyzed());
+        assertEquals(120, walking.getStepCount(), 4);
+        assertEquals(120, walking.getCadence(), 5);
+        assertEquals(1000, walking.getMean(2), 20);
+        assertTrue(walking.getMin(2) < walking.getMax(2));
+        // the activity is known once the first window is full
+        long activity = 0;
+        for (ActivityDetector.Activity a : ActivityDetector.Activity.values()) {
+            activity += walking.getActivityNanos(a);
+        }
+        assertEquals(walking.getDurationNanos(), activity);
+        assertTrue(walking.getActivityNanos(ActivityDetector.Activity.LIGHT) > 55e9);
+
+        SourceSummary dropout = summaries.get(0).getSources().get(1);
+        assertEquals(1, dropout.getGapCount());
+        assertEquals(2e9, dropout.getGapNanos(), PERIOD);
+        assertEquals(dropout.getGapNanos(), dropout.getLongestGapNanos());
+
+        // header and one row per source
+        List<String> lines = Files.readAllLines(new File(output, "b.plrc.summary.csv").toPath(),
+                Charset.forName("UTF-8"));
+        assertEquals(4, lines.size());
+        assertEquals(RecordingSummary.CSV_HEADER, lines.get(0));
+        String[] row = lines.get(1).split(",", -1);
+        assertEquals(RecordingSummary.CSV_HEADER.split(",").length, row.length);
+        assertEquals("\"Polar Sim 0\"", row[4]);
+        assertEquals(String.valueOf(RATE), row[7]);
+    }
+
+    @Test
+    public void run_sameSummariesOnAnyNumberOfThreads() throws IOException {
+        recordAll();
+        BatchEngine.Result one = new BatchEngine(1, 1).run(mFolder.getRoot(), null);
+        BatchEngine.Result many = new BatchEngine(4, 3).run(mFolder.getRoot(), null);
+        assertEquals(1, one.getParallelism());
+        assertEquals(one.getChunkCount(), many.getChunkCount());
+        for (int r = 0; r < 3; r++) {
+            List<SourceSummary> a = one.getSummaries().get(r).getSources();
+            List<SourceSummary> b = many.getSummaries().get(r).getSources();
+            assertEquals(a.size(), b.size());
+            for (int s = 0; s < a.size(); s++) {
+                assertEquals(a.get(s).getSampleCount(), b.get(s).getSampleCount());
+                assertEquals(a.get(s).getStepCount(), b.get(s).getStepCount());
+                assertEquals(a.get(s).getCadence(), b.get(s).getCadence(), 0);
+                assertEquals(a.get(s).getMean(0), b.get(s).getMean(0), 0);
+                assertEquals(a.get(s).getGapNanos(), b.get(s).getGapNanos());
+            }
+        }
+    }
+
+    @Test
+    public void run_matchesTheLiveAnalysis() throws IOException {
+        File file = record("a.plrc", 1, 30, new SampleCodec(SampleCodec.FLAG_BIT_PACKED));
+        final AccAnalyzer analyzer = new AccAnalyzer(3, RATE);
+        final long[] timestamp = new long[1];
+        final int[] sample = new int[3];
+        try (RecordingReader reader = new RecordingReader(file)) {
+            reader.read(Long.MIN_VALUE, Long.MAX_VALUE, (source, t, values, offset, channels) -> {
+                timestamp[0] = t;
+                System.arraycopy(values, offset, sample, 0, channels);
+                analyzer.process(timestamp, sample, 1);
+            });
+        }
+        BatchEngine.Result result = new BatchEngine(2, 2).run(mFolder.getRoot(), null);
+        SourceSummary summary = result.getSummaries().get(0).getSources().get(0);
+        assertEquals(analyzer.getStepCount(), summary.getStepCount());
+    }
+
+    @Test
+    public void damagedRecording_failsAlone() throws IOException {
+        recordAll();
+        File damaged = new File(mFolder.getRoot(), "d.plrc");
+        Files.write(damaged.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        File output = new File(mFolder.getRoot(), "summaries");
+        BatchEngine.Result result = new BatchEngine(2, 2).run(mFolder.getRoot(), output);
+
+        assertEquals(4, result.getSummaries().size());
+        assertEquals(1, result.getFailedCount());
+        RecordingSummary failed = result.getSummaries().get(3);
+        assertTrue(failed.isFailed());
+        assertEquals("not a recording", failed.getError());
+        List<String> lines = Files.readAllLines(new File(output, "d.plrc.summary.csv").toPath(),
+                Charset.forName("UTF-8"));
+        assertEquals(2, lines.size());
+        assertEquals(RecordingSummary.CSV_HEADER.split(",").length,
+                lines.get(1).split(",", -1).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noThreads_isRejected() {
+        new BatchEngine(0, 1);
+    }
+}
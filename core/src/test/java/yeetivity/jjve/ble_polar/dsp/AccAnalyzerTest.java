@@ -0,0 +1,118 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AccAnalyzerTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void chain_checksChannels() {
+        SignalChain chain = new SignalChain(3);
+        chain.add(new Magnitude(3));
+        try {
+            chain.add(Biquad.lowPass(3, 52, 5));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        chain.add(Biquad.lowPass(1, 52, 5));
+        assertEquals(1, chain.getOutputChannels());
+        assertEquals(5f, chain.process(0, new int[]{3, 4, 0}, 0)[0], 1e-6f);
+    }
+
+    @Test
+    public void slidingStats_matchesWindow() {
+        Random random = new Random(1);
+        SlidingStats stats = new SlidingStats(2, 100);
+        stats.setWindow(50);
+        float[][] history = new float[1000][2];
+        float[] out = new float[2];
+        for (int n = 0; n < history.length; n++) {
+            history[n][0] = random.nextInt(2000) - 1000 + 10000;
+            history[n][1] = (float) random.nextGaussian();
+            stats.process(n, history[n], out);
+            assertArrayEquals(history[n], out, 0);
+
+            int count = Math.min(n + 1, 50);
+            for (int c = 0; c < 2; c++) {
+                double sum = 0, sumSquares = 0;
+                for (int i = n + 1 - count; i <= n; i++) {
+                    sum += history[i][c];
+                    sumSquares += history[i][c] * history[i][c];
+                }
+                double mean = sum / count;
+                double variance = 0;
+                for (int i = n + 1 - count; i <= n; i++) {
+                    variance += (history[i][c] - mean) * (history[i][c] - mean);
+                }
+                variance /= count;
+                assertEquals(mean, stats.getMean(c), 1e-6 * Math.abs(mean) + 1e-9);
+                assertEquals(Math.sqrt(sumSquares / count), stats.getRms(c), 1e-6 * stats.getRms(c));
+                assertEquals(variance, stats.getVariance(c), 1e-4 * variance + 1e-3);
+            }
+        }
+        assertTrue(stats.isFull());
+    }
+
+    // walking at stepsPerSecond: gravity on z, a sharp impact per step, sensor noise; in mG
+    private static void walk(AccAnalyzer analyzer, int rate, double seconds, double stepsPerSecond,
+                             long start) {
+        Random random = new Random(5);
+        int n = (int) (seconds * rate);
+        long[] timestamps = new long[n];
+        int[] values = new int[n * 3];
+        for (int i = 0; i < n; i++) {
+            double t = (double) i / rate;
+            double phase = t * stepsPerSecond % 1;
+            double impact = stepsPerSecond == 0 ? 0 : 800 * Math.exp(-phase * 8) * Math.cos(phase * 6);
+            timestamps[i] = start + Math.round(t * SECOND);
+            values[3 * i] = (int) (impact / 3) + random.nextInt(11) - 5;
+            values[3 * i + 1] = random.nextInt(11) - 5;
+            values[3 * i + 2] = 1000 + (int) impact + random.nextInt(11) - 5;
+        }
+        analyzer.process(timestamps, values, n);
+    }
+
+    @Test
+    public void walking_countsSteps() {
+        for (int rate : new int[]{52, 200}) {
+            AccAnalyzer analyzer = new AccAnalyzer(3, rate);
+            walk(analyzer, rate, 30, 2, 0);
+            assertEquals("rate " + rate, 60, analyzer.getStepCount(), 2);
+            assertEquals(120, analyzer.getCadence(), 3);
+            assertEquals(ActivityDetector.Activity.ACTIVE, analyzer.getActivity());
+
+            // standing still afterwards
+            walk(analyzer, rate, 5, 0, 31 * SECOND);
+            assertEquals(60, analyzer.getStepCount(), 2);
+            assertEquals(0, analyzer.getCadence(), 0);
+            assertEquals(ActivityDetector.Activity.STILL, analyzer.getActivity());
+        }
+    }
+
+    @Test
+    public void still_hasNoSteps() {
+        AccAnalyzer analyzer = new AccAnalyzer(3, 52);
+        assertEquals(ActivityDetector.Activity.UNKNOWN, analyzer.getActivity());
+        walk(analyzer, 52, 10, 0, 0);
+        assertEquals(0, analyzer.getStepCount());
+        assertEquals(ActivityDetector.Activity.STILL, analyzer.getActivity());
+    }
+
+    @Test
+    public void stepDetector_ignoresBounces() {
+        StepDetector steps = new StepDetector(100);
+        float[] out = new float[1];
+        // two crossings 100 ms apart are one step
+        float[] signal = {-50, 150, -50, 150, -50};
+        long[] times = {0, 100, 150, 200, 300};
+        for (int i = 0; i < signal.length; i++) {
+            steps.process(times[i] * 1000000L, new float[]{signal[i]}, out);
+        }
+        assertEquals(1, steps.getStepCount());
+    }
+}
@@ -0,0 +1,114 @@
+package yeetivity.jjve.ble_polar.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FilterTest {
+
+    // output of the stage for each input value, one channel
+    private static float[] run(SignalStage stage, float[] input) {
+        float[] in = new float[1];
+        float[] out = new float[1];
+        float[] output = new float[input.length];
+        for (int i = 0; i < input.length; i++) {
+            in[0] = input[i];
+            stage.process(i, in, out);
+            output[i] = out[0];
+        }
+        return output;
+    }
+
+    private static float[] step(int n, float value) {
+        float[] x = new float[n];
+        for (int i = 1; i < n; i++) x[i] = value;
+        return x;
+    }
+
+    // amplitude of the steady state response to a sine, from its RMS
+    private static double gain(SignalStage stage, double sampleRate, double frequency) {
+        int n = (int) (sampleRate * 20);
+        float[] x = new float[n];
+        for (int i = 0; i < n; i++) x[i] = (float) Math.sin(2 * Math.PI * frequency * i / sampleRate);
+        float[] y = run(stage, x);
+        double sumSquares = 0;
+        for (int i = n / 2; i < n; i++) sumSquares += y[i] * y[i];
+        return Math.sqrt(2 * sumSquares / (n - n / 2));
+    }
+
+    /**
+     * Step responses from the difference equation in direct form I, with the Audio EQ
+     * Cookbook coefficients.
+     */
+    @Test
+    public void biquad_matchesReference() {
+        float[] lowPass = {0, 63.1442f, 263.5814f, 535.1416f, 768.4712f, 926.5483f,
+                1012.5768f, 1046.1220f, 1048.7917f, 1037.6076f};
+        assertArrayEquals(lowPass, run(Biquad.lowPass(1, 52, 5), step(10, 1000)), 0.01f);
+
+        float[] highPass = {0, 988.9542f, 966.9861f, 945.2646f, 923.7897f, 902.5611f,
+                881.5786f, 860.8420f, 840.3509f, 820.1049f};
+        assertArrayEquals(highPass, run(Biquad.highPass(1, 200, 0.5), step(10, 1000)), 0.01f);
+    }
+
+    @Test
+    public void biquad_butterworthResponse() {
+        assertEquals(Math.sqrt(0.5), gain(Biquad.lowPass(1, 200, 10), 200, 10), 0.01);
+        assertEquals(1, gain(Biquad.lowPass(1, 200, 10), 200, 1), 0.01);
+        assertEquals(0.01, gain(Biquad.lowPass(1, 200, 10), 200, 80), 0.01);
+        assertEquals(Math.sqrt(0.5), gain(Biquad.highPass(1, 52, 2), 52, 2), 0.01);
+    }
+
+    @Test
+    public void biquad_isPrimedByFirstSample() {
+        // gravity alone: nothing through a high pass, all of it through a low pass
+        float[] y = run(Biquad.highPass(1, 52, 0.5), new float[]{1000, 1000, 1000});
+        assertArrayEquals(new float[3], y, 0.001f);
+        Biquad lowPass = Biquad.lowPass(1, 52, 3);
+        assertArrayEquals(new float[]{1000, 1000}, run(lowPass, new float[]{1000, 1000}), 0.01f);
+        lowPass.reset();
+        assertEquals(-5, run(lowPass, new float[]{-5})[0], 0.001f);
+    }
+
+    @Test
+    public void biquad_channelsAreIndependent() {
+        Biquad biquad = Biquad.lowPass(2, 52, 5);
+        float[] out = new float[2];
+        biquad.process(0, new float[]{0, 0}, out);
+        biquad.process(1, new float[]{1000, 0}, out);
+        assertEquals(63.1442f, out[0], 0.01f);
+        assertEquals(0, out[1], 0);
+    }
+
+    @Test
+    public void fir_convolves() {
+        FirFilter fir = new FirFilter(1, new double[]{0.5, 0.25, 0.25});
+        assertArrayEquals(new float[]{2, 3, 2, 5, 2},
+                run(fir, new float[]{4, 4, 0, 8, 0}), 1e-6f);
+        fir.reset();
+        assertArrayEquals(new float[]{0.5f, 0.25f, 0.25f, 0},
+                run(fir, new float[]{1, 0, 0, 0}), 1e-6f);
+    }
+
+    @Test
+    public void fir_lowAndHighPass() {
+        double[] h = FirFilter.lowPassCoefficients(31, 200, 10);
+        double sum = 0;
+        for (int i = 0; i < h.length; i++) {
+            sum += h[i];
+            assertEquals(h[i], h[h.length - 1 - i], 1e-12);
+        }
+        assertEquals(1, sum, 1e-9);
+        assertEquals(1, gain(new FirFilter(1, h), 200, 1), 0.02);
+        assertTrue(gain(new FirFilter(1, h), 200, 40) < 0.01);
+
+        double[] high = FirFilter.highPassCoefficients(31, 200, 10);
+        assertTrue(gain(new FirFilter(1, high), 200, 1) < 0.02);
+        assertEquals(1, gain(new FirFilter(1, high), 200, 40), 0.02);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cutoffAboveNyquist_isRejected() {
+        Biquad.lowPass(1, 52, 26);
+    }
+}
@@ -0,0 +1,31 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the connection attempts of a ReconnectController; the test plays the link and
+ * reports connects and dropouts through the controller.
+ */
+public class FakeConnector implements ReconnectController.Connector {
+
+    public final List<String> attempts = new ArrayList<>();
+    public boolean accept = true;
+    public boolean open;
+
+    @Override
+    public boolean connect(boolean background) {
+        attempts.add(background ? "background" : "direct");
+        open = accept;
+        return accept;
+    }
+
+    @Override
+    public void disconnect() {
+        open = false;
+    }
+
+    public String last() {
+        return attempts.isEmpty() ? null : attempts.get(attempts.size() - 1);
+    }
+}
@@ -0,0 +1,52 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Records the operations issued by a GattCommandQueue; the test plays the remote device and
+ * answers through the queue callbacks.
+ */
+public class FakeGattOps implements GattOps {
+
+    public final List<String> issued = new ArrayList<>();
+    public final List<byte[]> written = new ArrayList<>();
+    public boolean accept = true;
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+        issued.add("write " + characteristic);
+        written.add(value.clone());
+        return accept;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        issued.add("read " + characteristic);
+        return accept;
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        issued.add("descriptor " + characteristic + "/" + descriptor);
+        written.add(value.clone());
+        return accept;
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        issued.add("mtu " + mtu);
+        return accept;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        issued.add("notify " + characteristic + " " + enable);
+        return accept;
+    }
+
+    public String last() {
+        return issued.isEmpty() ? null : issued.get(issued.size() - 1);
+    }
+}
@@ -0,0 +1,168 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.metrics.Metrics;
+
+import static org.junit.Assert.*;
+
+public class GattCommandQueueTest {
+
+    private static final UUID SERVICE = UUID.fromString("FB005C80-02E7-F387-1CAD-8ACD2D8DF0C8");
+    private static final UUID CONTROL = UUID.fromString("FB005C81-02E7-F387-1CAD-8ACD2D8DF0C8");
+    private static final UUID DATA = UUID.fromString("FB005C82-02E7-F387-1CAD-8ACD2D8DF0C8");
+    private static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private FakeGattOps mGatt;
+    private ManualScheduler mScheduler;
+    private GattCommandQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mGatt = new FakeGattOps();
+        mScheduler = new ManualScheduler();
+        mQueue = new GattCommandQueue(mGatt, mScheduler, 1000, 1);
+    }
+
+    @Test
+    public void operations_areSerializedAndPipelined() {
+        List<String> completed = new ArrayList<>();
+        GattOperation.Listener listener = op -> completed.add(op.getType() + " " + op.getStatus());
+
+        mQueue.writeDescriptor(SERVICE, CONTROL, CCCD, new byte[]{2, 0}).addListener(listener);
+        mQueue.write(SERVICE, CONTROL, new byte[]{1, 2}).addListener(listener);
+        GattOperation read = mQueue.read(SERVICE, DATA).addListener(listener);
+
+        // only the first one is in flight
+        assertEquals(1, mGatt.issued.size());
+        assertEquals(3, mQueue.size());
+
+        mQueue.onDescriptorWrite(CONTROL, CCCD, 0);
+        // the next one is issued from the callback
+        assertEquals(2, mGatt.issued.size());
+        assertEquals("write " + CONTROL, mGatt.last());
+
+        mQueue.onCharacteristicWrite(CONTROL, 0);
+        mQueue.onCharacteristicRead(DATA, new byte[]{42}, 0);
+
+        assertTrue(read.isSuccess());
+        assertArrayEquals(new byte[]{42}, read.getResult());
+        assertEquals(3, completed.size());
+        assertEquals("READ_CHARACTERISTIC 0", completed.get(2));
+        assertTrue(mQueue.isIdle());
+        assertEquals(0, mScheduler.pending());
+    }
+
+    @Test
+    public void callbackForOtherCharacteristic_isIgnored() {
+        GattOperation write = mQueue.write(SERVICE, CONTROL, new byte[]{1});
+        mQueue.onCharacteristicWrite(DATA, 0);
+        mQueue.onMtuChanged(232, 0);
+        assertFalse(write.isDone());
+        mQueue.onCharacteristicWrite(CONTROL, 0);
+        assertTrue(write.isSuccess());
+    }
+
+    @Test
+    public void mtu_resultIsReported() {
+        GattOperation mtu = mQueue.requestMtu(517);
+        assertEquals("mtu 517", mGatt.last());
+        mQueue.onMtuChanged(247, 0);
+        assertTrue(mtu.isSuccess());
+        assertEquals(247, mtu.getResultMtu());
+    }
+
+    @Test
+    public void failedStatus_isRetriedThenReported() {
+        GattOperation write = mQueue.write(SERVICE, CONTROL, new byte[]{1});
+        GattOperation next = mQueue.read(SERVICE, CONTROL);
+
+        mQueue.onCharacteristicWrite(CONTROL, 133);
+        assertFalse(write.isDone());
+        assertEquals(2, mGatt.issued.size());
+        assertEquals("write " + CONTROL, mGatt.last());
+
+        mQueue.onCharacteristicWrite(CONTROL, 133);
+        assertTrue(write.isDone());
+        assertEquals(133, write.getStatus());
+        assertEquals(2, write.getAttempts());
+        // and the queue moves on
+        assertEquals("read " + CONTROL, mGatt.last());
+        assertFalse(next.isDone());
+    }
+
+    @Test
+    public void missingCallback_timesOut() {
+        GattOperation write = mQueue.enqueue(
+                GattOperation.write(SERVICE, CONTROL, new byte[]{1}).setTimeout(500));
+        GattOperation next = mQueue.read(SERVICE, DATA);
+
+        mScheduler.advance(499);
+        assertFalse(write.isDone());
+        mScheduler.advance(1);
+        // retried once
+        assertEquals(2, mGatt.issued.size());
+        mScheduler.advance(500);
+
+        assertEquals(GattOperation.STATUS_TIMEOUT, write.getStatus());
+        assertEquals("read " + DATA, mGatt.last());
+
+        // a late write callback does not complete the read
+        mQueue.onCharacteristicWrite(CONTROL, 0);
+        assertFalse(next.isDone());
+        mQueue.onCharacteristicRead(DATA, new byte[0], 0);
+        assertTrue(next.isSuccess());
+    }
+
+    @Test
+    public void notIssued_failsWithoutBlockingQueue() {
+        mGatt.accept = false;
+        GattOperation write = mQueue.enqueue(
+                GattOperation.write(SERVICE, CONTROL, new byte[]{1}).setRetries(2));
+        assertEquals(GattOperation.STATUS_NOT_ISSUED, write.getStatus());
+        assertEquals(3, mGatt.issued.size());
+
+        mGatt.accept = true;
+        GattOperation read = mQueue.read(SERVICE, DATA);
+        assertEquals("read " + DATA, mGatt.last());
+        mQueue.onCharacteristicRead(DATA, new byte[0], 0);
+        assertTrue(read.isSuccess());
+    }
+
+    @Test
+    public void clear_cancelsEverything() {
+        GattOperation first = mQueue.write(SERVICE, CONTROL, new byte[]{1});
+        GattOperation second = mQueue.read(SERVICE, DATA);
+        mQueue.clear();
+
+        assertEquals(GattOperation.STATUS_CANCELLED, first.getStatus());
+        assertEquals(GattOperation.STATUS_CANCELLED, second.getStatus());
+        assertTrue(mQueue.isIdle());
+        assertEquals(0, mScheduler.pending());
+    }
+
+    @Test
+    public void depthGauge_followsTheQueue() {
+        // shared by all queues, so relative to the start
+        long base = Metrics.GATT_QUEUE_DEPTH.get();
+        GattOperation write = mQueue.enqueue(
+                GattOperation.write(SERVICE, CONTROL, new byte[]{1}).setTimeout(500));
+        mQueue.read(SERVICE, DATA);
+        GattCommandQueue other = new GattCommandQueue(mGatt, mScheduler, 1000, 1);
+        other.read(SERVICE, DATA);
+        assertEquals(base + 3, Metrics.GATT_QUEUE_DEPTH.get());
+
+        mScheduler.advance(1000);
+        assertEquals(GattOperation.STATUS_TIMEOUT, write.getStatus());
+        assertEquals(base + 2, Metrics.GATT_QUEUE_DEPTH.get());
+        mQueue.clear();
+        assertEquals(base + 1, Metrics.GATT_QUEUE_DEPTH.get());
+        other.clear();
+        assertEquals(base, Metrics.GATT_QUEUE_DEPTH.get());
+    }
+}
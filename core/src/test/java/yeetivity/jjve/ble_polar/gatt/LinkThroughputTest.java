@@ -0,0 +1,107 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinkThroughputTest {
+
+    private static final int ACC_CHANNELS = 3;
+    private static final int ACC_BYTES = 2;
+
+    @Test
+    public void defaultMtu() {
+        // 7.5 ms interval, 1M PHY, no data length extension
+        LinkThroughput link = new LinkThroughput(23, 7500, LinkParameters.PHY_1M, 27, 6);
+        assertEquals(20, link.getNotificationPayload());
+        assertEquals(1, link.getPacketsPerNotification());
+        // a round is 296 + 150 + 80 + 150 us, 11 fit but the phone allows 6
+        assertEquals(6, link.getPacketsPerEvent());
+        assertEquals(6, link.getFramesPerInterval());
+        assertEquals(800.0, link.getFramesPerSecond(), 1e-9);
+        assertEquals(16000.0, link.getBytesPerSecond(), 1e-9);
+        // 10 bytes after the header: one 6 byte sample per frame
+        assertEquals(1, link.samplesPerFrame(ACC_CHANNELS, ACC_BYTES));
+        assertEquals(800.0, link.samplesPerSecond(ACC_CHANNELS, ACC_BYTES), 1e-9);
+    }
+
+    @Test
+    public void largeMtu2M() {
+        LinkThroughput link = new LinkThroughput(247, 15000, LinkParameters.PHY_2M, 251, 6);
+        assertEquals(244, link.getNotificationPayload());
+        assertEquals(1, link.getPacketsPerNotification());
+        assertEquals(6, link.getFramesPerInterval());
+        assertEquals(400.0, link.getFramesPerSecond(), 1e-9);
+        assertEquals(39, link.samplesPerFrame(ACC_CHANNELS, ACC_BYTES));
+        assertEquals(15600.0, link.samplesPerSecond(ACC_CHANNELS, ACC_BYTES), 1e-9);
+    }
+
+    @Test
+    public void notificationSpansPackets() {
+        // 517 + 4 bytes in 251 byte packets
+        LinkThroughput link = new LinkThroughput(517, 50000, LinkParameters.PHY_1M, 251, 6);
+        assertEquals(3, link.getPacketsPerNotification());
+        assertEquals(2, link.getFramesPerInterval());
+        assertEquals(40.0, link.getFramesPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void eventLengthLimitsPackets() {
+        // a 1M round with 251 bytes takes 2408 us, 3 fit in 7.5 ms
+        LinkThroughput link = new LinkThroughput(247, 7500, LinkParameters.PHY_1M, 251, 6);
+        assertEquals(3, link.getPacketsPerEvent());
+        // the 2M PHY halves the air time
+        LinkThroughput link2M = new LinkThroughput(247, 7500, LinkParameters.PHY_2M, 251, 6);
+        assertEquals(5, link2M.getPacketsPerEvent());
+    }
+
+    @Test
+    public void compressedFrames() {
+        LinkThroughput link = new LinkThroughput(247, 15000, LinkParameters.PHY_2M, 251, 6);
+        // 244 - 10 header - 6 reference - 2 block header = 226 bytes of 3 x 8 bit deltas
+        assertEquals(1 + 75, link.samplesPerCompressedFrame(ACC_CHANNELS, 16, 8));
+        assertEquals(400.0 * 76, link.compressedSamplesPerSecond(ACC_CHANNELS, 16, 8), 1e-9);
+        // too small for a reference sample
+        LinkThroughput small = new LinkThroughput(23, 7500, LinkParameters.PHY_1M, 27, 6);
+        assertEquals(0, small.samplesPerCompressedFrame(16, 16, 8));
+    }
+
+    @Test
+    public void chooseSampleRate() {
+        int[] rates = new int[]{26, 52, 104, 208, 416};
+        // 50 intervals/s x 6 frames x 1 sample = 300 samples/s, 150 with headroom
+        LinkThroughput slow = new LinkThroughput(23, 20000, LinkParameters.PHY_1M, 27, 6);
+        assertTrue(slow.fits(104, ACC_CHANNELS, ACC_BYTES, 0.5));
+        assertFalse(slow.fits(208, ACC_CHANNELS, ACC_BYTES, 0.5));
+        assertEquals(104, slow.chooseSampleRate(rates, 416, ACC_CHANNELS, ACC_BYTES, 0.5));
+        // never above the desired rate
+        assertEquals(52, slow.chooseSampleRate(rates, 52, ACC_CHANNELS, ACC_BYTES, 0.5));
+        // nothing fits: the lowest rate
+        LinkThroughput lowPower = new LinkThroughput(23, 125000, LinkParameters.PHY_1M, 27, 1);
+        assertEquals(26, lowPower.chooseSampleRate(rates, 416, ACC_CHANNELS, ACC_BYTES, 0.5));
+    }
+
+    @Test
+    public void fromLinkParameters() {
+        LinkParameters params = new LinkParameters();
+        assertEquals(27, params.getDataLength());
+        assertEquals(50000, params.getIntervalMicros());
+        params.setMtu(232);
+        params.setPriority(LinkParameters.PRIORITY_HIGH);
+        params.setTxPhy(LinkParameters.PHY_2M);
+        assertEquals(236, params.getDataLength());
+        LinkThroughput link = LinkThroughput.of(params);
+        assertEquals(229, link.getNotificationPayload());
+        assertEquals(400.0, link.getFramesPerSecond(), 1e-9);
+
+        params.reset();
+        assertEquals(LinkParameters.DEFAULT_MTU, params.getMtu());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallMtu() {
+        new LinkThroughput(20, 7500, LinkParameters.PHY_1M, 27, 6);
+    }
+}
@@ -0,0 +1,59 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GattScheduler with a clock that only moves when the test advances it.
+ */
+public class ManualScheduler implements GattScheduler {
+
+    private static class Task {
+        final Runnable runnable;
+        final long due;
+
+        Task(Runnable runnable, long due) {
+            this.runnable = runnable;
+            this.due = due;
+        }
+    }
+
+    private final List<Task> mTasks = new ArrayList<>();
+    private long mNow;
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        mTasks.add(new Task(task, mNow + delayMillis));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        for (int i = mTasks.size() - 1; i >= 0; i--) {
+            if (mTasks.get(i).runnable == task) mTasks.remove(i);
+        }
+    }
+
+    /** Run everything due within the given time, in order. */
+    public void advance(long millis) {
+        long end = mNow + millis;
+        while (true) {
+            Task next = null;
+            for (Task task : mTasks) {
+                if (task.due <= end && (next == null || task.due < next.due)) next = task;
+            }
+            if (next == null) break;
+            mTasks.remove(next);
+            mNow = next.due;
+            next.runnable.run();
+        }
+        mNow = end;
+    }
+
+    public long now() {
+        return mNow;
+    }
+
+    public int pending() {
+        return mTasks.size();
+    }
+}
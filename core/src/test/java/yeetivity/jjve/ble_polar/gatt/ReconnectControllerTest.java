@@ -0,0 +1,109 @@
+package yeetivity.jjve.ble_polar.gatt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReconnectControllerTest {
+
+    private FakeConnector mLink;
+    private ManualScheduler mScheduler;
+    private ReconnectController mController;
+
+    @Before
+    public void setUp() {
+        mLink = new FakeConnector();
+        mScheduler = new ManualScheduler();
+        mController = new ReconnectController(mLink, mScheduler, 500, 4000, 4);
+    }
+
+    @Test
+    public void backoff_isExponentialAndBounded() {
+        assertEquals(500, mController.getDelayMillis(0));
+        assertEquals(1000, mController.getDelayMillis(1));
+        assertEquals(4000, mController.getDelayMillis(3));
+        assertEquals(4000, mController.getDelayMillis(40));
+    }
+
+    @Test
+    public void dropout_isReconnectedWithMetrics() {
+        mController.start();
+        assertEquals("direct", mLink.last());
+        mController.onConnected(mScheduler.now());
+        mController.onData(100);
+        mController.onData(900);
+        assertEquals(0, mController.getReconnectCount());
+
+        mScheduler.advance(1000);
+        mController.onDisconnected(mScheduler.now());
+        assertEquals(ReconnectController.State.WAITING, mController.getState());
+        mScheduler.advance(499);
+        assertEquals(1, mLink.attempts.size());
+        mScheduler.advance(1);
+        assertEquals(ReconnectController.State.CONNECTING, mController.getState());
+        assertEquals(2, mLink.attempts.size());
+
+        mScheduler.advance(300);
+        mController.onConnected(mScheduler.now());
+        assertEquals(1, mController.getReconnectCount());
+        assertEquals(800, mController.getLastReconnectLatencyMillis());
+        // the data resumes once the stream is set up again
+        mController.onData(2100);
+        assertEquals(1200, mController.getLastDataGapMillis());
+        mController.onData(2200);
+        assertEquals(1200, mController.getTotalDataGapMillis());
+    }
+
+    @Test
+    public void failures_backOffThenConnectInBackground() {
+        mController.start();
+        mController.onConnected(0);
+        mController.onDisconnected(0);
+
+        // attempts fail: at once, by timing out, at once again
+        mScheduler.advance(500);
+        mController.onDisconnected(mScheduler.now());
+        assertEquals(1, mController.getAttempts());
+        mScheduler.advance(999);
+        assertEquals(2, mLink.attempts.size());
+        mScheduler.advance(1);
+        assertEquals(3, mLink.attempts.size());
+        mScheduler.advance(ReconnectController.CONNECT_TIMEOUT_MILLIS);
+        assertEquals(2, mController.getAttempts());
+        // the timed out attempt is abandoned
+        assertFalse(mLink.open);
+        mLink.accept = false;
+        mScheduler.advance(2000);
+        assertEquals(3, mController.getAttempts());
+        mScheduler.advance(4000);
+        assertEquals(ReconnectController.State.WAITING, mController.getState());
+        assertEquals(4, mController.getAttempts());
+        mLink.accept = true;
+
+        // the fourth failure: leave it to the system
+        mScheduler.advance(4000);
+        assertEquals("background", mLink.last());
+        assertEquals(ReconnectController.State.BACKGROUND, mController.getState());
+        assertEquals(0, mScheduler.pending());
+        // the sensor comes back in range much later
+        mController.onConnected(600000);
+        assertEquals(ReconnectController.State.CONNECTED, mController.getState());
+        assertEquals(0, mController.getAttempts());
+        assertEquals(600000, mController.getLastReconnectLatencyMillis());
+    }
+
+    @Test
+    public void stop_endsReconnecting() {
+        mController.start();
+        mController.onConnected(0);
+        mController.onDisconnected(0);
+        mController.stop();
+        assertEquals(0, mScheduler.pending());
+        mScheduler.advance(60000);
+        assertEquals(1, mLink.attempts.size());
+        assertFalse(mLink.open);
+        mController.onConnected(1);
+        assertEquals(ReconnectController.State.STOPPED, mController.getState());
+    }
+}
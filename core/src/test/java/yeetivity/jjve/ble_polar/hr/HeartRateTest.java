@@ -0,0 +1,157 @@
+package yeetivity.jjve.ble_polar.hr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HeartRateTest {
+
+    // notifications as sent by a Polar H10: contact supported and detected, RR intervals
+    private static final byte[][] RECORDED = {
+            {0x16, 0x3F, 0x05, 0x04},
+            {0x16, 0x3F, (byte) 0xF1, 0x03, 0x10, 0x04},
+            {0x16, 0x40},
+            {0x16, 0x40, (byte) 0xE6, 0x03},
+            {0x04, 0x00},
+    };
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    @Test
+    public void parse_recordedSequence() {
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        HrvEngine hrv = new HrvEngine(60000);
+        int[] rates = new int[RECORDED.length];
+        for (int i = 0; i < RECORDED.length; i++) {
+            measurement.parse(RECORDED[i]);
+            rates[i] = measurement.getHeartRate();
+            if (measurement.hasContact()) hrv.add(measurement);
+        }
+        assertArrayEquals(new int[]{63, 63, 64, 64, 0}, rates);
+        // the last one has lost contact
+        assertFalse(measurement.hasContact());
+        assertTrue(measurement.isContactSupported());
+        assertEquals(0, measurement.getRrCount());
+
+        // 1029, 1009, 1040, 998 / 1024 s
+        assertEquals(4, hrv.getCount());
+        assertEquals(1005 + 985 + 1016 + 975, hrv.getDurationMillis());
+        measurement.parse(RECORDED[1]);
+        assertEquals(2, measurement.getRrCount());
+        assertEquals(1009, measurement.getRr(0));
+        assertEquals(985, measurement.getRrMillis(0));
+        assertEquals(1016, measurement.getRrMillis(1));
+        assertEquals("63 bpm, RR 985 1016", measurement.toString());
+    }
+
+    @Test
+    public void parse_flags() {
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        // 16 bit heart rate, energy expended, no contact detection
+        measurement.parse(bytes(0x19, 0x2C, 0x01, 0x10, 0x00, 0x00, 0x04));
+        assertEquals(300, measurement.getHeartRate());
+        assertEquals(16, measurement.getEnergyExpended());
+        assertTrue(measurement.hasContact());
+        assertFalse(measurement.isContactSupported());
+        assertEquals(1, measurement.getRrCount());
+        assertEquals(1000, measurement.getRrMillis(0));
+
+        measurement.parse(bytes(0x00, 0x48));
+        assertEquals(72, measurement.getHeartRate());
+        assertEquals(HeartRateMeasurement.ENERGY_UNKNOWN, measurement.getEnergyExpended());
+        assertEquals(0, measurement.getRrCount());
+    }
+
+    @Test
+    public void parse_rejectsTruncated() {
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        byte[][] malformed = {{}, {0x00}, {0x01, 0x48}, {0x08, 0x48, 0x10}, {0x10, 0x48, 0x00}};
+        for (byte[] value : malformed) {
+            try {
+                measurement.parse(value);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void hrv_matchesRecomputedWindow() {
+        Random random = new Random(11);
+        HrvEngine hrv = new HrvEngine(30000);
+        List<Integer> accepted = new ArrayList<>();
+        // -1 marks an artifact between accepted intervals
+        int rr = 800;
+        for (int n = 0; n < 2000; n++) {
+            rr = Math.max(500, Math.min(1200, rr + random.nextInt(81) - 40));
+            int value = n % 97 == 50 ? rr * 2 : rr;
+            if (hrv.add(value)) {
+                accepted.add(value);
+            } else {
+                accepted.add(-1);
+            }
+
+            // the window: the newest accepted intervals summing up to at most 30 s
+            long duration = 0;
+            int start = accepted.size();
+            while (start > 0) {
+                int previous = accepted.get(start - 1);
+                if (previous < 0) {
+                    start--;
+                    continue;
+                }
+                if (duration + previous > 30000) break;
+                duration += previous;
+                start--;
+            }
+            long sum = 0, sumSquares = 0, diffSquares = 0;
+            int count = 0, diffs = 0, nn50 = 0;
+            for (int i = start; i < accepted.size(); i++) {
+                int x = accepted.get(i);
+                if (x < 0) continue;
+                sum += x;
+                sumSquares += (long) x * x;
+                count++;
+                if (i > start && accepted.get(i - 1) >= 0) {
+                    int diff = x - accepted.get(i - 1);
+                    diffSquares += (long) diff * diff;
+                    diffs++;
+                    if (Math.abs(diff) > 50) nn50++;
+                }
+            }
+            assertEquals(count, hrv.getCount());
+            assertEquals(duration, hrv.getDurationMillis());
+            assertEquals(diffs == 0 ? 0 : Math.sqrt((double) diffSquares / diffs), hrv.getRmssd(), 1e-9);
+            double mean = (double) sum / count;
+            double sdnn = count < 2 ? 0 : Math.sqrt((sumSquares - count * mean * mean) / (count - 1));
+            assertEquals(sdnn, hrv.getSdnn(), 1e-6);
+            assertEquals(diffs == 0 ? 0 : 100.0 * nn50 / diffs, hrv.getPnn50(), 1e-9);
+        }
+        assertEquals(2000 / 97 + 1, hrv.getArtifactCount());
+    }
+
+    @Test
+    public void hrv_followsRealChange() {
+        HrvEngine hrv = new HrvEngine(60000);
+        for (int i = 0; i < 10; i++) assertTrue(hrv.add(1000));
+        // a jump from 60 to 100 bpm: a few artifacts, then the new rate
+        for (int i = 0; i < 3; i++) assertFalse(hrv.add(600));
+        assertTrue(hrv.add(600));
+        assertTrue(hrv.add(610));
+        assertEquals(3, hrv.getArtifactCount());
+        assertEquals(12, hrv.getCount());
+        // no difference is taken across the artifacts: 9 of 0 ms, one of 10 ms
+        assertEquals(Math.sqrt(10), hrv.getRmssd(), 1e-9);
+        assertEquals(0, hrv.getPnn50(), 0);
+        assertFalse(hrv.add(100));
+        assertFalse(hrv.add(2500));
+    }
+}
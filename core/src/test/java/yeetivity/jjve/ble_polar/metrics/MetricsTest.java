@@ -0,0 +1,101 @@
+package yeetivity.jjve.ble_polar.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void histogram_bucketsCoverValuesWithBoundedError() {
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            long low = Histogram.lowestValue(i);
+            long high = Histogram.highestValue(i);
+            assertEquals(i, Histogram.index(low));
+            assertEquals(i, Histogram.index(high));
+            if (i > 0) assertEquals(Histogram.highestValue(i - 1) + 1, low);
+            // a bucket is at most 1/16 of its values wide
+            assertTrue(high - low <= Math.max(0, low / 16));
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.index(Histogram.MAX_VALUE));
+    }
+
+    @Test
+    public void histogram_percentiles() {
+        Histogram histogram = new MetricsRegistry().histogram("latency");
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int v = 1; v <= 1000; v++) histogram.record(v * 1000L);
+        histogram.record(-5);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / 16.0);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 16.0);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(500500000.0 / 1001, histogram.getMean(), 1);
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Histogram.MAX_VALUE, histogram.getMax());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void metrics_updatedFromThreads() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        final Counter counter = registry.counter("count");
+        final Histogram histogram = registry.histogram("latency");
+        final Gauge gauge = registry.gauge("depth");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 10000; i++) {
+                    counter.increment();
+                    histogram.record(random.nextInt(1000000));
+                    gauge.set(seed * 10000 + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(40000, counter.get());
+        assertEquals(40000, histogram.getCount());
+        assertEquals(39999, gauge.getMax());
+        assertSame(counter, registry.counter("count"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registry_namesOneKindOfMetric() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("x");
+        registry.histogram("x");
+    }
+
+    @Test
+    public void reporter_ratesSincePreviousReport() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter bytes = registry.counter("ble.bytes");
+        registry.gauge("gatt.queue_depth").set(3);
+        registry.histogram("pmd.decode").record(2500);
+        MetricsReporter overlay = new MetricsReporter(registry);
+        MetricsReporter file = new MetricsReporter(registry);
+
+        bytes.add(1000);
+        String text = overlay.report(0);
+        assertTrue(text, text.startsWith("ble.bytes 1000\n"));
+        assertTrue(text, text.contains("gatt.queue_depth 3, max 3\n"));
+        assertTrue(text, text.contains("pmd.decode n=1 mean 2.5 p50 2.5 p99 2.5 max 2.5 us\n"));
+
+        file.report(0);
+        bytes.add(500);
+        assertTrue(overlay.report(2000000000L).startsWith("ble.bytes 1500, 250.0/s\n"));
+        // the other reporter keeps its own rates
+        assertTrue(file.report(1000000000L).startsWith("ble.bytes 1500, 500.0/s\n"));
+        assertEquals("-0.5", MetricsReporter.format(-0.5));
+    }
+}
@@ -0,0 +1,175 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PmdControlPointTest {
+
+    private final PmdControlPoint mControlPoint = new PmdControlPoint();
+
+    // builds the get settings response the sensor would send for the settings
+    private static byte[] settingsResponse(int measurementType, PmdSettings settings) {
+        int length = 5;
+        for (int type = 0; type < PmdSettings.TYPES; type++) {
+            if (settings.has(type)) length += 2 + settings.count(type) * PmdSettings.width(type);
+        }
+        byte[] response = new byte[length];
+        response[0] = (byte) PmdControlPoint.RESPONSE;
+        response[1] = PmdControlPoint.OP_GET_SETTINGS;
+        response[2] = (byte) measurementType;
+        int position = 5;
+        for (int type = 0; type < PmdSettings.TYPES; type++) {
+            if (!settings.has(type)) continue;
+            response[position++] = (byte) type;
+            response[position++] = (byte) settings.count(type);
+            for (int i = 0; i < settings.count(type); i++) {
+                for (int b = 0; b < PmdSettings.width(type); b++) {
+                    response[position++] = (byte) (settings.get(type, i) >>> (8 * b));
+                }
+            }
+        }
+        return response;
+    }
+
+    @Test
+    public void start_accMatchesPolarRequest() {
+        byte[] command = mControlPoint.start(PmdFrameDecoder.MEASUREMENT_ACC,
+                PolarPmd.accSettings(52));
+        assertArrayEquals(new byte[]{0x02, 0x02, 0x00, 0x01, 0x34, 0x00, 0x01, 0x01, 0x10, 0x00,
+                0x02, 0x01, 0x08, 0x00, 0x04, 0x01, 0x03}, command);
+    }
+
+    @Test
+    public void start_allMeasurementTypes() {
+        PmdSettings ecg = new PmdSettings().set(PmdSettings.SAMPLE_RATE, 130)
+                .set(PmdSettings.RESOLUTION, 14);
+        assertArrayEquals(new byte[]{0x02, 0x00, 0x00, 0x01, (byte) 0x82, 0x00,
+                        0x01, 0x01, 0x0E, 0x00},
+                mControlPoint.start(PmdFrameDecoder.MEASUREMENT_ECG, ecg));
+        // PPI takes no settings
+        assertArrayEquals(new byte[]{0x02, 0x03},
+                mControlPoint.start(PmdFrameDecoder.MEASUREMENT_PPI, new PmdSettings()));
+
+        PmdSettings gyro = new PmdSettings().set(PmdSettings.SAMPLE_RATE, 52)
+                .set(PmdSettings.RANGE_MILLIUNIT, 2000000).set(PmdSettings.CHANNELS, 3);
+        assertArrayEquals(new byte[]{0x02, 0x05, 0x00, 0x01, 0x34, 0x00,
+                        0x03, 0x01, (byte) 0x80, (byte) 0x84, 0x1E, 0x00, 0x04, 0x01, 0x03},
+                mControlPoint.start(PmdFrameDecoder.MEASUREMENT_GYRO, gyro));
+
+        assertEquals(0x01, mControlPoint.getSettings(PmdFrameDecoder.MEASUREMENT_MAG)[0]);
+        assertArrayEquals(new byte[]{0x03, 0x06},
+                mControlPoint.stop(PmdFrameDecoder.MEASUREMENT_MAG));
+        assertArrayEquals(new byte[]{0x01, 0x01},
+                mControlPoint.getSettings(PmdFrameDecoder.MEASUREMENT_PPG));
+    }
+
+    @Test
+    public void start_reusesBuffer() {
+        byte[] first = mControlPoint.start(PmdFrameDecoder.MEASUREMENT_ACC,
+                PolarPmd.accSettings(52));
+        byte[] second = mControlPoint.start(PmdFrameDecoder.MEASUREMENT_ACC,
+                PolarPmd.accSettings(208));
+        assertSame(first, second);
+        assertEquals((byte) 0xD0, second[4]);
+        // another measurement type has its own buffer
+        assertNotSame(first, mControlPoint.start(PmdFrameDecoder.MEASUREMENT_GYRO,
+                PolarPmd.accSettings(52)));
+        assertSame(mControlPoint.stop(2), new PmdControlPoint().stop(2));
+    }
+
+    @Test
+    public void settingsResponse_roundTrip() {
+        PmdSettings supported = new PmdSettings()
+                .add(PmdSettings.SAMPLE_RATE, 26).add(PmdSettings.SAMPLE_RATE, 52)
+                .add(PmdSettings.SAMPLE_RATE, 104).add(PmdSettings.SAMPLE_RATE, 208)
+                .add(PmdSettings.RESOLUTION, 16)
+                .add(PmdSettings.RANGE, 2).add(PmdSettings.RANGE, 4).add(PmdSettings.RANGE, 8)
+                .add(PmdSettings.RANGE_MILLIUNIT, 250000)
+                .add(PmdSettings.CHANNELS, 3)
+                .add(PmdSettings.FACTOR, Float.floatToIntBits(0.5f));
+
+        PmdResponse response = new PmdResponse()
+                .parse(settingsResponse(PmdFrameDecoder.MEASUREMENT_ACC, supported));
+        assertEquals(PmdControlPoint.OP_GET_SETTINGS, response.getOpCode());
+        assertEquals(PmdFrameDecoder.MEASUREMENT_ACC, response.getMeasurementType());
+        assertEquals(PmdError.SUCCESS, response.getError());
+        assertTrue(response.isSuccess());
+        assertFalse(response.hasMore());
+        PmdSettings parsed = response.getSettings();
+        assertEquals(supported.toString(), parsed.toString());
+        assertEquals(250000, parsed.get(PmdSettings.RANGE_MILLIUNIT));
+        assertEquals(0.5f, parsed.getFactor(), 0f);
+
+        // the desired settings limited to the supported ones
+        PmdSettings desired = PolarPmd.accSettings(416).set(PmdSettings.RANGE, 16);
+        PmdSettings start = new PmdSettings().select(desired, parsed);
+        assertEquals(208, start.get(PmdSettings.SAMPLE_RATE));
+        assertEquals(8, start.get(PmdSettings.RANGE));
+        assertEquals(16, start.get(PmdSettings.RESOLUTION));
+        assertEquals(1, start.count(PmdSettings.SAMPLE_RATE));
+        assertFalse(start.has(PmdSettings.FACTOR));
+        // below all supported values: the lowest
+        assertEquals(26, new PmdSettings().select(PolarPmd.accSettings(1), parsed)
+                .get(PmdSettings.SAMPLE_RATE));
+    }
+
+    @Test
+    public void response_errors() {
+        PmdResponse response = new PmdResponse();
+        response.parse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x06, 0x00});
+        assertEquals(PmdError.ALREADY_IN_STATE, response.getError());
+        assertTrue(response.isSuccess());
+
+        response.parse(new byte[]{(byte) 0xF0, 0x02, 0x01, 0x0D});
+        assertEquals(PmdError.DEVICE_IN_CHARGER, response.getError());
+        assertFalse(response.isSuccess());
+        assertEquals(0, response.getSettings().size());
+
+        response.parse(new byte[]{(byte) 0xF0, 0x03, 0x02, 0x42, 0x00});
+        assertEquals(PmdError.UNKNOWN, response.getError());
+        assertEquals(0x42, response.getErrorCode());
+        assertEquals(PmdError.INVALID_MTU, PmdError.fromCode(10));
+    }
+
+    @Test
+    public void response_rejectsMalformed() {
+        PmdResponse response = new PmdResponse();
+        byte[][] malformed = new byte[][]{
+                null,
+                {0x01, 0x02},
+                {0x0F, 0x01, 0x02, 0x00},
+                // count 2 but one value
+                {(byte) 0xF0, 0x01, 0x02, 0x00, 0x00, 0x00, 0x02, 0x34, 0x00},
+                // setting type header cut
+                {(byte) 0xF0, 0x01, 0x02, 0x00, 0x00, 0x00},
+                // unknown setting type
+                {(byte) 0xF0, 0x01, 0x02, 0x00, 0x00, 0x09, 0x01, 0x00},
+        };
+        for (byte[] value : malformed) {
+            try {
+                response.parse(value);
+                fail("parsed " + Arrays.toString(value));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void features() {
+        // ECG, ACC, PPI, gyro
+        int features = PmdControlPoint.parseFeatures(new byte[]{0x0F, 0x2D, 0x00});
+        assertTrue(PmdControlPoint.isSupported(features, PmdFrameDecoder.MEASUREMENT_ECG));
+        assertFalse(PmdControlPoint.isSupported(features, PmdFrameDecoder.MEASUREMENT_PPG));
+        assertTrue(PmdControlPoint.isSupported(features, PmdFrameDecoder.MEASUREMENT_ACC));
+        assertTrue(PmdControlPoint.isSupported(features, PmdFrameDecoder.MEASUREMENT_GYRO));
+        assertFalse(PmdControlPoint.isSupported(features, PmdFrameDecoder.MEASUREMENT_MAG));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void start_rejectsUnknownMeasurementType() {
+        mControlPoint.start(7, new PmdSettings());
+    }
+}
@@ -0,0 +1,99 @@
+package yeetivity.jjve.ble_polar.pmd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays ACC frames, in the layout sent by the sensor on the PolarPmd.DATA characteristic,
+ * through the PMD frame decoder.
+ */
+public class PmdFrameDecoderTest {
+
+    private static final String TIMESTAMP = "1F9E7D5C3B0A0000";
+    private static final long TIMESTAMP_NS = 0x00000A3B5C7D9E1FL;
+
+    // delta compressed, reference (-24, 1000, -960), one block of 4 bit deltas
+    // and one of 3 bit deltas
+    private static final String DELTA_FRAME = "02" + TIMESTAMP + "80"
+            + "E8FF" + "E803" + "40FC"
+            + "0402" + "F1D270"
+            + "0301" + "E301";
+
+    static byte[] hex(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void deltaFrame_isDecoded() {
+        PmdFrameDecoder decoder = new PmdFrameDecoder();
+        short[] x = new short[16], y = new short[16], z = new short[16];
+
+        int count = decoder.decode(hex(DELTA_FRAME), x, y, z);
+
+        assertEquals(4, count);
+        assertEquals(PmdFrameDecoder.MEASUREMENT_ACC, decoder.getMeasurementType());
+        assertEquals(TIMESTAMP_NS, decoder.getTimestamp());
+        assertTrue(decoder.isCompressed());
+        assertEquals(0, decoder.getFrameType());
+        assertArrayEquals(new short[]{-24, -23, -26, -23}, Arrays.copyOf(x, count));
+        assertArrayEquals(new short[]{1000, 999, 999, 995}, Arrays.copyOf(y, count));
+        assertArrayEquals(new short[]{-960, -958, -951, -952}, Arrays.copyOf(z, count));
+    }
+
+    @Test
+    public void rawFrames_areDecoded() {
+        PmdFrameDecoder decoder = new PmdFrameDecoder();
+        int[] samples = new int[16];
+
+        // frame type 0, one byte per axis
+        assertEquals(1, decoder.decode(hex("02" + TIMESTAMP + "00" + "7F8000"), samples));
+        assertFalse(decoder.isCompressed());
+        assertArrayEquals(new int[]{127, -128, 0}, Arrays.copyOf(samples, 3));
+
+        // frame type 1, two bytes per axis
+        assertEquals(2, decoder.decode(hex("02" + TIMESTAMP + "01"
+                + "640038FFE803" + "FFFF0000FF7F"), samples));
+        assertEquals(1, decoder.getFrameType());
+        assertArrayEquals(new int[]{100, -200, 1000, -1, 0, 32767},
+                Arrays.copyOf(samples, 6));
+
+        // frame type 2, three bytes per axis
+        assertEquals(1, decoder.decode(hex("02" + TIMESTAMP + "02" + "FFFFFF000080010000"),
+                samples));
+        assertArrayEquals(new int[]{-1, -8388608, 1}, Arrays.copyOf(samples, 3));
+    }
+
+    @Test
+    public void replayedFrames_reuseBuffers() {
+        PmdFrameDecoder decoder = new PmdFrameDecoder();
+        short[] x = new short[4], y = new short[4], z = new short[4];
+        byte[] delta = hex(DELTA_FRAME);
+        byte[] raw = hex("02" + TIMESTAMP + "01" + "010002000300");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(4, decoder.decode(delta, x, y, z));
+            assertEquals(-23, x[3]);
+            assertEquals(1, decoder.decode(raw, x, y, z));
+            assertEquals(1, x[0]);
+            assertEquals(3, z[0]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedDeltaBlock_throws() {
+        byte[] frame = hex(DELTA_FRAME);
+        new PmdFrameDecoder().decode(Arrays.copyOf(frame, frame.length - 1), new int[64]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallBuffer_throws() {
+        new PmdFrameDecoder().decode(hex(DELTA_FRAME), new short[2], new short[2], new short[2]);
+    }
+}
@@ -0,0 +1,230 @@
+package yeetivity.jjve.ble_polar.record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordingTest {
+
+    private static final long PERIOD = 1000000000L / 52;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    // source, timestamp, values
+    private static List<long[]> readAll(RecordingReader reader, long from, long to) throws IOException {
+        final List<long[]> samples = new ArrayList<>();
+        reader.read(from, to, (source, timestamp, values, offset, channels) -> {
+            long[] sample = new long[2 + channels];
+            sample[0] = source;
+            sample[1] = timestamp;
+            for (int c = 0; c < channels; c++) sample[2 + c] = values[offset + c];
+            samples.add(sample);
+        });
+        return samples;
+    }
+
+    // two sources, 3 and 1 channels, n samples each
+    private static void record(RecordingWriter writer, int n) {
+        int[] acc = new int[3];
+        int[] ecg = new int[1];
+        for (int i = 0; i < n; i++) {
+            acc[0] = i;
+            acc[1] = -i;
+            acc[2] = i * 3;
+            writer.onSample(0, 1000 + i * PERIOD, acc, 0, 3);
+            ecg[0] = 1000 - i;
+            writer.onSample(1, 1000 + i * PERIOD / 2, ecg, 0, 1);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = mFolder.newFile();
+        RecordingWriter writer = new RecordingWriter(file, 64);
+        writer.describeSource(0, 2, "Polar Sense A0:B1");
+        writer.describeSource(1, 0, "Polar H10 C2:D3");
+        record(writer, 1000);
+        writer.close();
+        assertEquals(2000, writer.getWrittenCount());
+        assertEquals(0, writer.getDroppedCount());
+        assertEquals(file.length(), writer.getBytesWritten());
+
+        RecordingReader reader = new RecordingReader(file);
+        assertFalse(reader.isRecovered());
+        assertEquals("Polar Sense A0:B1", reader.getSourceName(0));
+        assertEquals(0, reader.getSourceMeasurementType(1));
+        // 2 source chunks, 16 chunks per source
+        assertEquals(2 + 2 * 16, reader.getChunks().size());
+
+        List<long[]> samples = readAll(reader, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2000, samples.size());
+        int acc = 0, ecg = 0;
+        for (long[] sample : samples) {
+            if (sample[0] == 0) {
+                assertEquals(1000 + acc * PERIOD, sample[1]);
+                assertEquals(acc, sample[2]);
+                assertEquals(-acc, sample[3]);
+                assertEquals(acc * 3, sample[4]);
+                acc++;
+            } else {
+                assertEquals(1000 + ecg * PERIOD / 2, sample[1]);
+                assertEquals(1000 - ecg, sample[2]);
+                ecg++;
+            }
+        }
+        reader.close();
+    }
+
+    @Test
+    public void compressed_roundTrip() throws IOException {
+        File raw = mFolder.newFile();
+        RecordingWriter writer = new RecordingWriter(raw, 256);
+        record(writer, 1000);
+        writer.close();
+
+        File file = mFolder.newFile();
+        writer = new RecordingWriter(file, 256,
+                new SampleCodec(SampleCodec.FLAG_BIT_PACKED | SampleCodec.FLAG_DEFLATE));
+        writer.describeSource(0, 2, "A");
+        record(writer, 1000);
+        writer.close();
+        assertEquals(2000, writer.getWrittenCount());
+        assertTrue(file.length() * 4 < raw.length());
+
+        RecordingReader rawReader = new RecordingReader(raw);
+        RecordingReader reader = new RecordingReader(file);
+        assertEquals("A", reader.getSourceName(0));
+        assertEquals(readAll(rawReader, Long.MIN_VALUE, Long.MAX_VALUE).size(), 2000);
+        List<long[]> expected = readAll(rawReader, 1000 + 100 * PERIOD, 1000 + 700 * PERIOD);
+        List<long[]> samples = readAll(reader, 1000 + 100 * PERIOD, 1000 + 700 * PERIOD);
+        assertEquals(expected.size(), samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertArrayEquals(expected.get(i), samples.get(i));
+        }
+        rawReader.close();
+        reader.close();
+    }
+
+    @Test
+    public void read_seeksToRange() throws IOException {
+        File file = mFolder.newFile();
+        RecordingWriter writer = new RecordingWriter(file, 100);
+        int[] values = new int[3];
+        for (int i = 0; i < 10000; i++) {
+            values[0] = i;
+            writer.onSample(0, i * PERIOD, values, 0, 3);
+        }
+        writer.close();
+
+        RecordingReader reader = new RecordingReader(file);
+        List<long[]> samples = readAll(reader, 5050 * PERIOD, 5149 * PERIOD);
+        assertEquals(100, samples.size());
+        assertEquals(5050, samples.get(0)[2]);
+        assertEquals(5149, samples.get(99)[2]);
+        // two of the 100 chunks
+        assertEquals(2, reader.getChunksRead());
+        reader.close();
+    }
+
+    @Test
+    public void truncatedFile_isRecovered() throws IOException {
+        File file = mFolder.newFile();
+        RecordingWriter writer = new RecordingWriter(file, 50);
+        writer.describeSource(0, 2, "A");
+        record(writer, 500);
+        writer.close();
+        long complete = file.length();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        RecordingReader reader = new RecordingReader(file);
+        List<RecordingReader.ChunkInfo> chunks = new ArrayList<>(reader.getChunks());
+        reader.close();
+
+        // cut inside each chunk: everything before it survives
+        for (int i = 0; i + 1 < chunks.size(); i++) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, (int) chunks.get(i + 1).offset - 7));
+            reader = new RecordingReader(file);
+            assertTrue(reader.isRecovered());
+            assertEquals(i, reader.getChunks().size());
+            int expected = 0;
+            for (int c = 0; c < i; c++) expected += chunks.get(c).getSampleCount();
+            assertEquals(expected, readAll(reader, Long.MIN_VALUE, Long.MAX_VALUE).size());
+            reader.close();
+        }
+
+        // cut inside the index: all chunks survive
+        Files.write(file.toPath(), Arrays.copyOf(bytes, (int) complete - 20));
+        reader = new RecordingReader(file);
+        assertTrue(reader.isRecovered());
+        assertEquals(chunks.size(), reader.getChunks().size());
+        assertEquals(1000, readAll(reader, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals("A", reader.getSourceName(0));
+        reader.close();
+    }
+
+    @Test
+    public void damagedChunk_endsRecovery() throws IOException {
+        File file = mFolder.newFile();
+        RecordingWriter writer = new RecordingWriter(file, 50);
+        record(writer, 200);
+        writer.close();
+        RecordingReader reader = new RecordingReader(file);
+        long third = reader.getChunks().get(2).offset;
+        reader.close();
+
+        // drop the index, and flip a payload byte of the third chunk
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.seek(third + RecordingFormat.CHUNK_HEADER_SIZE + 5);
+        int b = raf.read();
+        raf.seek(third + RecordingFormat.CHUNK_HEADER_SIZE + 5);
+        raf.write(b ^ 0xFF);
+        raf.close();
+
+        reader = new RecordingReader(file);
+        assertTrue(reader.isRecovered());
+        assertEquals(2, reader.getChunks().size());
+        reader.close();
+    }
+
+    @Test
+    public void largeGapsAndValues() throws IOException {
+        File file = mFolder.newFile();
+        RecordingWriter writer = new RecordingWriter(file);
+        int[] values = new int[]{40000, -40000, 5};
+        writer.onSample(0, 0, values, 0, 3);
+        // 10 s: does not fit an int32 delta, starts a new chunk
+        writer.onSample(0, 10000000000L, values, 0, 3);
+        writer.close();
+        assertEquals(2, writer.getClippedCount() / 2);
+
+        RecordingReader reader = new RecordingReader(file);
+        assertEquals(2, reader.getChunks().size());
+        List<long[]> samples = readAll(reader, 0, Long.MAX_VALUE);
+        assertEquals(10000000000L, samples.get(1)[1]);
+        assertEquals(Short.MAX_VALUE, samples.get(1)[2]);
+        assertEquals(Short.MIN_VALUE, samples.get(1)[3]);
+        assertEquals(5, samples.get(1)[4]);
+        reader.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void notARecording() throws IOException {
+        File file = mFolder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[64]);
+        raf.close();
+        new RecordingReader(file);
+    }
+}
@@ -0,0 +1,123 @@
+package yeetivity.jjve.ble_polar.record;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SampleCodecTest {
+
+    private static final long PERIOD = 1000000000L / 52;
+    private static final int[] MODES = {0, SampleCodec.FLAG_BIT_PACKED, SampleCodec.FLAG_DEFLATE,
+            SampleCodec.FLAG_BIT_PACKED | SampleCodec.FLAG_DEFLATE};
+
+    private static void assertRoundTrip(long[] timestamps, int[] values, int count, int channels) {
+        for (int mode : MODES) {
+            SampleCodec codec = new SampleCodec(mode);
+            int length = codec.encode(timestamps, values, count, channels);
+            byte[] encoded = Arrays.copyOf(codec.getOutput(), length);
+
+            long[] decodedTimestamps = new long[count];
+            int[] decodedValues = new int[count * channels];
+            assertEquals(count, new SampleCodec(0).peekCount(encoded, 0, length));
+            assertEquals(count, new SampleCodec(0).decode(encoded, 0, length,
+                    decodedTimestamps, decodedValues));
+            assertArrayEquals("mode " + mode, Arrays.copyOf(timestamps, count), decodedTimestamps);
+            assertArrayEquals("mode " + mode, Arrays.copyOf(values, count * channels), decodedValues);
+        }
+    }
+
+    @Test
+    public void regularSamples_compressWell() {
+        int count = 1024;
+        long[] timestamps = new long[count];
+        int[] values = new int[count * 3];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = 5000000000000L + i * PERIOD;
+            values[3 * i] = (int) (1000 * Math.sin(i / 20.0));
+            values[3 * i + 1] = (int) (500 * Math.cos(i / 30.0));
+            values[3 * i + 2] = 1000;
+        }
+        assertRoundTrip(timestamps, values, count, 3);
+
+        int raw = RecordingFormat.samplesPayloadSize(count, 3);
+        SampleCodec packed = new SampleCodec(SampleCodec.FLAG_BIT_PACKED);
+        // constant period: the delta of deltas take 1 byte per block
+        assertTrue(packed.encode(timestamps, values, count, 3) * 3 < raw);
+    }
+
+    @Test
+    public void extremes() {
+        long[] timestamps = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, Long.MAX_VALUE};
+        int[] values = {Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, Integer.MAX_VALUE,
+                Integer.MIN_VALUE, 1, 1, 1, 0};
+        assertRoundTrip(timestamps, values, 5, 2);
+    }
+
+    @Test
+    public void randomBlocks() {
+        Random random = new Random(7);
+        for (int n : new int[]{0, 1, 2, 63, 64, 65, 200}) {
+            long[] timestamps = new long[n];
+            int[] values = new int[n * 4];
+            long t = random.nextLong();
+            for (int i = 0; i < n; i++) {
+                t += random.nextInt(1 << (i % 30 + 1));
+                timestamps[i] = t;
+            }
+            for (int i = 0; i < values.length; i++) values[i] = random.nextInt() >> (i % 31);
+            assertRoundTrip(timestamps, values, n, 4);
+        }
+    }
+
+    @Test
+    public void codec_isReused() {
+        SampleCodec codec = new SampleCodec(SampleCodec.FLAG_BIT_PACKED | SampleCodec.FLAG_DEFLATE);
+        long[] timestamps = new long[300];
+        int[] values = new int[300];
+        long[] decoded = new long[300];
+        int[] decodedValues = new int[300];
+        for (int round = 1; round <= 3; round++) {
+            int count = 100 * round;
+            for (int i = 0; i < count; i++) {
+                timestamps[i] = i * round;
+                values[i] = i % 7 - round;
+            }
+            int length = codec.encode(timestamps, values, count, 1);
+            byte[] encoded = Arrays.copyOf(codec.getOutput(), length);
+            assertEquals(count, codec.decode(encoded, 0, length, decoded, decodedValues));
+            assertEquals(timestamps[count - 1], decoded[count - 1]);
+            assertEquals(values[count - 1], decodedValues[count - 1]);
+        }
+    }
+
+    @Test
+    public void malformed_isRejected() {
+        long[] timestamps = new long[100];
+        int[] values = new int[100];
+        for (int i = 0; i < 100; i++) {
+            timestamps[i] = i * PERIOD;
+            values[i] = i * i;
+        }
+        for (int mode : MODES) {
+            SampleCodec codec = new SampleCodec(mode);
+            int length = codec.encode(timestamps, values, 100, 1);
+            byte[] encoded = Arrays.copyOf(codec.getOutput(), length);
+            for (int cut = 1; cut < length; cut++) {
+                try {
+                    codec.decode(encoded, 0, cut, new long[100], new int[100]);
+                    fail("mode " + mode + ", cut at " + cut);
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+            // does not fit the arrays
+            try {
+                codec.decode(encoded, 0, length, new long[99], new int[100]);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
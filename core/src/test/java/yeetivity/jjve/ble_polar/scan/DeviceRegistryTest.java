@@ -0,0 +1,117 @@
+package yeetivity.jjve.ble_polar.scan;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+
+    private final DeviceRegistry<Object> mRegistry = new DeviceRegistry<>();
+
+    @Test
+    public void update_dedupsByAddress() {
+        Object a = new Object(), b = new Object();
+        assertEquals(0, mRegistry.update("A", a, "Polar H10 A", -60, 1000));
+        assertEquals(1, mRegistry.update("B", b, "Polar OH1 B", -70, 2000));
+        List<DeviceSnapshot<Object>> first = mRegistry.snapshot();
+        assertEquals(2, first.size());
+
+        // same advertisement again within the second: nothing shown changed
+        assertEquals(0, mRegistry.update("A", a, "Polar H10 A", -60, 1500));
+        assertFalse(mRegistry.hasChanges());
+        assertSame(first, mRegistry.snapshot());
+        assertEquals(1500, mRegistry.get(0).getLastSeen());
+        assertSame(a, mRegistry.get(0).getDevice());
+    }
+
+    @Test
+    public void snapshots_areImmutable() {
+        mRegistry.update("A", null, "Polar H10 A", -60, 1000);
+        List<DeviceSnapshot<Object>> first = mRegistry.snapshot();
+        DeviceSnapshot<Object> before = first.get(0);
+
+        mRegistry.update("A", null, null, -55, 1100);
+        assertTrue(mRegistry.hasChanges());
+        List<DeviceSnapshot<Object>> second = mRegistry.snapshot();
+        assertNotSame(first, second);
+        assertEquals(-60, first.get(0).getRssi());
+        assertEquals(-55, second.get(0).getRssi());
+        // a missing name keeps the known one
+        assertEquals("Polar H10 A", second.get(0).getName());
+        assertEquals(DeviceSnapshot.CHANGED_RSSI, second.get(0).changes(before));
+        assertEquals(before.getId(), second.get(0).getId());
+        try {
+            second.add(before);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void changes_coverShownFields() {
+        DeviceSnapshot<Object> a = new DeviceSnapshot<>("A", null, null, -60, 1000, -1);
+        assertEquals(DeviceSnapshot.CHANGED_NAME, a.withAdvertisement("Polar", -60, 1999).changes(a));
+        assertEquals(DeviceSnapshot.CHANGED_LAST_SEEN, a.withAdvertisement(null, -60, 2000).changes(a));
+        assertEquals(DeviceSnapshot.CHANGED_RSSI | DeviceSnapshot.CHANGED_LAST_SEEN,
+                a.withAdvertisement(null, -61, 5000).changes(a));
+        assertEquals(DeviceSnapshot.CHANGED_BATTERY, a.withBattery(80).changes(a));
+        assertEquals(0, a.changes(a));
+    }
+
+    @Test
+    public void setBattery() {
+        mRegistry.update("A", null, "Polar H10 A", -60, 1000);
+        mRegistry.snapshot();
+        assertTrue(mRegistry.setBattery("A", 90));
+        assertEquals(90, mRegistry.snapshot().get(0).getBattery());
+        assertTrue(mRegistry.setBattery("A", 90));
+        assertFalse(mRegistry.hasChanges());
+        assertFalse(mRegistry.setBattery("B", 90));
+    }
+
+    @Test
+    public void stableIds() {
+        assertEquals(0xA0B1C2D3E4F5L, DeviceSnapshot.idOf("A0:B1:C2:D3:E4:F5"));
+        assertEquals(0xA0B1C2D3E4F5L, DeviceSnapshot.idOf("a0:b1:c2:d3:e4:f5"));
+        // not a MAC address: hashed, never equal to a MAC id
+        assertTrue(DeviceSnapshot.idOf("sim-1") < 0);
+        assertNotEquals(DeviceSnapshot.idOf("sim-1"), DeviceSnapshot.idOf("sim-2"));
+    }
+
+    @Test
+    public void clear_restartsPositions() {
+        mRegistry.update("A", null, null, -60, 1);
+        mRegistry.snapshot();
+        mRegistry.clear();
+        assertTrue(mRegistry.hasChanges());
+        assertEquals(0, mRegistry.snapshot().size());
+        assertEquals(0, mRegistry.update("B", null, null, -60, 2));
+    }
+
+    @Test
+    public void manyDevices() {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+                mRegistry.update("dev" + i, null, "Polar " + i, -50 - round, round);
+            }
+            assertEquals(1000, mRegistry.snapshot().size());
+        }
+        assertEquals(999, mRegistry.indexOf("dev999"));
+        assertEquals(-1, mRegistry.indexOf("dev1000"));
+        assertEquals(-52, mRegistry.snapshot().get(10).getRssi());
+    }
+
+    @Test
+    public void scanConfig_namePrefix() {
+        ScanConfig config = ScanConfig.polar();
+        assertTrue(config.matchesName("Polar H10 12345678"));
+        assertFalse(config.matchesName("Movesense 1234"));
+        assertFalse(config.matchesName(null));
+        assertTrue(new ScanConfig().matchesName(null));
+        assertEquals(ScanConfig.POLAR_MANUFACTURER_ID, config.getManufacturerId());
+        assertFalse(config.isBatched());
+        assertTrue(config.setReportDelay(500).isBatched());
+    }
+}
@@ -0,0 +1,129 @@
+package yeetivity.jjve.ble_polar.session;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.hr.HeartRateService;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.pmd.PmdSettings;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+
+import static org.junit.Assert.*;
+
+public class CapabilityCacheTest {
+
+    private static final List<UUID> SERVICES = Arrays.asList(PolarPmd.SERVICE,
+            HeartRateService.SERVICE, CapabilityCache.DEVICE_INFORMATION);
+    private static final int ACC = PmdFrameDecoder.MEASUREMENT_ACC;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static PmdSettings supported() {
+        return new PmdSettings()
+                .add(PmdSettings.SAMPLE_RATE, 26).add(PmdSettings.SAMPLE_RATE, 52)
+                .add(PmdSettings.SAMPLE_RATE, 104).set(PmdSettings.RESOLUTION, 16)
+                .add(PmdSettings.RANGE, 2).add(PmdSettings.RANGE, 8)
+                .set(PmdSettings.CHANNELS, 3);
+    }
+
+    @Test
+    public void entries_persistAcrossInstances() throws IOException {
+        File file = new File(mFolder.getRoot(), "capabilities.cache");
+        CapabilityCache cache = new CapabilityCache(file);
+        cache.load();
+        assertNull(cache.get("A", "3.1.0", SERVICES, ACC));
+        cache.put("A", "3.1.0", SERVICES, ACC, supported());
+        assertTrue(cache.isDirty());
+        cache.save();
+        assertFalse(cache.isDirty());
+
+        CapabilityCache loaded = new CapabilityCache(file);
+        loaded.load();
+        assertEquals(1, loaded.size());
+        // the order services are discovered in does not matter
+        PmdSettings settings = loaded.get("A", "3.1.0", Arrays.asList(
+                CapabilityCache.DEVICE_INFORMATION, PolarPmd.SERVICE, HeartRateService.SERVICE), ACC);
+        assertNotNull(settings);
+        assertEquals(3, settings.count(PmdSettings.SAMPLE_RATE));
+        assertEquals(104, settings.get(PmdSettings.SAMPLE_RATE, 2));
+        assertEquals(8, settings.get(PmdSettings.RANGE, 1));
+        assertEquals(3, settings.get(PmdSettings.CHANNELS));
+        assertFalse(settings.has(PmdSettings.FACTOR));
+        // other measurements are not cached yet
+        assertNull(loaded.get("A", "3.1.0", SERVICES, PmdFrameDecoder.MEASUREMENT_ECG));
+        assertEquals(1, loaded.getHitCount());
+        assertEquals(1, loaded.getMissCount());
+    }
+
+    @Test
+    public void firmwareChange_invalidatesEntry() throws IOException {
+        File file = new File(mFolder.getRoot(), "capabilities.cache");
+        CapabilityCache cache = new CapabilityCache(file);
+        cache.put("A", "3.1.0", SERVICES, ACC, supported());
+        cache.put("B", "3.1.0", SERVICES, ACC, supported());
+        cache.save();
+
+        CapabilityCache loaded = new CapabilityCache(file);
+        loaded.load();
+        assertNull(loaded.get("A", "3.2.0", SERVICES, ACC));
+        assertEquals(1, loaded.getInvalidationCount());
+        // dropped, not only missed: the old firmware does not bring it back
+        assertNull(loaded.get("A", "3.1.0", SERVICES, ACC));
+        assertNotNull(loaded.get("B", "3.1.0", SERVICES, ACC));
+        assertTrue(loaded.isDirty());
+        loaded.save();
+
+        CapabilityCache again = new CapabilityCache(file);
+        again.load();
+        assertEquals(1, again.size());
+        assertNull(again.get("A", "3.1.0", SERVICES, ACC));
+
+        // the new firmware is cached on its first connection
+        again.put("A", "3.2.0", SERVICES, ACC, supported());
+        assertNotNull(again.get("A", "3.2.0", SERVICES, ACC));
+    }
+
+    @Test
+    public void layoutChange_invalidatesEntry() {
+        CapabilityCache cache = new CapabilityCache(null);
+        cache.put("A", "", SERVICES, ACC, supported());
+        assertNull(cache.get("A", "", Arrays.asList(PolarPmd.SERVICE,
+                CapabilityCache.DEVICE_INFORMATION), ACC));
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void corruptFile_leavesCacheEmpty() throws IOException {
+        File file = new File(mFolder.getRoot(), "capabilities.cache");
+        CapabilityCache cache = new CapabilityCache(file);
+        cache.put("A", "3.1.0", SERVICES, ACC, supported());
+        cache.save();
+        byte[] truncated = new byte[(int) file.length() - 5];
+        System.arraycopy(Files.readAllBytes(file.toPath()), 0, truncated, 0,
+                truncated.length);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(truncated);
+        }
+
+        CapabilityCache loaded = new CapabilityCache(file);
+        try {
+            loaded.load();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, loaded.size());
+        assertNull(loaded.get("A", "3.1.0", SERVICES, ACC));
+    }
+}
@@ -0,0 +1,291 @@
+package yeetivity.jjve.ble_polar.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import yeetivity.jjve.ble_polar.gatt.FakeGattOps;
+import yeetivity.jjve.ble_polar.gatt.ManualScheduler;
+import yeetivity.jjve.ble_polar.hr.HeartRateService;
+import yeetivity.jjve.ble_polar.pmd.PmdError;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.pmd.PmdSettings;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+
+import static org.junit.Assert.*;
+
+public class SessionManagerTest {
+
+    private static final long MS = 1000000L;
+
+    // uncompressed ACC frame of 4 samples, x = value
+    private static byte[] frame(long sensorTimestamp, int value) {
+        byte[] frame = new byte[10 + 4 * 6];
+        frame[0] = 2;
+        for (int i = 0; i < 8; i++) frame[1 + i] = (byte) (sensorTimestamp >>> (8 * i));
+        frame[9] = 1;
+        for (int s = 0; s < 4; s++) {
+            frame[10 + 6 * s] = (byte) value;
+        }
+        return frame;
+    }
+
+    private static SensorSession acc(String address) {
+        return new SensorSession(address, PmdFrameDecoder.MEASUREMENT_ACC,
+                PolarPmd.accSettings(52));
+    }
+
+    @Test
+    public void sessions_setUpStreamThroughQueue() {
+        SensorSession session = acc("A");
+        FakeGattOps gatt = new FakeGattOps();
+        session.onConnected(gatt, new ManualScheduler(), 0);
+        session.onServicesDiscovered();
+
+        assertEquals(SensorSession.State.CONNECTED, session.getState());
+        enableNotifications(session);
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        assertArrayEquals(new byte[]{0x01, 0x02}, gatt.written.get(2));
+
+        // supported: 26, 52, 104, 208 Hz, 16 bit, 2 - 16 G, 3 channels
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x01, 0x02, 0x00, 0x00,
+                0x00, 0x04, 0x1A, 0x00, 0x34, 0x00, 0x68, 0x00, (byte) 0xD0, 0x00,
+                0x01, 0x01, 0x10, 0x00,
+                0x02, 0x04, 0x02, 0x00, 0x04, 0x00, 0x08, 0x00, 0x10, 0x00,
+                0x04, 0x01, 0x03});
+        // the default link carries 120 frames/s of one sample: with headroom 52 Hz fits
+        assertArrayEquals(new byte[]{0x02, 0x02, 0x00, 0x01, 0x34, 0x00, 0x01, 0x01, 0x10, 0x00,
+                0x02, 0x01, 0x08, 0x00, 0x04, 0x01, 0x03}, gatt.written.get(3));
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        assertEquals(SensorSession.State.CONNECTED, session.getState());
+
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x00, 0x00});
+        assertEquals(SensorSession.State.STREAMING, session.getState());
+        assertEquals(PmdError.SUCCESS, session.getLastError());
+
+        session.onDisconnected(0);
+        assertEquals(SensorSession.State.DISCONNECTED, session.getState());
+        assertEquals(1, session.getReconnectAttempts());
+        assertNull(session.getQueue());
+    }
+
+    @Test
+    public void sessions_startWithoutSettingsQuery() {
+        SensorSession session = new SensorSession("A", PmdFrameDecoder.MEASUREMENT_ACC,
+                PolarPmd.accSettings(208));
+        FakeGattOps gatt = new FakeGattOps();
+        session.onConnected(gatt, new ManualScheduler(), 0);
+        session.onServicesDiscovered();
+        enableNotifications(session);
+
+        // the settings query fails: start with the desired settings
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x01, 0x02, 0x03, 0x00});
+        assertEquals(PmdError.NOT_SUPPORTED, session.getLastError());
+        assertEquals(208, session.getStartSettings().get(PmdSettings.SAMPLE_RATE));
+
+        // the sensor refuses the start
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x08, 0x00});
+        assertEquals(PmdError.INVALID_SAMPLE_RATE, session.getLastError());
+        assertEquals(SensorSession.State.CONNECTED, session.getState());
+    }
+
+    @Test
+    public void sessions_resumeStreamAfterReconnect() {
+        SensorSession session = new SensorSession("A", PmdFrameDecoder.MEASUREMENT_ACC,
+                PolarPmd.accSettings(208));
+        FakeGattOps gatt = new FakeGattOps();
+        session.onConnected(gatt, new ManualScheduler(), 0);
+        session.onServicesDiscovered();
+        enableNotifications(session);
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x01, 0x02, 0x03, 0x00});
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        byte[] start = gatt.written.get(3);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x00, 0x00});
+        assertEquals(SensorSession.State.STREAMING, session.getState());
+        session.onDisconnected(0);
+
+        // the negotiated start is replayed, without querying the settings again
+        FakeGattOps again = new FakeGattOps();
+        session.onConnected(again, new ManualScheduler(), 0);
+        session.onServicesDiscovered();
+        enableNotifications(session);
+        assertArrayEquals(start, again.written.get(2));
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x00, 0x00});
+        assertEquals(SensorSession.State.STREAMING, session.getState());
+        session.onDisconnected(0);
+
+        // a refused replay falls back to the settings query
+        FakeGattOps third = new FakeGattOps();
+        session.onConnected(third, new ManualScheduler(), 0);
+        session.onServicesDiscovered();
+        enableNotifications(session);
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x08, 0x00});
+        assertArrayEquals(new byte[]{0x01, 0x02}, third.written.get(3));
+    }
+
+    // services of a sensor with Device Information
+    private static final List<UUID> SERVICES = Arrays.asList(PolarPmd.SERVICE,
+            CapabilityCache.DEVICE_INFORMATION);
+
+    // the control point and data notifications are enabled
+    private static void enableNotifications(SensorSession session) {
+        session.getQueue().onDescriptorWrite(PolarPmd.CONTROL,
+                PolarPmd.CLIENT_CHARACTERISTIC_CONFIG, 0);
+        session.getQueue().onDescriptorWrite(PolarPmd.DATA,
+                PolarPmd.CLIENT_CHARACTERISTIC_CONFIG, 0);
+    }
+
+    // connect and set up notifications, the firmware read is pending
+    private static FakeGattOps connect(SensorSession session, long nowNanos) {
+        FakeGattOps gatt = new FakeGattOps();
+        session.onConnected(gatt, new ManualScheduler(), nowNanos);
+        session.onServicesDiscovered(SERVICES);
+        enableNotifications(session);
+        assertEquals("read " + CapabilityCache.FIRMWARE_REVISION, gatt.last());
+        return gatt;
+    }
+
+    @Test
+    public void sessions_startWithCachedCapabilities() {
+        CapabilityCache cache = new CapabilityCache(null);
+        SensorSession first = acc("A");
+        first.setCapabilityCache(cache);
+        FakeGattOps gatt = connect(first, 0);
+        first.getQueue().onCharacteristicRead(CapabilityCache.FIRMWARE_REVISION,
+                "3.1.0".getBytes(), 0);
+        // a miss: query the settings
+        assertArrayEquals(new byte[]{0x01, 0x02}, gatt.written.get(2));
+        first.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        first.onControlResponse(new byte[]{(byte) 0xF0, 0x01, 0x02, 0x00, 0x00,
+                0x00, 0x02, 0x1A, 0x00, 0x34, 0x00, 0x01, 0x01, 0x10, 0x00, 0x04, 0x01, 0x03});
+        byte[] start = gatt.written.get(3);
+        assertFalse(first.isCapabilitiesCached());
+        assertEquals("3.1.0", first.getFirmware());
+        assertEquals(1, cache.size());
+
+        // the next app start: the start follows the firmware read
+        SensorSession second = acc("A");
+        second.setCapabilityCache(cache);
+        gatt = connect(second, 100 * MS);
+        second.getQueue().onCharacteristicRead(CapabilityCache.FIRMWARE_REVISION,
+                "3.1.0".getBytes(), 0);
+        assertArrayEquals(start, gatt.written.get(2));
+        assertTrue(second.isCapabilitiesCached());
+        second.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        second.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x00, 0x00});
+        assertEquals(SensorSession.State.STREAMING, second.getState());
+        assertEquals(-1, second.getTimeToFirstSampleNanos());
+        second.onData(frame(0, 1), 180 * MS);
+        second.onData(frame(77 * MS, 1), 260 * MS);
+        assertEquals(80 * MS, second.getTimeToFirstSampleNanos());
+
+        // updated firmware: the settings are queried again
+        SensorSession third = acc("A");
+        third.setCapabilityCache(cache);
+        gatt = connect(third, 0);
+        third.getQueue().onCharacteristicRead(CapabilityCache.FIRMWARE_REVISION,
+                "3.2.0".getBytes(), 0);
+        assertArrayEquals(new byte[]{0x01, 0x02}, gatt.written.get(2));
+        assertFalse(third.isCapabilitiesCached());
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sessions_refusedCachedStartQueriesSettings() {
+        CapabilityCache cache = new CapabilityCache(null);
+        cache.put("A", "", Collections.singletonList(PolarPmd.SERVICE),
+                PmdFrameDecoder.MEASUREMENT_ACC,
+                new PmdSettings().add(PmdSettings.SAMPLE_RATE, 52));
+        SensorSession session = acc("A");
+        session.setCapabilityCache(cache);
+        FakeGattOps gatt = new FakeGattOps();
+        session.onConnected(gatt, new ManualScheduler(), 0);
+        // without Device Information the firmware is unknown, no read
+        session.onServicesDiscovered();
+        enableNotifications(session);
+        assertEquals(0x02, gatt.written.get(2)[0]);
+        session.getQueue().onCharacteristicWrite(PolarPmd.CONTROL, 0);
+        session.onControlResponse(new byte[]{(byte) 0xF0, 0x02, 0x02, 0x08, 0x00});
+        assertArrayEquals(new byte[]{0x01, 0x02}, gatt.written.get(3));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sessions_heartRateAlongsidePmd() {
+        SensorSession session = acc("A");
+        FakeGattOps gatt = new FakeGattOps();
+        session.onConnected(gatt, new ManualScheduler(), 0);
+        session.onServicesDiscovered(true);
+        enableNotifications(session);
+        assertEquals("descriptor " + HeartRateService.MEASUREMENT + "/"
+                + PolarPmd.CLIENT_CHARACTERISTIC_CONFIG, gatt.last());
+        session.getQueue().onDescriptorWrite(HeartRateService.MEASUREMENT,
+                PolarPmd.CLIENT_CHARACTERISTIC_CONFIG, 0);
+        // then the PMD settings query
+        assertArrayEquals(new byte[]{0x01, 0x02}, gatt.written.get(3));
+
+        assertEquals(60, session.onHeartRate(new byte[]{0x16, 60, 0x00, 0x04}));
+        assertEquals(61, session.onHeartRate(new byte[]{0x16, 61, (byte) 0xF0, 0x03}));
+        assertEquals(2, session.getHrv().getCount());
+        assertEquals(61, session.getHeartRate());
+        // lost contact
+        assertEquals(0, session.onHeartRate(new byte[]{0x04, 61}));
+        assertEquals(0, session.getHeartRate());
+        assertEquals(0, session.onHeartRate(new byte[]{0x16}));
+        assertEquals(1, session.getDecodeErrorCount());
+    }
+
+    /**
+     * Two sensors with unrelated clocks and different transport latency: their samples end
+     * up on the local clock, interleaved by time.
+     */
+    @Test
+    public void sensorClocks_areAlignedOnTimeline() {
+        SessionManager manager = new SessionManager(4, 256, 1000 * MS);
+        SensorSession a = manager.addSession(acc("A"), 0);
+        SensorSession b = manager.addSession(acc("B"), 0);
+        assertSame(a, manager.addSession(acc("A"), 0));
+
+        final List<long[]> timeline = new ArrayList<>();
+        manager.setTimelineListener((source, timestamp, values, offset, channels) ->
+                timeline.add(new long[]{source, timestamp, values[offset]}));
+
+        long period = 1000000000L / 52;
+        long clockA = 5000000000000L, clockB = 123 * MS;
+        // local time 1 s, A sampled its 4 samples up to 1 s - 10 ms, B up to 1 s - 15 ms
+        for (int f = 0; f < 10; f++) {
+            long local = 1000 * MS + f * 4 * period;
+            a.onData(frame(clockA + local - 10 * MS, 1), local + (f % 3) * 7 * MS);
+            b.onData(frame(clockB + local - 15 * MS, 2), local + 10 * MS + (f % 2) * 5 * MS);
+            manager.tick(local + 20 * MS);
+        }
+        manager.flush();
+
+        assertEquals(80, timeline.size());
+        for (int i = 1; i < timeline.size(); i++) {
+            assertTrue(timeline.get(i)[1] >= timeline.get(i - 1)[1]);
+        }
+        // the newest sample of a frame lands on the least-latency arrival time of its sensor
+        long firstA = -1, firstB = -1;
+        for (long[] sample : timeline) {
+            if (sample[0] == a.getSourceId() && firstA < 0) firstA = sample[1];
+            if (sample[0] == b.getSourceId() && firstB < 0) firstB = sample[1];
+        }
+        assertEquals(1000 * MS - 3 * period, firstA);
+        assertEquals(1000 * MS + 10 * MS - 3 * period, firstB);
+
+        manager.removeSession("B");
+        assertTrue(b.isClosed());
+        assertEquals(1, manager.size());
+    }
+}
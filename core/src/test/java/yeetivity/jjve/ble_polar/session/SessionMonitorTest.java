@@ -0,0 +1,85 @@
+package yeetivity.jjve.ble_polar.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import yeetivity.jjve.ble_polar.dsp.ActivityDetector;
+import yeetivity.jjve.ble_polar.gatt.FakeConnector;
+import yeetivity.jjve.ble_polar.gatt.ManualScheduler;
+import yeetivity.jjve.ble_polar.gatt.ReconnectController;
+import yeetivity.jjve.ble_polar.pmd.PmdFrameDecoder;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+
+import static org.junit.Assert.*;
+
+public class SessionMonitorTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void summaries_aggregateTimelineAndPassItOn() {
+        SessionManager manager = new SessionManager(4, 256, 1000 * MS);
+        SessionMonitor monitor = new SessionMonitor(4, 1000 * MS);
+        final List<Integer> recorded = new ArrayList<>();
+        monitor.setDownstream((source, timestamp, values, offset, channels) ->
+                recorded.add(values[offset]));
+        manager.setTimelineListener(monitor);
+        SensorSession session = manager.addSession(new SensorSession("A",
+                PmdFrameDecoder.MEASUREMENT_ACC, PolarPmd.accSettings(52)), 0);
+        ReconnectController controller =
+                new ReconnectController(new FakeConnector(), new ManualScheduler());
+        List<SensorSession> sessions = Collections.singletonList(session);
+        List<ReconnectController> controllers = Collections.singletonList(controller);
+
+        // tracked from the first summary on
+        SessionSummary summary = monitor.summarize(sessions, controllers, 0).get(0);
+        assertFalse(summary.hasSamples());
+        assertEquals(ActivityDetector.Activity.UNKNOWN, summary.getActivity());
+
+        // two seconds of the sensor lying still, z = 1 G
+        long[] timestamps = new long[4];
+        int[] values = new int[4 * 3];
+        long period = 1000 * MS / 52;
+        for (int f = 0; f < 26; f++) {
+            for (int s = 0; s < 4; s++) {
+                timestamps[s] = (4 * f + s) * period;
+                values[3 * s] = f;
+                values[3 * s + 2] = 1000;
+            }
+            session.getBuffer().publish(timestamps, values, 4);
+            manager.tick(timestamps[3]);
+        }
+        manager.flush();
+        assertEquals(104, recorded.size());
+
+        summary = monitor.summarize(sessions, controllers, 2000 * MS).get(0);
+        assertEquals("A", summary.getAddress());
+        assertEquals(104, summary.getSampleCount());
+        assertEquals(104, summary.getNewSampleCount());
+        assertEquals(0, monitor.summarize(sessions, controllers, 2000 * MS).get(0)
+                .getNewSampleCount());
+        assertEquals(3, summary.getChannels());
+        assertEquals(25, summary.getLatest(0));
+        assertEquals(1000, summary.getLatest(2));
+        assertEquals(0, summary.getMin(0));
+        assertEquals(25, summary.getMax(0));
+        assertEquals(timestamps[3], summary.getLatestTimestamp());
+        assertEquals(52f, summary.getMeasuredRate(), 0.1f);
+        assertEquals(ActivityDetector.Activity.STILL, summary.getActivity());
+        assertEquals(0, summary.getStepCount());
+        assertEquals(0, summary.getReconnectCount());
+        assertEquals(SensorSession.State.DISCONNECTED, summary.getState());
+
+        // a new session on the same source id starts over
+        manager.removeSession("A");
+        SensorSession other = manager.addSession(new SensorSession("B",
+                PmdFrameDecoder.MEASUREMENT_ACC, PolarPmd.accSettings(52)), 0);
+        assertEquals(session.getSourceId(), other.getSourceId());
+        summary = monitor.summarize(Collections.singletonList(other), null, 3000 * MS).get(0);
+        assertEquals("B", summary.getAddress());
+        assertFalse(summary.hasSamples());
+    }
+}
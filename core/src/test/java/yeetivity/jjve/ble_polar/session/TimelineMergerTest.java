@@ -0,0 +1,128 @@
+package yeetivity.jjve.ble_polar.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import yeetivity.jjve.ble_polar.stream.SampleRingBuffer;
+
+import static org.junit.Assert.*;
+
+public class TimelineMergerTest {
+
+    private static final long MS = 1000000L;
+
+    // records the merged timeline
+    private static class Recorder implements TimelineMerger.Listener {
+        final List<long[]> samples = new ArrayList<>();
+
+        @Override
+        public void onSample(int source, long timestamp, int[] values, int offset, int channels) {
+            samples.add(new long[]{source, timestamp, values[offset]});
+        }
+    }
+
+    private static void publish(SampleRingBuffer buffer, long timestamp, int value) {
+        buffer.publish(new long[]{timestamp}, new int[]{value}, 1);
+    }
+
+    @Test
+    public void samples_waitForSlowestSource() {
+        TimelineMerger merger = new TimelineMerger(4, 64, 1000 * MS);
+        SampleRingBuffer a = new SampleRingBuffer(64, 1);
+        SampleRingBuffer b = new SampleRingBuffer(64, 1);
+        int sa = merger.addSource(a, 0);
+        int sb = merger.addSource(b, 0);
+        Recorder recorder = new Recorder();
+
+        publish(a, 10, 1);
+        publish(a, 20, 2);
+        publish(a, 30, 3);
+        // b has delivered nothing yet
+        assertEquals(0, merger.merge(1, recorder));
+
+        publish(b, 15, 100);
+        assertEquals(2, merger.merge(2, recorder));
+        assertEquals(2, merger.getStagedCount());
+
+        publish(b, 40, 200);
+        assertEquals(2, merger.merge(3, recorder));
+
+        long[] expected = new long[]{10, 15, 20, 30, 40};
+        assertEquals(4, recorder.samples.size());
+        for (int i = 0; i < 4; i++) assertEquals(expected[i], recorder.samples.get(i)[1]);
+        assertEquals(sa, recorder.samples.get(0)[0]);
+        assertEquals(sb, recorder.samples.get(1)[0]);
+
+        assertEquals(1, merger.flush(recorder));
+        assertEquals(40, merger.getLastEmittedTimestamp());
+    }
+
+    @Test
+    public void staleSource_doesNotStallTimeline() {
+        TimelineMerger merger = new TimelineMerger(4, 64, 100 * MS);
+        SampleRingBuffer a = new SampleRingBuffer(64, 1);
+        SampleRingBuffer b = new SampleRingBuffer(64, 1);
+        merger.addSource(a, 0);
+        merger.addSource(b, 0);
+        Recorder recorder = new Recorder();
+
+        publish(a, 10, 1);
+        publish(b, 5, 1);
+        merger.merge(10 * MS, recorder);
+        // b goes silent
+        for (int i = 1; i <= 10; i++) publish(a, 10 + i, 1);
+        assertEquals(0, merger.merge(50 * MS, recorder));
+        // until it is considered stale
+        assertEquals(11, merger.merge(200 * MS, recorder));
+    }
+
+    /**
+     * Simulated sensors at different rates, delivering frames with random latency and in
+     * bursts: the merged timeline is ordered and complete.
+     */
+    @Test
+    public void simulatedFeeds_areMergedInOrder() {
+        int[] rates = new int[]{52, 100, 200, 26, 130};
+        int sources = rates.length;
+        TimelineMerger merger = new TimelineMerger(sources, 2048, 2000 * MS);
+        SampleRingBuffer[] buffers = new SampleRingBuffer[sources];
+        long[] nextSample = new long[sources];
+        long[] pendingUntil = new long[sources];
+        for (int s = 0; s < sources; s++) {
+            buffers[s] = new SampleRingBuffer(4096, 1);
+            merger.addSource(buffers[s], 0);
+            nextSample[s] = s * MS;
+        }
+        Random random = new Random(1);
+        final long[] last = new long[]{Long.MIN_VALUE};
+        final int[] emitted = new int[1];
+        TimelineMerger.Listener checker = (source, timestamp, values, offset, channels) -> {
+            assertTrue(timestamp >= last[0]);
+            assertEquals(source, values[offset]);
+            last[0] = timestamp;
+            emitted[0]++;
+        };
+
+        long published = 0;
+        for (long now = 0; now < 60000 * MS; now += 10 * MS) {
+            for (int s = 0; s < sources; s++) {
+                // a frame of everything sampled up to now, delivered with 5..80 ms latency
+                if (pendingUntil[s] == 0) pendingUntil[s] = now + (5 + random.nextInt(75)) * MS;
+                if (now < pendingUntil[s]) continue;
+                long period = 1000000000L / rates[s];
+                while (nextSample[s] <= now - 5 * MS) {
+                    publish(buffers[s], nextSample[s], s);
+                    nextSample[s] += period;
+                    published++;
+                }
+                pendingUntil[s] = 0;
+            }
+            merger.merge(now, checker);
+        }
+        merger.flush(checker);
+        assertEquals(published, emitted[0]);
+    }
+}
@@ -0,0 +1,239 @@
+package yeetivity.jjve.ble_polar.sim;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import yeetivity.jjve.ble_polar.gatt.ReconnectController;
+import yeetivity.jjve.ble_polar.pmd.PolarPmd;
+import yeetivity.jjve.ble_polar.record.RecordingReader;
+import yeetivity.jjve.ble_polar.record.RecordingWriter;
+import yeetivity.jjve.ble_polar.record.SampleCodec;
+import yeetivity.jjve.ble_polar.scan.DeviceRegistry;
+import yeetivity.jjve.ble_polar.scan.DeviceSnapshot;
+import yeetivity.jjve.ble_polar.scan.ScanConfig;
+import yeetivity.jjve.ble_polar.scan.ScanEngine;
+import yeetivity.jjve.ble_polar.session.SensorSession;
+import yeetivity.jjve.ble_polar.session.SessionLink;
+import yeetivity.jjve.ble_polar.session.SessionManager;
+import yeetivity.jjve.ble_polar.session.TimelineMerger;
+
+import static org.junit.Assert.*;
+
+public class SimulationTest {
+
+    private static final long MS = 1000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    // counts and hashes the merged timeline
+    private static class Collector implements TimelineMerger.Listener {
+        final long[] counts = new long[RecordingWriter.MAX_SOURCES];
+        long total;
+        long hash = 17;
+        long last = Long.MIN_VALUE;
+        boolean ordered = true;
+        int lastZ;
+
+        @Override
+        public void onSample(int source, long timestamp, int[] values, int offset, int channels) {
+            counts[source]++;
+            total++;
+            if (timestamp < last) ordered = false;
+            last = timestamp;
+            hash = 31 * hash + timestamp;
+            for (int c = 0; c < channels; c++) hash = 31 * hash + values[offset + c];
+            lastZ = values[offset + 2];
+        }
+    }
+
+    private static Simulation simulation(long seed) {
+        return new Simulation(new SimScheduler(false), new SessionManager(32, 1024, 2000 * MS), seed);
+    }
+
+    @Test
+    public void stream_setUpAndDelivered() {
+        Simulation sim = simulation(1);
+        Collector collector = new Collector();
+        sim.getSessionManager().setTimelineListener(collector);
+        SimulatedSensor sensor = sim.addSensor("A0:00:00:00:00:01",
+                new SimulationConfig().setHeartRate(60), SyntheticSignal.still(1));
+        SessionLink link = sim.connect(sensor, PolarPmd.accSettings(208));
+        SensorSession session = link.getSession();
+
+        sim.run(10000);
+        sim.flush();
+        assertEquals(SensorSession.State.STREAMING, session.getState());
+        assertEquals(208, sensor.getSampleRate());
+        // 247 byte MTU: 234 bytes of samples
+        assertEquals(39, sensor.getSamplesPerFrame());
+        assertTrue(session.getTimeToFirstSampleNanos() < 1000 * MS);
+        assertEquals(0, sensor.getFramesLost());
+        assertEquals(sensor.getSamplesTaken(), collector.counts[session.getSourceId()]);
+        assertTrue(collector.total > 9 * 208);
+        assertTrue(collector.ordered);
+        assertEquals(1000, collector.lastZ, 10);
+        assertEquals(0, session.getDecodeErrorCount());
+        assertEquals(60, session.getHeartRate());
+    }
+
+    @Test
+    public void run_sameSeedSameRun() {
+        long[] hashes = new long[3];
+        for (int i = 0; i < hashes.length; i++) {
+            Simulation sim = simulation(7);
+            Collector collector = new Collector();
+            sim.getSessionManager().setTimelineListener(collector);
+            SimulationConfig config = new SimulationConfig().setSeed(i < 2 ? 7 : 8)
+                    .setJitter(30).setLossRate(0.05).setDisconnects(3000, 1000);
+            for (int s = 0; s < 3; s++) {
+                sim.connect(sim.addSensor("A0:00:00:00:00:0" + s, config,
+                        SyntheticSignal.walking(s)), PolarPmd.accSettings(52));
+            }
+            sim.run(20000);
+            sim.flush();
+            assertTrue(collector.total > 0);
+            hashes[i] = collector.hash;
+        }
+        assertEquals(hashes[0], hashes[1]);
+        assertNotEquals(hashes[0], hashes[2]);
+    }
+
+    @Test
+    public void lossAndDropout_streamResumes() {
+        Simulation sim = simulation(1);
+        Collector collector = new Collector();
+        sim.getSessionManager().setTimelineListener(collector);
+        SimulatedSensor sensor = sim.addSensor("A0:00:00:00:00:01",
+                new SimulationConfig().setLossRate(0.1).setJitter(20), SyntheticSignal.walking(1));
+        SessionLink link = sim.connect(sensor, PolarPmd.accSettings(104));
+        ReconnectController controller = link.getController();
+
+        sim.run(5000);
+        assertTrue(sensor.isStreaming());
+        sensor.dropLink(2000);
+        assertEquals(ReconnectController.State.WAITING, controller.getState());
+        assertFalse(sensor.isStreaming());
+        // out of range: the retry stays pending until the sensor is back
+        sim.run(1900);
+        assertEquals(ReconnectController.State.CONNECTING, controller.getState());
+
+        sim.run(5000);
+        sim.flush();
+        assertEquals(ReconnectController.State.CONNECTED, controller.getState());
+        assertEquals(1, controller.getReconnectCount());
+        assertEquals(2, sensor.getConnectionCount());
+        assertTrue(controller.getLastReconnectLatencyMillis() >= 2000);
+        assertTrue(controller.getLastDataGapMillis() >= 2000);
+        // resumed with the settings of the first connection
+        assertEquals(SensorSession.State.STREAMING, link.getSession().getState());
+        assertEquals(104, sensor.getSampleRate());
+        // what was not lost on the link is merged
+        assertTrue(sensor.getFramesLost() > 0);
+        assertEquals(sensor.getFramesSent() * sensor.getSamplesPerFrame(),
+                collector.counts[link.getSession().getSourceId()]);
+        assertTrue(collector.ordered);
+    }
+
+    @Test
+    public void scan_findsAdvertisingSensors() {
+        Simulation sim = simulation(1);
+        SimulationConfig config = new SimulationConfig();
+        for (int s = 0; s < 3; s++) sim.addSensor("A0:00:00:00:00:0" + s, config, SyntheticSignal.still(s));
+        sim.connect(sim.getSensors().get(0), PolarPmd.accSettings(52));
+        sim.run(1000);
+
+        ScanEngine<SimulatedSensor> engine = new ScanEngine<>(sim.getScanner(), sim.getScheduler(),
+                new DeviceRegistry<>());
+        final List<List<DeviceSnapshot<SimulatedSensor>>> changes = new ArrayList<>();
+        final boolean[] stopped = new boolean[1];
+        engine.setListener(new ScanEngine.Listener<SimulatedSensor>() {
+            @Override
+            public void onDevicesChanged(List<DeviceSnapshot<SimulatedSensor>> devices) {
+                changes.add(devices);
+            }
+
+            @Override
+            public void onScanStopped() {
+                stopped[0] = true;
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                fail();
+            }
+        });
+        assertTrue(engine.start(ScanConfig.polar().setScanPeriod(2000)));
+        sim.run(2000);
+        assertTrue(stopped[0]);
+        assertFalse(engine.isScanning());
+        // the connected sensor does not advertise
+        List<DeviceSnapshot<SimulatedSensor>> devices = changes.get(changes.size() - 1);
+        assertEquals(2, devices.size());
+        for (DeviceSnapshot<SimulatedSensor> device : devices) {
+            assertTrue(device.getDevice().isAdvertising());
+            assertTrue(device.getName().startsWith(ScanConfig.POLAR_NAME_PREFIX));
+        }
+        // batched: no more than one update per interval
+        assertTrue(changes.size() <= 2000 / ScanEngine.UPDATE_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void realTime_pacedByWallClock() {
+        Simulation sim = new Simulation(new SimScheduler(true), new SessionManager(), 1);
+        sim.connect(sim.addSensor("A0:00:00:00:00:01", new SimulationConfig(),
+                SyntheticSignal.still(1)), PolarPmd.accSettings(52));
+        long start = System.nanoTime();
+        assertTrue(sim.run(300));
+        assertTrue(System.nanoTime() - start >= 300 * MS);
+        assertEquals(300 * MS, sim.getScheduler().nanos());
+    }
+
+    @Test
+    public void load_twentySensorsAt200HzRecorded() throws IOException {
+        Simulation sim = simulation(3);
+        File file = new File(mFolder.getRoot(), "load.plrc");
+        RecordingWriter recorder = new RecordingWriter(file, RecordingWriter.DEFAULT_CHUNK_SAMPLES,
+                new SampleCodec(SampleCodec.FLAG_BIT_PACKED));
+        Collector collector = new Collector();
+        sim.getSessionManager().setTimelineListener((source, timestamp, values, offset, channels) -> {
+            collector.onSample(source, timestamp, values, offset, channels);
+            recorder.onSample(source, timestamp, values, offset, channels);
+        });
+        SimulationConfig config = new SimulationConfig().setSeed(3).setSampleRates(50, 100, 200)
+                .setJitter(10).setLossRate(0.01);
+        for (int s = 0; s < 20; s++) {
+            SimulatedSensor sensor = sim.addSensor(String.format("A0:00:00:00:00:%02d", s), config,
+                    SyntheticSignal.walking(s));
+            sim.connect(sensor, PolarPmd.accSettings(200));
+        }
+
+        sim.run(60000);
+        sim.flush();
+        recorder.close();
+
+        long delivered = 0;
+        for (SimulatedSensor sensor : sim.getSensors()) {
+            assertEquals(200, sensor.getSampleRate());
+            delivered += sensor.getFramesSent() * sensor.getSamplesPerFrame();
+        }
+        assertTrue(delivered > 20 * 200 * 59 * 0.98);
+        assertEquals(delivered, collector.total);
+        assertTrue(collector.ordered);
+        // the writer may fall behind a simulation this fast, but drops are counted
+        assertEquals(collector.total, recorder.getWrittenCount() + recorder.getDroppedCount());
+
+        final long[] read = new long[1];
+        try (RecordingReader reader = new RecordingReader(file)) {
+            reader.read(Long.MIN_VALUE, Long.MAX_VALUE,
+                    (source, timestamp, values, offset, channels) -> read[0]++);
+        }
+        assertEquals(recorder.getWrittenCount(), read[0]);
+    }
+}
@@ -0,0 +1,215 @@
+package yeetivity.jjve.ble_polar.sink;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import yeetivity.jjve.ble_polar.metrics.MetricsRegistry;
+
+import static org.junit.Assert.*;
+
+public class SampleSinkTest {
+
+    private final MetricsRegistry mRegistry = new MetricsRegistry();
+    private final SampleSink mSink = new SampleSink(mRegistry, 4);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    // collects the timestamps, checking the values
+    private static class Collector implements SampleConsumer {
+        final List<Long> timestamps = Collections.synchronizedList(new ArrayList<Long>());
+        volatile int[] buffer;
+        volatile boolean sameBuffer = true;
+
+        @Override
+        public void onSamples(SampleBatch batch) {
+            if (buffer == null) buffer = batch.getValues();
+            if (buffer != batch.getValues()) sameBuffer = false;
+            for (int i = 0; i < batch.getCount(); i++) {
+                long t = batch.getTimestamp(i);
+                assertEquals((int) t, batch.getValue(i, 0));
+                assertEquals(-(int) t, batch.getValues()[batch.getValueOffset(i) + 2]);
+                assertEquals((int) t % 2, batch.getSource(i));
+                assertEquals(3, batch.getChannels(i));
+                timestamps.add(t);
+            }
+        }
+    }
+
+    // waits for mRelease in its first batch
+    private final SampleConsumer mStuck = batch -> {
+        try {
+            mRelease.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mSink.close();
+    }
+
+    private void publish(int from, int to, int flushEvery) {
+        int[] values = new int[3];
+        for (int i = from; i < to; i++) {
+            values[0] = i;
+            values[1] = 2 * i;
+            values[2] = -i;
+            mSink.onSample(i % 2, i, values, 0, 3);
+            if ((i + 1) % flushEvery == 0) mSink.flush();
+        }
+        mSink.flush();
+    }
+
+    private static void assertRange(List<Long> timestamps, long from, long to) {
+        assertEquals(to - from, timestamps.size());
+        for (int i = 0; i < timestamps.size(); i++) {
+            assertEquals(from + i, (long) timestamps.get(i));
+        }
+    }
+
+    @Test
+    public void deliversEverySampleInOrder_fromItsOwnBuffer() {
+        Collector collector = new Collector();
+        Subscription subscription = mSink.subscribe("ui", SampleSink.Policy.BLOCK, 64,
+                TimeUnit.SECONDS.toNanos(5), collector);
+        publish(0, 5000, 10);
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+
+        assertRange(collector.timestamps, 0, 5000);
+        assertTrue(collector.sameBuffer);
+        assertEquals(5000, subscription.getDeliveredCount());
+        assertEquals(0, subscription.getDroppedCount());
+        assertEquals(0, subscription.getBacklog());
+        assertTrue(mRegistry.histogram("sink.ui.lag").getCount() > 0);
+        assertTrue(mSink.getSubscriptions().isEmpty());
+    }
+
+    @Test
+    public void stuckConsumer_stallsNeitherThePublisherNorTheOthers() {
+        Collector fast = new Collector();
+        Subscription stuck = mSink.subscribe("upload", SampleSink.Policy.DROP_NEWEST, 64, 0,
+                mStuck);
+        Subscription subscription = mSink.subscribe("dsp", SampleSink.Policy.BLOCK, 256,
+                TimeUnit.SECONDS.toNanos(5), fast);
+        long start = System.nanoTime();
+        publish(0, 20000, 20);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertRange(fast.timestamps, 0, 20000);
+
+        assertTrue(stuck.getDroppedCount() > 19000);
+        assertEquals(stuck.getDroppedCount(), mRegistry.counter("sink.upload.dropped").get());
+        assertTrue(mRegistry.gauge("sink.upload.backlog").getMax() >= 64 - 16);
+        mRelease.countDown();
+        assertTrue(mSink.unsubscribe(stuck, 5000));
+        assertEquals(20000, stuck.getDeliveredCount() + stuck.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest_keepsTheNewestSamples() {
+        Collector collector = new Collector();
+        Subscription subscription = mSink.subscribe("a", SampleSink.Policy.DROP_OLDEST, 16, 0,
+                collector);
+        // nothing is handed over before the flush, so the ring overflows
+        publish(0, 100, Integer.MAX_VALUE);
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertRange(collector.timestamps, 84, 100);
+        assertEquals(84, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewest_keepsTheOldestSamples() {
+        Collector collector = new Collector();
+        Subscription subscription = mSink.subscribe("a", SampleSink.Policy.DROP_NEWEST, 16, 0,
+                collector);
+        publish(0, 100, Integer.MAX_VALUE);
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertRange(collector.timestamps, 0, 16);
+        assertEquals(84, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void block_waitsForASlowConsumer() {
+        final Collector collector = new Collector();
+        Subscription subscription = mSink.subscribe("recorder", SampleSink.Policy.BLOCK, 16,
+                TimeUnit.SECONDS.toNanos(5), batch -> {
+                    collector.onSamples(batch);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        publish(0, 500, 100);
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertRange(collector.timestamps, 0, 500);
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void block_givesUpAfterTheTimeout() {
+        Subscription subscription = mSink.subscribe("recorder", SampleSink.Policy.BLOCK, 16,
+                TimeUnit.MILLISECONDS.toNanos(20), mStuck);
+        long start = System.nanoTime();
+        publish(0, 100, 50);
+        long elapsed = System.nanoTime() - start;
+        // at most the timeout per flush, three flushes
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(100 - 16, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void decimate_thinsOutWhileBehind() {
+        Subscription subscription = mSink.subscribe("chart", SampleSink.Policy.DECIMATE, 64, 0,
+                mStuck);
+        publish(0, 2000, 10);
+        assertTrue(subscription.getDecimation() > 1);
+        assertTrue(subscription.getDecimatedCount() > 0);
+        assertEquals(subscription.getDecimatedCount(),
+                mRegistry.counter("sink.chart.decimated").get());
+
+        mRelease.countDown();
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertEquals(2000, subscription.getDeliveredCount() + subscription.getDroppedCount()
+                + subscription.getDecimatedCount());
+    }
+
+    @Test
+    public void decimate_passesEverySampleWhenKeepingUp() {
+        Collector collector = new Collector();
+        Subscription subscription = mSink.subscribe("chart", SampleSink.Policy.DECIMATE, 4096, 0,
+                collector);
+        publish(0, 1000, 10);
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertRange(collector.timestamps, 0, 1000);
+        assertEquals(1, subscription.getDecimation());
+    }
+
+    @Test
+    public void failingConsumer_isCountedAndKeepsReceiving() {
+        final Collector collector = new Collector();
+        Subscription subscription = mSink.subscribe("a", SampleSink.Policy.BLOCK, 64,
+                TimeUnit.SECONDS.toNanos(5), batch -> {
+                    collector.onSamples(batch);
+                    throw new IllegalStateException();
+                });
+        publish(0, 100, 10);
+        assertTrue(mSink.unsubscribe(subscription, 5000));
+        assertRange(collector.timestamps, 0, 100);
+        assertTrue(mRegistry.counter("sink.a.errors").get() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sameName_isRejected() {
+        mSink.subscribe("a", SampleSink.Policy.DROP_NEWEST, new Collector());
+        mSink.subscribe("a", SampleSink.Policy.DROP_OLDEST, new Collector());
+    }
+}
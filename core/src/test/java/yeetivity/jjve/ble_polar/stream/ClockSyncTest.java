@@ -0,0 +1,124 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+
+    private static final long MS = 1000000L;
+    private static final long SECOND = 1000 * MS;
+    private static final long PERIOD = SECOND / 52;
+    private static final int FRAME = 8;
+    private static final long MIN_LATENCY = 8 * MS;
+
+    /**
+     * A sensor sampling at 52 Hz on a clock running drift ppm fast, sending frames of FRAME
+     * samples with MIN_LATENCY plus exponentially distributed jitter.
+     */
+    private static class Sensor {
+        final Random random = new Random(3);
+        final double drift;
+        final long clockStart;
+        long sample;
+
+        Sensor(double driftPpm, long clockStart) {
+            drift = driftPpm / 1e6;
+            this.clockStart = clockStart;
+        }
+
+        // local time of a sample
+        long local(long sample) {
+            return 10 * SECOND + sample * PERIOD;
+        }
+
+        long sensorTime(long sample) {
+            return clockStart + Math.round(local(sample) * (1 + drift));
+        }
+
+        long arrival(long last) {
+            return local(last) + MIN_LATENCY + (long) (-Math.log(1 - random.nextDouble()) * 5 * MS);
+        }
+    }
+
+    @Test
+    public void driftingClock_isTracked() {
+        // the naive smallest offset would be 6 ms off after 2 minutes
+        Sensor sensor = new Sensor(50, 123456789L * SECOND);
+        ClockSync sync = new ClockSync(PERIOD);
+        long[] timestamps = new long[FRAME];
+        long previous = Long.MIN_VALUE;
+        double maxError = 0;
+        for (long first = 0; first < 120 * 52; first += FRAME) {
+            long last = first + FRAME - 1;
+            sync.onFrame(sensor.sensorTime(last), FRAME, sensor.arrival(last), timestamps);
+            for (int i = 0; i < FRAME; i++) {
+                assertTrue(timestamps[i] > previous);
+                previous = timestamps[i];
+                if (first > 20 * 52) {
+                    // on the local clock, up to the least latency
+                    double error = timestamps[i] - sensor.local(first + i) - MIN_LATENCY;
+                    maxError = Math.max(maxError, Math.abs(error));
+                }
+            }
+        }
+        assertTrue(sync.isFitted());
+        assertEquals(-50, sync.getDriftPpm(), 5);
+        assertEquals(PERIOD, sync.getSamplePeriodNanos(), PERIOD * 10e-6);
+        assertTrue("error " + maxError, maxError < MS);
+        assertEquals(0, sync.getGapCount());
+    }
+
+    @Test
+    public void samples_areSpreadBackFromFrameTime() {
+        ClockSync sync = new ClockSync(PERIOD);
+        long[] timestamps = new long[4];
+        sync.onFrame(1000 * SECOND, 4, 5 * SECOND, timestamps);
+        assertEquals(5 * SECOND - 3 * PERIOD, timestamps[0]);
+        assertEquals(5 * SECOND, timestamps[3]);
+        assertEquals(1000 * SECOND - 5 * SECOND, -sync.getOffsetNanos());
+
+        // less latency: the offset moves, the samples stay in order
+        sync.onFrame(1000 * SECOND + 4 * PERIOD, 4, 5 * SECOND + 4 * PERIOD - MS, timestamps);
+        assertEquals(5 * SECOND - MS + 4 * PERIOD, timestamps[3]);
+        assertTrue(timestamps[0] > 5 * SECOND);
+        assertFalse(sync.isFitted());
+    }
+
+    @Test
+    public void gaps_areDetected() {
+        ClockSync sync = new ClockSync(PERIOD);
+        long[] timestamps = new long[FRAME];
+        long sensor = 0;
+        for (int f = 0; f < 20; f++) {
+            // frames 5 - 7 are lost
+            if (f < 5 || f > 7) {
+                sync.onFrame(sensor, FRAME, sensor + 3 * SECOND, timestamps);
+                assertEquals(f == 8, sync.hadGap());
+                assertEquals(sensor + 3 * SECOND - (FRAME - 1) * PERIOD, timestamps[0], 10);
+            }
+            sensor += FRAME * PERIOD;
+        }
+        assertEquals(1, sync.getGapCount());
+        assertEquals(3 * FRAME, sync.getDroppedSampleCount());
+        assertEquals(3, sync.getDroppedFrameCount());
+        assertEquals(17, sync.getFrameCount());
+    }
+
+    @Test
+    public void sensorClockReset_startsOver() {
+        ClockSync sync = new ClockSync(PERIOD);
+        long[] timestamps = new long[FRAME];
+        for (int f = 0; f < 100; f++) {
+            sync.onFrame(f * FRAME * PERIOD, FRAME, SECOND + f * FRAME * PERIOD, timestamps);
+        }
+        assertTrue(sync.isFitted());
+        sync.onFrame(0, FRAME, 100 * SECOND, timestamps);
+        assertEquals(1, sync.getResetCount());
+        assertFalse(sync.isFitted());
+        assertEquals(100 * SECOND, timestamps[FRAME - 1]);
+        assertEquals(0, sync.getGapCount());
+    }
+}
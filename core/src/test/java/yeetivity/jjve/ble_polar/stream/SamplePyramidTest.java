@@ -0,0 +1,130 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SamplePyramidTest {
+
+    private static final long MS = 1000000L;
+    private static final long SECOND = 1000 * MS;
+
+    // 10 ms buckets, 3 levels of factor 4, 100 buckets: 1 s, 4 s and 16 s of history
+    private static SamplePyramid small() {
+        return new SamplePyramid(2, 10 * MS, 3, 4, 100);
+    }
+
+    @Test
+    public void query_matchesTheSamplesOfEachColumn() {
+        SamplePyramid pyramid = small();
+        Random random = new Random(1);
+        int count = 3000;
+        long[] timestamps = new long[count];
+        int[] values = new int[2 * count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = i * 5 * MS;
+            values[2 * i] = random.nextInt(2000) - 1000;
+            values[2 * i + 1] = i;
+            pyramid.accept(timestamps[i], values, 2 * i);
+        }
+        assertEquals(count, pyramid.getSampleCount());
+        assertEquals((count - 1) * 5 * MS, pyramid.getNewestTimestamp());
+
+        // the last 4 s at 100 columns of 40 ms read level 1, 4 buckets per column
+        int pixels = 100;
+        long to = 15 * SECOND;
+        long from = to - 4 * SECOND;
+        int[] min = new int[pixels];
+        int[] max = new int[pixels];
+        float[] mean = new float[pixels];
+        assertEquals(1, pyramid.query(0, from, to, pixels, min, max, mean));
+        for (int p = 0; p < pixels; p++) {
+            long start = from + p * 40 * MS;
+            int expectedMin = Integer.MAX_VALUE;
+            int expectedMax = Integer.MIN_VALUE;
+            long sum = 0;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (timestamps[i] < start || timestamps[i] >= start + 40 * MS) continue;
+                expectedMin = Math.min(expectedMin, values[2 * i]);
+                expectedMax = Math.max(expectedMax, values[2 * i]);
+                sum += values[2 * i];
+                n++;
+            }
+            assertEquals(8, n);
+            assertEquals(expectedMin, min[p]);
+            assertEquals(expectedMax, max[p]);
+            assertEquals((double) sum / n, mean[p], 0.01);
+        }
+    }
+
+    @Test
+    public void query_takesACoarserLevelForOlderTime() {
+        SamplePyramid pyramid = small();
+        int[] value = new int[2];
+        for (int i = 0; i < 2000; i++) {
+            value[1] = i;
+            pyramid.accept(i * 5 * MS, value, 0);
+        }
+        int[] min = new int[10];
+        int[] max = new int[10];
+        float[] mean = new float[10];
+        // 10 ms columns over the last second read level 0
+        assertEquals(0, pyramid.query(1, 9 * SECOND, 9 * SECOND + 100 * MS, 10, min, max, mean));
+        assertEquals(1800, min[0]);
+        assertEquals(1801, max[0]);
+        // level 0 holds only the last second, level 1 the last 4 s
+        assertEquals(1, pyramid.query(1, 7 * SECOND, 7 * SECOND + 100 * MS, 10, min, max, mean));
+        assertEquals(1400, min[0]);
+        assertEquals(1407, max[0]);
+        // columns narrower than the buckets repeat them
+        assertEquals(max[0], max[1]);
+        assertEquals(1, pyramid.query(1, 8 * SECOND, 9 * SECOND, 10, min, max, mean));
+        assertEquals(2, pyramid.query(1, 5 * SECOND, 6 * SECOND, 10, min, max, mean));
+        // older than any level
+        assertEquals(2, pyramid.query(1, -16 * SECOND, -15 * SECOND, 10, min, max, mean));
+        assertTrue(min[0] > max[0]);
+    }
+
+    @Test
+    public void gap_leavesEmptyColumns() {
+        SamplePyramid pyramid = small();
+        int[] value = {7, 0};
+        for (int i = 0; i < 128; i++) {
+            // a sample every 10 ms, none from 320 to 640 ms
+            if (i >= 32 && i < 64) continue;
+            pyramid.accept(i * 10 * MS, value, 0);
+        }
+        int[] min = new int[8];
+        int[] max = new int[8];
+        float[] mean = new float[8];
+        assertEquals(2, pyramid.query(0, 0, 1280 * MS, 8, min, max, mean));
+        for (int p = 0; p < 8; p++) {
+            boolean empty = p == 2 || p == 3;
+            assertEquals(empty, min[p] > max[p]);
+            assertEquals(empty, Float.isNaN(mean[p]));
+            if (!empty) assertEquals(7f, mean[p], 0);
+        }
+    }
+
+    @Test
+    public void lateSample_isLeftOutOfTheLevelsItIsTooOldFor() {
+        SamplePyramid pyramid = small();
+        int[] value = {1, 1};
+        pyramid.accept(3 * SECOND, value, 0);
+        pyramid.accept(SECOND, value, 0);
+        assertEquals(1, pyramid.getLateCount());
+        assertEquals(3 * SECOND, pyramid.getNewestTimestamp());
+
+        pyramid.clear();
+        assertEquals(0, pyramid.getSampleCount());
+        assertEquals(-1, pyramid.query(0, 0, SECOND, 1, new int[1], new int[1], new float[1]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallBuffers_areRejected() {
+        small().query(0, 0, SECOND, 10, new int[10], new int[10], new float[5]);
+    }
+}
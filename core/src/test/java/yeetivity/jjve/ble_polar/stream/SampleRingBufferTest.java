@@ -0,0 +1,117 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SampleRingBufferTest {
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(1, new SampleRingBuffer(1, 3).getCapacity());
+        assertEquals(64, new SampleRingBuffer(64, 3).getCapacity());
+        assertEquals(128, new SampleRingBuffer(65, 3).getCapacity());
+    }
+
+    @Test
+    public void publishAndDrain_wrapAround() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4, 2);
+        long[] ts = new long[4];
+        int[] values = new int[8];
+
+        for (int round = 0; round < 10; round++) {
+            assertEquals(3, buffer.publish(new long[]{round, round + 1, round + 2},
+                    new int[]{1, -1, 2, -2, 3, -3}, 3));
+            assertEquals(3, buffer.size());
+            assertEquals(3, buffer.drain(ts, values, 4));
+            assertEquals(round + 2, ts[2]);
+            assertEquals(3, values[4]);
+            assertEquals(-3, values[5]);
+            assertTrue(buffer.isEmpty());
+        }
+        assertEquals(30, buffer.getDrainedCount());
+        assertEquals(0, buffer.getOverrunCount());
+    }
+
+    @Test
+    public void full_countsOverruns() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4, 1);
+        long[] ts = new long[]{1, 2, 3};
+        int[] values = new int[]{10, 20, 30};
+
+        assertEquals(3, buffer.publish(ts, values, 3));
+        assertEquals(1, buffer.publish(ts, values, 3));
+        assertEquals(2, buffer.getOverrunCount());
+
+        // the oldest samples are kept
+        long[] outTs = new long[8];
+        int[] out = new int[8];
+        assertEquals(2, buffer.drain(outTs, out, 2));
+        assertArrayEquals(new int[]{10, 20}, new int[]{out[0], out[1]});
+        assertEquals(2, buffer.drain(outTs, out, 8));
+        assertArrayEquals(new int[]{30, 10}, new int[]{out[0], out[1]});
+    }
+
+    /**
+     * One producer publishing frames as the GATT thread would, one consumer draining in
+     * batches. Every sample must arrive in order, or be accounted for as an overrun.
+     */
+    @Test(timeout = 30000)
+    public void concurrentProducerAndConsumer_keepOrder() throws InterruptedException {
+        final int channels = 3;
+        final int frames = 200000;
+        final int samplesPerFrame = 9;
+        final SampleRingBuffer buffer = new SampleRingBuffer(256, channels);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            long[] ts = new long[samplesPerFrame];
+            int[] values = new int[samplesPerFrame * channels];
+            long seq = 0;
+            for (int f = 0; f < frames; f++) {
+                for (int i = 0; i < samplesPerFrame; i++, seq++) {
+                    ts[i] = seq;
+                    values[i * channels] = (int) seq;
+                    values[i * channels + 1] = (int) -seq;
+                    values[i * channels + 2] = (int) (seq * 3);
+                }
+                buffer.publish(ts, values, samplesPerFrame);
+                if ((f & 0xFF) == 0) Thread.yield();
+            }
+        });
+
+        final long total = (long) frames * samplesPerFrame;
+        Thread consumer = new Thread(() -> {
+            long[] ts = new long[64];
+            int[] values = new int[64 * channels];
+            long last = -1;
+            try {
+                while (buffer.getDrainedCount() + buffer.getOverrunCount() < total
+                        || !buffer.isEmpty()) {
+                    int n = buffer.drain(ts, values, 64);
+                    for (int i = 0; i < n; i++) {
+                        long seq = ts[i];
+                        assertTrue("out of order " + seq + " after " + last, seq > last);
+                        assertEquals((int) seq, values[i * channels]);
+                        assertEquals((int) -seq, values[i * channels + 1]);
+                        assertEquals((int) (seq * 3), values[i * channels + 2]);
+                        last = seq;
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertEquals(total, buffer.getPublishedCount() + buffer.getOverrunCount());
+        assertEquals(buffer.getPublishedCount(), buffer.getDrainedCount());
+    }
+}
@@ -0,0 +1,52 @@
+package yeetivity.jjve.ble_polar.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleWindowStatsTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void latestAndRunningMinMax() {
+        SampleWindowStats stats = new SampleWindowStats(2, SECOND);
+        assertFalse(stats.hasSamples());
+
+        stats.accept(new long[]{10, 20}, new int[]{5, -5, 7, -9}, 2);
+        stats.accept(new long[]{30}, new int[]{-1, 3}, 1);
+
+        assertEquals(3, stats.getSampleCount());
+        assertEquals(30, stats.getLatestTimestamp());
+        assertEquals(-1, stats.getLatest(0));
+        assertEquals(3, stats.getLatest(1));
+        assertEquals(-1, stats.getMin(0));
+        assertEquals(7, stats.getMax(0));
+        assertEquals(-9, stats.getMin(1));
+        assertEquals(3, stats.getMax(1));
+    }
+
+    @Test
+    public void roll_keepsCompletedWindowAndRate() {
+        SampleWindowStats stats = new SampleWindowStats(1, SECOND);
+        long[] ts = new long[52];
+        int[] values = new int[52];
+        for (int i = 0; i < 52; i++) values[i] = i;
+
+        assertFalse(stats.roll(0));
+        stats.accept(ts, values, 52);
+        assertFalse(stats.roll(SECOND / 2));
+        assertTrue(stats.roll(SECOND));
+        assertEquals(52f, stats.getRate(), 0.01f);
+        assertEquals(0, stats.getMin(0));
+        assertEquals(51, stats.getMax(0));
+
+        // the next window narrows the range, shown once it completes
+        stats.accept(ts, new int[]{10, 20}, 2);
+        assertEquals(51, stats.getMax(0));
+        assertTrue(stats.roll(3 * SECOND));
+        assertEquals(1f, stats.getRate(), 0.01f);
+        assertEquals(10, stats.getMin(0));
+        assertEquals(20, stats.getMax(0));
+    }
+}
@@ -0,0 +1,75 @@
+package yeetivity.jjve.ble_polar.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ByteReaderTest {
+
+    private static final byte[] BYTES = new byte[]{
+            (byte) 0xE8, (byte) 0xFF, 0x03, (byte) 0x80, 0x7F,
+            0x00, 0x12, (byte) 0xC4, 0x44, (byte) 0xF1};
+    // 0x80FFE8, little endian
+    private static final byte[] NEGATIVE_INT24 = new byte[]{(byte) 0xE8, (byte) 0xFF, (byte) 0x80};
+
+    @Test
+    public void staticReads_matchByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset + 8 <= BYTES.length; offset++) {
+            assertEquals(buffer.getShort(offset), ByteReader.readInt16(BYTES, offset));
+            assertEquals(buffer.getShort(offset) & 0xFFFF, ByteReader.readUint16(BYTES, offset));
+            assertEquals(buffer.getInt(offset), ByteReader.readInt32(BYTES, offset));
+            assertEquals(buffer.getInt(offset) & 0xFFFFFFFFL, ByteReader.readUint32(BYTES, offset));
+            assertEquals(buffer.getLong(offset), ByteReader.readInt64(BYTES, offset));
+            assertEquals(buffer.getInt(offset), TypeConverter.fourBytesToInt(BYTES, offset));
+            assertEquals(buffer.getFloat(offset), TypeConverter.fourBytesToFloat(BYTES, offset),
+                    0f);
+        }
+    }
+
+    @Test
+    public void int24_isSignExtended() {
+        assertEquals(0x80FFE8 - 0x1000000, ByteReader.readInt24(NEGATIVE_INT24, 0));
+        assertEquals(0x80FFE8, ByteReader.readUint24(NEGATIVE_INT24, 0));
+        assertEquals(0x7F8003, ByteReader.readInt24(BYTES, 2));
+    }
+
+    @Test
+    public void bitFields_areReadLsbFirst() {
+        // 3 bit fields 3, -4, -1 packed as E3 01
+        byte[] bytes = new byte[]{(byte) 0xE3, 0x01};
+        assertEquals(3, ByteReader.readSignedBits(bytes, 0, 3));
+        assertEquals(-4, ByteReader.readSignedBits(bytes, 3, 3));
+        assertEquals(4, ByteReader.readBits(bytes, 3, 3));
+        assertEquals(-1, ByteReader.readSignedBits(bytes, 6, 3));
+        assertEquals(0x1E3, ByteReader.readBits(bytes, 0, 9));
+        assertEquals(0, ByteReader.readBits(bytes, 5, 0));
+        assertEquals(0xF144C412, ByteReader.readBits(BYTES, 48, 32));
+    }
+
+    @Test
+    public void cursor_walksFrame() {
+        ByteReader reader = new ByteReader(BYTES);
+        assertEquals(-24, reader.readInt16());
+        assertEquals(0x03, reader.readUint8());
+        assertEquals(0, reader.readBits(4));
+        assertEquals(4, reader.position());
+        assertEquals(-8, reader.readSignedBits(4));
+        assertEquals(0x7F, reader.readInt8());
+        reader.skip(1);
+        assertEquals(0xF144C412L, reader.readUint32());
+        assertFalse(reader.hasRemaining());
+
+        reader.reset(BYTES, 4, 6);
+        assertEquals(0x007F, reader.readInt16());
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readPastLimit_throws() {
+        new ByteReader().reset(BYTES, 8, 10).readInt32();
+    }
+}